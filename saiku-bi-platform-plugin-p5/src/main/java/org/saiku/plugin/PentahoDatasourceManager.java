@@ -26,6 +26,7 @@ import org.saiku.datasources.connection.RepositoryFile;
 import org.saiku.datasources.datasource.SaikuDatasource;
 import org.saiku.repository.AclEntry;
 import org.saiku.repository.IRepositoryObject;
+import org.saiku.repository.RepositoryListing;
 import org.saiku.service.datasource.IDatasourceManager;
 import org.saiku.service.importer.JujuSource;
 import org.saiku.service.user.UserService;
@@ -472,6 +473,11 @@ public class PentahoDatasourceManager implements IDatasourceManager {
         return null;
     }
 
+    public RepositoryListing getChildren(List<String> type, String username, List<String> roles, String path, int depth,
+                                         String cursor, int limit) {
+        return null;
+    }
+
     public String getInternalFileData(String file) {
         IUserContentAccess access = contentAccessFactory.getUserContentAccess(null);
 
@@ -8,6 +8,7 @@ import org.saiku.datasources.datasource.SaikuDatasource;
 import org.saiku.plugin.util.ResourceManager;
 import org.saiku.repository.AclEntry;
 import org.saiku.repository.IRepositoryObject;
+import org.saiku.repository.RepositoryListing;
 import org.saiku.service.datasource.IDatasourceManager;
 import org.saiku.service.importer.JujuSource;
 import org.saiku.service.user.UserService;
@@ -232,6 +233,11 @@ public class PentahoRepositoryResource implements IDatasourceManager {
     return null;
   }
 
+  public RepositoryListing getChildren(List<String> type, String username, List<String> roles, String path, int depth,
+                                       String cursor, int limit) {
+    return null;
+  }
+
 
   public void createUser(String user) {
 
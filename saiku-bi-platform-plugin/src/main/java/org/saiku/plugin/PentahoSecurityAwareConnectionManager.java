@@ -80,6 +80,7 @@ public class PentahoSecurityAwareConnectionManager extends AbstractConnectionMan
 
 	@Override
 	public void destroy() {
+		closePools();
 		if (connections != null && !connections.isEmpty()) {
 			for (ISaikuConnection con : connections.values()) {
 				try {
@@ -159,6 +160,11 @@ public class PentahoSecurityAwareConnectionManager extends AbstractConnectionMan
 		return null;
 	}
 
+	@Override
+	protected ISaikuConnection preparePooledConnection(ISaikuConnection con, SaikuDatasource datasource) throws Exception {
+		return applySecurity(con, datasource);
+	}
+
 	private ISaikuConnection applySecurity(ISaikuConnection con, SaikuDatasource datasource) throws Exception {
 		if (con == null) {
 			throw new IllegalArgumentException("Cannot apply Security to NULL connection object");
@@ -0,0 +1,45 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the JMH command line, writing the results as JSON unless another result format is given.
+ *
+ * <p>The jar is built with <code>mvn -Pbenchmarks package</code> in <code>saiku-core</code>, the module is not part
+ * of the default build. <code>java -jar target/benchmarks.jar</code> leaves the results in
+ * <code>jmh-result.json</code>, which can be kept per build to track regressions. <code>-rff</code> names another
+ * file, <code>-rf</code> picks another format.</p>
+ */
+public final class BenchmarkMain {
+
+  private BenchmarkMain() {
+  }
+
+  public static void main( String[] args ) throws Exception {
+    final List<String> arguments = new ArrayList<>( Arrays.asList( args ) );
+    if ( !arguments.contains( "-rf" ) ) {
+      arguments.add( 0, "-rf" );
+      arguments.add( 1, "json" );
+    }
+    Main.main( arguments.toArray( new String[ arguments.size() ] ) );
+  }
+}
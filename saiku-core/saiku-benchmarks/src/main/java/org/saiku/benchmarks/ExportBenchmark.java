@@ -0,0 +1,104 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.olap4j.CellSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.query2.ThinHierarchy;
+import org.saiku.olap.util.OlapResultSetUtil;
+import org.saiku.olap.util.formatter.CellSetFormatterFactory;
+import org.saiku.service.util.export.CsvExporter;
+import org.saiku.service.util.export.excel.ExcelBuilderOptions;
+import org.saiku.service.util.export.excel.ExcelWorksheetBuilder;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the CSV and Excel exports of a synthetic cell set.
+ *
+ * <p><code>excel</code> builds the whole workbook in memory, <code>excelStreaming</code> writes it through a window of
+ * rows like <code>saiku.web.export.excel.streaming</code> does. Both start from the formatted table, the CSV export
+ * formats the cell set itself, e.g. <code>java -jar target/benchmarks.jar ExportBenchmark</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExportBenchmark {
+
+  @Param({ "1000", "20000" })
+  public int cells;
+
+  @Param({ "10" })
+  public int columns;
+
+  @Param({ "flattened", "hierarchical" })
+  public String formatter;
+
+  private CellSet cellSet;
+
+  private CellDataSet table;
+
+  private CellSetFormatterFactory formatterFactory;
+
+  @Setup
+  public void setup() {
+    final int rows = Math.max( 1, cells / columns );
+    formatterFactory = new CellSetFormatterFactory();
+    cellSet = SyntheticCellSet.create( rows, columns, 2, 0.1, 0 );
+    table = OlapResultSetUtil.cellSet2Matrix( cellSet, formatterFactory.forName( formatter ) );
+  }
+
+  @Benchmark
+  public byte[] csv() {
+    return CsvExporter.exportCsv( cellSet, ",", "\"", formatterFactory.forName( formatter ) );
+  }
+
+  @Benchmark
+  public byte[] excel() {
+    return new ExcelWorksheetBuilder( table, Collections.<ThinHierarchy>emptyList(), options( false ) ).build();
+  }
+
+  @Benchmark
+  public long excelStreaming() {
+    final CountingOutputStream output = new CountingOutputStream( NullOutputStream.NULL_OUTPUT_STREAM );
+    new ExcelWorksheetBuilder( table, Collections.<ThinHierarchy>emptyList(), options( true ) ).build( output );
+    return output.getByteCount();
+  }
+
+  private ExcelBuilderOptions options( boolean streaming ) {
+    final ExcelBuilderOptions options = new ExcelBuilderOptions();
+    options.repeatValues = "flattened".equals( formatter );
+    options.streaming = streaming;
+    return options;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.impl.Olap4jUtil;
+import org.olap4j.metadata.Property;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.Matrix;
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.olap.util.formatter.CellFormattingContext;
+import org.saiku.olap.util.formatter.FlattenedCellSetFormatter;
+import org.saiku.olap.util.formatter.ICellSetRowHandler;
+
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link FlattenedCellSetFormatter} on large synthetic cell sets.
+ *
+ * <p><code>matrix</code> and <code>stream</code> run the two <code>format</code> methods of the formatter.
+ * <code>legacyCellValues</code> and <code>contextCellValues</code> isolate the per cell value formatting: the former
+ * reproduces the previous code (a <code>DecimalFormat</code> and a <code>HashMap</code> per cell), the latter uses a
+ * {@link CellFormattingContext}. Run with <code>-prof gc</code> to compare the allocation rates, e.g.
+ * <code>java -jar target/benchmarks.jar FlattenedFormatterBenchmark -prof gc</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FlattenedFormatterBenchmark {
+
+  @Param({ "100000", "1000000" })
+  public int cells;
+
+  @Param({ "50" })
+  public int columns;
+
+  /**
+   * Fraction of cells without a formatted value, these go through the number format.
+   */
+  @Param({ "0", "1" })
+  public double unformatted;
+
+  private CellSet cellSet;
+
+  private Cell[] cellArray;
+
+  @Setup
+  public void setup() {
+    final int rows = Math.max( 1, cells / columns );
+    cellSet = SyntheticCellSet.create( rows, columns, 2, 0.1, unformatted );
+    cellArray = new Cell[ rows * columns ];
+    for ( int i = 0; i < cellArray.length; i++ ) {
+      cellArray[ i ] = cellSet.getCell( i );
+    }
+  }
+
+  @Benchmark
+  public Matrix matrix() {
+    return new FlattenedCellSetFormatter().format( cellSet );
+  }
+
+  @Benchmark
+  public CellDataSet stream( final Blackhole blackhole ) throws IOException {
+    return new FlattenedCellSetFormatter().format( cellSet, new ICellSetRowHandler() {
+      public void handleRow( AbstractBaseCell[] row, boolean header ) {
+        blackhole.consume( row );
+      }
+    } );
+  }
+
+  @Benchmark
+  public void legacyCellValues( Blackhole blackhole ) {
+    for ( Cell cell : cellArray ) {
+      String cellValue = cell.getFormattedValue();
+      if ( cellValue.length() < 1 && cell.getValue() != null ) {
+        DecimalFormat myFormatter = new DecimalFormat( SaikuProperties.formatDefautNumberFormat );
+        DecimalFormatSymbols dfs = new DecimalFormatSymbols( SaikuProperties.locale );
+        myFormatter.setDecimalFormatSymbols( dfs );
+        cellValue = myFormatter.format( cell.getValue() );
+      }
+      String formatString = (String) cell.getPropertyValue( Property.StandardCellProperty.FORMAT_STRING );
+      if ( formatString != null && formatString.startsWith( "|" ) ) {
+        formatString = formatString.substring( 1, formatString.length() );
+        formatString = formatString.substring( 0, formatString.indexOf( "|" ) );
+      }
+      Map<String, String> cellProperties = new HashMap<>();
+      blackhole.consume( Olap4jUtil.parseFormattedCellValue( cellValue, cellProperties ) );
+      blackhole.consume( formatString );
+    }
+  }
+
+  @Benchmark
+  public void contextCellValues( Blackhole blackhole ) {
+    final CellFormattingContext formatting = new CellFormattingContext();
+    for ( Cell cell : cellArray ) {
+      String cellValue = cell.getFormattedValue();
+      if ( cellValue.length() < 1 && cell.getValue() != null ) {
+        cellValue = formatting.formatNumber( cell.getValue() );
+      }
+      blackhole.consume( formatting.getFormatString(
+        (String) cell.getPropertyValue( Property.StandardCellProperty.FORMAT_STRING ) ) );
+      blackhole.consume( formatting.parseFormattedValue( cellValue ) );
+      blackhole.consume( formatting.getParsedProperties() );
+    }
+  }
+}
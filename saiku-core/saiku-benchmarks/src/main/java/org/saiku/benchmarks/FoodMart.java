@@ -0,0 +1,230 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.olap4j.Axis;
+import org.olap4j.CellSet;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapStatement;
+import org.olap4j.metadata.Cube;
+import org.saiku.datasources.connection.IConnectionManager;
+import org.saiku.datasources.connection.ISaikuConnection;
+import org.saiku.datasources.connection.OlapConnectionPool;
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.olap.util.ObjectUtil;
+import org.saiku.olap.util.exception.SaikuOlapException;
+import org.saiku.query.Query;
+import org.saiku.query.QueryHierarchy;
+import org.saiku.query.QueryLevel;
+import org.saiku.service.datasource.IDatasourceManager;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The FoodMart sample database in H2, opened through Mondrian like the bundled <code>foodmart</code> datasource.
+ *
+ * <p>The directory given by the system property <code>saiku.benchmarks.foodmart</code>, by default
+ * <code>target/foodmart</code> where the build unpacks <code>util/foodmart_h2.sql.zip</code>, has to hold
+ * <code>foodmart_h2.sql</code> and <code>FoodMart4.xml</code>. The first run creates the database from the script, the
+ * same way the server does on its first start.</p>
+ */
+public final class FoodMart {
+
+  public static final String CONNECTION = "foodmart";
+
+  private static final String[] PRODUCT_LEVELS =
+    { "Product Family", "Product Department", "Product Category", "Product Subcategory", "Brand Name",
+      "Product Name" };
+
+  private final OlapConnection connection;
+
+  private final Cube cube;
+
+  private final SaikuCube saikuCube;
+
+  private FoodMart( OlapConnection connection ) throws SQLException {
+    this.connection = connection;
+    this.cube = connection.getOlapSchema().getCubes().get( "Sales" );
+    this.saikuCube = ObjectUtil.convert( CONNECTION, cube );
+  }
+
+  /**
+   * Opens the Sales cube, creating the database first if it does not exist yet.
+   */
+  public static FoodMart open() throws Exception {
+    final File dir = new File( System.getProperty( "saiku.benchmarks.foodmart", "target/foodmart" ) ).getAbsoluteFile();
+    final File schema = new File( dir, "FoodMart4.xml" );
+    if ( !schema.isFile() ) {
+      throw new IllegalStateException( "Cannot find the FoodMart schema " + schema
+        + ", set saiku.benchmarks.foodmart to the directory of FoodMart4.xml and foodmart_h2.sql" );
+    }
+    final String jdbcUrl = "jdbc:h2:" + new File( dir, "foodmart" ).getPath();
+    Class.forName( "org.h2.Driver" );
+    createDatabase( dir, jdbcUrl );
+
+    Class.forName( "mondrian.olap4j.MondrianOlap4jDriver" );
+    final Connection connection = DriverManager.getConnection( "jdbc:mondrian:Jdbc=" + jdbcUrl + ";Catalog="
+      + schema.toURI() + ";JdbcDrivers=org.h2.Driver;JdbcUser=sa;JdbcPassword=" );
+    return new FoodMart( connection.unwrap( OlapConnection.class ) );
+  }
+
+  private static void createDatabase( File dir, String jdbcUrl ) throws SQLException {
+    try ( Connection c = DriverManager.getConnection( jdbcUrl + ";MODE=MySQL", "sa", "" ) ) {
+      try ( ResultSet tables = c.getMetaData().getTables( null, null, "account", null ) ) {
+        if ( tables.next() ) {
+          return;
+        }
+      }
+      final File script = new File( dir, "foodmart_h2.sql" );
+      if ( !script.isFile() ) {
+        throw new IllegalStateException( "Cannot find the FoodMart script " + script );
+      }
+      try ( Statement statement = c.createStatement() ) {
+        statement.execute( "RUNSCRIPT FROM '" + script.getPath() + "'" );
+        statement.execute( "alter table \"time_by_day\" add column \"date_string\" varchar(30);"
+          + "update \"time_by_day\" set \"date_string\" = TO_CHAR(\"the_date\", 'yyyy/mm/dd');" );
+      }
+    }
+  }
+
+  /**
+   * Builds a query of the unit and store sales by product and quarter, totalled with sums on every level.
+   *
+   * @param rowLevels the number of levels of the products hierarchy on rows, 1 to 6
+   */
+  public Query salesQuery( String name, int rowLevels ) throws SQLException {
+    final List<String> sum = Collections.singletonList( "sum" );
+    final Query query = new Query( name, cube );
+
+    final QueryHierarchy products = query.getHierarchy( "[Product].[Products]" );
+    for ( int i = 0; i < Math.min( rowLevels, PRODUCT_LEVELS.length ); i++ ) {
+      final QueryLevel level = products.includeLevel( PRODUCT_LEVELS[ i ] );
+      query.setAggregators( level.getUniqueName(), sum );
+    }
+    query.getAxis( Axis.ROWS ).addHierarchy( products );
+    query.getAxis( Axis.ROWS ).setNonEmpty( true );
+    query.setAggregators( Axis.ROWS.name(), sum );
+
+    final QueryHierarchy time = query.getHierarchy( "[Time].[Time]" );
+    query.setAggregators( time.includeLevel( "Year" ).getUniqueName(), sum );
+    query.setAggregators( time.includeLevel( "Quarter" ).getUniqueName(), sum );
+    query.getAxis( Axis.COLUMNS ).addHierarchy( time );
+    query.getAxis( Axis.COLUMNS ).setNonEmpty( true );
+    query.setAggregators( Axis.COLUMNS.name(), sum );
+
+    query.getDetails().add( query.getMeasure( "Unit Sales" ) );
+    query.getDetails().add( query.getMeasure( "Store Sales" ) );
+    query.getDetails().setAxis( Axis.COLUMNS );
+    return query;
+  }
+
+  /**
+   * Executes a query, Mondrian caches the cells so only the first execution reads the database.
+   */
+  public CellSet execute( String mdx ) throws SQLException {
+    final OlapStatement statement = connection.createStatement();
+    return statement.executeOlapQuery( mdx );
+  }
+
+  public OlapConnection getConnection() {
+    return connection;
+  }
+
+  public Cube getCube() {
+    return cube;
+  }
+
+  public SaikuCube getSaikuCube() {
+    return saikuCube;
+  }
+
+  /**
+   * @return a connection manager handing out the FoodMart connection, for the services looking connections up by name
+   */
+  public IConnectionManager getConnectionManager() {
+    return new SingleConnectionManager( connection );
+  }
+
+  public void close() throws SQLException {
+    connection.close();
+  }
+
+  /**
+   * Gives out one open connection as the datasource {@link FoodMart#CONNECTION}.
+   */
+  private static final class SingleConnectionManager implements IConnectionManager {
+
+    private final OlapConnection connection;
+
+    SingleConnectionManager( OlapConnection connection ) {
+      this.connection = connection;
+    }
+
+    public void init() {
+    }
+
+    public void setDataSourceManager( IDatasourceManager ds ) {
+    }
+
+    public IDatasourceManager getDataSourceManager() {
+      return null;
+    }
+
+    public void refreshConnection( String name ) {
+    }
+
+    public void refreshAllConnections() {
+    }
+
+    public OlapConnection getOlapConnection( String name ) throws SaikuOlapException {
+      if ( !CONNECTION.equals( name ) ) {
+        throw new SaikuOlapException( "Cannot find connection: (" + name + ")" );
+      }
+      return connection;
+    }
+
+    public OlapConnection borrowOlapConnection( String name ) throws SaikuOlapException {
+      return getOlapConnection( name );
+    }
+
+    public void releaseOlapConnection( String name, OlapConnection connection ) {
+    }
+
+    public Map<String, OlapConnectionPool> getConnectionPools() {
+      return Collections.emptyMap();
+    }
+
+    public Map<String, OlapConnection> getAllOlapConnections() {
+      return Collections.singletonMap( CONNECTION, connection );
+    }
+
+    public ISaikuConnection getConnection( String name ) {
+      throw new UnsupportedOperationException( "Only the olap4j connection of the benchmark is available" );
+    }
+
+    public Map<String, ISaikuConnection> getAllConnections() {
+      throw new UnsupportedOperationException( "Only the olap4j connection of the benchmark is available" );
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.olap4j.CellSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.query2.util.Thin;
+import org.saiku.olap.util.OlapResultSetUtil;
+import org.saiku.olap.util.formatter.CellSetFormatterFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures formatting the cell set of a FoodMart sales query with each formatter.
+ *
+ * <p>Unlike the synthetic cell sets of {@link MatrixBenchmark} the members and cells come from Mondrian, e.g.
+ * <code>java -jar target/benchmarks.jar FoodMartFormatBenchmark</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FoodMartFormatBenchmark {
+
+  @Param({ "2", "5" })
+  public int rowLevels;
+
+  @Param({ "flattened", "hierarchical", "flat" })
+  public String formatter;
+
+  private FoodMart foodMart;
+
+  private CellSet cellSet;
+
+  private CellSetFormatterFactory formatterFactory;
+
+  @Setup
+  public void setup() throws Exception {
+    foodMart = FoodMart.open();
+    cellSet = foodMart.execute(
+      Thin.convert( foodMart.salesQuery( "format", rowLevels ), foodMart.getSaikuCube() ).getMdx() );
+    formatterFactory = new CellSetFormatterFactory();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    foodMart.close();
+  }
+
+  @Benchmark
+  public CellDataSet format() {
+    return OlapResultSetUtil.cellSet2Matrix( cellSet, formatterFactory.forName( formatter ) );
+  }
+}
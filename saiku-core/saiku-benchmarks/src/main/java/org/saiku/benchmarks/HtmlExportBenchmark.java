@@ -0,0 +1,119 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.apache.commons.io.IOUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.olap.util.OlapResultSetUtil;
+import org.saiku.olap.util.formatter.FlattenedCellSetFormatter;
+import org.saiku.web.export.JSConverter;
+import org.saiku.web.rest.objects.resultset.QueryResult;
+import org.saiku.web.rest.util.RestUtil;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering a query result to the HTML table used by the HTML and PDF exports.
+ *
+ * <p><code>legacy</code> reproduces the previous <code>JSConverter</code>: a new interpreted Rhino context per export
+ * that evaluates the renderer scripts again and gets the result as JSON evaluated back into objects.
+ * <code>compiled</code> runs {@link JSConverter#render(QueryResult)}, and <code>compiledConcurrent</code> runs it on
+ * four threads sharing the compiled scripts, e.g.
+ * <code>java -jar target/benchmarks.jar HtmlExportBenchmark</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HtmlExportBenchmark {
+
+  @Param({ "1000", "20000" })
+  public int cells;
+
+  @Param({ "10" })
+  public int columns;
+
+  private QueryResult queryResult;
+
+  @Setup
+  public void setup() throws IOException {
+    final int rows = Math.max( 1, cells / columns );
+    queryResult = RestUtil.convert( OlapResultSetUtil.cellSet2Matrix(
+      SyntheticCellSet.create( rows, columns, 2, 0.1, 0 ), new FlattenedCellSetFormatter() ) );
+    // compiles the scripts outside of the measurement
+    JSConverter.render( queryResult );
+  }
+
+  @Benchmark
+  public String legacy() throws IOException {
+    final StringWriter stringWriter = new StringWriter();
+    final Context javascriptContext = Context.enter();
+    try {
+      javascriptContext.setOptimizationLevel( -1 );
+      javascriptContext.setLanguageVersion( Context.VERSION_1_5 );
+      final Scriptable globalScope = javascriptContext.initStandardObjects();
+      javascriptContext.evaluateReader( globalScope,
+        new InputStreamReader( JSConverter.class.getResourceAsStream( "underscore.js" ) ), "underscore.js", 1, null );
+      javascriptContext.evaluateReader( globalScope,
+        new InputStreamReader( JSConverter.class.getResourceAsStream( "SaikuRenderer.js" ) ), "SaikuRenderer.js", 1,
+        null );
+      javascriptContext.evaluateString( globalScope,
+        IOUtils.toString( JSConverter.class.getResourceAsStream( "SaikuTableRenderer.js" ) ), "SaikuTableRenderer.js",
+        1, null );
+      final String data = new ObjectMapper().writeValueAsString( queryResult );
+      ScriptableObject.putProperty( globalScope, "data", Context.javaToJS( data, globalScope ) );
+      ScriptableObject.putProperty( globalScope, "out", Context.javaToJS( stringWriter, globalScope ) );
+      javascriptContext.evaluateString( globalScope, "eval('var cellset = ' + data); \n"
+        + "var renderer = new SaikuTableRenderer(); \n"
+        + "var html = renderer.render(cellset, { wrapContent : false }); out.write(html);", "<mem>", 1, null );
+    } finally {
+      Context.exit();
+    }
+    return stringWriter.toString();
+  }
+
+  @Benchmark
+  public String compiled() throws IOException {
+    return JSConverter.render( queryResult );
+  }
+
+  @Benchmark
+  @Threads(4)
+  public String compiledConcurrent() throws IOException {
+    return JSConverter.render( queryResult );
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.olap4j.CellSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.DataCell;
+import org.saiku.olap.dto.resultset.Matrix;
+import org.saiku.olap.util.OlapResultSetUtil;
+import org.saiku.olap.util.formatter.CellSetFormatterFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the dense and sparse {@link Matrix} storage and measures formatting a synthetic cell set with each
+ * formatter.
+ *
+ * <p>Run with <code>-prof gc</code> to get the allocated bytes per operation next to the timings, e.g.
+ * <code>java -jar target/benchmarks.jar MatrixBenchmark -prof gc</code>. The <code>legacyMap</code> benchmark
+ * reproduces the former <code>HashMap&lt;List&lt;Integer&gt;, AbstractBaseCell&gt;</code> storage as a
+ * baseline.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MatrixBenchmark {
+
+  @Param({ "10000", "200000" })
+  public int cells;
+
+  @Param({ "20" })
+  public int columns;
+
+  @Param({ "flattened", "hierarchical", "flat" })
+  public String formatter;
+
+  private int rows;
+
+  private CellSet cellSet;
+
+  private DataCell cell;
+
+  private CellSetFormatterFactory formatterFactory;
+
+  @Setup
+  public void setup() {
+    rows = Math.max( 1, cells / columns );
+    cellSet = SyntheticCellSet.create( rows, columns, 2, 0.1, 0 );
+    cell = new DataCell( true, false, Arrays.asList( 0, 0 ) );
+    formatterFactory = new CellSetFormatterFactory();
+  }
+
+  @Benchmark
+  public Matrix denseFill() {
+    final Matrix matrix = new Matrix( columns, rows );
+    for ( int y = 0; y < rows; y++ ) {
+      for ( int x = 0; x < columns; x++ ) {
+        matrix.set( x, y, cell );
+      }
+    }
+    return matrix;
+  }
+
+  @Benchmark
+  public Matrix sparseFill() {
+    final Matrix matrix = new Matrix();
+    for ( int y = 0; y < rows; y++ ) {
+      for ( int x = 0; x < columns; x++ ) {
+        matrix.set( x, y, cell );
+      }
+    }
+    return matrix;
+  }
+
+  @Benchmark
+  public Map<List<Integer>, AbstractBaseCell> legacyMap() {
+    final Map<List<Integer>, AbstractBaseCell> map = new HashMap<>();
+    for ( int y = 0; y < rows; y++ ) {
+      for ( int x = 0; x < columns; x++ ) {
+        map.put( Arrays.asList( x, y ), cell );
+      }
+    }
+    return map;
+  }
+
+  @Benchmark
+  public CellDataSet format() {
+    return OlapResultSetUtil.cellSet2Matrix( cellSet, formatterFactory.forName( formatter ) );
+  }
+}
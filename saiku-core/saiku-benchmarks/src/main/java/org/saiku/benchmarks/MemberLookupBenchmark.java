@@ -0,0 +1,85 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.olap.discover.MemberSearchIndex;
+import org.saiku.olap.discover.OlapMetaExplorer;
+import org.saiku.olap.dto.SimpleCubeElement;
+import org.saiku.olap.util.exception.SaikuOlapException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures listing and searching the members of a level of the FoodMart products, as the member selector does.
+ *
+ * <p>With <code>index</code> the lookups go through a {@link MemberSearchIndex}, without it the members are loaded
+ * from Mondrian on every lookup, e.g. <code>java -jar target/benchmarks.jar MemberLookupBenchmark</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MemberLookupBenchmark {
+
+  private static final String HIERARCHY = "[Product].[Products]";
+
+  @Param({ "Brand Name", "Product Name" })
+  public String level;
+
+  @Param({ "false", "true" })
+  public boolean index;
+
+  private FoodMart foodMart;
+
+  private OlapMetaExplorer explorer;
+
+  @Setup
+  public void setup() throws Exception {
+    foodMart = FoodMart.open();
+    explorer = new OlapMetaExplorer( foodMart.getConnectionManager() );
+    explorer.setMemberIndex( index ? new MemberSearchIndex( true, 1000000 ) : null );
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    foodMart.close();
+  }
+
+  @Benchmark
+  public List<SimpleCubeElement> allMembers() throws SaikuOlapException {
+    return explorer.getAllMembers( foodMart.getSaikuCube(), HIERARCHY, level );
+  }
+
+  @Benchmark
+  public List<SimpleCubeElement> search() throws SaikuOlapException {
+    return explorer.getAllMembers( foodMart.getSaikuCube(), HIERARCHY, level, "bean", 50 );
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.olap.query2.ThinQuery;
+import org.saiku.olap.query2.util.Fat;
+import org.saiku.olap.query2.util.Thin;
+import org.saiku.query.Query;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting a FoodMart sales query between the query model sent by the client and the query generating the
+ * MDX.
+ *
+ * <p><code>fat</code> is what every execution of a query model pays before the MDX is known, <code>thin</code> what it
+ * pays to send the model back, e.g. <code>java -jar target/benchmarks.jar QueryConversionBenchmark</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class QueryConversionBenchmark {
+
+  @Param({ "2", "5" })
+  public int rowLevels;
+
+  private FoodMart foodMart;
+
+  private Query query;
+
+  private ThinQuery thinQuery;
+
+  @Setup
+  public void setup() throws Exception {
+    foodMart = FoodMart.open();
+    query = foodMart.salesQuery( "conversion", rowLevels );
+    thinQuery = Thin.convert( query, foodMart.getSaikuCube() );
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    foodMart.close();
+  }
+
+  @Benchmark
+  public Query fat() throws Exception {
+    return Fat.convert( thinQuery, foodMart.getCube() );
+  }
+
+  @Benchmark
+  public ThinQuery thin() throws Exception {
+    return Thin.convert( query, foodMart.getSaikuCube() );
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.util.OlapResultSetUtil;
+import org.saiku.olap.util.formatter.FlattenedCellSetFormatter;
+import org.saiku.web.rest.objects.resultset.QueryResult;
+import org.saiku.web.rest.util.RestUtil;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning a formatted table into the {@link QueryResult} of the REST API and writing it as JSON.
+ *
+ * <p>The JSON is written to a stream that only counts the bytes, so the numbers do not include the network,
+ * e.g. <code>java -jar target/benchmarks.jar ResultSerializationBenchmark</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ResultSerializationBenchmark {
+
+  @Param({ "10000", "200000" })
+  public int cells;
+
+  @Param({ "20" })
+  public int columns;
+
+  private CellDataSet table;
+
+  private QueryResult queryResult;
+
+  private ObjectMapper mapper;
+
+  @Setup
+  public void setup() {
+    final int rows = Math.max( 1, cells / columns );
+    table = OlapResultSetUtil.cellSet2Matrix( SyntheticCellSet.create( rows, columns, 2, 0.1, 0 ),
+      new FlattenedCellSetFormatter() );
+    queryResult = RestUtil.convert( table );
+    mapper = new ObjectMapper();
+  }
+
+  @Benchmark
+  public QueryResult convert() {
+    return RestUtil.convert( table );
+  }
+
+  @Benchmark
+  public long serialize() throws IOException {
+    return write( queryResult );
+  }
+
+  @Benchmark
+  public long convertAndSerialize() throws IOException {
+    return write( RestUtil.convert( table ) );
+  }
+
+  private long write( QueryResult result ) throws IOException {
+    final CountingOutputStream output = new CountingOutputStream( NullOutputStream.NULL_OUTPUT_STREAM );
+    mapper.writeValue( output, result );
+    return output.getByteCount();
+  }
+}
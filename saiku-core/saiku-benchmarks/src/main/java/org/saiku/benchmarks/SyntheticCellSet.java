@@ -0,0 +1,296 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.CellSetAxisMetaData;
+import org.olap4j.Position;
+import org.olap4j.impl.Olap4jUtil;
+import org.olap4j.metadata.Dimension;
+import org.olap4j.metadata.Hierarchy;
+import org.olap4j.metadata.Level;
+import org.olap4j.metadata.Member;
+import org.olap4j.metadata.NamedList;
+import org.olap4j.metadata.Property;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Builds in-memory olap4j {@link CellSet}s of arbitrary size so the result pipeline can be measured without a
+ * Mondrian server.
+ *
+ * <p>The cell set has a columns axis with one hierarchy and a rows axis with <code>rowHierarchies</code> nested
+ * hierarchies. Every metadata object is a dynamic proxy answering only the getters the Saiku formatters use, and
+ * all cells are created up front so that benchmarks only measure the code under test.</p>
+ */
+public final class SyntheticCellSet {
+
+  private static final String FORMAT_STRING = "#,##0.00";
+
+  private SyntheticCellSet() {
+  }
+
+  /**
+   * Creates a cell set.
+   *
+   * @param rows             number of positions on the rows axis
+   * @param columns          number of positions on the columns axis
+   * @param rowHierarchies   number of hierarchies nested on the rows axis
+   * @param emptyRatio       fraction (0..1) of cells that have no value
+   * @param unformattedRatio fraction (0..1) of non empty cells without a formatted value
+   * @return the cell set
+   */
+  public static CellSet create( int rows, int columns, int rowHierarchies, double emptyRatio,
+                                double unformattedRatio ) {
+    final Random random = new Random( 42 );
+
+    final Hierarchy measures = hierarchy( "Measures" );
+    final Level measureLevel = level( measures, "MeasuresLevel", 0 );
+    final List<Position> columnPositions = new ArrayList<>( columns );
+    for ( int c = 0; c < columns; c++ ) {
+      columnPositions.add( position( c, member( measureLevel, "Measure " + c, null ) ) );
+    }
+
+    final List<Hierarchy> rowHierarchyList = new ArrayList<>( rowHierarchies );
+    final List<Level> rowLevels = new ArrayList<>( rowHierarchies );
+    final List<Member> allMembers = new ArrayList<>( rowHierarchies );
+    for ( int h = 0; h < rowHierarchies; h++ ) {
+      final Hierarchy hierarchy = hierarchy( "Dim" + h );
+      rowHierarchyList.add( hierarchy );
+      allMembers.add( member( level( hierarchy, "(All)", 0 ), "All Dim" + h, null ) );
+      rowLevels.add( level( hierarchy, "Level" + h, 1 ) );
+    }
+
+    // nest the row hierarchies so that the innermost one changes fastest
+    final int fanOut = Math.max( 2, (int) Math.ceil( Math.pow( rows, 1.0 / rowHierarchies ) ) );
+    final Map<String, Member> memberCache = new HashMap<>();
+    final List<Position> rowPositions = new ArrayList<>( rows );
+    for ( int r = 0; r < rows; r++ ) {
+      final Member[] members = new Member[ rowHierarchies ];
+      int remainder = r;
+      for ( int h = rowHierarchies - 1; h >= 0; h-- ) {
+        final int ordinal = h == 0 ? remainder : remainder % fanOut;
+        remainder = h == 0 ? 0 : remainder / fanOut;
+        final String key = h + ":" + ordinal;
+        Member member = memberCache.get( key );
+        if ( member == null ) {
+          member = member( rowLevels.get( h ), "Member " + h + "." + ordinal, allMembers.get( h ) );
+          memberCache.put( key, member );
+        }
+        members[ h ] = member;
+      }
+      rowPositions.add( position( r, members ) );
+    }
+
+    final CellSetAxis columnsAxis = axis( Collections.singletonList( measures ), columnPositions );
+    final CellSetAxis rowsAxis = axis( rowHierarchyList, rowPositions );
+
+    final Cell[] cells = new Cell[ rows * columns ];
+    for ( int r = 0; r < rows; r++ ) {
+      for ( int c = 0; c < columns; c++ ) {
+        final int ordinal = r * columns + c;
+        final boolean empty = random.nextDouble() < emptyRatio;
+        final boolean formatted = random.nextDouble() >= unformattedRatio;
+        final double value = random.nextInt( 1000000 ) / 100.0;
+        cells[ ordinal ] = cell( ordinal, Arrays.asList( c, r ), empty ? null : value,
+          empty || !formatted ? "" : String.format( "%,.2f", value ) );
+      }
+    }
+    return cellSet( Arrays.asList( columnsAxis, rowsAxis ), cells, columns );
+  }
+
+  private static CellSet cellSet( final List<CellSetAxis> axes, final Cell[] cells, final int columns ) {
+    return proxy( CellSet.class, new Stub( "CellSet" ) {
+      @Override
+      Object call( String name, Object[] args ) {
+        switch ( name ) {
+        case "getAxes":
+          return axes;
+        case "getCell":
+          if ( args[ 0 ] instanceof List ) {
+            @SuppressWarnings("unchecked")
+            final List<Integer> coords = (List<Integer>) args[ 0 ];
+            return cells[ coords.get( 1 ) * columns + coords.get( 0 ) ];
+          }
+          if ( args[ 0 ] instanceof Integer ) {
+            return cells[ (Integer) args[ 0 ] ];
+          }
+          return super.call( name, args );
+        case "ordinalToCoordinates":
+          final int ordinal = (Integer) args[ 0 ];
+          return Arrays.asList( ordinal % columns, ordinal / columns );
+        case "coordinatesToOrdinal":
+          @SuppressWarnings("unchecked")
+          final List<Integer> coords = (List<Integer>) args[ 0 ];
+          return coords.get( 1 ) * columns + coords.get( 0 );
+        default:
+          return super.call( name, args );
+        }
+      }
+    } );
+  }
+
+  private static CellSetAxis axis( List<Hierarchy> hierarchies, List<Position> positions ) {
+    final CellSetAxisMetaData metaData = proxy( CellSetAxisMetaData.class,
+      new Stub( "AxisMetaData" ).with( "getHierarchies", hierarchies ) );
+    return proxy( CellSetAxis.class, new Stub( "Axis" )
+      .with( "getAxisMetaData", metaData )
+      .with( "getPositions", positions )
+      .with( "getPositionCount", positions.size() ) );
+  }
+
+  private static Position position( int ordinal, Member... members ) {
+    return proxy( Position.class, new Stub( "Position" )
+      .with( "getOrdinal", ordinal )
+      .with( "getMembers", Collections.unmodifiableList( Arrays.asList( members ) ) ) );
+  }
+
+  private static Hierarchy hierarchy( String name ) {
+    final String uniqueName = "[" + name + "]";
+    final Dimension dimension = proxy( Dimension.class, new Stub( uniqueName )
+      .with( "getName", name )
+      .with( "getUniqueName", uniqueName )
+      .with( "getCaption", name ) );
+    return proxy( Hierarchy.class, new Stub( uniqueName )
+      .with( "getName", name )
+      .with( "getUniqueName", uniqueName )
+      .with( "getCaption", name )
+      .with( "getDimension", dimension ) );
+  }
+
+  private static Level level( Hierarchy hierarchy, String name, int depth ) {
+    final String uniqueName = hierarchy.getUniqueName() + ".[" + name + "]";
+    return proxy( Level.class, new Stub( uniqueName )
+      .with( "getName", name )
+      .with( "getUniqueName", uniqueName )
+      .with( "getCaption", name )
+      .with( "getDepth", depth )
+      .with( "getHierarchy", hierarchy )
+      .with( "getDimension", hierarchy.getDimension() )
+      .with( "getProperties", Olap4jUtil.<Property>emptyNamedList() ) );
+  }
+
+  private static Member member( Level level, String name, Member parent ) {
+    final String uniqueName = level.getHierarchy().getUniqueName() + ".[" + name + "]";
+    return proxy( Member.class, new Stub( uniqueName )
+      .with( "getName", name )
+      .with( "getUniqueName", uniqueName )
+      .with( "getCaption", name )
+      .with( "getDepth", level.getDepth() )
+      .with( "getLevel", level )
+      .with( "getHierarchy", level.getHierarchy() )
+      .with( "getDimension", level.getDimension() )
+      .with( "getParentMember", parent )
+      .with( "getChildMemberCount", 0 ) );
+  }
+
+  private static Cell cell( int ordinal, List<Integer> coordinates, final Double value, String formattedValue ) {
+    return proxy( Cell.class, new Stub( "Cell" + coordinates ) {
+      @Override
+      Object call( String name, Object[] args ) {
+        if ( "getPropertyValue".equals( name ) ) {
+          return args[ 0 ] == Property.StandardCellProperty.FORMAT_STRING ? FORMAT_STRING : null;
+        }
+        return super.call( name, args );
+      }
+    }
+      .with( "getOrdinal", ordinal )
+      .with( "getCoordinateList", Collections.unmodifiableList( coordinates ) )
+      .with( "getValue", value )
+      .with( "getDoubleValue", value == null ? 0d : value )
+      .with( "getFormattedValue", formattedValue )
+      .with( "isNull", value == null )
+      .with( "isEmpty", value == null )
+      .with( "isError", false ) );
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy( Class<T> type, InvocationHandler handler ) {
+    return (T) Proxy.newProxyInstance( SyntheticCellSet.class.getClassLoader(), new Class<?>[] { type }, handler );
+  }
+
+  /**
+   * Invocation handler answering from a fixed table of getter results.
+   */
+  private static class Stub implements InvocationHandler {
+    private final String description;
+    private final Map<String, Object> values = new HashMap<>();
+
+    Stub( String description ) {
+      this.description = description;
+    }
+
+    Stub with( String method, Object value ) {
+      values.put( method, value );
+      return this;
+    }
+
+    Object call( String name, Object[] args ) {
+      return values.get( name );
+    }
+
+    public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+      final String name = method.getName();
+      if ( "equals".equals( name ) && method.getParameterTypes().length == 1 ) {
+        return proxy == args[ 0 ];
+      }
+      if ( "hashCode".equals( name ) && method.getParameterTypes().length == 0 ) {
+        return System.identityHashCode( proxy );
+      }
+      if ( "toString".equals( name ) && method.getParameterTypes().length == 0 ) {
+        return description;
+      }
+      if ( "iterator".equals( name ) && values.containsKey( "getPositions" ) ) {
+        return ( (List<?>) values.get( "getPositions" ) ).iterator();
+      }
+      final Object result = call( name, args );
+      if ( result != null ) {
+        return result;
+      }
+      final Class<?> type = method.getReturnType();
+      if ( type == boolean.class ) {
+        return false;
+      }
+      if ( type == int.class ) {
+        return 0;
+      }
+      if ( type == long.class ) {
+        return 0L;
+      }
+      if ( type == double.class ) {
+        return 0d;
+      }
+      if ( NamedList.class.isAssignableFrom( type ) ) {
+        return Olap4jUtil.emptyNamedList();
+      }
+      if ( List.class.isAssignableFrom( type ) ) {
+        return Collections.emptyList();
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.benchmarks;
+
+import org.olap4j.Axis;
+import org.olap4j.CellSet;
+import org.olap4j.metadata.Measure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.saiku.olap.query2.ThinQuery;
+import org.saiku.olap.query2.util.Fat;
+import org.saiku.olap.query2.util.Thin;
+import org.saiku.query.Query;
+import org.saiku.service.olap.totals.AxisInfo;
+import org.saiku.service.olap.totals.TotalNode;
+import org.saiku.service.olap.totals.TotalsListsBuilder;
+import org.saiku.service.olap.totals.aggregators.TotalAggregator;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures calculating the totals of a FoodMart sales query, with sums on every level of both axes.
+ *
+ * <p>The benchmark builds the totals like <code>ThinQueryService</code> does for the flattened formatter. The cell set
+ * is executed once in the setup, e.g. <code>java -jar target/benchmarks.jar TotalsBenchmark</code>.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TotalsBenchmark {
+
+  @Param({ "2", "5" })
+  public int rowLevels;
+
+  private FoodMart foodMart;
+
+  private ThinQuery thinQuery;
+
+  private Query query;
+
+  private Measure[] selectedMeasures;
+
+  private CellSet cellSet;
+
+  @Setup
+  public void setup() throws Exception {
+    foodMart = FoodMart.open();
+    thinQuery = Thin.convert( foodMart.salesQuery( "totals", rowLevels ), foodMart.getSaikuCube() );
+    query = Fat.convert( thinQuery, foodMart.getCube() );
+    selectedMeasures = query.getDetails().getMeasures().toArray( new Measure[ 0 ] );
+    cellSet = foodMart.execute( thinQuery.getMdx() );
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    foodMart.close();
+  }
+
+  @Benchmark
+  public List<TotalNode>[][] totals() throws Exception {
+    final int rowsIndex = Axis.ROWS.equals( cellSet.getAxes().get( 0 ).getAxisOrdinal() ) ? 0 : 1;
+    final AxisInfo[] axisInfos = new AxisInfo[] {
+      new AxisInfo( cellSet.getAxes().get( rowsIndex ) ),
+      new AxisInfo( cellSet.getAxes().get( ( rowsIndex + 1 ) & 1 ) )
+    };
+    final TotalsListsBuilder[] builders = new TotalsListsBuilder[ 2 ];
+    for ( int index = 0; index < 2; index++ ) {
+      final int second = ( index + 1 ) & 1;
+      final TotalAggregator[] aggregators = new TotalAggregator[ axisInfos[ second ].maxDepth + 1 ];
+      for ( int i = 1; i < aggregators.length - 1; i++ ) {
+        aggregators[ i ] = aggregator( query.getAggregators( axisInfos[ second ].uniqueLevelNames.get( i - 1 ) ) );
+      }
+      aggregators[ 0 ] = aggregator( query.getAggregators( axisInfos[ second ].axis.getAxisOrdinal().name() ) );
+      builders[ index ] =
+        new TotalsListsBuilder( selectedMeasures, aggregators, cellSet, axisInfos[ index ], axisInfos[ second ],
+          thinQuery );
+    }
+    return TotalsListsBuilder.buildTotalsLists( builders[ 0 ], builders[ 1 ] );
+  }
+
+  private static TotalAggregator aggregator( List<String> functions ) {
+    return functions != null && functions.size() > 0 ? TotalAggregator.newInstanceByFunctionName( functions.get( 0 ) )
+      : null;
+  }
+}
@@ -28,9 +28,13 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
 
 import javax.sql.DataSource;
 
@@ -42,6 +46,12 @@ public class SaikuMondrianHelper {
 	
 	private static final Logger log = LoggerFactory.getLogger(SaikuMondrianHelper.class);
 
+	/**
+	 * Names of the roles set by {@link #setRoles(OlapConnection, String[])}, the connection itself only knows about
+	 * the last role name set through olap4j.
+	 */
+	private static final Map<Role, String> ROLE_NAMES = Collections.synchronizedMap(new WeakHashMap<Role, String>());
+
 	private static RolapConnection getMondrianConnection(OlapConnection con) {
 		try {
             if (!isMondrianConnection(con)) {
@@ -106,6 +116,31 @@ public class SaikuMondrianHelper {
 			break;
 		}
 		rcon.setRole(role);
+		if (role != null) {
+			StringBuilder names = new StringBuilder();
+			for (String roleName : new TreeSet<String>(Arrays.asList(roleNames))) {
+				if (names.length() > 0) {
+					names.append(',');
+				}
+				names.append(roleName);
+			}
+			ROLE_NAMES.put(role, names.toString());
+		}
+	}
+
+	/**
+	 * Returns the names of the roles active on the connection, comma separated, or null if no role was set.
+	 */
+	public static String getRoleNames(OlapConnection con) {
+		if (isMondrianConnection(con)) {
+			RolapConnection rcon = getMondrianConnection(con);
+			Role role = rcon != null ? rcon.getRole() : null;
+			String names = role != null ? ROLE_NAMES.get(role) : null;
+			if (names != null) {
+				return names;
+			}
+		}
+		return con.getRoleName();
 	}
 	
 	
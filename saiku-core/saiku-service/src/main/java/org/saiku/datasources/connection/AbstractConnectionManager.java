@@ -29,16 +29,33 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractConnectionManager implements IConnectionManager, Serializable {
 
   private static final long serialVersionUID = 4735617922513789022L;
   private static final Logger log = LoggerFactory.getLogger(AbstractConnectionManager.class);
+
+  /**
+   * Milliseconds between two runs of {@link OlapConnectionPool#evictIdle()} over all pools, so that pools nobody
+   * borrows from shrink as well.
+   */
+  private static final long POOL_SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis( 30 );
   private transient IDatasourceManager ds;
+  private transient Map<String, OlapConnectionPool> pools = new ConcurrentHashMap<>();
+  private transient Map<OlapConnection, Lease> leases =
+    Collections.synchronizedMap( new IdentityHashMap<OlapConnection, Lease>() );
+  private transient ScheduledExecutorService poolSweeper;
 
   public void setDataSourceManager( IDatasourceManager ds ) {
     this.ds = ds;
@@ -61,6 +78,7 @@ public abstract class AbstractConnectionManager implements IConnectionManager, S
   public abstract void init() throws SaikuOlapException;
 
   public void destroy() throws SaikuOlapException {
+    closePools();
     Map<String, OlapConnection> connections = getAllOlapConnections();
     if ( connections != null && !connections.isEmpty() ) {
       for ( OlapConnection con : connections.values() ) {
@@ -146,6 +164,10 @@ public abstract class AbstractConnectionManager implements IConnectionManager, S
   }
 
   public void refreshConnection( String name ) {
+    OlapConnectionPool pool = pools.remove( name );
+    if ( pool != null ) {
+      pool.close();
+    }
     SaikuDatasource datasource = ds.getDatasource( name );
     datasource = preProcess( datasource );
     ISaikuConnection con = refreshInternalConnection( name, datasource );
@@ -190,6 +212,164 @@ public abstract class AbstractConnectionManager implements IConnectionManager, S
     return ocons;
   }
 
+  public OlapConnection borrowOlapConnection( String name ) throws SaikuOlapException {
+    SaikuDatasource datasource = ds.getDatasource( name, false );
+    if ( !isPooled( datasource ) ) {
+      return getOlapConnection( name );
+    }
+    datasource = preProcess( datasource );
+    OlapConnectionPool pool = getPool( name, datasource );
+    ISaikuConnection pooled = pool.borrow();
+    try {
+      ISaikuConnection con = preparePooledConnection( pooled, datasource );
+      con = postProcess( datasource, con );
+      Object o = con.getConnection();
+      if ( !( o instanceof OlapConnection ) ) {
+        throw new SaikuOlapException( "Not an OLAP connection: " + name );
+      }
+      leases.put( (OlapConnection) o, new Lease( pool, pooled ) );
+      return (OlapConnection) o;
+    } catch ( SaikuOlapException e ) {
+      pool.giveBack( pooled );
+      throw e;
+    } catch ( Exception e ) {
+      pool.giveBack( pooled );
+      throw new SaikuOlapException( "Cannot prepare pooled connection: " + name, e );
+    }
+  }
+
+  public void releaseOlapConnection( String name, OlapConnection connection ) {
+    if ( connection == null ) {
+      return;
+    }
+    Lease lease = leases.remove( connection );
+    if ( lease != null ) {
+      lease.pool.giveBack( lease.connection );
+    }
+  }
+
+  public Map<String, OlapConnectionPool> getConnectionPools() {
+    return Collections.unmodifiableMap( pools );
+  }
+
+  /**
+   * Called on every connection leased from a pool, before the connection processors. Subclasses apply the security of
+   * the current user here.
+   */
+  protected ISaikuConnection preparePooledConnection( ISaikuConnection con, SaikuDatasource datasource )
+    throws Exception {
+    return con;
+  }
+
+  /**
+   * Closes all connection pools and stops closing their idle connections.
+   */
+  protected void closePools() {
+    synchronized ( pools ) {
+      if ( poolSweeper != null ) {
+        poolSweeper.shutdownNow();
+        poolSweeper = null;
+      }
+    }
+    for ( OlapConnectionPool pool : pools.values() ) {
+      pool.close();
+    }
+    pools.clear();
+  }
+
+  /**
+   * Closes the connections of all pools that have been idle for too long.
+   */
+  void sweepPools() {
+    for ( OlapConnectionPool pool : pools.values() ) {
+      pool.evictIdle();
+    }
+  }
+
+  /**
+   * Starts the sweeper of idle connections, the caller holds the lock on the pools.
+   */
+  private void startPoolSweeper() {
+    if ( poolSweeper != null ) {
+      return;
+    }
+    poolSweeper = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+      public Thread newThread( Runnable r ) {
+        Thread thread = new Thread( r, "saiku-connection-pool-sweeper" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    poolSweeper.scheduleWithFixedDelay( new Runnable() {
+      public void run() {
+        try {
+          sweepPools();
+        } catch ( Exception e ) {
+          log.warn( "Cannot close idle pooled connections", e );
+        }
+      }
+    }, POOL_SWEEP_INTERVAL, POOL_SWEEP_INTERVAL, TimeUnit.MILLISECONDS );
+  }
+
+  private OlapConnectionPool getPool( String name, final SaikuDatasource datasource ) {
+    OlapConnectionPool pool = pools.get( name );
+    if ( pool == null ) {
+      synchronized ( pools ) {
+        pool = pools.get( name );
+        if ( pool == null ) {
+          Properties props = datasource.getProperties();
+          pool = new OlapConnectionPool( name, new OlapConnectionPool.ConnectionFactory() {
+            public ISaikuConnection create() throws Exception {
+              return SaikuConnectionFactory.getConnection( datasource );
+            }
+          },
+            getIntProperty( props, ISaikuConnection.POOL_MIN_SIZE_KEY, 0 ),
+            getIntProperty( props, ISaikuConnection.POOL_MAX_SIZE_KEY, 8 ),
+            getIntProperty( props, ISaikuConnection.POOL_MAX_WAIT_KEY, 30000 ),
+            getIntProperty( props, ISaikuConnection.POOL_IDLE_TIMEOUT_KEY, 600 ) * 1000L,
+            Boolean.parseBoolean( props.getProperty( ISaikuConnection.POOL_VALIDATE_KEY, "true" ) ) );
+          pool.fill();
+          pools.put( name, pool );
+          startPoolSweeper();
+        }
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * Pass-through datasources connect with the credentials of each user and are never pooled.
+   */
+  protected boolean isPooled( SaikuDatasource datasource ) {
+    if ( datasource != null && datasource.getProperties() != null ) {
+      return Boolean.parseBoolean( datasource.getProperties().getProperty( ISaikuConnection.POOL_ENABLED_KEY, "false" ) )
+        && !isDatasourceSecurity( datasource, ISaikuConnection.SECURITY_TYPE_PASSTHROUGH_VALUE );
+    }
+    return false;
+  }
+
+  private static int getIntProperty( Properties props, String key, int defaultValue ) {
+    String value = props.getProperty( key );
+    if ( value != null ) {
+      try {
+        return Integer.parseInt( value.trim() );
+      } catch ( NumberFormatException e ) {
+        log.warn( "Invalid value for " + key + ": " + value + ", using " + defaultValue );
+      }
+    }
+    return defaultValue;
+  }
+
+  private static class Lease {
+    private final OlapConnectionPool pool;
+    private final ISaikuConnection connection;
+
+    Lease( OlapConnectionPool pool, ISaikuConnection connection ) {
+      this.pool = pool;
+      this.connection = connection;
+    }
+  }
+
   protected boolean isDatasourceSecurity(SaikuDatasource datasource, String value) {
     if ( datasource != null && value != null ) {
       Properties props = datasource.getProperties();
@@ -217,6 +397,8 @@ public abstract class AbstractConnectionManager implements IConnectionManager, S
       throws IOException, ClassNotFoundException {
 
     stream.defaultReadObject();
+    pools = new ConcurrentHashMap<>();
+    leases = Collections.synchronizedMap( new IdentityHashMap<OlapConnection, Lease>() );
    // ds = (IDatasourceManager)ApplicationContextProvider.getApplicationContext().getBean("classpathDsManager");
   }
 }
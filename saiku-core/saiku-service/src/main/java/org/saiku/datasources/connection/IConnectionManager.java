@@ -35,6 +35,20 @@ public interface IConnectionManager {
     void refreshAllConnections();
 	
 	OlapConnection getOlapConnection(String name) throws SaikuOlapException;
+
+	/**
+	 * Leases a connection for a single query. Datasources with <code>pool.enabled=true</code> get a connection of
+	 * their own from a pool, others the shared connection. Every leased connection has to be given back with
+	 * {@link #releaseOlapConnection(String, OlapConnection)}.
+	 */
+	OlapConnection borrowOlapConnection(String name) throws SaikuOlapException;
+
+	void releaseOlapConnection(String name, OlapConnection connection);
+
+	/**
+	 * @return the connection pools by datasource name
+	 */
+	Map<String, OlapConnectionPool> getConnectionPools();
 	
 	Map<String, OlapConnection> getAllOlapConnections() throws SaikuOlapException;
 	
@@ -38,11 +38,18 @@ public interface ISaikuConnection {
   String DATASOURCE_PROCESSORS = "datasource.processors"; //$NON-NLS-1$
   String CONNECTION_PROCESSORS = "connection.processors"; //$NON-NLS-1$
   String PASSWORD_ENCRYPT_KEY = "encrypt.password"; //$NON-NLS-1$
+  String POOL_ENABLED_KEY = "pool.enabled"; //$NON-NLS-1$
+  String POOL_MIN_SIZE_KEY = "pool.minsize"; //$NON-NLS-1$
+  String POOL_MAX_SIZE_KEY = "pool.maxsize"; //$NON-NLS-1$
+  String POOL_MAX_WAIT_KEY = "pool.maxwait"; //$NON-NLS-1$
+  String POOL_IDLE_TIMEOUT_KEY = "pool.idletimeout"; //$NON-NLS-1$
+  String POOL_VALIDATE_KEY = "pool.validate"; //$NON-NLS-1$
 
   String[] KEYS = new String[] { NAME_KEY, DRIVER_KEY, URL_KEY,
     USERNAME_KEY, PASSWORD_KEY, SECURITY_ENABLED_KEY, SECURITY_TYPE_KEY, SECURITY_TYPE_PASSTHROUGH_VALUE,
     SECURITY_TYPE_SPRING2MONDRIAN_VALUE, SECURITY_TYPE_SPRINGLOOKUPMONDRIAN_VALUE, DATASOURCE_PROCESSORS,
-    CONNECTION_PROCESSORS, PASSWORD_ENCRYPT_KEY };
+    CONNECTION_PROCESSORS, PASSWORD_ENCRYPT_KEY, POOL_ENABLED_KEY, POOL_MIN_SIZE_KEY, POOL_MAX_SIZE_KEY,
+    POOL_MAX_WAIT_KEY, POOL_IDLE_TIMEOUT_KEY, POOL_VALIDATE_KEY };
 
   String[] DATASOURCES = new String[] { OLAP_DATASOURCE };
 
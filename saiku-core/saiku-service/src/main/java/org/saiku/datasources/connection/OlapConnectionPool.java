@@ -0,0 +1,293 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.datasources.connection;
+
+import org.saiku.olap.util.exception.SaikuOlapException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of connections to one datasource.
+ *
+ * <p>At most <code>maxSize</code> connections are leased at the same time, further borrowers wait up to
+ * <code>maxWait</code> milliseconds. Idle connections are checked before they are handed out and closed once they
+ * have been idle for longer than <code>idleTimeout</code> milliseconds, as long as <code>minSize</code> connections
+ * remain. Expired connections are closed whenever a connection is given back and by {@link #evictIdle()}, which the
+ * connection manager calls periodically so that a pool nobody uses shrinks too.</p>
+ */
+public class OlapConnectionPool {
+
+  private static final Logger log = LoggerFactory.getLogger( OlapConnectionPool.class );
+
+  private static final int VALIDATION_TIMEOUT = 5;
+
+  /**
+   * Opens the pooled connections.
+   */
+  public interface ConnectionFactory {
+    ISaikuConnection create() throws Exception;
+  }
+
+  private final String name;
+  private final ConnectionFactory factory;
+  private final int minSize;
+  private final int maxSize;
+  private final long maxWait;
+  private final long idleTimeout;
+  private final boolean validate;
+
+  private final Semaphore permits;
+  private final LinkedBlockingDeque<Idle> idle = new LinkedBlockingDeque<>();
+  private volatile boolean closed = false;
+
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong destroyed = new AtomicLong();
+  private final AtomicLong borrowed = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong validationFailures = new AtomicLong();
+
+  public OlapConnectionPool( String name, ConnectionFactory factory, int minSize, int maxSize, long maxWait,
+                             long idleTimeout, boolean validate ) {
+    if ( maxSize < 1 || minSize > maxSize ) {
+      throw new IllegalArgumentException( "Invalid size for connection pool " + name + ": " + minSize + "/" + maxSize );
+    }
+    this.name = name;
+    this.factory = factory;
+    this.minSize = Math.max( 0, minSize );
+    this.maxSize = maxSize;
+    this.maxWait = maxWait;
+    this.idleTimeout = idleTimeout;
+    this.validate = validate;
+    this.permits = new Semaphore( maxSize, true );
+  }
+
+  /**
+   * Opens connections until <code>minSize</code> are idle.
+   */
+  public void fill() {
+    while ( !closed && idle.size() < minSize && permits.availablePermits() - idle.size() > 0 ) {
+      try {
+        idle.offerLast( new Idle( open() ) );
+      } catch ( SaikuOlapException e ) {
+        log.error( "Could not fill connection pool: " + name, e );
+        return;
+      }
+    }
+  }
+
+  /**
+   * Leases a connection, waiting if all connections are in use.
+   *
+   * @throws SaikuOlapException if no connection became available in time or none could be opened
+   */
+  public ISaikuConnection borrow() throws SaikuOlapException {
+    if ( closed ) {
+      throw new SaikuOlapException( "Connection pool is closed: " + name );
+    }
+    try {
+      if ( !permits.tryAcquire( maxWait, TimeUnit.MILLISECONDS ) ) {
+        timeouts.incrementAndGet();
+        throw new SaikuOlapException( "Timed out after " + maxWait + "ms waiting for a connection to: " + name );
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new SaikuOlapException( "Interrupted waiting for a connection to: " + name, e );
+    }
+    try {
+      long now = System.currentTimeMillis();
+      Idle candidate;
+      while ( ( candidate = idle.pollFirst() ) != null ) {
+        if ( isExpired( candidate, now ) ) {
+          destroy( candidate.connection );
+        } else if ( validate && !isValid( candidate.connection ) ) {
+          validationFailures.incrementAndGet();
+          destroy( candidate.connection );
+        } else {
+          borrowed.incrementAndGet();
+          return candidate.connection;
+        }
+      }
+      ISaikuConnection con = open();
+      borrowed.incrementAndGet();
+      return con;
+    } catch ( SaikuOlapException | RuntimeException e ) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Gives a leased connection back to the pool.
+   */
+  public void giveBack( ISaikuConnection con ) {
+    try {
+      if ( closed || isClosed( con ) ) {
+        destroy( con );
+      } else {
+        // most recently used first, so that surplus connections stay idle and expire
+        idle.offerFirst( new Idle( con ) );
+      }
+    } finally {
+      permits.release();
+    }
+    evictIdle();
+  }
+
+  /**
+   * Closes the connections that have been idle for too long, keeping <code>minSize</code> of them.
+   */
+  public void evictIdle() {
+    if ( idleTimeout <= 0 ) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Iterator<Idle> it = idle.descendingIterator();
+    while ( it.hasNext() && idle.size() > minSize ) {
+      Idle candidate = it.next();
+      if ( isExpired( candidate, now ) && idle.remove( candidate ) ) {
+        destroy( candidate.connection );
+      }
+    }
+  }
+
+  /**
+   * Closes the idle connections, leased ones are closed when they are given back.
+   */
+  public void close() {
+    closed = true;
+    Idle candidate;
+    while ( ( candidate = idle.pollFirst() ) != null ) {
+      destroy( candidate.connection );
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMinSize() {
+    return minSize;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public int getActive() {
+    return maxSize - permits.availablePermits();
+  }
+
+  public int getIdle() {
+    return idle.size();
+  }
+
+  public int getWaiting() {
+    return permits.getQueueLength();
+  }
+
+  public long getCreated() {
+    return created.get();
+  }
+
+  public long getDestroyed() {
+    return destroyed.get();
+  }
+
+  public long getBorrowed() {
+    return borrowed.get();
+  }
+
+  public long getTimeouts() {
+    return timeouts.get();
+  }
+
+  public long getValidationFailures() {
+    return validationFailures.get();
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  private ISaikuConnection open() throws SaikuOlapException {
+    try {
+      ISaikuConnection con = factory.create();
+      if ( con == null || !con.initialized() ) {
+        throw new SaikuOlapException( "Could not open connection to: " + name );
+      }
+      created.incrementAndGet();
+      return con;
+    } catch ( SaikuOlapException e ) {
+      throw e;
+    } catch ( Exception e ) {
+      throw new SaikuOlapException( "Could not open connection to: " + name, e );
+    }
+  }
+
+  private void destroy( ISaikuConnection con ) {
+    destroyed.incrementAndGet();
+    try {
+      Connection c = con.getConnection();
+      if ( c != null && !c.isClosed() ) {
+        c.close();
+      }
+    } catch ( Exception e ) {
+      log.warn( "Could not close pooled connection to: " + name, e );
+    }
+  }
+
+  private boolean isExpired( Idle candidate, long now ) {
+    return idleTimeout > 0 && now - candidate.since > idleTimeout;
+  }
+
+  private static boolean isClosed( ISaikuConnection con ) {
+    try {
+      Connection c = con.getConnection();
+      return c == null || c.isClosed();
+    } catch ( Exception e ) {
+      return true;
+    }
+  }
+
+  private static boolean isValid( ISaikuConnection con ) {
+    if ( isClosed( con ) ) {
+      return false;
+    }
+    try {
+      return con.getConnection().isValid( VALIDATION_TIMEOUT );
+    } catch ( Exception | AbstractMethodError e ) {
+      // drivers that cannot validate are trusted as long as they are open
+      return true;
+    }
+  }
+
+  private static class Idle {
+    private final ISaikuConnection connection;
+    private final long since = System.currentTimeMillis();
+
+    Idle( ISaikuConnection connection ) {
+      this.connection = connection;
+    }
+  }
+}
@@ -0,0 +1,420 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.olap.discover;
+
+import org.saiku.olap.dto.SimpleCubeElement;
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.olap.util.exception.SaikuOlapException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Search index over the members of levels, shared by all sessions.
+ *
+ * <p>The members of a level are loaded once, on the first lookup, and searched in memory afterwards: exact matches of
+ * the name or caption first, then prefix matches, then matches at the start of a word and finally any substring
+ * match, each group in level order. Prefix and word matches are found by binary search, the substring scan only runs
+ * when they do not fill the limit. Levels are keyed by connection, catalog, schema, cube, level and role set. The
+ * index holds at most <code>saiku.olap.memberindex.maxmembers</code> members, dropping the least recently used
+ * levels; a bigger level is not indexed at all and its lookups are left to the caller. Refreshing a connection
+ * invalidates its levels.</p>
+ */
+public class MemberSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(MemberSearchIndex.class);
+
+    private static final int EXACT = 0;
+
+    private static final int PREFIX = 1;
+
+    private static final int WORD = 2;
+
+    private static final int SUBSTRING = 3;
+
+    private final boolean enabled;
+
+    private final long maxMembers;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long memberCount;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Loads all members of a level, in level order.
+     */
+    public interface Loader {
+        List<SimpleCubeElement> load() throws Exception;
+    }
+
+    public MemberSearchIndex() {
+        this(SaikuProperties.olapMemberIndexEnabled, SaikuProperties.olapMemberIndexMaxMembers);
+    }
+
+    /**
+     * @param enabled    whether levels are indexed at all
+     * @param maxMembers maximum number of members held by all levels
+     */
+    public MemberSearchIndex(boolean enabled, long maxMembers) {
+        this.enabled = enabled && maxMembers > 0;
+        this.maxMembers = maxMembers;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Searches the members of a level, loading them first if the level is not indexed yet.
+     *
+     * @param search the text to look for, case insensitive; blank returns the members in level order
+     * @param limit  maximum number of members returned, 0 or less for all
+     * @return the matching members, best matches first, or null if the level is too big to be indexed
+     */
+    public List<SimpleCubeElement> search(Key key, String search, int limit, Loader loader)
+            throws SaikuOlapException {
+        LevelIndex index = getIndex(key, loader);
+        if (index == null) {
+            return null;
+        }
+        return index.search(search, limit);
+    }
+
+    /**
+     * Drops all levels of the given connection.
+     */
+    public void invalidate(String connection) {
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Entry> entry = it.next();
+                if (entry.getKey().connection.equals(connection)) {
+                    memberCount -= entry.getValue().size;
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            log.debug("Removed " + removed + " indexed levels of connection: " + connection);
+        }
+    }
+
+    /**
+     * Drops all levels.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            memberCount = 0;
+        }
+    }
+
+    public int getLevelCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getMemberCount() {
+        synchronized (entries) {
+            return memberCount;
+        }
+    }
+
+    public long getMaxMembers() {
+        return maxMembers;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private LevelIndex getIndex(Key key, final Loader loader) throws SaikuOlapException {
+        Entry entry;
+        boolean load = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                // other lookups of the same level wait for this load instead of loading the level again
+                entry = new Entry(new FutureTask<>(new Callable<LevelIndex>() {
+                    public LevelIndex call() throws Exception {
+                        List<SimpleCubeElement> members = loader.load();
+                        return members.size() > maxMembers ? null : new LevelIndex(members);
+                    }
+                }));
+                entries.put(key, entry);
+                load = true;
+            }
+        }
+        if (load) {
+            misses.incrementAndGet();
+            entry.task.run();
+        } else {
+            hits.incrementAndGet();
+        }
+        LevelIndex index;
+        try {
+            index = entry.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SaikuOlapException("Interrupted while loading members of " + key, e);
+        } catch (ExecutionException e) {
+            remove(key, entry);
+            throw new SaikuOlapException("Cannot load members of " + key, e.getCause());
+        }
+        if (load) {
+            if (index == null) {
+                // the entry stays so that the level is not loaded again just to find out it is too big
+                log.debug("Not indexing " + key + ", it has more than " + maxMembers + " members");
+            } else {
+                added(entry, index.size());
+            }
+        }
+        return index;
+    }
+
+    private void remove(Key key, Entry entry) {
+        synchronized (entries) {
+            if (entries.get(key) == entry) {
+                entries.remove(key);
+                memberCount -= entry.size;
+            }
+        }
+    }
+
+    private void added(Entry entry, int size) {
+        synchronized (entries) {
+            if (!entries.containsValue(entry)) {
+                // invalidated while loading
+                return;
+            }
+            entry.size = size;
+            memberCount += size;
+            Iterator<Entry> it = entries.values().iterator();
+            while (memberCount > maxMembers && it.hasNext()) {
+                Entry eldest = it.next();
+                if (eldest != entry && eldest.task.isDone()) {
+                    memberCount -= eldest.size;
+                    it.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        private final FutureTask<LevelIndex> task;
+        private int size;
+
+        Entry(FutureTask<LevelIndex> task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * The members of one level with their names, captions and words in sorted arrays.
+     */
+    static class LevelIndex {
+
+        private final SimpleCubeElement[] members;
+
+        /**
+         * Lower case name and caption of each member, separated by a character that cannot be searched for.
+         */
+        private final String[] texts;
+
+        /**
+         * Sorted lower case names, captions and words of the members.
+         */
+        private final String[] terms;
+
+        /**
+         * Member of each term, negative for words that do not start the name or caption: -(member + 1).
+         */
+        private final int[] termMembers;
+
+        LevelIndex(List<SimpleCubeElement> list) {
+            members = list.toArray(new SimpleCubeElement[list.size()]);
+            texts = new String[members.length];
+            List<Term> all = new ArrayList<>(members.length * 2);
+            for (int i = 0; i < members.length; i++) {
+                String name = lower(members[i].getName());
+                String caption = lower(members[i].getCaption());
+                texts[i] = caption.equals(name) ? name : name + '\n' + caption;
+                addTerms(all, name, i);
+                if (!caption.equals(name)) {
+                    addTerms(all, caption, i);
+                }
+            }
+            Term[] sorted = all.toArray(new Term[all.size()]);
+            Arrays.sort(sorted);
+            terms = new String[sorted.length];
+            termMembers = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                terms[i] = sorted[i].text;
+                termMembers[i] = sorted[i].member;
+            }
+        }
+
+        int size() {
+            return members.length;
+        }
+
+        List<SimpleCubeElement> search(String search, int limit) {
+            int max = limit > 0 ? Math.min(limit, members.length) : members.length;
+            String query = search == null ? "" : lower(search.trim());
+            if (query.isEmpty()) {
+                return new ArrayList<>(Arrays.asList(members).subList(0, max));
+            }
+
+            // best rank of every member found by its terms
+            Map<Integer, Integer> ranks = new HashMap<>();
+            int from = lowerBound(query);
+            for (int t = from; t < terms.length && terms[t].startsWith(query); t++) {
+                boolean start = termMembers[t] >= 0;
+                int member = start ? termMembers[t] : -termMembers[t] - 1;
+                int rank = !start ? WORD : terms[t].length() == query.length() ? EXACT : PREFIX;
+                Integer previous = ranks.get(member);
+                if (previous == null || rank < previous) {
+                    ranks.put(member, rank);
+                }
+            }
+            // rank in the high bits, level order in the low bits
+            List<Long> found = new ArrayList<>(ranks.size());
+            for (Map.Entry<Integer, Integer> e : ranks.entrySet()) {
+                found.add(((long) e.getValue() << 32) | e.getKey());
+            }
+            for (int i = 0; i < texts.length && found.size() < max; i++) {
+                if (!ranks.containsKey(i) && texts[i].contains(query)) {
+                    found.add(((long) SUBSTRING << 32) | i);
+                }
+            }
+            Collections.sort(found);
+            List<SimpleCubeElement> result = new ArrayList<>(Math.min(max, found.size()));
+            for (int i = 0; i < found.size() && result.size() < max; i++) {
+                result.add(members[(int) (found.get(i) & 0xffffffffL)]);
+            }
+            return result;
+        }
+
+        private int lowerBound(String query) {
+            int low = 0;
+            int high = terms.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (terms[mid].compareTo(query) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static void addTerms(List<Term> terms, String text, int member) {
+            if (text.isEmpty()) {
+                return;
+            }
+            terms.add(new Term(text, member));
+            for (int i = 1; i < text.length(); i++) {
+                if (!Character.isLetterOrDigit(text.charAt(i - 1)) && Character.isLetterOrDigit(text.charAt(i))) {
+                    terms.add(new Term(text.substring(i), -member - 1));
+                }
+            }
+        }
+
+        private static String lower(String text) {
+            return text == null ? "" : text.toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static class Term implements Comparable<Term> {
+        private final String text;
+        private final int member;
+
+        Term(String text, int member) {
+            this.text = text;
+            this.member = member;
+        }
+
+        public int compareTo(Term o) {
+            return text.compareTo(o.text);
+        }
+    }
+
+    /**
+     * Identifies a level: connection, catalog, schema, cube, level and role set.
+     */
+    public static final class Key {
+        private final String connection;
+        private final String level;
+        private final String id;
+
+        public Key(String connection, String catalog, String schema, String cube, String level, String roles) {
+            if (connection == null || level == null) {
+                throw new IllegalArgumentException("Connection and level are required");
+            }
+            this.connection = connection;
+            this.level = level;
+            this.id = connection + '\n' + catalog + '\n' + schema + '\n' + cube + '\n' + level + '\n' + roles;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof Key && id.equals(((Key) o).id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return connection + "/" + level;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.olap.discover;
+
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.olap.util.exception.SaikuOlapException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the cube metadata converted to Saiku objects (connections, cubes, dimensions, hierarchies, levels,
+ * measures and cube properties), shared by all sessions.
+ *
+ * <p>Entries are keyed by connection, role set and what was looked up. Every connection has a version, bumped when
+ * the connection is refreshed or a schema changes; an entry only counts for the version it was loaded with, so a
+ * lookup that was running during an invalidation never stores stale metadata. The cache holds at most
+ * <code>saiku.olap.metadatacache.maxentries</code> entries, least recently used first out. Cached values are shared,
+ * callers must not modify them.</p>
+ */
+public class MetadataCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MetadataCache.class);
+
+    private final boolean enabled;
+
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong globalVersion = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Loads a metadata value on a cache miss.
+     */
+    public interface Loader<T> {
+        T load() throws SaikuOlapException;
+    }
+
+    public MetadataCache() {
+        this(SaikuProperties.olapMetadataCacheEnabled, SaikuProperties.olapMetadataCacheMaxEntries);
+    }
+
+    /**
+     * @param enabled    whether metadata is cached at all
+     * @param maxEntries maximum number of cached values
+     */
+    public MetadataCache(boolean enabled, int maxEntries) {
+        this.enabled = enabled && maxEntries > 0;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MetadataCache.this.maxEntries;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cached value, loading and caching it if there is none for the current version of the connection.
+     *
+     * @param connection the connection the value belongs to
+     * @param roles      the role set the value was seen with
+     * @param key        what was looked up, unique within the connection
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String connection, String roles, String key, Loader<T> loader) throws SaikuOlapException {
+        if (!enabled) {
+            return loader.load();
+        }
+        String id = connection + '\n' + roles + '\n' + key;
+        long global = globalVersion.get();
+        long version = version(connection).get();
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry != null && entry.global == global && entry.version == version) {
+                hits.incrementAndGet();
+                return (T) entry.value;
+            }
+        }
+        misses.incrementAndGet();
+        T value = loader.load();
+        synchronized (entries) {
+            if (value != null && globalVersion.get() == global && version(connection).get() == version) {
+                entries.put(id, new Entry(connection, global, version, value));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops the metadata of the given connection, lookups running meanwhile do not cache their results.
+     */
+    public void invalidate(String connection) {
+        version(connection).incrementAndGet();
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().connection.equals(connection)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        log.debug("Invalidated metadata of connection " + connection + ", removed " + removed + " entries");
+    }
+
+    /**
+     * Drops the metadata of all connections.
+     */
+    public void invalidateAll() {
+        globalVersion.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private AtomicLong version(String connection) {
+        AtomicLong version = versions.get(connection);
+        if (version == null) {
+            AtomicLong created = new AtomicLong();
+            version = versions.putIfAbsent(connection, created);
+            if (version == null) {
+                version = created;
+            }
+        }
+        return version;
+    }
+
+    private static class Entry {
+        private final String connection;
+        private final long global;
+        private final long version;
+        private final Object value;
+
+        Entry(String connection, long global, long version, Object value) {
+            this.connection = connection;
+            this.global = global;
+            this.version = version;
+            this.value = value;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.saiku.olap.util.SaikuCubeCaptionComparator;
 import org.saiku.olap.util.SaikuDimensionCaptionComparator;
 import org.saiku.olap.util.exception.SaikuOlapException;
 import org.saiku.service.util.MondrianDictionary;
+import org.saiku.service.util.security.Caller;
 
 import org.apache.commons.lang.StringUtils;
 import org.olap4j.OlapConnection;
@@ -37,7 +38,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import mondrian.olap4j.SaikuMondrianHelper;
 import mondrian.rolap.RolapConnection;
@@ -48,11 +51,37 @@ public class OlapMetaExplorer {
 
 	private final IConnectionManager connections;
 
+	private MemberSearchIndex memberIndex;
+
+	private MetadataCache metadataCache;
+
 	public OlapMetaExplorer(IConnectionManager ic) {
 		connections = ic;
 	}
 
-	public SaikuConnection getConnection(String connectionName) throws SaikuOlapException {
+	/**
+	 * Sets the index used to look up and search level members, null to load them on every lookup.
+	 */
+	public void setMemberIndex(MemberSearchIndex memberIndex) {
+		this.memberIndex = memberIndex;
+	}
+
+	/**
+	 * Sets the cache of converted metadata, null to read the metadata on every call.
+	 */
+	public void setMetadataCache(MetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+
+	public SaikuConnection getConnection(final String connectionName) throws SaikuOlapException {
+		return cached(connectionName, "connection", new MetadataCache.Loader<SaikuConnection>() {
+			public SaikuConnection load() throws SaikuOlapException {
+				return loadConnection(connectionName);
+			}
+		});
+	}
+
+	private SaikuConnection loadConnection(String connectionName) throws SaikuOlapException {
 		OlapConnection olapcon = connections.getOlapConnection(connectionName);
 		SaikuConnection connection;
 		if (olapcon != null) {
@@ -124,7 +153,15 @@ public class OlapMetaExplorer {
 	}
 
 
-	public List<SaikuCube> getCubes(String connectionName) throws SaikuOlapException {
+	public List<SaikuCube> getCubes(final String connectionName) throws SaikuOlapException {
+		return new ArrayList<>(cached(connectionName, "cubes", new MetadataCache.Loader<List<SaikuCube>>() {
+			public List<SaikuCube> load() throws SaikuOlapException {
+				return loadCubes(connectionName);
+			}
+		}));
+	}
+
+	private List<SaikuCube> loadCubes(String connectionName) throws SaikuOlapException {
 		OlapConnection olapcon = connections.getOlapConnection(connectionName);
 		List<SaikuCube> cubes = new ArrayList<>();
 		if (olapcon != null) {
@@ -201,7 +238,15 @@ public class OlapMetaExplorer {
 		return null;
 	}
 
-	public List<SaikuDimension> getAllDimensions(SaikuCube cube) throws SaikuOlapException {
+	public List<SaikuDimension> getAllDimensions(final SaikuCube cube) throws SaikuOlapException {
+		return new ArrayList<>(cached(cube, "dimensions", new MetadataCache.Loader<List<SaikuDimension>>() {
+			public List<SaikuDimension> load() throws SaikuOlapException {
+				return loadDimensions(cube);
+			}
+		}));
+	}
+
+	private List<SaikuDimension> loadDimensions(SaikuCube cube) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		List<SaikuDimension> dimensions = ObjectUtil.convertDimensions(nativeCube.getDimensions());
 		for (int i=0; i < dimensions.size();i++) {
@@ -215,7 +260,15 @@ public class OlapMetaExplorer {
 		return dimensions;
 	}
 
-	public SaikuDimension getDimension(SaikuCube cube, String dimensionName) throws SaikuOlapException {
+	public SaikuDimension getDimension(final SaikuCube cube, final String dimensionName) throws SaikuOlapException {
+		return copy(cached(cube, "dimension/" + dimensionName, new MetadataCache.Loader<SaikuDimension>() {
+			public SaikuDimension load() throws SaikuOlapException {
+				return loadDimension(cube, dimensionName);
+			}
+		}));
+	}
+
+	private SaikuDimension loadDimension(SaikuCube cube, String dimensionName) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		Dimension dim = nativeCube.getDimensions().get(dimensionName);
 		if (dim != null) {
@@ -224,12 +277,28 @@ public class OlapMetaExplorer {
 		return null;
 	}
 
-	public List<SaikuHierarchy> getAllHierarchies(SaikuCube cube) throws SaikuOlapException {
+	public List<SaikuHierarchy> getAllHierarchies(final SaikuCube cube) throws SaikuOlapException {
+		return new ArrayList<>(cached(cube, "hierarchies", new MetadataCache.Loader<List<SaikuHierarchy>>() {
+			public List<SaikuHierarchy> load() throws SaikuOlapException {
+				return loadHierarchies(cube);
+			}
+		}));
+	}
+
+	private List<SaikuHierarchy> loadHierarchies(SaikuCube cube) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		return ObjectUtil.convertHierarchies(nativeCube.getHierarchies());
 	}
 
-	public SaikuHierarchy getHierarchy(SaikuCube cube, String hierarchyName) throws SaikuOlapException {
+	public SaikuHierarchy getHierarchy(final SaikuCube cube, final String hierarchyName) throws SaikuOlapException {
+		return copy(cached(cube, "hierarchy/" + hierarchyName, new MetadataCache.Loader<SaikuHierarchy>() {
+			public SaikuHierarchy load() throws SaikuOlapException {
+				return loadHierarchy(cube, hierarchyName);
+			}
+		}));
+	}
+
+	private SaikuHierarchy loadHierarchy(SaikuCube cube, String hierarchyName) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		Hierarchy h = findHierarchy(hierarchyName, nativeCube);
 		if (h != null) {
@@ -238,7 +307,15 @@ public class OlapMetaExplorer {
 		return null;
 	}
 
-	public List<SaikuMember> getHierarchyRootMembers(SaikuCube cube, String hierarchyName) throws SaikuOlapException {
+	public List<SaikuMember> getHierarchyRootMembers(final SaikuCube cube, final String hierarchyName) throws SaikuOlapException {
+		return new ArrayList<>(cached(cube, "rootmembers/" + hierarchyName, new MetadataCache.Loader<List<SaikuMember>>() {
+			public List<SaikuMember> load() throws SaikuOlapException {
+				return loadHierarchyRootMembers(cube, hierarchyName);
+			}
+		}));
+	}
+
+	private List<SaikuMember> loadHierarchyRootMembers(SaikuCube cube, String hierarchyName) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		List<SaikuMember> members = new ArrayList<>();
 		Hierarchy h = findHierarchy(hierarchyName, nativeCube);
@@ -262,7 +339,15 @@ public class OlapMetaExplorer {
 	}
 
 
-	public List<SaikuLevel> getAllLevels(SaikuCube cube, String dimension, String hierarchy) throws SaikuOlapException {
+	public List<SaikuLevel> getAllLevels(final SaikuCube cube, final String dimension, final String hierarchy) throws SaikuOlapException {
+		return new ArrayList<>(cached(cube, "levels/" + dimension + "/" + hierarchy, new MetadataCache.Loader<List<SaikuLevel>>() {
+			public List<SaikuLevel> load() throws SaikuOlapException {
+				return loadLevels(cube, dimension, hierarchy);
+			}
+		}));
+	}
+
+	private List<SaikuLevel> loadLevels(SaikuCube cube, String dimension, String hierarchy) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		Dimension dim = nativeCube.getDimensions().get(dimension);
 		if (dim != null) {
@@ -322,6 +407,12 @@ public class OlapMetaExplorer {
 					}
 					
 				}
+				if (memberIndex != null && memberIndex.isEnabled()) {
+					simpleMembers = searchMemberIndex(con, cube, l, searchString, searchLimit);
+					if (simpleMembers != null) {
+						return simpleMembers;
+					}
+				}
 				if (search || searchLimit > 0) {
 					List<Member> foundMembers = new ArrayList<>();
 				  List<Member> lokuplist;
@@ -368,6 +459,25 @@ public class OlapMetaExplorer {
 
 	}
 
+	private List<SimpleCubeElement> searchMemberIndex(final OlapConnection con, final SaikuCube cube, final Level l,
+													 String searchString, int searchLimit) throws SaikuOlapException {
+		MemberSearchIndex.Key key = new MemberSearchIndex.Key(cube.getConnection(), cube.getCatalog(),
+				cube.getSchema(), cube.getName(), l.getUniqueName(), Caller.current(null).getRoleKey());
+		return memberIndex.search(key, searchString, searchLimit, new MemberSearchIndex.Loader() {
+			public List<SimpleCubeElement> load() throws Exception {
+				List<Member> members;
+				if (SaikuMondrianHelper.isMondrianConnection(con) &&
+					SaikuMondrianHelper.getMondrianServer(con).getVersion().getMajorVersion() >= 4) {
+					members = SaikuMondrianHelper.getMDXMemberLookup(con, cube.getName(), l);
+				} else {
+					members = l.getMembers();
+				}
+				log.debug("Indexing " + members.size() + " members of level " + l.getUniqueName());
+				return ObjectUtil.convert2Simple(members);
+			}
+		});
+	}
+
 	public List<SaikuMember> getMemberChildren(SaikuCube cube, String uniqueMemberName) throws SaikuOlapException {
 		List<SaikuMember> members = new ArrayList<>();
 		try {
@@ -387,7 +497,15 @@ public class OlapMetaExplorer {
 		return members;
 	}
 
-	public List<SaikuMember> getAllMeasures(SaikuCube cube) throws SaikuOlapException {
+	public List<SaikuMember> getAllMeasures(final SaikuCube cube) throws SaikuOlapException {
+		return new ArrayList<>(cached(cube, "measures", new MetadataCache.Loader<List<SaikuMember>>() {
+			public List<SaikuMember> load() throws SaikuOlapException {
+				return loadMeasures(cube);
+			}
+		}));
+	}
+
+	private List<SaikuMember> loadMeasures(SaikuCube cube) throws SaikuOlapException {
 		List<SaikuMember> measures = new ArrayList<>();
 		try {
 			Cube nativeCube = getNativeCube(cube);
@@ -421,6 +539,81 @@ public class OlapMetaExplorer {
 		}
 	}
 	
+	/**
+	 * Returns the query properties derived from the cube: drillthrough, explain and scenario support.
+	 */
+	public Map<String, Object> getCubeProperties(final SaikuCube cube) throws SaikuOlapException {
+		return new HashMap<>(cached(cube, "properties", new MetadataCache.Loader<Map<String, Object>>() {
+			public Map<String, Object> load() throws SaikuOlapException {
+				return loadCubeProperties(cube);
+			}
+		}));
+	}
+
+	private Map<String, Object> loadCubeProperties(SaikuCube cube) throws SaikuOlapException {
+		Map<String, Object> properties = new HashMap<>();
+		try {
+			Cube c = getNativeCube(cube);
+			OlapConnection con = c.getSchema().getCatalog().getDatabase().getOlapConnection();
+			properties.put("saiku.olap.query.drillthrough", c.isDrillThroughEnabled());
+			properties.put("org.saiku.query.explain", con.isWrapperFor(RolapConnection.class));
+
+			try {
+				Boolean isScenario = (c.getDimensions().get("Scenario") != null);
+				properties.put("org.saiku.connection.scenario", isScenario);
+			} catch (Exception e) {
+				properties.put("org.saiku.connection.scenario", false);
+			}
+		} catch (SaikuOlapException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SaikuOlapException("Cannot get properties of cube ( " + cube + " )", e);
+		}
+		return properties;
+	}
+
+	private <T> T cached(SaikuCube cube, String key, MetadataCache.Loader<T> loader) throws SaikuOlapException {
+		return cached(cube.getConnection(), cube.getCatalog() + "/" + cube.getSchema() + "/" + cube.getName() + "/" + key,
+				loader);
+	}
+
+	private <T> T cached(String connectionName, String key, MetadataCache.Loader<T> loader) throws SaikuOlapException {
+		if (metadataCache == null || !metadataCache.isEnabled()) {
+			return loader.load();
+		}
+		// the visible metadata depends on the roles of the caller, the shared connection may have the ones of another
+		return metadataCache.get(connectionName, Caller.current(null).getRoleKey(), key, loader);
+	}
+
+	/**
+	 * Copies a cached dimension with lists of its own, like the lists of cached elements are copied, so callers
+	 * cannot change the cached one.
+	 */
+	private static SaikuDimension copy(SaikuDimension dimension) {
+		if (dimension == null) {
+			return null;
+		}
+		List<SaikuHierarchy> hierarchies = null;
+		if (dimension.getHierarchies() != null) {
+			hierarchies = new ArrayList<>(dimension.getHierarchies().size());
+			for (SaikuHierarchy hierarchy : dimension.getHierarchies()) {
+				hierarchies.add(copy(hierarchy));
+			}
+		}
+		return new SaikuDimension(dimension.getName(), dimension.getUniqueName(), dimension.getCaption(),
+				dimension.getDescription(), dimension.isVisible(), hierarchies);
+	}
+
+	private static SaikuHierarchy copy(SaikuHierarchy hierarchy) {
+		if (hierarchy == null) {
+			return null;
+		}
+		return new SaikuHierarchy(hierarchy.getName(), hierarchy.getUniqueName(), hierarchy.getCaption(),
+				hierarchy.getDescription(), hierarchy.getDimensionUniqueName(), hierarchy.isVisible(),
+				hierarchy.getLevels() != null ? new ArrayList<>(hierarchy.getLevels()) : null,
+				hierarchy.getRootMembers() != null ? new ArrayList<>(hierarchy.getRootMembers()) : null);
+	}
+
 	private boolean isMondrian(Cube cube) {
 		OlapConnection con = cube.getSchema().getCatalog().getDatabase().getOlapConnection();
 		try {
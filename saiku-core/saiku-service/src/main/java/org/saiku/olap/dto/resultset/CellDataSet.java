@@ -89,6 +89,10 @@ public class CellDataSet implements Serializable {
     return topOffset;
   }
 
+  public void setTopOffset( int topOffset ) {
+    this.topOffset = topOffset;
+  }
+
   public int getLeftOffset() {
     return leftOffset;
   }
@@ -16,6 +16,7 @@
 package org.saiku.olap.dto.resultset;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,7 +36,12 @@ public class DataCell extends AbstractBaseCell implements Serializable {
   private String formatString = null; // Definition of the property which holds the format string
   // used to format cell values.
 
-  private final Map<String, String> properties = new HashMap<>();
+  /**
+   * The properties of the cell, possibly a map shared with other cells, see {@link #setProperties(Map)}.
+   */
+  private Map<String, String> properties = Collections.emptyMap();
+
+  private boolean sharedProperties = true;
 
   /**
    * Blank constructor for serialization purposes, don't use it.
@@ -79,17 +85,37 @@ public class DataCell extends AbstractBaseCell implements Serializable {
   }
 
   public void setProperty( String name, String value ) {
-    properties.put( name, value );
+    ownProperties().put( name, value );
   }
 
+  /**
+   * Sets the properties of a cell without any. The map is kept instead of copied, so cells formatted with the same
+   * properties share it; it is copied as soon as a property of the cell changes.
+   */
   public void setProperties( Map<String, String> props ) {
-    properties.putAll( props );
+    if ( properties.isEmpty() ) {
+      properties = props;
+      sharedProperties = true;
+    } else {
+      ownProperties().putAll( props );
+    }
   }
 
+  /**
+   * @return the properties of the cell, read only if they are shared with other cells
+   */
   public Map<String, String> getProperties() {
     return properties;
   }
 
+  private Map<String, String> ownProperties() {
+    if ( sharedProperties ) {
+      properties = new HashMap<>( properties );
+      sharedProperties = false;
+    }
+    return properties;
+  }
+
   public String getProperty( String name ) {
     return properties.get( name );
   }
@@ -15,16 +15,28 @@
  */
 package org.saiku.olap.dto.resultset;
 
+import org.saiku.olap.util.SaikuProperties;
+
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
+/**
+ * Two dimensional grid of cells produced by the cell set formatters.
+ *
+ * <p>Grids up to {@link SaikuProperties#olapMatrixDenseMaxCells} cells are stored densely as an array of rows, each
+ * row being allocated the first time a cell is written to it, so empty rows only cost a reference. Larger (and
+ * therefore usually very empty) grids, or grids whose size was not given up front, fall back to a sparse map keyed by
+ * the packed coordinate.</p>
+ */
 public class Matrix {
 
-  private final Map<List<Integer>, AbstractBaseCell> map = new HashMap<>();
+  private AbstractBaseCell[][] rows;
+
+  private Map<Long, AbstractBaseCell> sparse;
 
   private int width = 0;
 
@@ -32,11 +44,15 @@ public class Matrix {
 
   private int offset = 0;
 
-  private final Set<Integer> xAxis = new HashSet<>();
-  private final Set<Integer> yAxis = new HashSet<>();
+  private final BitSet xAxis = new BitSet();
+  private final BitSet yAxis = new BitSet();
+
+  private int xCount = 0;
+  private int yCount = 0;
 
 
   public Matrix() {
+    this.sparse = new HashMap<>();
   }
 
   /**
@@ -48,6 +64,11 @@ public class Matrix {
   public Matrix( final int width, final int height ) {
     this.width = width;
     this.height = height;
+    if ( width > 0 && height > 0 && (long) width * height <= SaikuProperties.olapMatrixDenseMaxCells ) {
+      this.rows = new AbstractBaseCell[ height ][];
+    } else {
+      this.sparse = new HashMap<>();
+    }
   }
 
   /**
@@ -57,10 +78,7 @@ public class Matrix {
    * @param y          Y coordinate
    */
   public void set( final int x, final int y, final DataCell cell ) {
-    map.put( Arrays.asList( x, y ), cell );
-    addCoordinates( x, y );
-    assert x >= 0 && x < width : x;
-    assert y >= 0 && y < height : y;
+    put( x, y, cell );
   }
 
   /**
@@ -71,10 +89,27 @@ public class Matrix {
    * @param value      - Value
    */
   public void set( final int x, final int y, final MemberCell value ) {
-    map.put( Arrays.asList( x, y ), value );
-    addCoordinates( x, y );
+    put( x, y, value );
+  }
+
+  private void put( final int x, final int y, final AbstractBaseCell cell ) {
     assert x >= 0 && x < width : x;
     assert y >= 0 && y < height : y;
+    if ( rows != null ) {
+      if ( x >= 0 && x < width && y >= 0 && y < height ) {
+        AbstractBaseCell[] row = rows[ y ];
+        if ( row == null ) {
+          row = new AbstractBaseCell[ width ];
+          rows[ y ] = row;
+        }
+        row[ x ] = cell;
+        addCoordinates( x, y );
+        return;
+      }
+      toSparse();
+    }
+    sparse.put( key( x, y ), cell );
+    addCoordinates( x, y );
   }
 
   /**
@@ -85,7 +120,35 @@ public class Matrix {
    * @return Cell
    */
   public AbstractBaseCell get( final int x, final int y ) {
-    return map.get( Arrays.asList( x, y ) );
+    if ( rows != null ) {
+      if ( x < 0 || x >= width || y < 0 || y >= height ) {
+        return null;
+      }
+      final AbstractBaseCell[] row = rows[ y ];
+      return row == null ? null : row[ x ];
+    }
+    return sparse.get( key( x, y ) );
+  }
+
+  /**
+   * Returns a copy of the first <code>length</code> cells of a row.
+   *
+   * @param y      Y coordinate
+   * @param length Number of cells to return
+   * @return the row, padded with nulls where no cell was set
+   */
+  public AbstractBaseCell[] getRow( final int y, final int length ) {
+    final AbstractBaseCell[] copy = new AbstractBaseCell[ length ];
+    if ( rows != null ) {
+      if ( y >= 0 && y < height && rows[ y ] != null ) {
+        System.arraycopy( rows[ y ], 0, copy, 0, Math.min( length, rows[ y ].length ) );
+      }
+      return copy;
+    }
+    for ( int x = 0; x < length; x++ ) {
+      copy[ x ] = get( x, y );
+    }
+    return copy;
   }
 
   /**
@@ -95,7 +158,7 @@ public class Matrix {
    */
   public int getMatrixWidth() {
     //        return width;
-    return xAxis.size();
+    return xCount;
   }
 
   /**
@@ -105,15 +168,45 @@ public class Matrix {
    */
   public int getMatrixHeight() {
     //        return height;
-    return yAxis.size();
+    return yCount;
   }
 
   /**
-   * Return the generated hashmap.
+   * Return whether the cells are held in the dense row storage.
+   *
+   * @return true if dense, false if the sparse fallback is in use
+   */
+  public boolean isDense() {
+    return rows != null;
+  }
+
+  /**
+   * Return a copy of the populated cells keyed by their [x, y] coordinate.
    *
    * @return the map
+   * @deprecated builds a new map on every call, use {@link #get(int, int)} or {@link #getRow(int, int)} instead.
    */
+  @Deprecated
   public Map<List<Integer>, AbstractBaseCell> getMap() {
+    final Map<List<Integer>, AbstractBaseCell> map = new LinkedHashMap<>();
+    if ( rows != null ) {
+      for ( int y = 0; y < rows.length; y++ ) {
+        final AbstractBaseCell[] row = rows[ y ];
+        if ( row == null ) {
+          continue;
+        }
+        for ( int x = 0; x < row.length; x++ ) {
+          if ( row[ x ] != null ) {
+            map.put( Arrays.asList( x, y ), row[ x ] );
+          }
+        }
+      }
+    } else {
+      for ( Map.Entry<Long, AbstractBaseCell> entry : sparse.entrySet() ) {
+        final long key = entry.getKey();
+        map.put( Arrays.asList( (int) ( key >>> 32 ), (int) key ), entry.getValue() );
+      }
+    }
     return map;
   }
 
@@ -136,17 +229,43 @@ public class Matrix {
 
   }
 
-  private void addCoordinates( Integer x, Integer y ) {
-    xAxis.add( x );
-    yAxis.add( y );
+  private void addCoordinates( final int x, final int y ) {
+    if ( x >= 0 && !xAxis.get( x ) ) {
+      xAxis.set( x );
+      xCount++;
+    }
+    if ( y >= 0 && !yAxis.get( y ) ) {
+      yAxis.set( y );
+      yCount++;
+    }
+  }
+
+  private void toSparse() {
+    sparse = new HashMap<>();
+    for ( int y = 0; y < rows.length; y++ ) {
+      final AbstractBaseCell[] row = rows[ y ];
+      if ( row == null ) {
+        continue;
+      }
+      for ( int x = 0; x < row.length; x++ ) {
+        if ( row[ x ] != null ) {
+          sparse.put( key( x, y ), row[ x ] );
+        }
+      }
+    }
+    rows = null;
+  }
+
+  private static long key( final int x, final int y ) {
+    return ( (long) x << 32 ) | ( y & 0xffffffffL );
   }
 
   public boolean containsY( Integer yCoordinate ) {
-    return yAxis.contains( yCoordinate );
+    return yCoordinate != null && yCoordinate >= 0 && yAxis.get( yCoordinate );
   }
 
   public boolean containsX( Integer xCoordinate ) {
-    return xAxis.contains( xCoordinate );
+    return xCoordinate != null && xCoordinate >= 0 && xAxis.get( xCoordinate );
   }
 
 }
@@ -0,0 +1,182 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.olap.dto.resultset;
+
+import org.saiku.service.olap.totals.TotalNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rectangular window of a formatted result, for clients that scroll over results too large to fetch at once.
+ *
+ * <p>The cells hold the header rows and the body rows of the window, each with the header columns of the rows axis
+ * and the data columns of the window. Rows and columns are counted in body rows and data columns, leaving the
+ * headers out.</p>
+ */
+public class ResultWindow {
+
+  private final CellDataSet cells;
+
+  private final int headerColumns;
+
+  private final int firstRow;
+
+  private final int firstColumn;
+
+  private final int rowCount;
+
+  private final int columnCount;
+
+  /**
+   * @param cells         the header rows and the body rows of the window
+   * @param headerColumns the header columns every row of the window starts with
+   * @param firstRow      the first body row of the window
+   * @param firstColumn   the first data column of the window
+   * @param rowCount      the body rows of the whole result
+   * @param columnCount   the data columns of the whole result
+   */
+  public ResultWindow( CellDataSet cells, int headerColumns, int firstRow, int firstColumn, int rowCount,
+                       int columnCount ) {
+    this.cells = cells;
+    this.headerColumns = headerColumns;
+    this.firstRow = firstRow;
+    this.firstColumn = firstColumn;
+    this.rowCount = rowCount;
+    this.columnCount = columnCount;
+  }
+
+  /**
+   * Cuts a window out of a result formatted to a whole table. The header columns are the member cells the first body
+   * row starts with.
+   */
+  public static ResultWindow of( CellDataSet table, int firstRow, int rows, int firstColumn, int columns ) {
+    final AbstractBaseCell[][] headers =
+      table.getCellSetHeaders() != null ? table.getCellSetHeaders() : new AbstractBaseCell[ 0 ][];
+    final AbstractBaseCell[][] body = table.getCellSetBody() != null ? table.getCellSetBody() : new AbstractBaseCell[ 0 ][];
+    int headerColumns = 0;
+    if ( body.length > 0 ) {
+      while ( headerColumns < body[ 0 ].length && body[ 0 ][ headerColumns ] instanceof MemberCell ) {
+        headerColumns++;
+      }
+    }
+    final int tableWidth = body.length > 0 ? body[ 0 ].length : ( headers.length > 0 ? headers[ 0 ].length : 0 );
+    final int columnCount = Math.max( 0, tableWidth - headerColumns );
+    final int fromRow = clamp( firstRow, body.length );
+    final int toRow = clamp( fromRow + Math.max( 0, rows ), body.length );
+    final int fromColumn = clamp( firstColumn, columnCount );
+    final int toColumn = clamp( fromColumn + Math.max( 0, columns ), columnCount );
+
+    final AbstractBaseCell[][] windowHeaders = new AbstractBaseCell[ headers.length ][];
+    for ( int y = 0; y < headers.length; y++ ) {
+      windowHeaders[ y ] = slice( headers[ y ], headerColumns, fromColumn, toColumn );
+    }
+    final AbstractBaseCell[][] windowBody = new AbstractBaseCell[ toRow - fromRow ][];
+    for ( int y = fromRow; y < toRow; y++ ) {
+      windowBody[ y - fromRow ] = slice( body[ y ], headerColumns, fromColumn, toColumn );
+    }
+
+    final CellDataSet cells = new CellDataSet( headerColumns + toColumn - fromColumn, headers.length + windowBody.length );
+    cells.setCellSetHeaders( windowHeaders );
+    cells.setCellSetBody( windowBody );
+    cells.setOffset( table.getOffset() );
+    cells.setTopOffset( table.getTopOffset() );
+    cells.setLeftOffset( table.getLeftOffset() );
+    cells.setRuntime( table.getRuntime() );
+    final ResultWindow window = new ResultWindow( cells, headerColumns, fromRow, fromColumn, body.length, columnCount );
+    window.setTotals( table.getRowTotalsLists(), table.getColTotalsLists() );
+    return window;
+  }
+
+  /**
+   * Sets the totals of the window: of every level, the totals of the rows and of the columns overlapping it.
+   */
+  public void setTotals( List<TotalNode>[] rowTotalsLists, List<TotalNode>[] colTotalsLists ) {
+    cells.setRowTotalsLists( overlapping( rowTotalsLists, firstRow, cells.getCellSetBody().length ) );
+    cells.setColTotalsLists( overlapping( colTotalsLists, firstColumn, cells.getWidth() - headerColumns ) );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static List<TotalNode>[] overlapping( List<TotalNode>[] lists, int first, int count ) {
+    if ( lists == null ) {
+      return null;
+    }
+    final List<TotalNode>[] window = new List[ lists.length ];
+    for ( int i = 0; i < lists.length; i++ ) {
+      window[ i ] = new ArrayList<>();
+      if ( lists[ i ] == null ) {
+        continue;
+      }
+      int start = 0;
+      for ( TotalNode node : lists[ i ] ) {
+        // a total covers as many rows or columns as it is wide
+        final int end = start + Math.max( 1, node.getWidth() );
+        if ( end > first && start < first + count ) {
+          window[ i ].add( node );
+        }
+        start = end;
+      }
+    }
+    return window;
+  }
+
+  private static AbstractBaseCell[] slice( AbstractBaseCell[] row, int headerColumns, int fromColumn, int toColumn ) {
+    final AbstractBaseCell[] cells = new AbstractBaseCell[ headerColumns + toColumn - fromColumn ];
+    System.arraycopy( row, 0, cells, 0, Math.min( headerColumns, row.length ) );
+    if ( headerColumns + fromColumn < row.length ) {
+      System.arraycopy( row, headerColumns + fromColumn, cells, headerColumns,
+        Math.min( toColumn - fromColumn, row.length - headerColumns - fromColumn ) );
+    }
+    return cells;
+  }
+
+  private static int clamp( int value, int max ) {
+    return Math.max( 0, Math.min( value, max ) );
+  }
+
+  /**
+   * @return the header rows and the body rows of the window
+   */
+  public CellDataSet getCells() {
+    return cells;
+  }
+
+  public int getHeaderColumns() {
+    return headerColumns;
+  }
+
+  public int getFirstRow() {
+    return firstRow;
+  }
+
+  public int getFirstColumn() {
+    return firstColumn;
+  }
+
+  /**
+   * @return the body rows of the whole result
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return the data columns of the whole result
+   */
+  public int getColumnCount() {
+    return columnCount;
+  }
+}
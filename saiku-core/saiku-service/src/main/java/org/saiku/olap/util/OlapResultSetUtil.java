@@ -36,25 +36,20 @@ public class OlapResultSetUtil {
     final Matrix matrix = formatter.format( cellSet );
     final CellDataSet cds = new CellDataSet( matrix.getMatrixWidth(), matrix.getMatrixHeight() );
 
-    int z = 0;
-    final AbstractBaseCell[][] bodyvalues =
-      new AbstractBaseCell[ matrix.getMatrixHeight() - matrix.getOffset() ][ matrix
-        .getMatrixWidth() ];
-    for ( int y = matrix.getOffset(); y < matrix.getMatrixHeight(); y++ ) {
+    final int width = matrix.getMatrixWidth();
+    final int height = matrix.getMatrixHeight();
+    final int offset = matrix.getOffset();
 
-      for ( int x = 0; x < matrix.getMatrixWidth(); x++ ) {
-        bodyvalues[ z ][ x ] = matrix.get( x, y );
-      }
-      z++;
+    final AbstractBaseCell[][] bodyvalues = new AbstractBaseCell[ Math.max( 0, height - offset ) ][];
+    for ( int y = offset; y < height; y++ ) {
+      bodyvalues[ y - offset ] = matrix.getRow( y, width );
     }
 
     cds.setCellSetBody( bodyvalues );
 
-    final AbstractBaseCell[][] headervalues = new AbstractBaseCell[ matrix.getOffset() ][ matrix.getMatrixWidth() ];
-    for ( int y = 0; y < matrix.getOffset(); y++ ) {
-      for ( int x = 0; x < matrix.getMatrixWidth(); x++ ) {
-        headervalues[ y ][ x ] = matrix.get( x, y );
-      }
+    final AbstractBaseCell[][] headervalues = new AbstractBaseCell[ offset ][];
+    for ( int y = 0; y < offset; y++ ) {
+      headervalues[ y ] = matrix.getRow( y, width );
     }
     cds.setCellSetHeaders( headervalues );
     cds.setOffset( matrix.getOffset() );
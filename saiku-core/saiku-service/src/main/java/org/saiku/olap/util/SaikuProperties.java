@@ -245,10 +245,51 @@ public class SaikuProperties extends Properties {
   public static final String webExportExcelFormat = getPropString( "saiku.web.export.excel.format", "xlsx" );
   public static final String webExportExcelDefaultNumberFormat =
     getPropString( "saiku.web.export.excel.numberformat", "#,##0.00" );
+  public static final Boolean webExportExcelStreaming = getPropBoolean( "saiku.web.export.excel.streaming", "true" );
+  public static final Integer webExportExcelStreamingWindow =
+    getPropInteger( "saiku.web.export.excel.streaming.window", "100" );
   public static final String webExportExcelPoweredBy = getPropString("saiku.web.export.excel.poweredby", "Export made using Saiku OLAP client.");
   public static final String formatDefautNumberFormat = getPropString( "saiku.format.numberformat", "#,##0.00" );
   public static final Locale locale = getLocale();
   public static final Boolean olapConvertQuery = getPropBoolean( "saiku.olap.convert.query", "false" );
+  public static final Integer olapMatrixDenseMaxCells =
+    getPropInteger( "saiku.olap.matrix.densemaxcells", "10000000" );
+  public static final Boolean olapResultCacheEnabled = getPropBoolean( "saiku.olap.resultcache.enabled", "true" );
+  public static final Integer olapResultCacheMaxEntries =
+    getPropInteger( "saiku.olap.resultcache.maxentries", "100" );
+  public static final Integer olapResultCacheTtl = getPropInteger( "saiku.olap.resultcache.ttl", "300" );
+  public static final Boolean olapQueryCacheEnabled = getPropBoolean( "saiku.olap.querycache.enabled", "true" );
+  public static final Integer olapQueryCacheMaxEntries = getPropInteger( "saiku.olap.querycache.maxentries", "500" );
+  public static final Integer olapContextMaxPerUser = getPropInteger( "saiku.olap.context.maxperuser", "50" );
+  public static final Integer olapContextIdleTimeout = getPropInteger( "saiku.olap.context.idletimeout", "1800" );
+  public static final Integer olapContextMaxCells = getPropInteger( "saiku.olap.context.maxcells", "5000000" );
+  public static final Boolean olapMetadataCacheEnabled = getPropBoolean( "saiku.olap.metadatacache.enabled", "true" );
+  public static final Integer olapMetadataCacheMaxEntries =
+    getPropInteger( "saiku.olap.metadatacache.maxentries", "10000" );
+  public static final Boolean olapMemberIndexEnabled = getPropBoolean( "saiku.olap.memberindex.enabled", "true" );
+  public static final Integer olapMemberIndexMaxMembers =
+    getPropInteger( "saiku.olap.memberindex.maxmembers", "5000000" );
+  public static final Integer olapJobsThreads = getPropInteger( "saiku.olap.jobs.threads", "4" );
+  public static final Integer olapJobsMaxQueued = getPropInteger( "saiku.olap.jobs.maxqueued", "100" );
+  public static final Integer olapJobsMaxQueuedPerUser = getPropInteger( "saiku.olap.jobs.maxqueuedperuser", "10" );
+  public static final Integer olapJobsTtl = getPropInteger( "saiku.olap.jobs.ttl", "300" );
+  public static final Boolean olapAdmissionEnabled = getPropBoolean( "saiku.olap.admission.enabled", "true" );
+  public static final Integer olapAdmissionMaxPerUser = getPropInteger( "saiku.olap.admission.maxperuser", "4" );
+  public static final Integer olapAdmissionMaxPerDatasource =
+    getPropInteger( "saiku.olap.admission.maxperdatasource", "0" );
+  public static final String olapAdmissionMaxPerRole = getPropString( "saiku.olap.admission.maxperrole", "" );
+  public static final Integer olapAdmissionMaxQueued = getPropInteger( "saiku.olap.admission.maxqueued", "200" );
+  public static final Integer olapAdmissionTimeout = getPropInteger( "saiku.olap.admission.timeout", "120" );
+  public static final Integer olapDrillthroughMaxCursorsPerUser =
+    getPropInteger( "saiku.olap.drillthrough.maxcursorsperuser", "4" );
+  public static final Integer olapDrillthroughIdleTimeout =
+    getPropInteger( "saiku.olap.drillthrough.idletimeout", "300" );
+  public static final Integer olapDrillthroughFetchSize = getPropInteger( "saiku.olap.drillthrough.fetchsize", "1000" );
+  public static final Boolean olapMetricsEnabled = getPropBoolean( "saiku.olap.metrics.enabled", "true" );
+  public static final Boolean olapMetricsJmx = getPropBoolean( "saiku.olap.metrics.jmx", "true" );
+  public static final Boolean repositoryCacheEnabled = getPropBoolean( "saiku.repository.cache.enabled", "true" );
+  public static final Integer repositoryCacheMaxFileSize =
+    getPropInteger( "saiku.repository.cache.maxfilesize", "1048576" );
 
   private static Locale getLocale() {
     String locale = null;
@@ -275,6 +316,17 @@ public class SaikuProperties extends Properties {
     return ret;
   }
 
+  private static Integer getPropInteger( String key, String defaultValue ) {
+    String value = getPropString( key, defaultValue );
+    try {
+      return Integer.parseInt( value.trim() );
+    } catch ( NumberFormatException e ) {
+      log.warn( "Property: " + key + " with value: " + value
+        + ", is not a valid integer, falling back to default: " + defaultValue );
+      return Integer.parseInt( defaultValue );
+    }
+  }
+
   private static String getPropString( String key, String defaultValue ) {
     String ret;
     if ( instance.containsKey( key ) ) {
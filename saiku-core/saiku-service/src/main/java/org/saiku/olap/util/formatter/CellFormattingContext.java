@@ -0,0 +1,139 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.olap.util.formatter;
+
+import org.saiku.olap.util.SaikuProperties;
+
+import org.olap4j.impl.Olap4jUtil;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * State shared by all cells formatted in one execution of a formatter.
+ *
+ * <p>Number formats are compiled once per pattern and locale, <code>FORMAT_STRING</code> properties are parsed once
+ * per distinct value and cells with the same parsed properties share one map, so formatting a cell only allocates the
+ * cell itself. A context is not thread safe, use one per thread.</p>
+ */
+public class CellFormattingContext {
+
+  private final Map<Locale, Map<String, NumberFormat>> numberFormats = new HashMap<>();
+
+  private final Map<String, String> formatStrings = new HashMap<>();
+
+  private final Map<String, String> cellProperties = new HashMap<>();
+
+  private final Map<Map<String, String>, Map<String, String>> sharedProperties = new HashMap<>();
+
+  private final String defaultPattern;
+
+  private final Locale defaultLocale;
+
+  public CellFormattingContext() {
+    this( SaikuProperties.formatDefautNumberFormat, SaikuProperties.locale );
+  }
+
+  public CellFormattingContext( String defaultPattern, Locale defaultLocale ) {
+    this.defaultPattern = defaultPattern;
+    this.defaultLocale = defaultLocale;
+  }
+
+  /**
+   * Formats a value with the default number format.
+   */
+  public String formatNumber( Object value ) {
+    return getNumberFormat( defaultPattern, defaultLocale ).format( value );
+  }
+
+  /**
+   * Returns the compiled number format for a pattern and locale.
+   */
+  public NumberFormat getNumberFormat( String pattern, Locale locale ) {
+    Map<String, NumberFormat> formats = numberFormats.get( locale );
+    if ( formats == null ) {
+      formats = new HashMap<>();
+      numberFormats.put( locale, formats );
+    }
+    NumberFormat format = formats.get( pattern );
+    if ( format == null ) {
+      DecimalFormat decimalFormat = new DecimalFormat( pattern );
+      decimalFormat.setDecimalFormatSymbols( new DecimalFormatSymbols( locale ) );
+      format = decimalFormat;
+      formats.put( pattern, format );
+    }
+    return format;
+  }
+
+  /**
+   * Returns the Excel relevant part of a <code>FORMAT_STRING</code> cell property: the property itself, or the
+   * first section of a <code>|format|...</code> property.
+   */
+  public String getFormatString( String formatString ) {
+    if ( formatString == null ) {
+      return null;
+    }
+    String parsed = formatStrings.get( formatString );
+    if ( parsed == null ) {
+      parsed = formatString;
+      if ( formatString.startsWith( "|" ) ) {
+        int end = formatString.indexOf( '|', 1 );
+        parsed = end < 0 ? null : formatString.substring( 1, end );
+      }
+      if ( parsed != null ) {
+        formatStrings.put( formatString, parsed );
+      }
+    }
+    return parsed;
+  }
+
+  /**
+   * Parses a formatted cell value of the form <code>|value|name=value...</code>, see
+   * {@link #getParsedProperties()} for the properties.
+   *
+   * @return the value without the properties
+   */
+  public String parseFormattedValue( String formattedValue ) {
+    cellProperties.clear();
+    if ( !formattedValue.startsWith( "|" ) ) {
+      return formattedValue;
+    }
+    return Olap4jUtil.parseFormattedCellValue( formattedValue, cellProperties );
+  }
+
+  /**
+   * Returns the properties found by the last {@link #parseFormattedValue(String)}. Cells with the same properties get
+   * the same unmodifiable map, so a result allocates one map per distinct set of properties.
+   *
+   * @return the shared properties, or null if there were none
+   */
+  public Map<String, String> getParsedProperties() {
+    if ( cellProperties.isEmpty() ) {
+      return null;
+    }
+    Map<String, String> properties = sharedProperties.get( cellProperties );
+    if ( properties == null ) {
+      properties = Collections.unmodifiableMap( new HashMap<>( cellProperties ) );
+      sharedProperties.put( properties, properties );
+    }
+    return properties;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.olap.util.formatter;
+
+import org.olap4j.Cell;
+import org.olap4j.metadata.Property;
+
+import java.util.List;
+
+/**
+ * The values of an olap4j cell that a data cell is created from.
+ *
+ * <p>The formatters read every cell into the same instance, so formatting a cell does not allocate a holder for its
+ * values.</p>
+ */
+final class CellValues {
+
+  private List<Integer> coordinates;
+
+  private Object value;
+
+  private Double doubleValue;
+
+  private String formattedValue;
+
+  private String formatString;
+
+  /**
+   * Reads the values of a cell into this instance, replacing the ones of the previous cell.
+   *
+   * @return this
+   */
+  CellValues read( Cell cell ) {
+    coordinates = cell.getCoordinateList();
+    value = cell.getValue();
+    doubleValue = null;
+    if ( value != null ) {
+      try {
+        doubleValue = cell.getDoubleValue();
+      } catch ( Exception e ) {
+        // not a number
+      }
+    }
+    formattedValue = cell.getFormattedValue();
+    // xmla cells can throw an error on this
+    try {
+      formatString = (String) cell.getPropertyValue( Property.StandardCellProperty.FORMAT_STRING );
+    } catch ( Exception e ) {
+      formatString = null;
+    }
+    return this;
+  }
+
+  List<Integer> getCoordinateList() {
+    return coordinates;
+  }
+
+  Object getValue() {
+    return value;
+  }
+
+  /**
+   * @return the value as a number, null if the cell is empty or its value is not a number
+   */
+  Double getDoubleValue() {
+    return doubleValue;
+  }
+
+  String getFormattedValue() {
+    return formattedValue;
+  }
+
+  /**
+   * @return the raw <code>FORMAT_STRING</code> property, null if the cell has none
+   */
+  String getFormatString() {
+    return formatString;
+  }
+}
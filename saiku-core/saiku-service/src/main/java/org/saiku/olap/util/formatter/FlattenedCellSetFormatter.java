@@ -15,17 +15,14 @@
  */
 package org.saiku.olap.util.formatter;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.util.AbstractList;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import org.olap4j.Cell;
 import org.olap4j.CellSet;
 import org.olap4j.CellSetAxis;
 import org.olap4j.Position;
@@ -34,11 +31,12 @@ import org.olap4j.impl.Olap4jUtil;
 import org.olap4j.metadata.Hierarchy;
 import org.olap4j.metadata.Level;
 import org.olap4j.metadata.Member;
-import org.olap4j.metadata.Property;
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.CellDataSet;
 import org.saiku.olap.dto.resultset.DataCell;
 import org.saiku.olap.dto.resultset.Matrix;
 import org.saiku.olap.dto.resultset.MemberCell;
-import org.saiku.olap.util.SaikuProperties;
+import org.saiku.olap.dto.resultset.ResultWindow;
 
 
 public class FlattenedCellSetFormatter implements ICellSetFormatter {
@@ -101,54 +99,14 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
     }
   }
 
-  /**
-   * Returns an iterator over cells in a result.
-   */
-  private static Iterable<Cell> cellIter(final int[] pageCoords, final CellSet cellSet) {
-    return new Iterable<Cell>() {
-      public Iterator<Cell> iterator() {
-        final int[] axisDimensions = new int[cellSet.getAxes().size() - pageCoords.length];
-        assert pageCoords.length <= axisDimensions.length;
-        for (int i = 0; i < axisDimensions.length; i++) {
-          final CellSetAxis axis = cellSet.getAxes().get(i);
-          axisDimensions[i] = axis.getPositions().size();
-        }
-        final CoordinateIterator coordIter = new CoordinateIterator(axisDimensions, true);
-        return new Iterator<Cell>() {
-          public boolean hasNext() {
-            return coordIter.hasNext();
-          }
-
-          public Cell next() {
-            final int[] ints = coordIter.next();
-            final AbstractList<Integer> intList = new AbstractList<Integer>() {
-              @Override
-              public Integer get(final int index) {
-                return index < ints.length ? ints[index] : pageCoords[index - ints.length];
-              }
-
-              @Override
-              public int size() {
-                return pageCoords.length + ints.length;
-              }
-            };
-            return cellSet.getCell(intList);
-          }
-
-          public void remove() {
-            throw new UnsupportedOperationException();
-          }
-        };
-      }
-    };
-  }
-
   private Matrix matrix;
 
   private final List<Integer> ignorex = new ArrayList<>();
   private final List<Integer> ignorey = new ArrayList<>();
 
   public Matrix format(final CellSet cellSet) {
+    ignorex.clear();
+    ignorey.clear();
     // Compute how many rows are required to display the columns axis.
     final CellSetAxis columnsAxis;
     if (cellSet.getAxes().size() > 0) {
@@ -167,6 +125,7 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
     }
     final AxisInfo rowsAxisInfo = computeAxisInfo(rowsAxis);
 
+    final List<int[]> pages = new ArrayList<>();
     if (cellSet.getAxes().size() > 2) {
       final int[] dimensions = new int[cellSet.getAxes().size() - 2];
       for (int i = 2; i < cellSet.getAxes().size(); i++) {
@@ -174,11 +133,12 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
         dimensions[i - 2] = cellSetAxis.getPositions().size();
       }
       for (final int[] pageCoords : CoordinateIterator.iterate(dimensions)) {
-        matrix = formatPage(cellSet, pageCoords, columnsAxis, columnsAxisInfo, rowsAxis, rowsAxisInfo);
+        pages.add(pageCoords.clone());
       }
     } else {
-      matrix = formatPage(cellSet, new int[] {}, columnsAxis, columnsAxisInfo, rowsAxis, rowsAxisInfo);
+      pages.add(new int[] {});
     }
+    matrix = formatPages(cellSet, pages, columnsAxis, columnsAxisInfo, rowsAxis, rowsAxisInfo);
 
     return matrix;
   }
@@ -213,14 +173,13 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
   }
 
   /**
-   * Formats a two-dimensional page.
+   * Formats the two-dimensional pages of a cell set one below the other. The column headers come once, every page
+   * has the rows of the rows axis with their headers, led by the members of the page.
    *
    * @param cellSet
    *            Cell set
-   * @param pageCoords
-   *            Print writer
-   * @param pageCoords
-   *            Coordinates of page [page, chapter, section, ...]
+   * @param pages
+   *            Coordinates of the pages [page, chapter, section, ...], one empty array if there are no pages
    * @param columnsAxis
    *            Columns axis
    * @param columnsAxisInfo
@@ -230,19 +189,100 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
    * @param rowsAxisInfo
    *            Description of rows axis
    */
-  private Matrix formatPage(final CellSet cellSet, final int[] pageCoords, final CellSetAxis columnsAxis,
-                            final AxisInfo columnsAxisInfo, final CellSetAxis rowsAxis, final AxisInfo rowsAxisInfo) {
+  private Matrix formatPages(final CellSet cellSet, final List<int[]> pages, final CellSetAxis columnsAxis,
+                             final AxisInfo columnsAxisInfo, final CellSetAxis rowsAxis, final AxisInfo rowsAxisInfo) {
 
     // Figure out the dimensions of the blank rectangle in the top left
     // corner.
     final int yOffset = columnsAxisInfo.getWidth();
     final int xOffsset = rowsAxisInfo.getWidth();
+    final int columnCount = columnsAxis == null ? 1 : columnsAxis.getPositions().size();
+    final int rowCount = rowsAxis == null ? 1 : rowsAxis.getPositions().size();
 
     // Populate a string matrix
-    final Matrix matrix = new Matrix(xOffsset + (columnsAxis == null ? 1 : columnsAxis.getPositions().size()),
-      yOffset + (rowsAxis == null ? 1 : rowsAxis.getPositions().size()));
+    final Matrix matrix = new Matrix(xOffsset + columnCount, yOffset + rowCount * pages.size());
 
     // Populate corner
+    populateCorner(matrix, rowsAxis, rowsAxisInfo, xOffsset, yOffset);
+
+    // Populate matrix with cells representing axes
+    populateAxis(matrix, columnsAxis, columnsAxisInfo, true, xOffsset);
+    populateAxis(matrix, rowsAxis, rowsAxisInfo, false, yOffset);
+
+    // TODO - why did we do this in the first place??? HERE BE DRAGONS
+    //		int headerwidth = matrix.getMatrixWidth();
+    //		if (headerwidth > 2) {
+    //			for(int yy=matrix.getMatrixHeight(); yy > matrix.getOffset() ; yy--) {
+    //				for(int xx=0; xx < headerwidth-1;xx++) {
+    //							if (matrix.get(xx,yy-1) != null && matrix.get(xx,yy) != null &&  matrix.get(xx,yy-1).getRawValue() != null
+    //									&& matrix.get(xx,yy-1).getRawValue().equals(matrix.get(xx, yy).getRawValue()))
+    //							{
+    //								matrix.set(xx, yy, new MemberCell());
+    //							}
+    //							else {
+    //								break;
+    //							}
+    //					}
+    //			}
+    //		}
+
+
+    // Positions above the deepest level of their hierarchy have no column or row of their own
+    final boolean[] skipColumns = new boolean[columnCount];
+    final int[] columnX = new int[columnCount];
+    int x = xOffsset;
+    for (int c = 0; c < columnCount; c++) {
+      skipColumns[c] = ignorex.contains(c);
+      columnX[c] = skipColumns[c] ? -1 : x++;
+    }
+    final boolean[] skipRows = new boolean[rowCount];
+    final int[] rowY = new int[rowCount];
+    int pageHeight = 0;
+    for (int r = 0; r < rowCount; r++) {
+      skipRows[r] = ignorey.contains(r);
+      rowY[r] = skipRows[r] ? -1 : pageHeight++;
+    }
+
+    // Populate cell values
+    final DataCell[][] cells = PageCellFormatter.format(cellSet, pages, skipColumns, skipRows,
+      new PageCellFormatter.DataCellFactory() {
+        public DataCell create(final CellValues cell, final CellFormattingContext formatting) {
+          return createDataCell(cell, formatting);
+        }
+      });
+    for (int i = 0; i < cells.length; i++) {
+      final DataCell[] line = cells[i];
+      if (line == null) {
+        continue;
+      }
+      final int y = yOffset + (i / rowCount) * pageHeight + rowY[i % rowCount];
+      for (int c = 0; c < line.length; c++) {
+        if (line[c] != null) {
+          matrix.set(columnX[c], y, line[c]);
+        }
+      }
+    }
+
+    // The rows of further pages have the headers of the first page
+    for (int page = 1; page < pages.size(); page++) {
+      for (int r = 0; r < pageHeight; r++) {
+        for (int hx = 0; hx < xOffsset; hx++) {
+          final AbstractBaseCell header = matrix.get(hx, yOffset + r);
+          if (header instanceof MemberCell) {
+            matrix.set(hx, yOffset + page * pageHeight + r, (MemberCell) header);
+          }
+        }
+      }
+    }
+    return PageColumns.add(matrix, cellSet, pages, xOffsset + columnCount, yOffset, pageHeight);
+
+  }
+
+  /**
+   * Populates the top left corner of the matrix with the captions of the levels on the rows axis.
+   */
+  private void populateCorner(final Matrix matrix, final CellSetAxis rowsAxis, final AxisInfo rowsAxisInfo,
+                              final int xOffsset, final int yOffset) {
     List<Level> levels = new ArrayList<>();
     if (rowsAxis != null && rowsAxis.getPositions().size() > 0) {
       Position p = rowsAxis.getPositions().get(0);
@@ -271,127 +311,254 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
 
       }
     }
-    // Populate matrix with cells representing axes
-    populateAxis(matrix, columnsAxis, columnsAxisInfo, true, xOffsset);
-    populateAxis(matrix, rowsAxis, rowsAxisInfo, false, yOffset);
+  }
 
-    // TODO - why did we do this in the first place??? HERE BE DRAGONS
-    //		int headerwidth = matrix.getMatrixWidth();
-    //		if (headerwidth > 2) {
-    //			for(int yy=matrix.getMatrixHeight(); yy > matrix.getOffset() ; yy--) {
-    //				for(int xx=0; xx < headerwidth-1;xx++) {
-    //							if (matrix.get(xx,yy-1) != null && matrix.get(xx,yy) != null &&  matrix.get(xx,yy-1).getRawValue() != null
-    //									&& matrix.get(xx,yy-1).getRawValue().equals(matrix.get(xx, yy).getRawValue()))
-    //							{
-    //								matrix.set(xx, yy, new MemberCell());
-    //							}
-    //							else {
-    //								break;
-    //							}
-    //					}
-    //			}
-    //		}
+  /**
+   * Creates the data cell for the values of an olap4j cell.
+   */
+  private DataCell createDataCell(final CellValues cell, final CellFormattingContext formatting) {
+    final DataCell cellInfo = new DataCell(true, false, cell.getCoordinateList());
+    cellInfo.setCoordinates(cell.getCoordinateList());
 
+    if (cell.getValue() != null) {
+      try {
+        cellInfo.setRawNumber(cell.getDoubleValue());
+      } catch (Exception e1) {
+      }
+    }
+    String cellValue = cell.getFormattedValue(); // First try to get a
+    // formatted value
 
-    // Populate cell values
-    int newyOffset = yOffset;
-    int newxOffset = xOffsset;
-    List<Integer> donex = new ArrayList<>();
-    List<Integer> doney = new ArrayList<>();
-    for (final Cell cell : cellIter(pageCoords, cellSet)) {
-      final List<Integer> coordList = cell.getCoordinateList();
-      int y = newyOffset;
-      int x = newxOffset;
-      if (coordList.size() > 0) {
-        if (coordList.get(0) == 0) {
-          newxOffset = xOffsset;
-          donex = new ArrayList<>();
-        }
-        x = newxOffset;
-        if (coordList.size() > 0)
-          x += coordList.get(0);
-        y = newyOffset;
-        if (coordList.size() > 1)
-          y += coordList.get(1);
-
-        boolean stop = false;
-        if (coordList.size() > 0 && ignorex.contains(coordList.get(0))) {
-          if (!donex.contains(coordList.get(0))) {
-            newxOffset--;
-            donex.add(coordList.get(0));
-          }
-          stop = true;
-        }
-        if (coordList.size() > 1 && ignorey.contains(coordList.get(1))) {
-          if (!doney.contains(coordList.get(1))) {
-            newyOffset--;
-            doney.add(coordList.get(1));
-          }
-          stop = true;
+    if (cellValue == null || cellValue.equals("null")) { //$NON-NLS-1$
+      cellValue =""; //$NON-NLS-1$
+    }
+    if ( cellValue.length() < 1) {
+      final Object value =  cell.getValue();
+      if (value == null  || value.equals("null")) //$NON-NLS-1$
+        cellValue = ""; //$NON-NLS-1$
+      else {
+        try {
+          cellValue = formatting.formatNumber(value);
         }
-        if (stop) {
-          continue;
+        catch (Exception e) {
+          // TODO: handle exception
         }
       }
+      // the raw value
+    }
 
-      final DataCell cellInfo = new DataCell(true, false, coordList);
-      cellInfo.setCoordinates(cell.getCoordinateList());
-
-      if (cell.getValue() != null) {
-        try {
-          cellInfo.setRawNumber(cell.getDoubleValue());
-        } catch (Exception e1) {
-        }
+    // Format string is relevant for Excel export
+    // xmla cells can throw an error on this
+    try {
+      String formatString = formatting.getFormatString(cell.getFormatString());
+      if (formatString != null) {
+        cellInfo.setFormatString(formatString);
       }
-      String cellValue = cell.getFormattedValue(); // First try to get a
-      // formatted value
+    } catch (Exception e) {
+      // we tried
+    }
 
-      if (cellValue == null || cellValue.equals("null")) { //$NON-NLS-1$
-        cellValue =""; //$NON-NLS-1$
+    String val = formatting.parseFormattedValue(cellValue);
+    Map<String, String> cellProperties = formatting.getParsedProperties();
+    if (cellProperties != null) {
+      cellInfo.setProperties(cellProperties);
+    }
+    cellInfo.setFormattedValue(val);
+    return cellInfo;
+  }
+
+  /**
+   * Formats the cell set one row at a time, handing every row to the handler as soon as it is complete rather than
+   * building the whole matrix first. Header rows come first, followed by the body rows, exactly as
+   * {@link #format(CellSet)} would lay them out.
+   *
+   * @param cellSet
+   *            Cell set
+   * @param handler
+   *            Receives the rows
+   * @return a {@link CellDataSet} describing the streamed result (without header and body), or null if the cell set
+   *         has a layout that cannot be streamed (slicer pages, an empty axis) and must be formatted with
+   *         {@link #format(CellSet)} instead. The handler is not called in that case.
+   * @throws IOException if the handler fails
+   */
+  public CellDataSet format(final CellSet cellSet, final ICellSetRowHandler handler) throws IOException {
+    if (cellSet.getAxes().size() != 2) {
+      return null;
+    }
+    final CellSetAxis columnsAxis = cellSet.getAxes().get(0);
+    final CellSetAxis rowsAxis = cellSet.getAxes().get(1);
+    final int columnCount = columnsAxis.getPositions().size();
+    final int rowCount = rowsAxis.getPositions().size();
+    if (columnCount == 0 || rowCount == 0) {
+      return null;
+    }
+    ignorex.clear();
+    ignorey.clear();
+    final CellFormattingContext formatting = new CellFormattingContext();
+    final CellValues values = new CellValues();
+    final AxisInfo columnsAxisInfo = computeAxisInfo(columnsAxis);
+    final AxisInfo rowsAxisInfo = computeAxisInfo(rowsAxis);
+
+    final int yOffset = columnsAxisInfo.getWidth();
+    final int xOffsset = rowsAxisInfo.getWidth();
+
+    // Only the header rows are kept in memory
+    final Matrix header = new Matrix(xOffsset + columnCount, Math.max(1, yOffset));
+    populateCorner(header, rowsAxis, rowsAxisInfo, xOffsset, yOffset);
+    populateAxis(header, columnsAxis, columnsAxisInfo, true, xOffsset);
+
+    final int width = xOffsset + columnCount - ignorex.size();
+    for (int y = 0; y < yOffset; y++) {
+      handler.handleRow(header.getRow(y, width), true);
+    }
+
+    final boolean[] skipColumn = new boolean[columnCount];
+    for (Integer c : ignorex) {
+      skipColumn[c] = true;
+    }
+
+    final AxisPopulator rows = new AxisPopulator(rowsAxisInfo, false, yOffset);
+    int height = yOffset;
+    for (int i = 0; i < rowCount; i++) {
+      final MemberCell[] line = rows.populate(i, rowsAxis.getPositions().get(i));
+      if (line == null) {
+        continue;
       }
-      if ( cellValue.length() < 1) {
-        final Object value =  cell.getValue();
-        if (value == null  || value.equals("null")) //$NON-NLS-1$
-          cellValue = ""; //$NON-NLS-1$
-        else {
-          try {
-            // TODO this needs to become query / execution specific
-            DecimalFormat myFormatter = new DecimalFormat(SaikuProperties.formatDefautNumberFormat); //$NON-NLS-1$
-            DecimalFormatSymbols dfs = new DecimalFormatSymbols(SaikuProperties.locale);
-            myFormatter.setDecimalFormatSymbols(dfs);
-            cellValue = myFormatter.format(cell.getValue());
-          }
-          catch (Exception e) {
-            // TODO: handle exception
-          }
+      final AbstractBaseCell[] row = new AbstractBaseCell[width];
+      System.arraycopy(line, 0, row, 0, line.length);
+      int x = xOffsset;
+      for (int c = 0; c < columnCount; c++) {
+        if (skipColumn[c]) {
+          continue;
         }
-        // the raw value
+        row[x++] = createDataCell(values.read(cellSet.getCell(i * columnCount + c)), formatting);
       }
+      handler.handleRow(row, false);
+      height++;
+    }
 
-      // Format string is relevant for Excel export
-      // xmla cells can throw an error on this
-      try {
-        String formatString = (String) cell.getPropertyValue(Property.StandardCellProperty.FORMAT_STRING);
-        if (formatString != null && !formatString.startsWith("|")) {
-          cellInfo.setFormatString(formatString);
-        } else {
-          formatString = formatString.substring(1, formatString.length());
-          cellInfo.setFormatString(formatString.substring(0, formatString.indexOf("|")));
-        }
-      } catch (Exception e) {
-        // we tried
+    final CellDataSet summary = new CellDataSet(width, height);
+    summary.setOffset(yOffset);
+    summary.setTopOffset(yOffset);
+    return summary;
+  }
+
+  /**
+   * Formats a window of the table {@link #format(CellSet)} would lay out: the header rows and the header columns of
+   * the rows axis, with the body rows and the data columns of the window only. Cells outside the window are never
+   * read or formatted.
+   *
+   * @param cellSet
+   *            Cell set
+   * @param firstRow
+   *            First body row of the window
+   * @param rows
+   *            Body rows in the window
+   * @param firstColumn
+   *            First data column of the window
+   * @param columns
+   *            Data columns in the window
+   * @return the window, or null if the cell set has a layout that cannot be windowed (slicer pages, an empty axis)
+   *         and must be formatted with {@link #format(CellSet)} instead
+   */
+  public ResultWindow formatWindow(final CellSet cellSet, final int firstRow, final int rows, final int firstColumn,
+                                   final int columns) {
+    if (cellSet.getAxes().size() != 2) {
+      return null;
+    }
+    final CellSetAxis columnsAxis = cellSet.getAxes().get(0);
+    final CellSetAxis rowsAxis = cellSet.getAxes().get(1);
+    final int columnCount = columnsAxis.getPositions().size();
+    final int rowCount = rowsAxis.getPositions().size();
+    if (columnCount == 0 || rowCount == 0) {
+      return null;
+    }
+    ignorex.clear();
+    ignorey.clear();
+    final CellFormattingContext formatting = new CellFormattingContext();
+    final CellValues values = new CellValues();
+    final AxisInfo columnsAxisInfo = computeAxisInfo(columnsAxis);
+    final AxisInfo rowsAxisInfo = computeAxisInfo(rowsAxis);
+
+    final int yOffset = columnsAxisInfo.getWidth();
+    final int xOffsset = rowsAxisInfo.getWidth();
+
+    // Positions of the table columns and rows, the ones above the deepest level have none
+    final int[] visibleColumns = visiblePositions(columnsAxis, columnsAxisInfo);
+    final int[] visibleRows = visiblePositions(rowsAxis, rowsAxisInfo);
+    final int fromColumn = Math.max(0, Math.min(firstColumn, visibleColumns.length));
+    final int toColumn = Math.min(visibleColumns.length, fromColumn + Math.max(0, columns));
+    final int fromRow = Math.max(0, Math.min(firstRow, visibleRows.length));
+    final int toRow = Math.min(visibleRows.length, fromRow + Math.max(0, rows));
+    final int width = xOffsset + toColumn - fromColumn;
+
+    final Matrix header = new Matrix(width, Math.max(1, yOffset));
+    populateCorner(header, rowsAxis, rowsAxisInfo, xOffsset, yOffset);
+    final AxisPopulator columnHeaders = new AxisPopulator(columnsAxisInfo, true, xOffsset);
+    if (fromColumn > 0) {
+      // headers repeating the column before the window are marked as such
+      final int previous = visibleColumns[fromColumn - 1];
+      columnHeaders.populate(previous, columnsAxis.getPositions().get(previous));
+    }
+    for (int c = fromColumn; c < toColumn; c++) {
+      final int position = visibleColumns[c];
+      final MemberCell[] line = columnHeaders.populate(position, columnsAxis.getPositions().get(position));
+      for (int y = 0; y < line.length; y++) {
+        header.set(xOffsset + c - fromColumn, y, line[y]);
       }
+    }
+    final AbstractBaseCell[][] headers = new AbstractBaseCell[yOffset][];
+    for (int y = 0; y < yOffset; y++) {
+      headers[y] = header.getRow(y, width);
+    }
 
-      Map<String, String> cellProperties = new HashMap<>();
-      String val = Olap4jUtil.parseFormattedCellValue(cellValue, cellProperties);
-      if (!cellProperties.isEmpty()) {
-        cellInfo.setProperties(cellProperties);
+    final AxisPopulator rowHeaders = new AxisPopulator(rowsAxisInfo, false, yOffset);
+    final AbstractBaseCell[][] body = new AbstractBaseCell[toRow - fromRow][];
+    for (int r = fromRow; r < toRow; r++) {
+      final int position = visibleRows[r];
+      final MemberCell[] line = rowHeaders.populate(position, rowsAxis.getPositions().get(position));
+      final AbstractBaseCell[] row = new AbstractBaseCell[width];
+      System.arraycopy(line, 0, row, 0, line.length);
+      int x = xOffsset;
+      for (int c = fromColumn; c < toColumn; c++) {
+        final int ordinal = position * columnCount + visibleColumns[c];
+        row[x++] = createDataCell(values.read(cellSet.getCell(ordinal)), formatting);
       }
-      cellInfo.setFormattedValue(val);
-      matrix.set(x, y, cellInfo);
+      body[r - fromRow] = row;
     }
-    return matrix;
 
+    final CellDataSet cells = new CellDataSet(width, yOffset + body.length);
+    cells.setCellSetHeaders(headers);
+    cells.setCellSetBody(body);
+    cells.setOffset(yOffset);
+    cells.setTopOffset(yOffset);
+    return new ResultWindow(cells, xOffsset, fromRow, fromColumn, visibleRows.length, visibleColumns.length);
+  }
+
+  /**
+   * Returns the ordinals of the positions of an axis at the deepest level of every hierarchy, the ones that get a
+   * column or a row of the table.
+   */
+  private int[] visiblePositions(final CellSetAxis axis, final AxisInfo axisInfo) {
+    final int[] maxDepths = new int[axisInfo.ordinalInfos.size()];
+    for (int j = 0; j < maxDepths.length; j++) {
+      final List<Integer> depths = axisInfo.ordinalInfos.get(j).getDepths();
+      maxDepths[j] = depths.isEmpty() ? 0 : Collections.max(depths);
+    }
+    final List<Position> positions = axis.getPositions();
+    final int[] visible = new int[positions.size()];
+    int count = 0;
+    for (int i = 0; i < visible.length; i++) {
+      final List<Member> members = positions.get(i).getMembers();
+      boolean deepest = true;
+      for (int j = 0; j < members.size() && deepest; j++) {
+        deepest = members.get(j).getDepth() >= maxDepths[j];
+      }
+      if (deepest) {
+        visible[count++] = i;
+      }
+    }
+    return Arrays.copyOf(visible, count);
   }
 
   /**
@@ -410,32 +577,89 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
    */
   private void populateAxis(final Matrix matrix, final CellSetAxis axis, final AxisInfo axisInfo,
                             final boolean isColumns, final int oldoffset) {
-    int offset = oldoffset;
     if (axis == null)
       return;
-    final Member[] prevMembers = new Member[axisInfo.getWidth()];
-    final MemberCell[] prevMemberInfo = new MemberCell[axisInfo.getWidth()];
-    final Member[] members = new Member[axisInfo.getWidth()];
-
+    final AxisPopulator populator = new AxisPopulator(axisInfo, isColumns, oldoffset);
     for (int i = 0; i < axis.getPositions().size(); i++) {
+      final MemberCell[] line = populator.populate(i, axis.getPositions().get(i));
+      if (line == null) {
+        continue;
+      }
+      final int x = populator.getLine();
+      for (int y = 0; y < line.length; y++) {
+        if (isColumns) {
+          matrix.set(x, y, line[y]);
+        } else {
+          matrix.set(y, x, line[y]);
+        }
+      }
+    }
+    if (populator.hasMembers()) {
+      matrix.setOffset(oldoffset);
+    }
+  }
+
+  /**
+   * Builds the member cells of an axis one position at a time. Each position becomes a line of cells: a column of
+   * header cells for the columns axis, the leading header cells of a row for the rows axis.
+   */
+  private class AxisPopulator {
+    private final AxisInfo axisInfo;
+    private final boolean isColumns;
+    private int offset;
+    private int line;
+    private boolean hasMembers = false;
+    private final Member[] prevMembers;
+    private final Member[] members;
+
+    AxisPopulator(final AxisInfo axisInfo, final boolean isColumns, final int oldoffset) {
+      this.axisInfo = axisInfo;
+      this.isColumns = isColumns;
+      this.offset = oldoffset;
+      this.prevMembers = new Member[axisInfo.getWidth()];
+      this.members = new Member[axisInfo.getWidth()];
+    }
+
+    /**
+     * Returns the matrix line (x for columns, y for rows) of the last populated position.
+     */
+    int getLine() {
+      return line;
+    }
+
+    /**
+     * Returns true if any populated position had a member.
+     */
+    boolean hasMembers() {
+      return hasMembers;
+    }
+
+    /**
+     * Creates the cells for a position.
+     *
+     * @param i
+     *            Ordinal of the position on the axis
+     * @param position
+     *            The position
+     * @return the cells, or null if the position is skipped because it is not at the deepest level
+     */
+    MemberCell[] populate(final int i, final Position position) {
       final int x = offset + i;
-      final Position position = axis.getPositions().get(i);
       int yOffset = 0;
       final List<Member> memberList = position.getMembers();
-      boolean stop = false;
       for (int j = 0; j < memberList.size(); j++) {
         Member member = memberList.get(j);
         final AxisOrdinalInfo ordinalInfo = axisInfo.ordinalInfos.get(j);
         List<Integer> depths = ordinalInfo.depths;
         Collections.sort(depths);
         if (member.getDepth() < Collections.max(depths)) {
-          stop = true;
           if (isColumns) {
             ignorex.add(i);
           } else {
             ignorey.add(i);
           }
-          break;
+          offset--;
+          return null;
         }
         if (ordinalInfo.getDepths().size() > 0 && member.getDepth() < ordinalInfo.getDepths().get(0))
           break;
@@ -443,10 +667,8 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
         members[y] = member;
         yOffset += ordinalInfo.getWidth();
       }
-      if (stop) {
-        offset--;
-        continue;
-      }
+      line = x;
+      final MemberCell[] cells = new MemberCell[members.length];
       boolean expanded = false;
       boolean same = true;
       for (int y = 0; y < members.length; y++) {
@@ -464,70 +686,35 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
         memberInfo.setExpanded(expanded);
         same = same && i > 0 && Olap4jUtil.equal(prevMembers[y], member);
 
-
         if (member != null) {
           if (x - 1 == offset)
             memberInfo.setLastRow(true);
 
-          matrix.setOffset(oldoffset);
+          hasMembers = true;
           memberInfo.setRawValue(member.getUniqueName());
           memberInfo.setFormattedValue(member.getCaption()); // First try to get a formatted value
           memberInfo.setParentDimension(member.getDimension().getName());
           memberInfo.setUniquename(member.getUniqueName());
           memberInfo.setHierarchy(member.getHierarchy().getUniqueName());
           memberInfo.setLevel(member.getLevel().getUniqueName());
-          //					try {
-          //						memberInfo.setChildMemberCount(member.getChildMemberCount());
-          //					} catch (OlapException e) {
-          //						e.printStackTrace();
-          //						throw new RuntimeException(e);
-          //					}
-          //					NamedList<Property> values = member.getLevel().getProperties();
-          //					for(int j=0; j<values.size();j++){
-          //						String val;
-          //						try {
-          //							val = member.getPropertyFormattedValue(values.get(j));
-          //						} catch (OlapException e) {
-          //							e.printStackTrace();
-          //							throw new RuntimeException(e);
-          //						}
-          //						memberInfo.setProperty(values.get(j).getCaption(), val);
-          //					}
-
-          //					if (y > 0) {
-          //						for (int previ = y-1; previ >= 0;previ--) {
-          //							if(prevMembers[previ] != null) {
-          //								memberInfo.setRightOf(prevMemberInfo[previ]);
-          //								memberInfo.setRightOfDimension(prevMembers[previ].getDimension().getName());
-          //								previ = -1;
-          //							}
-          //						}
-          //					}
-
-
-          //					if (member.getParentMember() != null)
-          //						memberInfo.setParentMember(member.getParentMember().getUniqueName());
-
         } else {
           memberInfo.setRawValue(null);
           memberInfo.setFormattedValue(null);
           memberInfo.setParentDimension(null);
         }
 
+        memberInfo.setRight(false);
         if (isColumns) {
-          memberInfo.setRight(false);
           memberInfo.setSameAsPrev(same);
           if (member != null)
             memberInfo.setParentDimension(member.getDimension().getName());
-          matrix.set(x, y, memberInfo);
         } else {
-          memberInfo.setRight(false);
           memberInfo.setSameAsPrev(false);
-          matrix.set(y, x, memberInfo);
         }
-        int x_parent = isColumns ? x : y-1;
-        int y_parent = isColumns ? y-1 : x;
+        cells[y] = memberInfo;
 
+        // parents fill the cells before this one on the same line
+        int parentIndex = y - 1;
         if (index >= 0) {
           final AxisOrdinalInfo ordinalInfo = axisInfo.ordinalInfos.get(index);
           int depth_i = ordinalInfo.getDepths().indexOf(member.getDepth());
@@ -554,20 +741,14 @@ public class FlattenedCellSetFormatter implements ICellSetFormatter {
               pInfo.setLevel(member.getLevel().getUniqueName());
               pInfo.setUniquename("");
             }
-            matrix.set(x_parent, y_parent, pInfo);
-            if (isColumns) {
-              y_parent--;
-            } else {
-              x_parent--;
-            }
-
+            cells[parentIndex] = pInfo;
+            parentIndex--;
           }
         }
         prevMembers[y] = member;
-        prevMemberInfo[y] = memberInfo;
         members[y] = null;
       }
-
+      return cells;
     }
   }
 }
@@ -15,7 +15,6 @@
  */
 package org.saiku.olap.util.formatter;
 
-import org.olap4j.Cell;
 import org.olap4j.CellSet;
 import org.olap4j.CellSetAxis;
 import org.olap4j.Position;
@@ -25,16 +24,13 @@ import org.olap4j.metadata.Dimension;
 import org.olap4j.metadata.Hierarchy;
 import org.olap4j.metadata.Level;
 import org.olap4j.metadata.Member;
-import org.olap4j.metadata.Property;
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
 import org.saiku.olap.dto.resultset.DataCell;
 import org.saiku.olap.dto.resultset.Matrix;
 import org.saiku.olap.dto.resultset.MemberCell;
-import org.saiku.olap.util.SaikuProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.util.*;
 
 public class HierarchicalCellSetFormatter implements ICellSetFormatter {
@@ -101,48 +97,6 @@ public class HierarchicalCellSetFormatter implements ICellSetFormatter {
   }
 
 
-  /**
-   * Returns an iterator over cells in a result.
-   */
-  private static Iterable<Cell> cellIter(final int[] pageCoords, final CellSet cellSet) {
-    return new Iterable<Cell>() {
-      public Iterator<Cell> iterator() {
-        final int[] axisDimensions = new int[cellSet.getAxes().size() - pageCoords.length];
-        assert pageCoords.length <= axisDimensions.length;
-        for (int i = 0; i < axisDimensions.length; i++) {
-          final CellSetAxis axis = cellSet.getAxes().get(i);
-          axisDimensions[i] = axis.getPositions().size();
-        }
-        final CoordinateIterator coordIter = new CoordinateIterator(axisDimensions, true);
-        return new Iterator<Cell>() {
-          public boolean hasNext() {
-            return coordIter.hasNext();
-          }
-
-          public Cell next() {
-            final int[] ints = coordIter.next();
-            final AbstractList<Integer> intList = new AbstractList<Integer>() {
-              @Override
-              public Integer get(final int index) {
-                return index < ints.length ? ints[index] : pageCoords[index - ints.length];
-              }
-
-              @Override
-              public int size() {
-                return pageCoords.length + ints.length;
-              }
-            };
-            return cellSet.getCell(intList);
-          }
-
-          public void remove() {
-            throw new UnsupportedOperationException();
-          }
-        };
-      }
-    };
-  }
-
   private Matrix matrix;
 
   public Matrix format(final CellSet cellSet) {
@@ -164,6 +118,7 @@ public class HierarchicalCellSetFormatter implements ICellSetFormatter {
     }
     final AxisInfo rowsAxisInfo = computeAxisInfo(rowsAxis);
 
+    final List<int[]> pages = new ArrayList<>();
     if (cellSet.getAxes().size() > 2) {
       final int[] dimensions = new int[cellSet.getAxes().size() - 2];
       for (int i = 2; i < cellSet.getAxes().size(); i++) {
@@ -171,11 +126,12 @@ public class HierarchicalCellSetFormatter implements ICellSetFormatter {
         dimensions[i - 2] = cellSetAxis.getPositions().size();
       }
       for (final int[] pageCoords : CoordinateIterator.iterate(dimensions)) {
-        matrix = formatPage(cellSet, pageCoords, columnsAxis, columnsAxisInfo, rowsAxis, rowsAxisInfo);
+        pages.add(pageCoords.clone());
       }
     } else {
-      matrix = formatPage(cellSet, new int[] {}, columnsAxis, columnsAxisInfo, rowsAxis, rowsAxisInfo);
+      pages.add(new int[] {});
     }
+    matrix = formatPages(cellSet, pages, columnsAxis, columnsAxisInfo, rowsAxis, rowsAxisInfo);
 
     return matrix;
   }
@@ -210,12 +166,13 @@ public class HierarchicalCellSetFormatter implements ICellSetFormatter {
   }
 
   /**
-   * Formats a two-dimensional page.
+   * Formats the two-dimensional pages of a cell set one below the other. The column headers come once, every page
+   * has the rows of the rows axis with their headers, led by the members of the page.
    *
    * @param cellSet
    *            Cell set
-   * @param pageCoords
-   *            Coordinates of page [page, chapter, section, ...]
+   * @param pages
+   *            Coordinates of the pages [page, chapter, section, ...], one empty array if there are no pages
    * @param columnsAxis
    *            Columns axis
    * @param columnsAxisInfo
@@ -225,17 +182,18 @@ public class HierarchicalCellSetFormatter implements ICellSetFormatter {
    * @param rowsAxisInfo
    *            Description of rows axis
    */
-  private Matrix formatPage(final CellSet cellSet, final int[] pageCoords, final CellSetAxis columnsAxis,
-                            final AxisInfo columnsAxisInfo, final CellSetAxis rowsAxis, final AxisInfo rowsAxisInfo) {
+  private Matrix formatPages(final CellSet cellSet, final List<int[]> pages, final CellSetAxis columnsAxis,
+                             final AxisInfo columnsAxisInfo, final CellSetAxis rowsAxis, final AxisInfo rowsAxisInfo) {
 
     // Figure out the dimensions of the blank rectangle in the top left
     // corner.
     final int yOffset = columnsAxisInfo.getWidth();
     final int xOffsset = rowsAxisInfo.getWidth();
+    final int columnCount = columnsAxis == null ? 1 : columnsAxis.getPositions().size();
+    final int rowCount = rowsAxis == null ? 1 : rowsAxis.getPositions().size();
 
     // Populate a string matrix
-    final Matrix matrix = new Matrix(xOffsset + (columnsAxis == null ? 1 : columnsAxis.getPositions().size()),
-      yOffset + (rowsAxis == null ? 1 : rowsAxis.getPositions().size()));
+    final Matrix matrix = new Matrix(xOffsset + columnCount, yOffset + rowCount * pages.size());
 
     // Populate corner
     List<Level> levels = new ArrayList<>();
@@ -272,73 +230,91 @@ public class HierarchicalCellSetFormatter implements ICellSetFormatter {
     populateAxis(matrix, rowsAxis, rowsAxisInfo, false, yOffset);
 
     // Populate cell values
-    for (final Cell cell : cellIter(pageCoords, cellSet)) {
-      final List<Integer> coordList = cell.getCoordinateList();
-      int x = xOffsset;
-      if (coordList.size() > 0)
-        x += coordList.get(0);
-      int y = yOffset;
-      if (coordList.size() > 1)
-        y += coordList.get(1);
-      final DataCell cellInfo = new DataCell(true, false, coordList);
-      cellInfo.setCoordinates(cell.getCoordinateList());
-
-      if (cell.getValue() != null) {
-        try {
-          cellInfo.setRawNumber(cell.getDoubleValue());
-        } catch (Exception e1) {
+    final DataCell[][] cells = PageCellFormatter.format(cellSet, pages, null, null,
+      new PageCellFormatter.DataCellFactory() {
+        public DataCell create(final CellValues cell, final CellFormattingContext formatting) {
+          return createDataCell(cell, formatting);
         }
+      });
+    for (int i = 0; i < cells.length; i++) {
+      final int y = yOffset + i;
+      for (int c = 0; c < cells[i].length; c++) {
+        matrix.set(xOffsset + c, y, cells[i][c]);
       }
-      String cellValue = cell.getFormattedValue(); // First try to get a
-      // formatted value
+    }
 
-      if (cellValue == null || cellValue.equals("null")) { //$NON-NLS-1$
-        cellValue =""; //$NON-NLS-1$
-      }
-      if ( cellValue.length() < 1) {
-        final Object value =  cell.getValue();
-        if (value == null  || value.equals("null")) //$NON-NLS-1$
-          cellValue = ""; //$NON-NLS-1$
-        else {
-          try {
-            // TODO this needs to become query / execution specific
-            DecimalFormat myFormatter = new DecimalFormat(SaikuProperties.formatDefautNumberFormat); //$NON-NLS-1$
-            DecimalFormatSymbols dfs = new DecimalFormatSymbols(SaikuProperties.locale);
-            myFormatter.setDecimalFormatSymbols(dfs);
-            cellValue = myFormatter.format(cell.getValue());
-          }
-          catch (Exception e) {
-            // TODO: handle exception
+    // The rows of further pages have the headers of the first page
+    for (int page = 1; page < pages.size(); page++) {
+      for (int r = 0; r < rowCount; r++) {
+        for (int hx = 0; hx < xOffsset; hx++) {
+          final AbstractBaseCell header = matrix.get(hx, yOffset + r);
+          if (header instanceof MemberCell) {
+            matrix.set(hx, yOffset + page * rowCount + r, (MemberCell) header);
           }
         }
-        // the raw value
       }
+    }
+    return PageColumns.add(matrix, cellSet, pages, xOffsset + columnCount, yOffset, rowCount);
 
-      // Format string is relevant for Excel export
-      // xmla cells can throw an error on this
+  }
+
+  /**
+   * Creates the data cell for the values of an olap4j cell.
+   */
+  private DataCell createDataCell(final CellValues cell, final CellFormattingContext formatting) {
+    final List<Integer> coordList = cell.getCoordinateList();
+    final DataCell cellInfo = new DataCell(true, false, coordList);
+    cellInfo.setCoordinates(cell.getCoordinateList());
+
+    if (cell.getValue() != null) {
       try {
+        cellInfo.setRawNumber(cell.getDoubleValue());
+      } catch (Exception e1) {
+      }
+    }
+    String cellValue = cell.getFormattedValue(); // First try to get a
+    // formatted value
 
-        String formatString = (String) cell.getPropertyValue(Property.StandardCellProperty.FORMAT_STRING);
-        if (formatString != null && !formatString.startsWith("|")) {
-          cellInfo.setFormatString(formatString);
-        } else {
-          formatString = formatString.substring(1, formatString.length());
-          cellInfo.setFormatString(formatString.substring(0, formatString.indexOf("|")));
+    if (cellValue == null || cellValue.equals("null")) { //$NON-NLS-1$
+      cellValue =""; //$NON-NLS-1$
+    }
+    if ( cellValue.length() < 1) {
+      final Object value =  cell.getValue();
+      if (value == null  || value.equals("null")) //$NON-NLS-1$
+        cellValue = ""; //$NON-NLS-1$
+      else {
+        try {
+          cellValue = formatting.formatNumber(value);
+        }
+        catch (Exception e) {
+          // TODO: handle exception
         }
-      } catch (Exception e) {
-        // we tried
       }
+      // the raw value
+    }
 
-      Map<String, String> cellProperties = new HashMap<>();
-      String val = Olap4jUtil.parseFormattedCellValue(cellValue, cellProperties);
-      if (!cellProperties.isEmpty()) {
-        cellInfo.setProperties(cellProperties);
+    // Format string is relevant for Excel export
+    // xmla cells can throw an error on this
+    try {
+
+      String formatString = cell.getFormatString();
+      if (formatString != null && !formatString.startsWith("|")) {
+        cellInfo.setFormatString(formatString);
+      } else {
+        formatString = formatString.substring(1, formatString.length());
+        cellInfo.setFormatString(formatString.substring(0, formatString.indexOf("|")));
       }
-      cellInfo.setFormattedValue(val);
-      matrix.set(x, y, cellInfo);
+    } catch (Exception e) {
+      // we tried
     }
-    return matrix;
 
+    String val = formatting.parseFormattedValue(cellValue);
+    Map<String, String> cellProperties = formatting.getParsedProperties();
+    if (cellProperties != null) {
+      cellInfo.setProperties(cellProperties);
+    }
+    cellInfo.setFormattedValue(val);
+    return cellInfo;
   }
 
   /**
@@ -0,0 +1,36 @@
+/*  
+ *   Copyright 2012 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.olap.util.formatter;
+
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of a formatted result one at a time, see
+ * {@link FlattenedCellSetFormatter#format(org.olap4j.CellSet, ICellSetRowHandler)}.
+ */
+public interface ICellSetRowHandler {
+
+  /**
+   * Handles one row of the result.
+   *
+   * @param row    the cells of the row, null where there is no cell
+   * @param header true for the column header rows, false for the body rows
+   * @throws IOException if the row cannot be written
+   */
+  void handleRow( AbstractBaseCell[] row, boolean header ) throws IOException;
+}
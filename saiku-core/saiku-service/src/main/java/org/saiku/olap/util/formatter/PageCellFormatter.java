@@ -0,0 +1,89 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.olap.util.formatter;
+
+import org.saiku.olap.dto.resultset.DataCell;
+
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+
+import java.util.List;
+
+/**
+ * Creates the data cells of the pages of a cell set.
+ *
+ * <p>The body rows of all pages are numbered one after the other, page by page. Every cell is read into the same
+ * {@link CellValues} and formatted with one {@link CellFormattingContext} as it is read.</p>
+ */
+final class PageCellFormatter {
+
+  /**
+   * Creates the data cell of the values of a cell.
+   */
+  interface DataCellFactory {
+    DataCell create( CellValues cell, CellFormattingContext formatting );
+  }
+
+  private PageCellFormatter() {
+  }
+
+  /**
+   * Creates the data cells of the given pages.
+   *
+   * @param pages       the coordinates of the pages on the axes after the rows axis, one empty array if there are none
+   * @param skipColumns columns whose cells are not needed, or null
+   * @param skipRows    rows whose cells are not needed on any page, or null
+   * @return the cells by row, the rows of the first page first, and column; skipped cells are null
+   */
+  static DataCell[][] format( CellSet cellSet, List<int[]> pages, boolean[] skipColumns, boolean[] skipRows,
+                              DataCellFactory factory ) {
+    final List<CellSetAxis> axes = cellSet.getAxes();
+    final int columnCount = axes.size() > 0 ? axes.get( 0 ).getPositionCount() : 1;
+    final int rowCount = axes.size() > 1 ? axes.get( 1 ).getPositionCount() : 1;
+
+    // ordinal of the first cell of every page, the first coordinate varies fastest
+    final long[] pageOrdinals = new long[ pages.size() ];
+    for ( int p = 0; p < pageOrdinals.length; p++ ) {
+      final int[] coords = pages.get( p );
+      long ordinal = 0;
+      long size = (long) columnCount * rowCount;
+      for ( int i = 0; i < coords.length; i++ ) {
+        ordinal += coords[ i ] * size;
+        size *= axes.get( i + 2 ).getPositionCount();
+      }
+      pageOrdinals[ p ] = ordinal;
+    }
+
+    final DataCell[][] rows = new DataCell[ pages.size() * rowCount ][];
+    final CellFormattingContext formatting = new CellFormattingContext();
+    final CellValues current = new CellValues();
+    for ( int i = 0; i < rows.length; i++ ) {
+      final int row = i % rowCount;
+      if ( skipRows != null && skipRows[ row ] ) {
+        continue;
+      }
+      final long first = pageOrdinals[ i / rowCount ] + (long) row * columnCount;
+      final DataCell[] line = new DataCell[ columnCount ];
+      for ( int c = 0; c < columnCount; c++ ) {
+        if ( skipColumns == null || !skipColumns[ c ] ) {
+          line[ c ] = factory.create( current.read( cellSet.getCell( (int) ( first + c ) ) ), formatting );
+        }
+      }
+      rows[ i ] = line;
+    }
+    return rows;
+  }
+}
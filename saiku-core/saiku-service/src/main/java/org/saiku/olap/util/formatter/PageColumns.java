@@ -0,0 +1,123 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.olap.util.formatter;
+
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.DataCell;
+import org.saiku.olap.dto.resultset.Matrix;
+import org.saiku.olap.dto.resultset.MemberCell;
+
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.metadata.Level;
+import org.olap4j.metadata.Member;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds the members of the pages of a cell set to a matrix whose pages are laid out one below the other.
+ *
+ * <p>Every member of the page positions, i.e. of the axes after the rows axis, gets a leading column. The rows of a
+ * page repeat its members there, the last header row has the captions of their levels, so rows of different pages
+ * with the same row headers can be told apart.</p>
+ */
+final class PageColumns {
+
+  private PageColumns() {
+  }
+
+  /**
+   * Returns a copy of the matrix with the page columns in front, or the matrix itself if the cell set has no pages.
+   *
+   * @param width      the width of the matrix
+   * @param yOffset    the number of header rows
+   * @param pageHeight the number of rows of every page
+   */
+  static Matrix add( Matrix matrix, CellSet cellSet, List<int[]> pages, int width, int yOffset, int pageHeight ) {
+    final List<CellSetAxis> axes = cellSet.getAxes();
+    if ( axes.size() <= 2 ) {
+      return matrix;
+    }
+    final List<MemberCell[]> pageCells = new ArrayList<>( pages.size() );
+    List<Member> firstMembers = null;
+    for ( final int[] coords : pages ) {
+      final List<Member> members = new ArrayList<>();
+      for ( int i = 0; i < coords.length; i++ ) {
+        members.addAll( axes.get( i + 2 ).getPositions().get( coords[ i ] ).getMembers() );
+      }
+      final MemberCell[] cells = new MemberCell[ members.size() ];
+      for ( int m = 0; m < cells.length; m++ ) {
+        cells[ m ] = memberCell( members.get( m ) );
+      }
+      pageCells.add( cells );
+      if ( firstMembers == null ) {
+        firstMembers = members;
+      }
+    }
+    if ( firstMembers == null || firstMembers.isEmpty() ) {
+      return matrix;
+    }
+    final int pageWidth = firstMembers.size();
+    final int height = yOffset + pageHeight * pages.size();
+
+    final Matrix paged = new Matrix( pageWidth + width, height );
+    paged.setOffset( matrix.getOffset() );
+    for ( int x = 0; x < pageWidth; x++ ) {
+      final Level level = firstMembers.get( x ).getLevel();
+      for ( int y = 0; y < yOffset; y++ ) {
+        final MemberCell header = new MemberCell( false, x > 0 );
+        if ( y == yOffset - 1 ) {
+          header.setRawValue( level.getCaption() );
+          header.setFormattedValue( level.getCaption() );
+          header.setProperty( "__headertype", "row_header_header" );
+          header.setHierarchy( level.getHierarchy().getUniqueName() );
+          header.setParentDimension( level.getDimension().getName() );
+          header.setLevel( level.getUniqueName() );
+        }
+        paged.set( x, y, header );
+      }
+    }
+    for ( int y = 0; y < height; y++ ) {
+      if ( y >= yOffset ) {
+        final MemberCell[] cells = pageCells.get( ( y - yOffset ) / pageHeight );
+        for ( int x = 0; x < pageWidth; x++ ) {
+          paged.set( x, y, cells[ x ] );
+        }
+      }
+      for ( int x = 0; x < width; x++ ) {
+        final AbstractBaseCell cell = matrix.get( x, y );
+        if ( cell instanceof DataCell ) {
+          paged.set( pageWidth + x, y, (DataCell) cell );
+        } else if ( cell instanceof MemberCell ) {
+          paged.set( pageWidth + x, y, (MemberCell) cell );
+        }
+      }
+    }
+    return paged;
+  }
+
+  private static MemberCell memberCell( Member member ) {
+    final MemberCell cell = new MemberCell( false, false );
+    cell.setRawValue( member.getUniqueName() );
+    cell.setFormattedValue( member.getCaption() );
+    cell.setParentDimension( member.getDimension().getName() );
+    cell.setUniquename( member.getUniqueName() );
+    cell.setHierarchy( member.getHierarchy().getUniqueName() );
+    cell.setLevel( member.getLevel().getUniqueName() );
+    return cell;
+  }
+}
@@ -56,10 +56,20 @@ class Acl2 {
   @NotNull
   private final Map<String, AclEntry> acl = new TreeMap<>();
 
+  @Nullable
+  private AclCache cache;
+
   public Acl2(@NotNull Node root) {
     readAclTree(root);
   }
 
+  /**
+   * An ACL that only evaluates permissions, reading the ACLs of nodes and files through a cache.
+   */
+  public Acl2(@NotNull AclCache cache) {
+    this.cache = cache;
+  }
+
   /**
    * Returns the access method to the specified resource for the user or role
    *
@@ -70,16 +80,38 @@ class Acl2 {
    */
   @NotNull
   public List<AclMethod> getMethods(@NotNull Node node, String username, @NotNull List<String> roles) {
+    return getMethods(node, username, roles, null);
+  }
+
+  @NotNull
+  private List<AclMethod> getMethods(@NotNull Node node, String username, @NotNull List<String> roles,
+                                     @Nullable Map<String, List<AclMethod>> resolved) {
+    if (resolved == null) {
+      return evaluate(node, username, roles, null);
+    }
+    try {
+      String path = node.getPath();
+      List<AclMethod> methods = resolved.get(path);
+      if (methods == null) {
+        methods = evaluate(node, username, roles, resolved);
+        resolved.put(path, methods);
+      }
+      return methods;
+    } catch (RepositoryException e) {
+      return evaluate(node, username, roles, resolved);
+    }
+  }
+
+  @NotNull
+  private List<AclMethod> evaluate(@NotNull Node node, String username, @NotNull List<String> roles,
+                                   @Nullable Map<String, List<AclMethod>> resolved) {
     try {
-      ObjectMapper mapper = new ObjectMapper();
       //LOG.debug("Set ACL to " + object + " : " + acl);
       //String acl = null;
       AclEntry entry = null;
-      Map<String, AclEntry> acl = new TreeMap<>();
 
       try {
-        TypeReference ref = new TypeReference<Map<String, AclEntry>>() { };
-        acl = mapper.readValue(node.getProperty("owner").getString(), ref);
+        Map<String, AclEntry> acl = readAcl(node);
         // mapper.readValue(acl, AclEntry.class);
         entry = acl.get(node.getPath());
         ///entry = e.getValue();
@@ -171,7 +203,7 @@ class Acl2 {
         } else {
           Node parent = node.getParent();
 
-          List<AclMethod> parentMethods = getMethods(parent, username, roles);
+          List<AclMethod> parentMethods = getMethods(parent, username, roles, resolved);
           method = AclMethod.max(parentMethods);
         }
       }
@@ -408,14 +440,31 @@ class Acl2 {
 
   @NotNull
   public List<AclMethod> getMethods(@NotNull File file, String username, @NotNull List<String> roles) {
+    return getMethods(file, username, roles, null);
+  }
+
+  @NotNull
+  private List<AclMethod> getMethods(@NotNull File file, String username, @NotNull List<String> roles,
+                                     @Nullable Map<String, List<AclMethod>> resolved) {
+    if (resolved == null) {
+      return evaluate(file, username, roles, null);
+    }
+    List<AclMethod> methods = resolved.get(file.getPath());
+    if (methods == null) {
+      methods = evaluate(file, username, roles, resolved);
+      resolved.put(file.getPath(), methods);
+    }
+    return methods;
+  }
+
+  @NotNull
+  private List<AclMethod> evaluate(@NotNull File file, String username, @NotNull List<String> roles,
+                                   @Nullable Map<String, List<AclMethod>> resolved) {
     try {
-      ObjectMapper mapper = new ObjectMapper();
       AclEntry entry = null;
-      Map<String, AclEntry> aclData = new TreeMap<>();
 
       try {
-        TypeReference ref = new TypeReference<Map<String, AclEntry>>() { };
-        aclData = mapper.readValue(new File(file, "acl.json"), ref);
+        Map<String, AclEntry> aclData = readAcl(file);
         entry = aclData.get(file.getPath());
       } catch (Exception e) {
         LOG.debug("Exception: " + file.getPath(), e.getCause());
@@ -482,7 +531,7 @@ class Acl2 {
         } else if (file.getParentFile().getName().equals("/")) {
           return getAllAcls(rootMethod);
         } else {
-          List<AclMethod> parentMethods = getMethods(file.getParentFile(), username, roles);
+          List<AclMethod> parentMethods = getMethods(file.getParentFile(), username, roles, resolved);
           method = AclMethod.max(parentMethods);
         }
       }
@@ -498,4 +547,50 @@ class Acl2 {
     return noMethod;
   }
 
-}
\ No newline at end of file
+  private Map<String, AclEntry> readAcl(@NotNull Node node) throws Exception {
+    if (cache != null) {
+      return cache.get(node);
+    }
+    TypeReference ref = new TypeReference<Map<String, AclEntry>>() { };
+    return new ObjectMapper().readValue(node.getProperty("owner").getString(), ref);
+  }
+
+  private Map<String, AclEntry> readAcl(@NotNull File file) throws Exception {
+    if (cache != null) {
+      return cache.get(file);
+    }
+    TypeReference ref = new TypeReference<Map<String, AclEntry>>() { };
+    return new ObjectMapper().readValue(new File(file, "acl.json"), ref);
+  }
+
+  /**
+   * Returns the permissions of a user, evaluating every node once however many files inherit from it.
+   */
+  public Resolver resolver(String username, @NotNull List<String> roles) {
+    return new Resolver(username, roles);
+  }
+
+  /**
+   * The permissions of a user for one listing of the repository.
+   */
+  public class Resolver {
+    private final String username;
+    private final List<String> roles;
+    private final Map<String, List<AclMethod>> resolved = new HashMap<>();
+
+    private Resolver(String username, @NotNull List<String> roles) {
+      this.username = username;
+      this.roles = roles;
+    }
+
+    @NotNull
+    public List<AclMethod> getMethods(@NotNull Node node) {
+      return Acl2.this.getMethods(node, username, roles, resolved);
+    }
+
+    @NotNull
+    public List<AclMethod> getMethods(@NotNull File file) {
+      return Acl2.this.getMethods(file, username, roles, resolved);
+    }
+  }
+}
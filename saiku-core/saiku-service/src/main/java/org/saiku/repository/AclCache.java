@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 OSBI Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.saiku.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+/**
+ * The parsed ACLs of repository nodes and <code>acl.json</code> files, so listings don't parse them again for every
+ * file. Repository managers invalidate the entries of the paths they write to.
+ */
+class AclCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AclCache.class);
+
+  private static final TypeReference<Map<String, AclEntry>> ACL_TYPE = new TypeReference<Map<String, AclEntry>>() { };
+
+  private static final Map<String, AclEntry> NO_ACL = Collections.emptyMap();
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final Map<String, Map<String, AclEntry>> acls = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the ACL in the <code>owner</code> property of a node.
+   *
+   * @throws javax.jcr.PathNotFoundException if the node has no ACL yet, which is not cached
+   */
+  @NotNull
+  public Map<String, AclEntry> get(@NotNull Node node) throws RepositoryException {
+    String path = node.getPath();
+    Map<String, AclEntry> acl = acls.get(path);
+    if (acl == null) {
+      String json = node.getProperty("owner").getString();
+      try {
+        acl = mapper.readValue(json, ACL_TYPE);
+      } catch (IOException e) {
+        LOG.debug("Cannot read ACL of " + path, e);
+      }
+      if (acl == null) {
+        acl = NO_ACL;
+      }
+      acls.put(path, acl);
+    }
+    return acl;
+  }
+
+  /**
+   * Returns the ACL in the <code>acl.json</code> file of a folder, empty if there is none.
+   */
+  @NotNull
+  public Map<String, AclEntry> get(@NotNull File folder) {
+    File file = new File(folder, "acl.json");
+    String path = file.getPath();
+    Map<String, AclEntry> acl = acls.get(path);
+    if (acl == null) {
+      try {
+        acl = mapper.readValue(file, ACL_TYPE);
+      } catch (IOException e) {
+        LOG.debug("Cannot read ACL of " + folder.getPath(), e);
+      }
+      if (acl == null) {
+        acl = NO_ACL;
+      }
+      acls.put(path, acl);
+    }
+    return acl;
+  }
+
+  /**
+   * Forgets the ACLs of a node and of everything below it.
+   */
+  public void invalidate(String path) {
+    if (path == null) {
+      return;
+    }
+    String folder = path.endsWith("/") ? path : path + "/";
+    for (Iterator<String> it = acls.keySet().iterator(); it.hasNext(); ) {
+      String key = it.next();
+      if (key.equals(path) || key.startsWith(folder)) {
+        it.remove();
+      }
+    }
+  }
+
+  public void clear() {
+    acls.clear();
+  }
+
+  public int size() {
+    return acls.size();
+  }
+}
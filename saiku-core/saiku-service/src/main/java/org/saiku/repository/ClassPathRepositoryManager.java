@@ -20,6 +20,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.saiku.database.dto.MondrianSchema;
 import org.saiku.datasources.connection.RepositoryFile;
+import org.saiku.olap.util.SaikuProperties;
 import org.saiku.service.user.UserService;
 import org.saiku.service.util.exception.SaikuServiceException;
 
@@ -41,6 +42,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jcr.RepositoryException;
 import javax.servlet.http.HttpSession;
@@ -65,6 +67,42 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
 
     private String sep = "/";
     private ScopedRepo sessionRegistry;
+    private final AclCache aclCache = new AclCache();
+    private final RepositoryFileCache fileCache;
+    /**
+     * Workspace folders known to exist, so they aren't checked for on every call.
+     */
+    private final Set<String> workspaceDirs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static final JAXBContext DATASOURCE_CONTEXT = createDatasourceContext();
+
+    private static final RepositoryFileCache.Parser<Boolean> SCHEMA_PARSER = new RepositoryFileCache.Parser<Boolean>() {
+        public Boolean parse(Path file, byte[] contents) throws IOException {
+            return new String(contents, "UTF-8").contains("<Schema");
+        }
+    };
+
+    private final RepositoryFileCache.Parser<DataSource> datasourceParser = new RepositoryFileCache.Parser<DataSource>() {
+        public DataSource parse(Path file, byte[] contents) throws IOException {
+            return readDataSource(file.toFile(), contents);
+        }
+    };
+
+    /**
+     * Folders first, then by name.
+     */
+    private static final Comparator<IRepositoryObject> REPOSITORY_ORDER = new Comparator<IRepositoryObject>() {
+
+        public int compare(IRepositoryObject o1, IRepositoryObject o2) {
+            if (o1.getType().equals(IRepositoryObject.Type.FOLDER) && o2.getType().equals(IRepositoryObject.Type.FILE))
+                return -1;
+            if (o1.getType().equals(IRepositoryObject.Type.FILE) && o2.getType().equals(IRepositoryObject.Type.FOLDER))
+                return 1;
+            return o1.getName().toLowerCase().compareTo(o2.getName().toLowerCase());
+
+        }
+
+    };
 
     private ClassPathRepositoryManager(String data, String defaultRole, ScopedRepo sessionRegistry, boolean workspaces) {
 
@@ -72,6 +110,29 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
         this.defaultRole = defaultRole;
         this.sessionRegistry = sessionRegistry;
         this.workspaces = workspaces;
+        this.fileCache = new RepositoryFileCache(Paths.get(this.append), SaikuProperties.repositoryCacheEnabled,
+                SaikuProperties.repositoryCacheMaxFileSize, new RepositoryFileCache.Listener() {
+            public void changed(Path path) {
+                if (path.getFileName() == null || path.getFileName().toString().equals("acl.json")
+                        || Files.isDirectory(path)) {
+                    aclCache.clear();
+                }
+                for (Iterator<String> it = workspaceDirs.iterator(); it.hasNext(); ) {
+                    if (Paths.get(it.next()).toAbsolutePath().normalize().startsWith(path)) {
+                        it.remove();
+                    }
+                }
+            }
+        });
+    }
+
+    private static JAXBContext createDatasourceContext() {
+        try {
+            return JAXBContext.newInstance(DataSource.class);
+        } catch (JAXBException e) {
+            log.error("Could not read XML", e);
+            return null;
+        }
     }
 
     public static synchronized ClassPathRepositoryManager getClassPathRepositoryManager(String data, String defaultRole, ScopedRepo sessionRegistry, boolean workspaces) {
@@ -93,6 +154,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
 
     public boolean start(UserService userService) throws RepositoryException {
         this.userService = userService;
+        fileCache.start();
         if (session == null) {
 
             File f = new File(this.append + "/unknown");
@@ -203,6 +265,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
             acl2.addEntry(n.getPath(), e);
             acl2.serialize(n);
 
+            aclCache.clear();
         }
         return true;
 
@@ -243,7 +306,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
     }
 
     public void shutdown() {
-
+        fileCache.stop();
     }
 
     public boolean createFolder(String username, String folder) throws RepositoryException {
@@ -258,6 +321,8 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
         }
 
         this.delete(folder);
+        aclCache.clear();
+        fileCache.invalidate(getNode(folder));
         return true;
     }
 
@@ -290,6 +355,8 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
             int pos = path.lastIndexOf(sep);
             String filename = "." + sep + path.substring(pos + 1, path.length());
             this.createFolder(filename);
+            aclCache.clear();
+            fileCache.invalidate(getNode(filename));
             return null;
 
         } else {
@@ -316,6 +383,8 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            aclCache.clear();
+            fileCache.invalidate(resNode);
 
             return resNode;
         }
@@ -332,12 +401,13 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
         }
 
         this.getNode(path).delete();
+        aclCache.clear();
+        fileCache.invalidate(getNode(path));
 
     }
 
     public void moveFile(String source, String target, String user, List<String> roles) throws RepositoryException {
-
-
+        aclCache.clear();
     }
 
 
@@ -380,6 +450,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            fileCache.invalidate(f);
 
 
             return f;
@@ -431,6 +502,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            fileCache.invalidate(resNode);
 
             return resNode;
         }
@@ -446,7 +518,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
         }
         byte[] encoded = new byte[0];
         try {
-            encoded = Files.readAllBytes(Paths.get(getDatadir() + sep + s));
+            encoded = fileCache.read(Paths.get(getDatadir() + sep + s));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -464,14 +536,14 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
         byte[] encoded = new byte[0];
         if(!s.equals("/etc/license.lic")) {
             try {
-                encoded = Files.readAllBytes(Paths.get(getDatadir() + s));
+                encoded = fileCache.read(Paths.get(getDatadir() + s));
             } catch (IOException e) {
                 log.debug("Missing file", e);
             }
         }
         else{
             try {
-                encoded = Files.readAllBytes(Paths.get(append + s));
+                encoded = fileCache.read(Paths.get(append + s));
             } catch (IOException e) {
                 log.debug("Missing file", e);
             }
@@ -487,7 +559,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
     public InputStream getBinaryInternalFile(String s) throws RepositoryException {
         Path path = Paths.get(getDatadir() + s);
         try {
-            byte[] f = Files.readAllBytes(path);
+            byte[] f = fileCache.read(path);
             return new ByteArrayInputStream(f);
         } catch (IOException e) {
             e.printStackTrace();
@@ -497,6 +569,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
 
     public void removeInternalFile(String s) throws RepositoryException {
         this.getNode(s).delete();
+        fileCache.invalidate(getNode(s));
 
     }
 
@@ -505,29 +578,20 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
         String[] extensions = new String[1];
         extensions[0] = "xml";
 
-        Collection<File> files = FileUtils.listFiles(
-                new File(getDatadir() + "datasources"),
-                extensions,
-                true
-        );
+        String datadir = getDatadir();
+        Collection<File> files = fileCache.list(new File(datadir + "datasources"), extensions);
         List<MondrianSchema> schema = new ArrayList<>();
 
         for (File file : files) {
             try {
-                Scanner scanner = new Scanner(file);
+                if (fileCache.parse(file.toPath(), SCHEMA_PARSER)) {
+                    MondrianSchema ms = new MondrianSchema();
+                    ms.setName(file.getName());
 
-                while (scanner.hasNextLine()) {
-                    String line = scanner.nextLine();
-                    if (line.contains("<Schema")) {
-                        MondrianSchema ms = new MondrianSchema();
-                        ms.setName(file.getName());
-
-                        ms.setPath(file.getPath().substring(this.getDatadir().length() - 2, file.getPath().length()));
-                        schema.add(ms);
-                        break;
-                    }
+                    ms.setPath(file.getPath().substring(datadir.length() - 2, file.getPath().length()));
+                    schema.add(ms);
                 }
-            } catch (FileNotFoundException e) {
+            } catch (IOException e) {
                 //handle this
             }
         }
@@ -561,11 +625,88 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
     }
 
 
+    public RepositoryListing getChildren(List<String> type, String username, List<String> roles, String path, int depth,
+                                         String cursor, int limit) throws RepositoryException {
+        File folder = this.getFolder(path != null ? path : sep);
+        if (!folder.isDirectory()) {
+            return null;
+        }
+        Acl2 acl = new Acl2(aclCache);
+        acl.setAdminRoles(userService.getAdminRoles());
+        return getChildren(folder, path, type, acl.resolver(username, roles), Math.max(depth, 1), cursor, limit);
+    }
+
+    private RepositoryListing getChildren(File folder, String path, List<String> fileType, Acl2.Resolver acl, int depth,
+                                          String cursor, int limit) {
+        List<RepositoryListing.Entry<File>> entries = new ArrayList<>();
+        File[] files = folder.getAbsoluteFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.isHidden()) {
+                    entries.add(new RepositoryListing.Entry<File>(file, file.isDirectory(), file.getName()));
+                }
+            }
+        }
+
+        RepositoryListing listing = new RepositoryListing(path, entries.size());
+        String datadir = getDatadir();
+        for (Iterator<RepositoryListing.Entry<File>> it = RepositoryListing.after(entries, cursor).iterator(); it.hasNext(); ) {
+            RepositoryListing.Entry<File> entry = it.next();
+            File file = entry.getItem();
+            String filename = file.getName();
+            if (!entry.isFolder() && !isOfType(filename, fileType)) {
+                continue;
+            }
+            String relativePath = file.getPath().substring(datadir.length() - 3, file.getPath().length());
+            relativePath = relativePath.replace("\\", "/");
+
+            List<AclMethod> acls = acl.getMethods(new File(relativePath));
+            if (!acls.contains(AclMethod.READ)) {
+                continue;
+            }
+            if (entry.isFolder()) {
+                RepositoryListing children = depth > 1
+                    ? getChildren(file, relativePath, fileType, acl, depth - 1, null, 0) : null;
+                RepositoryFolderObject object = new RepositoryFolderObject(filename, "#" + relativePath, relativePath,
+                    acls, children != null ? children.getRepoObjects() : null);
+                object.setChildCount(children != null ? children.getCount() : countChildren(file));
+                listing.add(object);
+            } else {
+                listing.add(new RepositoryFileObject(filename, "#" + relativePath, FilenameUtils.getExtension(filename),
+                    relativePath, acls));
+            }
+            if (limit > 0 && listing.size() >= limit && it.hasNext()) {
+                listing.setNext(entry);
+                break;
+            }
+        }
+        return listing;
+    }
+
+    private boolean isOfType(String filename, List<String> fileType) {
+        if (fileType == null) {
+            return true;
+        }
+        for (String ft : fileType) {
+            if (filename.endsWith(ft)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int countChildren(File folder) {
+        String[] names = folder.list();
+        return names != null ? names.length : 0;
+    }
+
     public void deleteFile(String datasourcePath) {
         File n;
         try {
             n = getFolder(datasourcePath);
             n.delete();
+            aclCache.clear();
+            fileCache.invalidate(n);
 
         } catch (RepositoryException e) {
             log.error("Could not remove file " + datasourcePath, e);
@@ -631,6 +772,8 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
             if (node != null) {
                 acl2.addEntry(object, ae);
                 acl2.serialize(node);
+                // acl.json files are looked up by relative path, forget them all
+                aclCache.clear();
             }
         }
     }
@@ -640,11 +783,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
 
         String[] extensions = new String[1];
         extensions[0] = "xml";
-        Collection<File> files = FileUtils.listFiles(
-                new File(getDatadir()),
-                extensions,
-                true
-        );
+        Collection<File> files = fileCache.list(new File(getDatadir()), extensions);
 
         for (File file : files) {
 
@@ -673,63 +812,60 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
 
         String[] extensions = new String[1];
         extensions[0] = "sds";
-        Collection<File> files = FileUtils.listFiles(
-                new File(append),
-                extensions,
-                true
-        );
+        Collection<File> files = fileCache.list(new File(append), extensions);
 
         for (File file : files) {
-            JAXBContext jaxbContext = null;
-            Unmarshaller jaxbMarshaller = null;
-            try {
-                jaxbContext = JAXBContext.newInstance(DataSource.class);
-            } catch (JAXBException e) {
-                log.error("Could not read XML", e);
-            }
-            try {
-                jaxbMarshaller = jaxbContext != null ? jaxbContext.createUnmarshaller() : null;
-            } catch (JAXBException e) {
-                log.error("Could not read XML", e);
-            }
-            InputStream stream = null;
+            DataSource d = null;
             try {
-                stream = (FileUtils.openInputStream(file));
+                d = fileCache.parse(file.toPath(), datasourceParser);
             } catch (IOException e) {
                 e.printStackTrace();
             }
-            DataSource d = null;
-            try {
-                d = (DataSource) (jaxbMarshaller != null ? jaxbMarshaller.unmarshal(stream) : null);
-            } catch (JAXBException e) {
-                log.error("Could not read XML", e);
-            }
-
-            if (d != null) {
-                d.setPath(file.getPath());
-            }
-            if (file.getParentFile().isDirectory()) {
-                String p = file.getParent();
-                p = p.replace("\\", "/");
-                String[] s = p.split("/");
-
-                log.debug("p split: " + p);
-                String[] t = append.split("/");
-                if (!s[s.length - 2].equals(t[t.length - 1])) {
-                    d.setName(s[s.length - 2] + "_" + (d != null ? d.getName() : ""));
-                }
-            }
 
             ds.add(d);
         }
         return ds;
     }
 
+    /**
+     * Reads a data source, prefixing its name with the folder it is in. The result is kept by the file cache and
+     * handed out on every call, it must not be changed.
+     */
+    private DataSource readDataSource(File file, byte[] contents) {
+        Unmarshaller jaxbMarshaller = null;
+        try {
+            jaxbMarshaller = DATASOURCE_CONTEXT != null ? DATASOURCE_CONTEXT.createUnmarshaller() : null;
+        } catch (JAXBException e) {
+            log.error("Could not read XML", e);
+        }
+        DataSource d = null;
+        try {
+            d = (DataSource) (jaxbMarshaller != null ? jaxbMarshaller.unmarshal(new ByteArrayInputStream(contents)) : null);
+        } catch (JAXBException e) {
+            log.error("Could not read XML", e);
+        }
+
+        if (d != null) {
+            d.setPath(file.getPath());
+        }
+        if (file.getParentFile().isDirectory()) {
+            String p = file.getParent();
+            p = p.replace("\\", "/");
+            String[] s = p.split("/");
+
+            log.debug("p split: " + p);
+            String[] t = append.split("/");
+            if (!s[s.length - 2].equals(t[t.length - 1])) {
+                d.setName(s[s.length - 2] + "_" + (d != null ? d.getName() : ""));
+            }
+        }
+        return d;
+    }
+
     public void saveDataSource(DataSource ds, String path, String user) throws RepositoryException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
-            JAXBContext jaxbContext = JAXBContext.newInstance(DataSource.class);
-            Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
+            Marshaller jaxbMarshaller = DATASOURCE_CONTEXT.createMarshaller();
 
             // output pretty printed
             jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
@@ -754,6 +890,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        fileCache.invalidate(f);
 
     }
 
@@ -794,6 +931,12 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
 
     private List<IRepositoryObject> getRepoObjects(File root, List<String> fileType, String username, List<String> roles,
                                                    boolean includeparent) throws Exception {
+        Acl2 acl = new Acl2(aclCache);
+        acl.setAdminRoles(userService.getAdminRoles());
+        return getRepoObjects(root, fileType, acl.resolver(username, roles));
+    }
+
+    private List<IRepositoryObject> getRepoObjects(File root, List<String> fileType, Acl2.Resolver acl) throws Exception {
         List<IRepositoryObject> repoObjects = new ArrayList<IRepositoryObject>();
         ArrayList<File> objects = new ArrayList<>();
         if (root.isDirectory()) {
@@ -805,19 +948,17 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
             objects.add(root);
         }
 
-        Acl2 acl = new Acl2(root);
-        acl.setAdminRoles(userService.getAdminRoles());
-
+        String datadir = getDatadir();
         for (File file : objects) {
 
             if (!file.isHidden()) {
                 String filename = file.getName();
-                String relativePath = file.getPath().substring(getDatadir().length() - 3, file.getPath().length());
+                String relativePath = file.getPath().substring(datadir.length() - 3, file.getPath().length());
                 relativePath = relativePath.replace("\\", "/");
 
 
-                if (acl.canRead(relativePath, username, roles)) {
-                    List<AclMethod> acls = acl.getMethods(new File(relativePath), username, roles);
+                List<AclMethod> acls = acl.getMethods(new File(relativePath));
+                if (acls.contains(AclMethod.READ)) {
                     if (file.isFile()) {
                         if (!fileType.isEmpty()) {
                             for (String ft : fileType) {
@@ -833,24 +974,12 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
 
                     }
                     if (file.isDirectory()) {
-                        repoObjects.add(new RepositoryFolderObject(filename, "#" + relativePath, relativePath, acls, getRepoObjects(file, fileType, username, roles, false)));
+                        repoObjects.add(new RepositoryFolderObject(filename, "#" + relativePath, relativePath, acls, getRepoObjects(file, fileType, acl)));
                     }
-                    Collections.sort(repoObjects, new Comparator<IRepositoryObject>() {
-
-                        public int compare(IRepositoryObject o1, IRepositoryObject o2) {
-                            if (o1.getType().equals(IRepositoryObject.Type.FOLDER) && o2.getType().equals(IRepositoryObject.Type.FILE))
-                                return -1;
-                            if (o1.getType().equals(IRepositoryObject.Type.FILE) && o2.getType().equals(IRepositoryObject.Type.FOLDER))
-                                return 1;
-                            return o1.getName().toLowerCase().compareTo(o2.getName().toLowerCase());
-
-                        }
-
-                    });
                 }
             }
         }
-        //}
+        Collections.sort(repoObjects, REPOSITORY_ORDER);
         return repoObjects;
     }
 
@@ -865,6 +994,7 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
     private File createFolder(String path) {
         String appended = getDatadir() + path;
         boolean success = (new File(appended)).mkdirs();
+        fileCache.invalidate(new File(appended));
         if (!success) {
             // Directory creation failed
         }
@@ -938,19 +1068,20 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
                 String workspace = (String) getSession().getAttribute(ORBIS_WORKSPACE_DIR);
                 workspace = cleanse(workspace);
                 log.debug("Check " + append + "/" + workspace + "/ exists");
-                if (!new File(append + "/" + workspace + "/").exists()) {
-                    this.bootstrap(append + "/" + workspace);
-                    this.start(userService);
+                String dir = append + "/" + workspace;
+                if (!workspaceDirs.contains(dir)) {
+                    if (!new File(dir + "/").exists()) {
+                        this.bootstrap(dir);
+                        this.start(userService);
+                    }
+                    workspaceDirs.add(dir);
                 }
 
                 log.debug("Workspace directory set to:" + workspace);
                 return append + "/" + workspace + "/";
             } else if (this.workspaces) {
                 log.debug("Workspace directory set to: unknown/");
-                if (!new File(append + "/unknown/etc").exists()) {
-                    this.bootstrap(append + "/unknown");
-                    this.start(userService);
-                }
+                bootstrapUnknown();
                 return append + "/unknown/";
             } else {
                 return append + "/";
@@ -959,15 +1090,23 @@ public class ClassPathRepositoryManager implements IRepositoryManager {
         } catch (Exception ex) {
             // This exception is expected at Saiku boot
         }
-        if (!new File(append + "/unknown/etc").exists()) {
-            this.bootstrap(append + "/unknown");
-            try {
+        try {
+            bootstrapUnknown();
+        } catch (RepositoryException e) {
+            e.printStackTrace();
+        }
+        return append + "unknown/";
+    }
+
+    private void bootstrapUnknown() throws RepositoryException {
+        String dir = append + "/unknown/etc";
+        if (!workspaceDirs.contains(dir)) {
+            if (!new File(dir).exists()) {
+                this.bootstrap(append + "/unknown");
                 this.start(userService);
-            } catch (RepositoryException e) {
-                e.printStackTrace();
             }
+            workspaceDirs.add(dir);
         }
-        return append + "unknown/";
     }
 
     private String cleanse(String workspace) {
@@ -87,6 +87,19 @@ public interface IRepositoryManager {
     List<IRepositoryObject> getAllFiles(List<String> type, String username, List<String> roles, String path) throws
         RepositoryException;
 
+    /**
+     * Lists one page of the children of a folder, without walking the rest of the repository.
+     *
+     * @param type   the extensions of the files to list, null for all files
+     * @param path   the folder, null for the root
+     * @param depth  the levels of children to include, folders deeper than that only get their child count
+     * @param cursor the <code>next</code> of the previous page, null for the first page
+     * @param limit  the children on a page, 0 or less for all of them
+     * @return the page, or null if there is no such folder
+     */
+    RepositoryListing getChildren(List<String> type, String username, List<String> roles, String path, int depth,
+                                  String cursor, int limit) throws RepositoryException;
+
     void deleteFile(String datasourcePath);
 
     AclEntry getACL(String object, String username, List<String> roles);
@@ -46,6 +46,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -88,6 +89,25 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
   private Session session;
   private Node root;
   private UserService userService;
+  private final AclCache aclCache = new AclCache();
+
+  /**
+   * Folders first, then by name.
+   */
+  private static final Comparator<IRepositoryObject> REPOSITORY_ORDER = new Comparator<IRepositoryObject>() {
+
+    public int compare(IRepositoryObject o1, IRepositoryObject o2) {
+      if (o1.getType().equals(IRepositoryObject.Type.FOLDER) && o2.getType().equals(
+          IRepositoryObject.Type.FILE))
+        return -1;
+      if (o1.getType().equals(IRepositoryObject.Type.FILE) && o2.getType().equals(
+          IRepositoryObject.Type.FOLDER))
+        return 1;
+      return o1.getName().toLowerCase().compareTo(o2.getName().toLowerCase());
+
+    }
+
+  };
 
 
   private JackRabbitRepositoryManager(String config, String data, String password, String oldpassword, String defaultRole) {
@@ -263,6 +283,7 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
       acl2.serialize(node);
 
       node.getSession().save();
+      aclCache.invalidate(node.getPath());
 
     }
     else{
@@ -327,8 +348,10 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
         }*/
     Node node = JcrUtils.getNodeIfExists(root, folder);
     if(node!=null) {
+      String path = node.getPath();
       node.remove();
       node.getSession().save();
+      aclCache.invalidate(path);
       return true;
     }
     else{
@@ -340,11 +363,13 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
     while (root.getNodes().hasNext()) {
       root.getNodes().nextNode().remove();
     }
+    aclCache.clear();
   }
 
   public boolean moveFolder(String user, String folder, String source, String target) throws RepositoryException {
     Node root = getHomeFolder(user).getNode(source + "/" + folder);
 
+    String path = root.getPath();
     if (target == null) {
       //session.getWorkspace().move(root.getPath(), root.getSession().getRootNode().getPath()+"/homes/home:"+user+"/"+folder);
       root.getSession().move(root.getPath(), getHomeFolder(user).getPath() + "/" + root.getName());
@@ -353,6 +378,8 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
       root.getSession().move(root.getPath(), getHomeFolder(user).getPath());
       root.getSession().save();
     }
+    aclCache.invalidate(path);
+    aclCache.invalidate(root.getPath());
 
     return true;
   }
@@ -378,6 +405,7 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
       String filename = "./" + path.substring(pos + 1, path.length());
       Node resNode = node.addNode(filename, "nt:folder");
       resNode.addMixin("nt:saikufolders");
+      aclCache.invalidate(resNode.getPath());
       return resNode;
 
     }
@@ -416,6 +444,7 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
         lastModified.setTimeInMillis (new Date().getTime());
         resNode.setProperty ("jcr:lastModified", lastModified);*/
       resNode.getSession().save();
+      aclCache.invalidate(resNode.getPath());
       return resNode;
     }
   }
@@ -430,10 +459,11 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
 
     }
 
+    String removed = node.getPath();
     node.remove();
 
     node.getSession().save();
-
+    aclCache.invalidate(removed);
 
   }
 
@@ -451,7 +481,8 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
     node.getSession().move(source, target + "/" + node.getName());
 
     node.getSession().save();
-
+    aclCache.invalidate(source);
+    aclCache.invalidate(target + "/" + node.getName());
 
   }
 
@@ -625,12 +656,83 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
     return getRepoObjects(node, type, username, roles, true);
   }
 
+  public RepositoryListing getChildren(List<String> type, String username, List<String> roles, String path, int depth,
+                                       String cursor, int limit) throws RepositoryException {
+    Node folder = path != null ? JcrUtils.getNodeIfExists(path, session) : root;
+    if (folder == null) {
+      return null;
+    }
+    Acl2 acl2 = new Acl2(aclCache);
+    acl2.setAdminRoles(userService.getAdminRoles());
+    return getChildren(folder, type, acl2.resolver(username, roles), Math.max(depth, 1), cursor, limit);
+  }
+
+  private RepositoryListing getChildren(Node folder, List<String> fileType, Acl2.Resolver acl2, int depth,
+                                        String cursor, int limit) throws RepositoryException {
+    List<RepositoryListing.Entry<Node>> entries = new ArrayList<>();
+    NodeIterator n = folder.getNodes();
+    while (n.hasNext()) {
+      Node node = n.nextNode();
+      String nodename = node.getName();
+      if (nodename.startsWith("jcr:") || nodename.startsWith("rep:")) {
+        continue;
+      }
+      String nodetype = node.getPrimaryNodeType().getName();
+      if (nodetype.equals("nt:folder") || nodetype.equals("nt:file")) {
+        entries.add(new RepositoryListing.Entry<Node>(node, nodetype.equals("nt:folder"), nodename));
+      }
+    }
+
+    RepositoryListing listing = new RepositoryListing(folder.getPath(), entries.size());
+    for (Iterator<RepositoryListing.Entry<Node>> it = RepositoryListing.after(entries, cursor).iterator(); it.hasNext(); ) {
+      RepositoryListing.Entry<Node> entry = it.next();
+      Node node = entry.getItem();
+      String nodename = node.getName();
+      if (!entry.isFolder() && fileType != null && !fileType.contains(FilenameUtils.getExtension(nodename))) {
+        continue;
+      }
+      List<AclMethod> acls = acl2.getMethods(node);
+      if (!acls.contains(AclMethod.READ)) {
+        continue;
+      }
+      if (entry.isFolder()) {
+        RepositoryListing children = depth > 1 ? getChildren(node, fileType, acl2, depth - 1, null, 0) : null;
+        RepositoryFolderObject object = new RepositoryFolderObject(nodename, "#" + node.getPath(), node.getPath(), acls,
+            children != null ? children.getRepoObjects() : null);
+        object.setChildCount(children != null ? children.getCount() : countChildren(node));
+        listing.add(object);
+      } else {
+        listing.add(new RepositoryFileObject(nodename, "#" + node.getPath(), FilenameUtils.getExtension(nodename),
+            node.getPath(), acls));
+      }
+      if (limit > 0 && listing.size() >= limit && it.hasNext()) {
+        listing.setNext(entry);
+        break;
+      }
+    }
+    return listing;
+  }
+
+  private int countChildren(Node folder) throws RepositoryException {
+    long size = folder.getNodes().getSize();
+    if (size >= 0) {
+      return (int) size;
+    }
+    int count = 0;
+    for (NodeIterator n = folder.getNodes(); n.hasNext(); n.nextNode()) {
+      count++;
+    }
+    return count;
+  }
+
   public void deleteFile(String datasourcePath) {
     Node n;
     try {
       n = getFolder(datasourcePath);
+      String path = n.getPath();
       n.remove();
       n.getSession().save();
+      aclCache.invalidate(path);
 
     } catch (RepositoryException e) {
       log.error("Could not remove file "+datasourcePath, e );
@@ -697,6 +799,7 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
       if (node != null) {
         acl2.addEntry(object, ae);
         node = acl2.serialize(node);
+        aclCache.invalidate(node.getPath());
       }
     }
 
@@ -824,6 +927,7 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
   public void restoreRepository(byte[] xml) throws RepositoryException, IOException {
     InputStream stream = new ByteArrayInputStream(xml);
     session.importXML("/", stream, ImportUUIDBehavior.IMPORT_UUID_COLLISION_REPLACE_EXISTING);
+    aclCache.clear();
   }
 
   public RepositoryFile getFile(String fileUrl) {
@@ -1081,9 +1185,13 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
 
   private List<IRepositoryObject> getRepoObjects(Node files, List<String> fileType, String username, List<String> roles,
                                                  boolean includeparent) {
-    Acl2 acl2 = new Acl2(files);
+    Acl2 acl2 = new Acl2(aclCache);
     acl2.setAdminRoles(userService.getAdminRoles());
+    return getRepoObjects(files, fileType, acl2.resolver(username, roles), includeparent);
+  }
 
+  private List<IRepositoryObject> getRepoObjects(Node files, List<String> fileType, Acl2.Resolver acl2,
+                                                 boolean includeparent) {
     List<IRepositoryObject> repoObjects = new ArrayList<>();
     Iterable<Node> objects = null;
     NodeIterator n = null;
@@ -1096,18 +1204,18 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
 
           } else {
             String extension = FilenameUtils.getExtension(files.getName());
-            List<AclMethod> acls = acl2.getMethods(files, username, roles);
+            List<AclMethod> acls = acl2.getMethods(files);
 
             repoObjects
                 .add(new RepositoryFileObject(filename, "#" + files.getPath(), extension, files.getPath(),
                     acls));
           }
           if (files.getPrimaryNodeType().getName().equals("nt:folder")) {
-            List<AclMethod> acls = acl2.getMethods(files, username, roles);
+            List<AclMethod> acls = acl2.getMethods(files);
 
             repoObjects.add(
                 new RepositoryFolderObject(files.getName(), "#" + files.getPath(), files.getPath(), acls,
-                    getRepoObjects(files, fileType, username, roles, false)));
+                    getRepoObjects(files, fileType, acl2, false)));
           }
         }
       }
@@ -1117,15 +1225,12 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
 
       while(n.hasNext()) {
         Node node = n.nextNode();
-        String nodetype = node.getPrimaryNodeType().getName();
         String nodename = node.getName();
-        String nodepath = node.getPath();
 
         objects = JcrUtils.getChildNodes(node);
-        String s = (node.getPrimaryNodeType().getName());
         if (!nodename.startsWith("jcr:") && !nodename.startsWith("rep:")) {
-          if (acl2.canRead(node, username, roles)) {
-            List<AclMethod> acls = acl2.getMethods(node, username, roles);
+          List<AclMethod> acls = acl2.getMethods(node);
+          if (acls.contains(AclMethod.READ)) {
             if (node.getPrimaryNodeType().getName().equals("nt:file")) {
               if (fileType !=null && !fileType.contains(FilenameUtils.getExtension(node.getName()))) {
                 continue;
@@ -1139,38 +1244,19 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
             if (node.getPrimaryNodeType().getName().equals("nt:folder")) {
               repoObjects.add(
                   new RepositoryFolderObject(node.getName(), "#" + node.getPath(), node.getPath(), acls,
-                      getRepoObjects(node, fileType, username, roles, false)));
+                      getRepoObjects(node, fileType, acl2, false)));
             }
-            Collections.sort(repoObjects, new Comparator<IRepositoryObject>() {
-
-              public int compare(IRepositoryObject o1, IRepositoryObject o2) {
-                if (o1.getType().equals(IRepositoryObject.Type.FOLDER) && o2.getType().equals(
-                    IRepositoryObject.Type.FILE))
-                  return -1;
-                if (o1.getType().equals(IRepositoryObject.Type.FILE) && o2.getType().equals(
-                    IRepositoryObject.Type.FOLDER))
-                  return 1;
-                return o1.getName().toLowerCase().compareTo(o2.getName().toLowerCase());
-
-              }
-
-            });
           }
           for (Node file : objects) {
             //if (!file.isHidden()) {
             if (!file.getName().startsWith("jcr:") && !file.getName().startsWith("rep:")) {
 
 
-              if (acl2.canRead(file, username, roles)) {
+              List<AclMethod> fileAcls = acl2.getMethods(file);
+              if (fileAcls.contains(AclMethod.READ)) {
                 String filename = file.getName();
                 String relativePath = file.getPath();//repo.getName().getRelativeName(file.getName());
 
-
-                //if ( acl.canRead(relativePath,username, roles) ) {
-                List<AclMethod> acls = acl2.getMethods(file, username, roles);
-
-                String s2 = (file.getPrimaryNodeType().getName());
-
                 if (file.getPrimaryNodeType().getName().equals("nt:saikufiles")) {
                   if (fileType != null && !fileType.contains(FilenameUtils.getExtension(filename))) {
                     continue;
@@ -1179,25 +1265,8 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
 
                   repoObjects
                       .add(new RepositoryFileObject(filename, "#" + relativePath, extension, relativePath,
-                          acls));
+                          fileAcls));
                 }
-                if (file.getPrimaryNodeType().getName().equals("nt:folder")) {
-                  //repoObjects.add(new RepositoryFolderObject(filename, "#" + relativePath, relativePath, acls, getRepoObjects(file, fileType, username, roles)));
-                }
-                Collections.sort(repoObjects, new Comparator<IRepositoryObject>() {
-
-                  public int compare(IRepositoryObject o1, IRepositoryObject o2) {
-                    if (o1.getType().equals(IRepositoryObject.Type.FOLDER) && o2.getType().equals(
-                        IRepositoryObject.Type.FILE))
-                      return -1;
-                    if (o1.getType().equals(IRepositoryObject.Type.FILE) && o2.getType().equals(
-                        IRepositoryObject.Type.FOLDER))
-                      return 1;
-                    return o1.getName().toLowerCase().compareTo(o2.getName().toLowerCase());
-
-                  }
-
-                });
               }
               //}
               //}
@@ -1209,6 +1278,7 @@ public class JackRabbitRepositoryManager implements IRepositoryManager {
     } catch (RepositoryException e) {
       log.error("Error processing repo objects", e);
     }
+    Collections.sort(repoObjects, REPOSITORY_ORDER);
     return repoObjects;
   }
 
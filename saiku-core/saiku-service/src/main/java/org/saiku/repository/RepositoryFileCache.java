@@ -0,0 +1,328 @@
+/*
+ * Copyright 2016 OSBI Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.saiku.repository;
+
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The contents of the files of a file based repository, what was parsed from them and the listings of its folders,
+ * kept in memory until a {@link WatchService} sees them change.
+ *
+ * <p>The repository manager invalidates the paths it writes to itself, the watcher catches changes made behind its
+ * back. Files larger than the maximum size are read every time. If the file system can't be watched nothing is kept
+ * and every call reads from disk.</p>
+ */
+class RepositoryFileCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RepositoryFileCache.class);
+
+  /**
+   * Parses the contents of a file into something kept along with them.
+   */
+  interface Parser<T> {
+    T parse(@NotNull Path file, @NotNull byte[] contents) throws IOException;
+  }
+
+  /**
+   * Told about every path that changed, after it was invalidated.
+   */
+  interface Listener {
+    void changed(@NotNull Path path);
+  }
+
+  private final Path root;
+
+  private final boolean enabled;
+
+  private final long maxFileSize;
+
+  private final Listener listener;
+
+  private final Map<Path, Entry> files = new ConcurrentHashMap<>();
+
+  private final Map<String, Collection<File>> listings = new ConcurrentHashMap<>();
+
+  private final Map<WatchKey, Path> watched = new ConcurrentHashMap<>();
+
+  /**
+   * Bumped by every change, so a read that raced a change doesn't keep what it read.
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  private WatchService watcher;
+
+  private Thread thread;
+
+  RepositoryFileCache(@NotNull Path root, boolean enabled, long maxFileSize, Listener listener) {
+    this.root = normalize(root);
+    this.enabled = enabled;
+    this.maxFileSize = maxFileSize;
+    this.listener = listener;
+  }
+
+  /**
+   * Starts watching the repository, calling it again has no effect.
+   */
+  public synchronized void start() {
+    if (!enabled || watcher != null) {
+      return;
+    }
+    try {
+      watcher = FileSystems.getDefault().newWatchService();
+      register(root);
+    } catch (IOException e) {
+      LOG.warn("Cannot watch " + root + ", repository files will not be cached", e);
+      stop();
+      return;
+    }
+    thread = new Thread(new Runnable() {
+      public void run() {
+        watch();
+      }
+    }, "saiku-repository-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public synchronized void stop() {
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        LOG.debug("Cannot close watcher of " + root, e);
+      }
+      watcher = null;
+    }
+    thread = null;
+    watched.clear();
+    clear();
+  }
+
+  private boolean isActive() {
+    return watcher != null;
+  }
+
+  /**
+   * Returns the contents of a file.
+   */
+  @NotNull
+  public byte[] read(@NotNull Path file) throws IOException {
+    return entry(normalize(file)).contents;
+  }
+
+  /**
+   * Returns what a parser made of the contents of a file, parsing them once while they don't change.
+   *
+   * @return what the parser returned, null results are not kept
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T parse(@NotNull Path file, @NotNull Parser<T> parser) throws IOException {
+    Path path = normalize(file);
+    long before = generation.get();
+    Entry entry = entry(path);
+    Object parsed = entry.parsed.get(parser);
+    if (parsed == null) {
+      parsed = parser.parse(path, entry.contents);
+      if (parsed != null && entry.cached) {
+        entry.parsed.put(parser, parsed);
+        if (generation.get() != before) {
+          entry.parsed.remove(parser);
+        }
+      }
+    }
+    return (T) parsed;
+  }
+
+  /**
+   * Lists the files with one of the extensions below a folder, like {@link FileUtils#listFiles(File, String[],
+   * boolean)}.
+   */
+  @NotNull
+  public Collection<File> list(@NotNull File folder, String[] extensions) {
+    if (!isActive()) {
+      return FileUtils.listFiles(folder, extensions, true);
+    }
+    String key = normalize(folder.toPath()) + Arrays.toString(extensions);
+    Collection<File> listing = listings.get(key);
+    if (listing == null) {
+      long before = generation.get();
+      listing = Collections.unmodifiableList(new ArrayList<>(FileUtils.listFiles(folder, extensions, true)));
+      listings.put(key, listing);
+      if (generation.get() != before) {
+        listings.remove(key);
+      }
+    }
+    return listing;
+  }
+
+  /**
+   * Forgets a path and everything below it, and every listing.
+   */
+  public void invalidate(@NotNull File file) {
+    invalidate(normalize(file.toPath()));
+  }
+
+  private void invalidate(Path path) {
+    generation.incrementAndGet();
+    for (Iterator<Path> it = files.keySet().iterator(); it.hasNext(); ) {
+      if (it.next().startsWith(path)) {
+        it.remove();
+      }
+    }
+    listings.clear();
+  }
+
+  public void clear() {
+    generation.incrementAndGet();
+    files.clear();
+    listings.clear();
+  }
+
+  /**
+   * @return the number of files kept
+   */
+  public int size() {
+    return files.size();
+  }
+
+  private Entry entry(Path path) throws IOException {
+    Entry entry = files.get(path);
+    if (entry != null) {
+      return entry;
+    }
+    long before = generation.get();
+    byte[] contents = Files.readAllBytes(path);
+    if (!isActive() || contents.length > maxFileSize) {
+      return new Entry(contents, false);
+    }
+    entry = new Entry(contents, true);
+    files.put(path, entry);
+    if (generation.get() != before) {
+      files.remove(path, entry);
+    }
+    return entry;
+  }
+
+  private void register(Path folder) throws IOException {
+    Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watched.put(key, dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void watch() {
+    WatchService service;
+    synchronized (this) {
+      service = watcher;
+    }
+    while (service != null) {
+      WatchKey key;
+      try {
+        key = service.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      Path dir = watched.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+          LOG.debug("Lost track of changes below " + root + ", forgetting all files");
+          clear();
+          changed(root);
+          continue;
+        }
+        Path path = dir.resolve((Path) event.context());
+        invalidate(path);
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+          try {
+            synchronized (this) {
+              if (watcher == service) {
+                register(path);
+              }
+            }
+          } catch (IOException e) {
+            LOG.debug("Cannot watch " + path + ", forgetting all files", e);
+            clear();
+          }
+        }
+        changed(path);
+      }
+      if (!key.reset()) {
+        watched.remove(key);
+      }
+      synchronized (this) {
+        if (watcher != service) {
+          return;
+        }
+      }
+    }
+  }
+
+  private void changed(Path path) {
+    if (listener != null) {
+      try {
+        listener.changed(path);
+      } catch (RuntimeException e) {
+        LOG.error("Could not handle change of " + path, e);
+      }
+    }
+  }
+
+  private static Path normalize(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+
+  private static class Entry {
+    private final byte[] contents;
+    private final boolean cached;
+    private final Map<Parser<?>, Object> parsed = new ConcurrentHashMap<>();
+
+    Entry(byte[] contents, boolean cached) {
+      this.contents = contents;
+      this.cached = cached;
+    }
+  }
+}
@@ -19,6 +19,7 @@ public class RepositoryFolderObject implements IRepositoryObject {
 	private String path;
 	private List<IRepositoryObject> repoObjects;
 	private List<AclMethod> acl;
+	private Integer childCount;
 
 	public RepositoryFolderObject(String name, String id, String path, List<AclMethod> acl, List<IRepositoryObject> repoObjects) {
 		this.type = Type.FOLDER;
@@ -77,6 +78,17 @@ public class RepositoryFolderObject implements IRepositoryObject {
     this.acl = acl;
   }
 
+  /**
+   * @return the number of entries in the folder, set by paged listings whether or not its children are included
+   */
+  public Integer getChildCount() {
+    return childCount;
+  }
+
+  public void setChildCount(Integer childCount) {
+    this.childCount = childCount;
+  }
+
   @Override
   public String toString() {
     return ToStringBuilder.reflectionToString(this);
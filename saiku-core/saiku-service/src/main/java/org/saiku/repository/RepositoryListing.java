@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 OSBI Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.saiku.repository;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One page of the children of a repository folder, folders first, then by name.
+ *
+ * <p>If there are more children, <code>next</code> is the cursor to pass to get the following page. The count is the
+ * number of entries in the folder before permissions and file types are checked, meant as a hint for the UI.</p>
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RepositoryListing {
+
+  private static final String FOLDER = "d:";
+
+  private static final String FILE = "f:";
+
+  private final String path;
+
+  private final int count;
+
+  private final List<IRepositoryObject> repoObjects = new ArrayList<>();
+
+  private String next;
+
+  public RepositoryListing(String path, int count) {
+    this.path = path;
+    this.count = count;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public List<IRepositoryObject> getRepoObjects() {
+    return repoObjects;
+  }
+
+  public String getNext() {
+    return next;
+  }
+
+  void add(IRepositoryObject object) {
+    repoObjects.add(object);
+  }
+
+  int size() {
+    return repoObjects.size();
+  }
+
+  void setNext(Entry<?> last) {
+    next = (last.folder ? FOLDER : FILE) + last.name;
+  }
+
+  /**
+   * Sorts the entries of a folder and returns the ones after a cursor.
+   *
+   * @param cursor the <code>next</code> of the previous page, or null for the first page
+   */
+  static <T> List<Entry<T>> after(List<Entry<T>> entries, String cursor) {
+    Collections.sort(entries, ORDER);
+    if (cursor == null || cursor.length() < FOLDER.length()) {
+      return entries;
+    }
+    Entry<Object> last = new Entry<Object>(null, cursor.startsWith(FOLDER), cursor.substring(FOLDER.length()));
+    int from = 0;
+    while (from < entries.size() && ORDER.compare(entries.get(from), last) <= 0) {
+      from++;
+    }
+    return entries.subList(from, entries.size());
+  }
+
+  /**
+   * Folders first, then by name ignoring case, names equal but for case in their natural order.
+   */
+  private static final Comparator<Entry<?>> ORDER = new Comparator<Entry<?>>() {
+    public int compare(Entry<?> o1, Entry<?> o2) {
+      if (o1.folder != o2.folder) {
+        return o1.folder ? -1 : 1;
+      }
+      int byName = o1.name.toLowerCase().compareTo(o2.name.toLowerCase());
+      return byName != 0 ? byName : o1.name.compareTo(o2.name);
+    }
+  };
+
+  /**
+   * A child of a folder, before its permissions are checked.
+   */
+  static class Entry<T> {
+    private final T item;
+    private final boolean folder;
+    private final String name;
+
+    Entry(T item, boolean folder, String name) {
+      this.item = item;
+      this.folder = folder;
+      this.name = name;
+    }
+
+    T getItem() {
+      return item;
+    }
+
+    boolean isFolder() {
+      return folder;
+    }
+  }
+}
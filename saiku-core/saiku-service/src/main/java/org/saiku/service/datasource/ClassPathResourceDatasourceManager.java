@@ -433,6 +433,16 @@ public class ClassPathResourceDatasourceManager implements IDatasourceManager {
     return null;
   }
 
+  public RepositoryListing getChildren(List<String> type, String username, List<String> roles, String path, int depth,
+                                       String cursor, int limit) {
+    try {
+      return irm.getChildren(type, username, roles, path, depth, cursor, limit);
+    } catch (RepositoryException e) {
+      log.error("Get failed", e);
+    }
+    return null;
+  }
+
 
   public void createUser(String username){
     try {
@@ -20,6 +20,7 @@ import org.saiku.datasources.connection.IConnectionManager;
 import org.saiku.datasources.datasource.SaikuDatasource;
 import org.saiku.repository.AclEntry;
 import org.saiku.repository.IRepositoryObject;
+import org.saiku.repository.RepositoryListing;
 import org.saiku.service.util.exception.SaikuDataSourceException;
 import org.saiku.service.util.exception.SaikuDataSourceNotFoundException;
 
@@ -140,6 +141,10 @@ public class DatasourceService implements Serializable {
   public List<IRepositoryObject> getFiles(List<String> type, String username, List<String> roles, String path) {
     return datasources.getFiles(type, username, roles, path);
   }
+  public RepositoryListing getChildren(List<String> type, String username, List<String> roles, String path, int depth,
+                                       String cursor, int limit) {
+    return datasources.getChildren(type, username, roles, path, depth, cursor, limit);
+  }
   public String getFileData(String path, String username, List<String> roles){return datasources.getFileData(path,
       username, roles); }
 
@@ -20,6 +20,7 @@ import org.saiku.datasources.connection.RepositoryFile;
 import org.saiku.datasources.datasource.SaikuDatasource;
 import org.saiku.repository.AclEntry;
 import org.saiku.repository.IRepositoryObject;
+import org.saiku.repository.RepositoryListing;
 import org.saiku.service.importer.JujuSource;
 import org.saiku.service.user.UserService;
 
@@ -82,6 +83,9 @@ public interface IDatasourceManager {
 
   List<IRepositoryObject> getFiles(List<String> type, String username, List<String> roles, String path);
 
+  RepositoryListing getChildren(List<String> type, String username, List<String> roles, String path, int depth,
+                                String cursor, int limit);
+
   void createUser(String user);
 
   void deleteFolder(String folder);
@@ -0,0 +1,383 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap;
+
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.service.util.exception.SaikuServiceException;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many statements run at once, per user, per role and per datasource.
+ *
+ * <p>A statement runs while its {@link Permit} is held. If running it would exceed
+ * <code>saiku.olap.admission.maxperuser</code> statements of its user,
+ * <code>saiku.olap.admission.maxperdatasource</code> statements on its datasource or the limit of one of its roles in
+ * <code>saiku.olap.admission.maxperrole</code>, it waits for up to <code>saiku.olap.admission.timeout</code> seconds.
+ * At most <code>saiku.olap.admission.maxqueued</code> statements wait; interactive statements are let in before exports,
+ * statements of the same priority in the order they came.</p>
+ */
+public class AdmissionController {
+
+  private static final Logger log = LoggerFactory.getLogger( AdmissionController.class );
+
+  public enum Priority {
+    INTERACTIVE, EXPORT
+  }
+
+  private final boolean enabled;
+
+  private final int maxPerUser;
+
+  private final int maxPerDatasource;
+
+  private final Map<String, Integer> maxPerRole;
+
+  private final int maxQueued;
+
+  private final long timeout;
+
+  private final Map<String, Integer> runningByUser = new HashMap<>();
+
+  private final Map<String, Integer> runningByDatasource = new HashMap<>();
+
+  private final Map<String, Integer> runningByRole = new HashMap<>();
+
+  private final TreeSet<Waiter> waiting = new TreeSet<>();
+
+  private final int[] waitingByPriority = new int[ Priority.values().length ];
+
+  private long sequence;
+
+  private int running;
+
+  private long admitted;
+
+  private long queued;
+
+  private long rejected;
+
+  private long timedOut;
+
+  private long waited;
+
+  private long waitNanos;
+
+  private long maxWaitNanos;
+
+  public AdmissionController() {
+    this( SaikuProperties.olapAdmissionEnabled, SaikuProperties.olapAdmissionMaxPerUser,
+      SaikuProperties.olapAdmissionMaxPerDatasource, parseLimits( SaikuProperties.olapAdmissionMaxPerRole ),
+      SaikuProperties.olapAdmissionMaxQueued, SaikuProperties.olapAdmissionTimeout );
+  }
+
+  /**
+   * @param maxPerUser       statements of one user running at once, 0 or less for no limit
+   * @param maxPerDatasource statements on one datasource running at once, 0 or less for no limit
+   * @param maxPerRole       statements of users with a role running at once, by role
+   * @param maxQueued        statements waiting, 0 or less for no limit
+   * @param timeoutSeconds   seconds a statement waits before it is rejected, 0 or less to wait forever
+   */
+  public AdmissionController( boolean enabled, int maxPerUser, int maxPerDatasource, Map<String, Integer> maxPerRole,
+                              int maxQueued, int timeoutSeconds ) {
+    this.enabled = enabled;
+    this.maxPerUser = maxPerUser;
+    this.maxPerDatasource = maxPerDatasource;
+    this.maxPerRole = maxPerRole != null ? maxPerRole : Collections.<String, Integer>emptyMap();
+    this.maxQueued = maxQueued;
+    this.timeout = timeoutSeconds > 0 ? TimeUnit.SECONDS.toNanos( timeoutSeconds ) : 0;
+  }
+
+  /**
+   * Parses limits like <code>ROLE_USER=4,ROLE_ADMIN=10</code>.
+   */
+  static Map<String, Integer> parseLimits( String limits ) {
+    Map<String, Integer> parsed = new HashMap<>();
+    if ( StringUtils.isBlank( limits ) ) {
+      return parsed;
+    }
+    for ( String limit : limits.split( "," ) ) {
+      String[] pair = limit.split( "=" );
+      if ( pair.length != 2 || StringUtils.isBlank( pair[ 0 ] ) ) {
+        log.warn( "Ignoring role limit: " + limit );
+        continue;
+      }
+      try {
+        parsed.put( pair[ 0 ].trim(), Integer.parseInt( pair[ 1 ].trim() ) );
+      } catch ( NumberFormatException e ) {
+        log.warn( "Ignoring role limit: " + limit );
+      }
+    }
+    return parsed;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Waits until a statement may run.
+   *
+   * @param user       the user running the statement
+   * @param roles      the roles of the user, or null
+   * @param datasource the name of the connection the statement runs on
+   * @return the permit to close once the statement has finished
+   * @throws SaikuServiceException if too many statements are waiting or the statement waited too long
+   */
+  public Permit acquire( String user, Collection<String> roles, String datasource, Priority priority ) {
+    if ( !enabled ) {
+      return new Permit( null );
+    }
+    Waiter waiter = new Waiter( user, roles != null ? roles : Collections.<String>emptyList(), datasource, priority );
+    long start = System.nanoTime();
+    synchronized ( this ) {
+      if ( fits( waiter ) ) {
+        admit( waiter );
+        return new Permit( waiter );
+      }
+      if ( maxQueued > 0 && waiting.size() >= maxQueued ) {
+        rejected++;
+        throw new SaikuServiceException( "Too many queries waiting, try again later" );
+      }
+      waiter.sequence = sequence++;
+      waiting.add( waiter );
+      waitingByPriority[ priority.ordinal() ]++;
+      queued++;
+      try {
+        while ( !waiter.admitted ) {
+          long left = timeout > 0 ? timeout - ( System.nanoTime() - start ) : Long.MAX_VALUE;
+          if ( left <= 0 ) {
+            timedOut++;
+            throw new SaikuServiceException( "Query of user " + user + " waited more than "
+              + TimeUnit.NANOSECONDS.toSeconds( timeout ) + " seconds to run" );
+          }
+          if ( timeout > 0 ) {
+            TimeUnit.NANOSECONDS.timedWait( this, left );
+          } else {
+            wait();
+          }
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        if ( waiter.admitted ) {
+          // let in while being interrupted, the slot must not get lost
+          release( waiter );
+        }
+        throw new SaikuServiceException( "Interrupted while waiting to run query of user " + user, e );
+      } finally {
+        if ( !waiter.admitted ) {
+          unqueue( waiter );
+        }
+      }
+      long nanos = System.nanoTime() - start;
+      waited++;
+      waitNanos += nanos;
+      maxWaitNanos = Math.max( maxWaitNanos, nanos );
+      return new Permit( waiter );
+    }
+  }
+
+  private boolean fits( Waiter waiter ) {
+    if ( maxPerUser > 0 && count( runningByUser, waiter.user ) >= maxPerUser ) {
+      return false;
+    }
+    if ( maxPerDatasource > 0 && count( runningByDatasource, waiter.datasource ) >= maxPerDatasource ) {
+      return false;
+    }
+    for ( String role : waiter.roles ) {
+      Integer max = maxPerRole.get( role );
+      if ( max != null && max > 0 && count( runningByRole, role ) >= max ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void admit( Waiter waiter ) {
+    waiter.admitted = true;
+    running++;
+    admitted++;
+    add( runningByUser, waiter.user, 1 );
+    add( runningByDatasource, waiter.datasource, 1 );
+    for ( String role : waiter.roles ) {
+      if ( maxPerRole.containsKey( role ) ) {
+        add( runningByRole, role, 1 );
+      }
+    }
+  }
+
+  private synchronized void release( Waiter waiter ) {
+    running--;
+    add( runningByUser, waiter.user, -1 );
+    add( runningByDatasource, waiter.datasource, -1 );
+    for ( String role : waiter.roles ) {
+      if ( maxPerRole.containsKey( role ) ) {
+        add( runningByRole, role, -1 );
+      }
+    }
+    // let in, by priority, every waiting statement that fits now
+    boolean any = false;
+    for ( Iterator<Waiter> it = waiting.iterator(); it.hasNext(); ) {
+      Waiter next = it.next();
+      if ( fits( next ) ) {
+        it.remove();
+        waitingByPriority[ next.priority.ordinal() ]--;
+        admit( next );
+        any = true;
+      }
+    }
+    if ( any ) {
+      notifyAll();
+    }
+  }
+
+  private void unqueue( Waiter waiter ) {
+    if ( waiting.remove( waiter ) ) {
+      waitingByPriority[ waiter.priority.ordinal() ]--;
+    }
+  }
+
+  private static int count( Map<String, Integer> counts, String key ) {
+    Integer count = counts.get( key );
+    return count != null ? count : 0;
+  }
+
+  private static void add( Map<String, Integer> counts, String key, int delta ) {
+    int count = count( counts, key ) + delta;
+    if ( count > 0 ) {
+      counts.put( key, count );
+    } else {
+      counts.remove( key );
+    }
+  }
+
+  /**
+   * @return the number of statements running
+   */
+  public synchronized int getRunning() {
+    return running;
+  }
+
+  /**
+   * @return the number of statements waiting
+   */
+  public synchronized int getQueueDepth() {
+    return waiting.size();
+  }
+
+  public synchronized int getQueueDepth( Priority priority ) {
+    return waitingByPriority[ priority.ordinal() ];
+  }
+
+  /**
+   * @return the number of statements let in, right away or after waiting
+   */
+  public synchronized long getAdmitted() {
+    return admitted;
+  }
+
+  /**
+   * @return the number of statements that had to wait
+   */
+  public synchronized long getQueued() {
+    return queued;
+  }
+
+  /**
+   * @return the number of statements rejected because too many were waiting
+   */
+  public synchronized long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * @return the number of statements rejected because they waited too long
+   */
+  public synchronized long getTimedOut() {
+    return timedOut;
+  }
+
+  /**
+   * @return the milliseconds waited on average by the statements that had to wait and were let in
+   */
+  public synchronized double getAverageWaitMillis() {
+    return waited > 0 ? TimeUnit.NANOSECONDS.toMicros( waitNanos ) / 1000.0 / waited : 0;
+  }
+
+  public synchronized long getMaxWaitMillis() {
+    return TimeUnit.NANOSECONDS.toMillis( maxWaitNanos );
+  }
+
+  /**
+   * Held while a statement runs.
+   */
+  public final class Permit implements AutoCloseable {
+    private Waiter waiter;
+
+    private Permit( Waiter waiter ) {
+      this.waiter = waiter;
+    }
+
+    /**
+     * Lets the next statement in, closing a permit more than once has no effect.
+     */
+    @Override
+    public void close() {
+      Waiter w;
+      synchronized ( this ) {
+        w = waiter;
+        waiter = null;
+      }
+      if ( w != null ) {
+        release( w );
+      }
+    }
+  }
+
+  private static class Waiter implements Comparable<Waiter> {
+    private final String user;
+    private final Collection<String> roles;
+    private final String datasource;
+    private final Priority priority;
+    private long sequence;
+    private boolean admitted;
+
+    Waiter( String user, Collection<String> roles, String datasource, Priority priority ) {
+      this.user = user;
+      this.roles = roles;
+      this.datasource = datasource;
+      this.priority = priority;
+    }
+
+    public int compareTo( Waiter other ) {
+      int byPriority = priority.compareTo( other.priority );
+      if ( byPriority != 0 ) {
+        return byPriority;
+      }
+      return sequence < other.sequence ? -1 : ( sequence == other.sequence ? 0 : 1 );
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap;
+
+import org.olap4j.Axis;
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.CellSetAxisMetaData;
+import org.olap4j.CellSetMetaData;
+import org.olap4j.OlapException;
+import org.olap4j.Position;
+import org.olap4j.metadata.Member;
+import org.olap4j.metadata.Property;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read only copies of cell sets, for results shared by several sessions and threads.
+ *
+ * <p>olap4j cell sets are not thread safe and belong to the statement that executed them, Mondrian for one evaluates
+ * positions and cell properties lazily. A copy reads the positions of every axis and the value, formatted value,
+ * format string and query cell properties of every cell once, on the thread that executed the statement, and keeps
+ * the members and the cell set metadata of the original, which do not change after the execution. Other cell
+ * properties, e.g. <code>DRILLTHROUGH_COUNT</code>, read as null.</p>
+ *
+ * <p>A cell set is a JDBC result set too, the copies only implement the olap4j methods and throw
+ * {@link UnsupportedOperationException} for the others. Closing a copy does nothing.</p>
+ */
+final class CellSetSnapshot implements InvocationHandler {
+
+    private static final String VALUE = Property.StandardCellProperty.VALUE.getName();
+
+    private static final String FORMATTED_VALUE = Property.StandardCellProperty.FORMATTED_VALUE.getName();
+
+    private static final String CELL_ORDINAL = Property.StandardCellProperty.CELL_ORDINAL.getName();
+
+    private final CellSet cellSet;
+
+    private final CellSetMetaData metaData;
+
+    private final List<CellSetAxis> axes;
+
+    private final CellSetAxis filterAxis;
+
+    private final int[] positionCounts;
+
+    private final Object[] values;
+
+    private final String[] formattedValues;
+
+    private final List<String> properties;
+
+    private final Object[][] propertyValues;
+
+    private final Map<Integer, String> errors = new HashMap<>();
+
+    private CellSetSnapshot(CellSet original) {
+        this.cellSet = (CellSet) Proxy.newProxyInstance(CellSet.class.getClassLoader(),
+                new Class<?>[]{CellSet.class}, this);
+        this.metaData = original.getMetaData();
+
+        List<CellSetAxis> originalAxes = original.getAxes();
+        List<CellSetAxis> copies = new ArrayList<>(originalAxes.size());
+        positionCounts = new int[originalAxes.size()];
+        int cells = 1;
+        for (int i = 0; i < positionCounts.length; i++) {
+            CellSetAxis axis = copy(originalAxes.get(i));
+            copies.add(axis);
+            positionCounts[i] = axis.getPositionCount();
+            cells *= positionCounts[i];
+        }
+        this.axes = Collections.unmodifiableList(copies);
+        this.filterAxis = original.getFilterAxis() != null ? copy(original.getFilterAxis()) : null;
+
+        List<Property> read = new ArrayList<>();
+        read.add(Property.StandardCellProperty.FORMAT_STRING);
+        if (metaData != null && metaData.getCellProperties() != null) {
+            for (Property property : metaData.getCellProperties()) {
+                String name = property.getName();
+                if (!VALUE.equals(name) && !FORMATTED_VALUE.equals(name) && !CELL_ORDINAL.equals(name)
+                        && !Property.StandardCellProperty.FORMAT_STRING.getName().equals(name)) {
+                    read.add(property);
+                }
+            }
+        }
+        List<String> names = new ArrayList<>(read.size());
+        for (Property property : read) {
+            names.add(property.getName());
+        }
+        this.properties = Collections.unmodifiableList(names);
+
+        this.values = new Object[cells];
+        this.formattedValues = new String[cells];
+        this.propertyValues = new Object[read.size()][cells];
+        for (int ordinal = 0; ordinal < cells; ordinal++) {
+            Cell cell = original.getCell(ordinal);
+            values[ordinal] = cell.getValue();
+            formattedValues[ordinal] = cell.getFormattedValue();
+            if (cell.isError()) {
+                errors.put(ordinal, cell.getErrorText());
+            }
+            for (int p = 0; p < read.size(); p++) {
+                // xmla cells can throw an error on properties
+                try {
+                    propertyValues[p][ordinal] = cell.getPropertyValue(read.get(p));
+                } catch (Exception e) {
+                    propertyValues[p][ordinal] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a cell set into a read only copy, on the thread that owns it.
+     */
+    static CellSet of(CellSet cellSet) {
+        return new CellSetSnapshot(cellSet).cellSet;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+        case "getAxes":
+            return axes;
+        case "getFilterAxis":
+            return filterAxis;
+        case "getMetaData":
+            return metaData;
+        case "getCell":
+            return cell(args[0]);
+        case "ordinalToCoordinates":
+            return ordinalToCoordinates((Integer) args[0]);
+        case "coordinatesToOrdinal":
+            return coordinatesToOrdinal(castToIntegers(args[0]));
+        case "getStatement":
+            return null;
+        case "close":
+            return null;
+        case "isClosed":
+            return false;
+        default:
+            return invokeDefault(proxy, method, args);
+        }
+    }
+
+    private Cell cell(Object coordinates) {
+        if (coordinates instanceof Integer) {
+            int ordinal = (Integer) coordinates;
+            if (ordinal < 0 || ordinal >= values.length) {
+                throw new IndexOutOfBoundsException("Cell ordinal " + ordinal + " out of range");
+            }
+            return newCell(ordinal);
+        }
+        if (coordinates instanceof Position[]) {
+            Position[] positions = (Position[]) coordinates;
+            List<Integer> list = new ArrayList<>(positions.length);
+            for (Position position : positions) {
+                list.add(position.getOrdinal());
+            }
+            return newCell(coordinatesToOrdinal(list));
+        }
+        return newCell(coordinatesToOrdinal(castToIntegers(coordinates)));
+    }
+
+    private Cell newCell(int ordinal) {
+        return (Cell) Proxy.newProxyInstance(Cell.class.getClassLoader(), new Class<?>[]{Cell.class},
+                new SnapshotCell(ordinal));
+    }
+
+    private List<Integer> ordinalToCoordinates(int ordinal) {
+        if (ordinal < 0 || ordinal >= values.length) {
+            throw new IndexOutOfBoundsException("Cell ordinal " + ordinal + " out of range");
+        }
+        List<Integer> coordinates = new ArrayList<>(positionCounts.length);
+        int rest = ordinal;
+        for (int count : positionCounts) {
+            coordinates.add(rest % count);
+            rest /= count;
+        }
+        return coordinates;
+    }
+
+    private int coordinatesToOrdinal(List<Integer> coordinates) {
+        if (coordinates.size() != positionCounts.length) {
+            throw new IllegalArgumentException("Coordinates have " + coordinates.size() + " dimensions, cell set has "
+                    + positionCounts.length + " axes");
+        }
+        int ordinal = 0;
+        int modulo = 1;
+        for (int i = 0; i < positionCounts.length; i++) {
+            int index = coordinates.get(i);
+            if (index < 0 || index >= positionCounts[i]) {
+                throw new IndexOutOfBoundsException("Coordinate " + index + " of axis " + i + " out of range");
+            }
+            ordinal += index * modulo;
+            modulo *= positionCounts[i];
+        }
+        return ordinal;
+    }
+
+    private Object property(int ordinal, Property property) {
+        String name = property.getName();
+        if (VALUE.equals(name)) {
+            return values[ordinal];
+        }
+        if (FORMATTED_VALUE.equals(name)) {
+            return formattedValues[ordinal];
+        }
+        if (CELL_ORDINAL.equals(name)) {
+            return ordinal;
+        }
+        int index = properties.indexOf(name);
+        return index >= 0 ? propertyValues[index][ordinal] : null;
+    }
+
+    private CellSetAxis copy(CellSetAxis axis) {
+        List<Position> positions = new ArrayList<>(axis.getPositionCount());
+        for (Position position : axis.getPositions()) {
+            positions.add((Position) Proxy.newProxyInstance(Position.class.getClassLoader(),
+                    new Class<?>[]{Position.class},
+                    new SnapshotPosition(new ArrayList<>(position.getMembers()), position.getOrdinal())));
+        }
+        return (CellSetAxis) Proxy.newProxyInstance(CellSetAxis.class.getClassLoader(),
+                new Class<?>[]{CellSetAxis.class},
+                new SnapshotAxis(axis.getAxisOrdinal(), axis.getAxisMetaData(), positions));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Integer> castToIntegers(Object coordinates) {
+        return (List<Integer>) coordinates;
+    }
+
+    /**
+     * Answers the methods of {@link Object} and of the JDBC wrappers, and refuses all other methods.
+     */
+    private static Object invokeDefault(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "toString":
+            return "Read only " + method.getDeclaringClass().getSimpleName() + "@"
+                    + Integer.toHexString(System.identityHashCode(proxy));
+        case "isWrapperFor":
+            return ((Class<?>) args[0]).isInstance(proxy);
+        case "unwrap":
+            if (((Class<?>) args[0]).isInstance(proxy)) {
+                return proxy;
+            }
+            throw new SQLException("Cannot unwrap to " + args[0]);
+        default:
+            throw new UnsupportedOperationException(method.getName() + " is not supported by a read only cell set");
+        }
+    }
+
+    private final class SnapshotAxis implements InvocationHandler {
+        private final Axis axisOrdinal;
+        private final CellSetAxisMetaData axisMetaData;
+        private final List<Position> positions;
+
+        SnapshotAxis(Axis axisOrdinal, CellSetAxisMetaData axisMetaData, List<Position> positions) {
+            this.axisOrdinal = axisOrdinal;
+            this.axisMetaData = axisMetaData;
+            this.positions = Collections.unmodifiableList(positions);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "getAxisOrdinal":
+                return axisOrdinal;
+            case "getCellSet":
+                return cellSet;
+            case "getAxisMetaData":
+                return axisMetaData;
+            case "getPositions":
+                return positions;
+            case "getPositionCount":
+                return positions.size();
+            case "iterate":
+                return positions.listIterator();
+            default:
+                return invokeDefault(proxy, method, args);
+            }
+        }
+    }
+
+    private static final class SnapshotPosition implements InvocationHandler {
+        private final List<Member> members;
+        private final int ordinal;
+
+        SnapshotPosition(List<Member> members, int ordinal) {
+            this.members = Collections.unmodifiableList(members);
+            this.ordinal = ordinal;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "getMembers":
+                return members;
+            case "getOrdinal":
+                return ordinal;
+            default:
+                return invokeDefault(proxy, method, args);
+            }
+        }
+    }
+
+    private final class SnapshotCell implements InvocationHandler {
+        private final int ordinal;
+
+        SnapshotCell(int ordinal) {
+            this.ordinal = ordinal;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "getCellSet":
+                return cellSet;
+            case "getOrdinal":
+                return ordinal;
+            case "getCoordinateList":
+                return ordinalToCoordinates(ordinal);
+            case "getPropertyValue":
+                return property(ordinal, (Property) args[0]);
+            case "isEmpty":
+            case "isNull":
+                return values[ordinal] == null;
+            case "isError":
+                return errors.containsKey(ordinal);
+            case "getErrorText":
+                return errors.get(ordinal);
+            case "getValue":
+                return values[ordinal];
+            case "getFormattedValue":
+                return formattedValues[ordinal];
+            case "getDoubleValue":
+                if (values[ordinal] instanceof Number) {
+                    return ((Number) values[ordinal]).doubleValue();
+                }
+                throw new OlapException("Value of cell " + ordinal + " is not a number");
+            default:
+                return invokeDefault(proxy, method, args);
+            }
+        }
+    }
+}
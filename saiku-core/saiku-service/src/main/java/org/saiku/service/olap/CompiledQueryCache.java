@@ -0,0 +1,390 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap;
+
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.olap.query2.ThinQuery;
+import org.saiku.olap.query2.ThinQueryModel;
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.query.Query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.olap4j.metadata.Cube;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of thin query models compiled against their cube, shared by all sessions.
+ *
+ * <p>Compiling a model converts it to a {@link Query}, looking up every selected member in the cube, and back. The
+ * cache keeps what that gave, the MDX and the normalized model, and the query the totals of a result are calculated
+ * with, keyed by the cube, the role set and a fingerprint of the model and its parameters, as roles restrict the
+ * members a model can select. Every connection has a version, bumped
+ * when it is refreshed or invalidated; entries only count for the version and an equal native cube they were compiled
+ * against, and models compiled while the connection was refreshed are not cached. The cache holds at most
+ * <code>saiku.olap.querycache.maxentries</code> models, least recently used first out.</p>
+ */
+public class CompiledQueryCache {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledQueryCache.class);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final boolean enabled;
+
+    private final int maxEntries;
+
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong globalVersion = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CompiledQueryCache() {
+        this(SaikuProperties.olapQueryCacheEnabled, SaikuProperties.olapQueryCacheMaxEntries);
+    }
+
+    /**
+     * @param enabled    whether models are cached at all
+     * @param maxEntries maximum number of cached models
+     */
+    public CompiledQueryCache(boolean enabled, int maxEntries) {
+        this.enabled = enabled && maxEntries > 0;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > CompiledQueryCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the key of the model of a query as it is now, or null if it is not cached. The key is taken before the
+     * model is compiled, and the totals of the result are looked up with the same key.
+     *
+     * @param roles the role set of the caller, null if the caller has none
+     */
+    public Key key(ThinQuery query, String roles) {
+        if (!enabled || query.getQueryModel() == null || query.getCube() == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(mapper.writeValueAsBytes(query.getQueryModel()));
+            digest.update((byte) 0);
+            digest.update(mapper.writeValueAsBytes(query.getParameters()));
+            return new Key(query.getCube(), roles, toHex(digest.digest()), globalVersion.get(),
+                version(query.getCube().getConnection()).get());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.debug("Cannot fingerprint query " + query.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the compiled model for the given key, or null if it has not been compiled against this cube.
+     */
+    public CompiledQuery get(Key key, Cube cube) {
+        if (key == null) {
+            return null;
+        }
+        String mdx;
+        String model;
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (!isValid(entry, cube) || entry.model == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            mdx = entry.mdx;
+            model = entry.model;
+        }
+        try {
+            // every query gets a model of its own, queries change theirs
+            CompiledQuery compiled = new CompiledQuery(mdx, mapper.readValue(model, ThinQueryModel.class));
+            hits.incrementAndGet();
+            return compiled;
+        } catch (IOException e) {
+            log.debug("Cannot read compiled model " + key, e);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void put(Key key, Cube cube, String mdx, ThinQueryModel model) {
+        if (key == null || mdx == null || model == null) {
+            return;
+        }
+        String json;
+        try {
+            json = mapper.writeValueAsString(model);
+        } catch (IOException e) {
+            log.debug("Cannot write compiled model " + key, e);
+            return;
+        }
+        synchronized (entries) {
+            Entry entry = entry(key, cube);
+            if (entry != null) {
+                entry.set(mdx, json);
+            }
+        }
+    }
+
+    /**
+     * Returns the query the totals of a result of the given model are calculated with, or null if there is none for
+     * this cube. It is shared and must not be changed. Hits and misses only count the compiled models, every query
+     * that looks up its totals has looked up its model before.
+     */
+    public Query getTotalsQuery(Key key, Cube cube) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (!isValid(entry, cube)) {
+                return null;
+            }
+            return entry.totalsQuery;
+        }
+    }
+
+    public void putTotalsQuery(Key key, Cube cube, Query query) {
+        if (key == null || query == null) {
+            return;
+        }
+        synchronized (entries) {
+            Entry entry = entry(key, cube);
+            if (entry != null) {
+                entry.totalsQuery = query;
+            }
+        }
+    }
+
+    /**
+     * Returns the entry to put what was compiled for the key into, or null if the connection was refreshed since the
+     * key was taken.
+     */
+    private Entry entry(Key key, Cube cube) {
+        if (key.global != globalVersion.get() || key.version != version(key.connection).get()) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (!isValid(entry, cube)) {
+            entry = new Entry(cube, key.connection, key.global, key.version);
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Mondrian hands out a new cube for every lookup, so cubes are compared by equality, and the version tells whether
+     * the connection was refreshed meanwhile.
+     */
+    private boolean isValid(Entry entry, Cube cube) {
+        return entry != null && entry.cube.equals(cube) && entry.global == globalVersion.get()
+            && entry.version == version(entry.connection).get();
+    }
+
+    private AtomicLong version(String connection) {
+        AtomicLong version = versions.get(connection);
+        if (version == null) {
+            AtomicLong created = new AtomicLong();
+            version = versions.putIfAbsent(connection, created);
+            if (version == null) {
+                version = created;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Drops all models of the given connection, models compiled meanwhile are not cached.
+     */
+    public void invalidate(String connection) {
+        version(connection).incrementAndGet();
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Key> it = entries.keySet().iterator();
+            while (it.hasNext()) {
+                if (connection.equals(it.next().connection)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            log.debug("Removed " + removed + " compiled queries of connection: " + connection);
+        }
+    }
+
+    /**
+     * Drops all models.
+     */
+    public void invalidateAll() {
+        globalVersion.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * The MDX of a compiled model and the normalized model.
+     */
+    public static final class CompiledQuery {
+        private final String mdx;
+        private final ThinQueryModel queryModel;
+
+        CompiledQuery(String mdx, ThinQueryModel queryModel) {
+            this.mdx = mdx;
+            this.queryModel = queryModel;
+        }
+
+        public String getMdx() {
+            return mdx;
+        }
+
+        public ThinQueryModel getQueryModel() {
+            return queryModel;
+        }
+    }
+
+    private static class Entry {
+        private final Cube cube;
+        private final String connection;
+        private final long global;
+        private final long version;
+        private String mdx;
+        private String model;
+        private Query totalsQuery;
+
+        Entry(Cube cube, String connection, long global, long version) {
+            this.cube = cube;
+            this.connection = connection;
+            this.global = global;
+            this.version = version;
+        }
+
+        void set(String mdx, String model) {
+            this.mdx = mdx;
+            this.model = model;
+        }
+    }
+
+    /**
+     * Identifies a model: cube, role set and fingerprint of the model and its parameters. Also remembers the version
+     * of the connection when it was taken, which is not part of the identity.
+     */
+    public static final class Key {
+        private final String connection;
+        private final String cube;
+        private final String roles;
+        private final String fingerprint;
+        private final int hash;
+        private final long global;
+        private final long version;
+
+        Key(SaikuCube cube, String roles, String fingerprint, long global, long version) {
+            this.connection = cube.getConnection();
+            this.global = global;
+            this.version = version;
+            this.cube = cube.getConnection() + "/" + cube.getCatalog() + "/" + cube.getSchema() + "/" + cube.getName();
+            this.roles = roles;
+            this.fingerprint = fingerprint;
+            int h = this.cube.hashCode();
+            h = 31 * h + (roles != null ? roles.hashCode() : 0);
+            this.hash = 31 * h + fingerprint.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && cube.equals(key.cube) && fingerprint.equals(key.fingerprint)
+                && (roles != null ? roles.equals(key.roles) : key.roles == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return cube + "/" + roles + "/" + fingerprint;
+        }
+    }
+}
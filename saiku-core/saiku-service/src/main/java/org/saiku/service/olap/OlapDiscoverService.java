@@ -15,10 +15,18 @@
  */
 package org.saiku.service.olap;
 
+import org.saiku.datasources.connection.ISaikuConnection;
+import org.saiku.datasources.connection.OlapConnectionPool;
+import org.saiku.datasources.datasource.SaikuDatasource;
+import org.saiku.olap.discover.MemberSearchIndex;
+import org.saiku.olap.discover.MetadataCache;
 import org.saiku.olap.discover.OlapMetaExplorer;
 import org.saiku.olap.dto.*;
 import org.saiku.olap.util.exception.SaikuOlapException;
 import org.saiku.service.datasource.DatasourceService;
+import org.saiku.service.olap.drillthrough.DrillthroughCursorManager;
+import org.saiku.service.olap.jobs.QueryJobManager;
+import org.saiku.service.util.QueryContextRegistry;
 import org.saiku.service.util.exception.SaikuServiceException;
 
 import org.olap4j.OlapConnection;
@@ -28,11 +36,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
-import mondrian.rolap.RolapConnection;
 
 public class OlapDiscoverService implements Serializable {
 
@@ -43,10 +50,160 @@ public class OlapDiscoverService implements Serializable {
 
   private DatasourceService datasourceService;
   private transient OlapMetaExplorer metaExplorer;
+  private transient ResultCache resultCache = new ResultCache();
+  private transient CompiledQueryCache compiledQueryCache = new CompiledQueryCache();
+  private transient QueryContextRegistry queryContextRegistry = new QueryContextRegistry();
+  private transient MemberSearchIndex memberIndex = new MemberSearchIndex();
+  private transient MetadataCache metadataCache = new MetadataCache();
+  private transient QueryJobManager queryJobManager = new QueryJobManager();
+  private transient AdmissionController admissionController = new AdmissionController();
+  private transient DrillthroughCursorManager drillthroughCursorManager = new DrillthroughCursorManager();
+  private transient QueryMetrics queryMetrics = new QueryMetrics();
+
+  public OlapDiscoverService() {
+    queryContextRegistry.setSharedResults(resultCache);
+  }
 
   public void setDatasourceService(DatasourceService ds) {
     datasourceService = ds;
     metaExplorer = new OlapMetaExplorer(ds.getConnectionManager());
+    metaExplorer.setMemberIndex(memberIndex);
+    metaExplorer.setMetadataCache(metadataCache);
+  }
+
+  public void setMemberIndex(MemberSearchIndex memberIndex) {
+    this.memberIndex = memberIndex;
+    if (metaExplorer != null) {
+      metaExplorer.setMemberIndex(memberIndex);
+    }
+  }
+
+  public void setMetadataCache(MetadataCache metadataCache) {
+    this.metadataCache = metadataCache;
+    if (metaExplorer != null) {
+      metaExplorer.setMetadataCache(metadataCache);
+    }
+  }
+
+  /**
+   * The cube metadata shared by all sessions.
+   */
+  public MetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
+  /**
+   * Drops the cached metadata and results of a connection, e.g. after its schema has changed. Null drops the ones of
+   * all connections.
+   */
+  public void invalidateMetadata(String connectionName) {
+    if (connectionName == null) {
+      metadataCache.invalidateAll();
+      memberIndex.invalidateAll();
+      compiledQueryCache.invalidateAll();
+      resultCache.invalidateAll();
+    } else {
+      metadataCache.invalidate(connectionName);
+      memberIndex.invalidate(connectionName);
+      compiledQueryCache.invalidate(connectionName);
+      resultCache.invalidate(connectionName);
+    }
+  }
+
+  /**
+   * The index of level members shared by all sessions.
+   */
+  public MemberSearchIndex getMemberIndex() {
+    return memberIndex;
+  }
+
+  public void setResultCache(ResultCache resultCache) {
+    this.resultCache = resultCache;
+    queryContextRegistry.setSharedResults(resultCache);
+  }
+
+  /**
+   * The cache of query results shared by all sessions.
+   */
+  public ResultCache getResultCache() {
+    return resultCache;
+  }
+
+  public void setCompiledQueryCache(CompiledQueryCache compiledQueryCache) {
+    this.compiledQueryCache = compiledQueryCache;
+  }
+
+  /**
+   * The cache of query models compiled to MDX shared by all sessions.
+   */
+  public CompiledQueryCache getCompiledQueryCache() {
+    return compiledQueryCache;
+  }
+
+  public void setQueryContextRegistry(QueryContextRegistry queryContextRegistry) {
+    this.queryContextRegistry = queryContextRegistry;
+    queryContextRegistry.setSharedResults(resultCache);
+  }
+
+  /**
+   * The query contexts of all sessions.
+   */
+  public QueryContextRegistry getQueryContextRegistry() {
+    return queryContextRegistry;
+  }
+
+  public void setQueryJobManager(QueryJobManager queryJobManager) {
+    this.queryJobManager = queryJobManager;
+  }
+
+  /**
+   * The background query jobs of all sessions.
+   */
+  public QueryJobManager getQueryJobManager() {
+    return queryJobManager;
+  }
+
+  public void setAdmissionController(AdmissionController admissionController) {
+    this.admissionController = admissionController;
+  }
+
+  /**
+   * The limits on statements running at once, shared by all sessions.
+   */
+  public AdmissionController getAdmissionController() {
+    return admissionController;
+  }
+
+  public void setDrillthroughCursorManager(DrillthroughCursorManager drillthroughCursorManager) {
+    this.drillthroughCursorManager = drillthroughCursorManager;
+  }
+
+  /**
+   * The open drill through cursors of all sessions.
+   */
+  public DrillthroughCursorManager getDrillthroughCursorManager() {
+    return drillthroughCursorManager;
+  }
+
+  public void setQueryMetrics(QueryMetrics queryMetrics) {
+    this.queryMetrics = queryMetrics;
+  }
+
+  /**
+   * The timers of the phases of query executions of all sessions.
+   */
+  public QueryMetrics getQueryMetrics() {
+    return queryMetrics;
+  }
+
+  /**
+   * Stops the threads of the background jobs, closes the open drill through cursors and unregisters the query
+   * metrics MBean.
+   */
+  public void destroy() {
+    queryJobManager.shutdown();
+    drillthroughCursorManager.shutdown();
+    queryMetrics.unregister();
   }
 
   public List<SaikuCube> getAllCubes() throws SaikuOlapException {
@@ -77,6 +234,10 @@ public class OlapDiscoverService implements Serializable {
   public void refreshAllConnections() throws SaikuServiceException {
     try {
       datasourceService.getConnectionManager().refreshAllConnections();
+      resultCache.invalidateAll();
+      compiledQueryCache.invalidateAll();
+      memberIndex.invalidateAll();
+      metadataCache.invalidateAll();
     } catch (Exception e) {
       throw new SaikuServiceException("Cannot refresh all connections", e);
     }
@@ -85,6 +246,10 @@ public class OlapDiscoverService implements Serializable {
   public void refreshConnection(String name) throws SaikuServiceException {
     try {
       datasourceService.getConnectionManager().refreshConnection(name);
+      resultCache.invalidate(name);
+      compiledQueryCache.invalidate(name);
+      memberIndex.invalidate(name);
+      metadataCache.invalidate(name);
     } catch (Exception e) {
       throw new SaikuServiceException("Cannot refresh all connections", e);
     }
@@ -106,6 +271,38 @@ public class OlapDiscoverService implements Serializable {
     }
   }
 
+  /**
+   * Leases a connection for running one query, see {@link #releaseNativeConnection(String, OlapConnection)}.
+   */
+  public OlapConnection borrowNativeConnection(String name) throws SaikuServiceException {
+    try {
+      return datasourceService.getConnectionManager().borrowOlapConnection(name);
+    } catch (SaikuOlapException e) {
+      throw new SaikuServiceException("Cannot borrow native connection ( " + name + " )", e);
+    }
+  }
+
+  public void releaseNativeConnection(String name, OlapConnection con) {
+    datasourceService.getConnectionManager().releaseOlapConnection(name, con);
+  }
+
+  /**
+   * Whether a datasource connects with the credentials of each user, so that users with the same roles can still
+   * get different results.
+   */
+  public boolean isPassThrough(String name) {
+    SaikuDatasource datasource = datasourceService.getDatasource(name);
+    Properties props = datasource != null ? datasource.getProperties() : null;
+    return props != null
+        && Boolean.parseBoolean(props.getProperty(ISaikuConnection.SECURITY_ENABLED_KEY, "false"))
+        && ISaikuConnection.SECURITY_TYPE_PASSTHROUGH_VALUE.equals(
+            props.getProperty(ISaikuConnection.SECURITY_TYPE_KEY));
+  }
+
+  public Map<String, OlapConnectionPool> getConnectionPools() {
+    return datasourceService.getConnectionManager().getConnectionPools();
+  }
+
   public List<SaikuDimension> getAllDimensions(SaikuCube cube) throws SaikuServiceException {
     try {
       return metaExplorer.getAllDimensions(cube);
@@ -207,28 +404,28 @@ public class OlapDiscoverService implements Serializable {
   }
 
   public Map<String, Object> getProperties(SaikuCube cube) {
-    Map<String, Object> properties = new HashMap<>();
-    try {
-      Cube c = getNativeCube(cube);
-      OlapConnection con = c.getSchema().getCatalog().getDatabase().getOlapConnection();
-      properties.put("saiku.olap.query.drillthrough", c.isDrillThroughEnabled());
-      properties.put("org.saiku.query.explain", con.isWrapperFor(RolapConnection.class));
-
-      try {
-        Boolean isScenario = (c.getDimensions().get("Scenario") != null);
-        properties.put("org.saiku.connection.scenario", isScenario);
-      } catch (Exception e) {
-        properties.put("org.saiku.connection.scenario", false);
-      }
+    try {
+      return metaExplorer.getCubeProperties(cube);
     } catch (Exception e) {
       throw new SaikuServiceException(e);
     }
-    return properties;
   }
 
   private void readObject(ObjectInputStream stream)
       throws IOException, ClassNotFoundException {
     stream.defaultReadObject();
     metaExplorer = new OlapMetaExplorer( datasourceService.getConnectionManager() );
+    resultCache = new ResultCache();
+    compiledQueryCache = new CompiledQueryCache();
+    queryContextRegistry = new QueryContextRegistry();
+    queryContextRegistry.setSharedResults(resultCache);
+    memberIndex = new MemberSearchIndex();
+    metadataCache = new MetadataCache();
+    queryJobManager = new QueryJobManager();
+    admissionController = new AdmissionController();
+    drillthroughCursorManager = new DrillthroughCursorManager();
+    queryMetrics = new QueryMetrics();
+    metaExplorer.setMemberIndex( memberIndex );
+    metaExplorer.setMetadataCache( metadataCache );
   }
 }
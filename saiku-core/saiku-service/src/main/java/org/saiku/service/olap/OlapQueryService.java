@@ -230,8 +230,7 @@ public class OlapQueryService implements Serializable {
 				}
 				// TODO - refactor this using axis ordinals etc.
 				final AxisInfo[] axisInfos = new AxisInfo[]{new AxisInfo(cellSet.getAxes().get(rowsIndex)), new AxisInfo(cellSet.getAxes().get((rowsIndex + 1) & 1))};
-				List<TotalNode>[][] totals = new List[2][];
-				TotalsListsBuilder builder = null;
+				TotalsListsBuilder[] builders = new TotalsListsBuilder[2];
 				for (int index = 0; index < 2; index++) {
 					final int second = (index + 1) & 1;
 					TotalAggregator[] aggregators = new TotalAggregator[axisInfos[second].maxDepth + 1];
@@ -241,9 +240,9 @@ public class OlapQueryService implements Serializable {
 					}
 					String totalFunctionName = query.getTotalFunction(axisInfos[second].axis.getAxisOrdinal().name()); 
 					aggregators[0] = totalFunctionName != null ? TotalAggregator.newInstanceByFunctionName(totalFunctionName) : null;
-					builder = new TotalsListsBuilder(selectedMeasures, aggregators, cellSet, axisInfos[index], axisInfos[second]);
-					totals[index] = builder.buildTotalsLists();
+					builders[index] = new TotalsListsBuilder(selectedMeasures, aggregators, cellSet, axisInfos[index], axisInfos[second]);
 				}
+				List<TotalNode>[][] totals = TotalsListsBuilder.buildTotalsLists(builders[0], builders[1]);
 				result.setLeftOffset(axisInfos[0].maxDepth);
 				result.setRowTotalsLists(totals[1]);
 				result.setColTotalsLists(totals[0]);
@@ -0,0 +1,420 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap;
+
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.olap.util.SaikuProperties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timers of the phases of query executions, shared by all sessions.
+ *
+ * <p>Every phase is timed with {@link System#nanoTime()} and counted in a latency histogram per phase, datasource,
+ * cube and formatter, so that the percentiles show which phase the slow executions spend their time in. The timers are
+ * read through the statistics endpoint and, if <code>saiku.olap.metrics.jmx</code> is set, as the
+ * <code>org.saiku:type=QueryMetrics</code> MBean. At most {@link #MAX_TIMERS} timers are kept, executions of further
+ * cubes are counted under the cube <code>*</code>.</p>
+ */
+public class QueryMetrics implements QueryMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryMetrics.class);
+
+    public static final String OBJECT_NAME = "org.saiku:type=QueryMetrics";
+
+    static final int MAX_TIMERS = 1000;
+
+    /**
+     * Upper bounds of the histogram buckets in milliseconds, the last bucket counts everything slower.
+     */
+    private static final long[] BOUNDS =
+        { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000 };
+
+    public enum Phase {
+        /** Waiting for a connection of the pool. */
+        CONNECTION,
+        /** Converting the query model to a query and back. */
+        CONVERSION,
+        /** Executing the MDX, or taking the result from the cache. */
+        EXECUTE,
+        /** Formatting the cell set to a table. */
+        FORMAT,
+        /** Calculating the totals of a table. */
+        TOTALS,
+        /** Writing a result as JSON. */
+        SERIALIZE,
+        /** Writing an export. */
+        EXPORT
+    }
+
+    private final boolean enabled;
+
+    private final ConcurrentMap<Key, Timer> timers = new ConcurrentHashMap<>();
+
+    private volatile boolean registered;
+
+    public QueryMetrics() {
+        this(SaikuProperties.olapMetricsEnabled);
+        if (enabled && SaikuProperties.olapMetricsJmx) {
+            register();
+        }
+    }
+
+    /**
+     * @param enabled whether phases are timed at all
+     */
+    public QueryMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records the time a phase of the execution of a query took.
+     *
+     * @param cube      the cube of the query
+     * @param formatter the name of the formatter, or null if the phase does not depend on it
+     * @param nanos     the time taken, as measured with {@link System#nanoTime()}
+     */
+    public void record(Phase phase, SaikuCube cube, String formatter, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        String datasource = cube != null ? cube.getConnection() : null;
+        String cubeName = cube != null ? cube.getName() : null;
+        timer(new Key(phase, datasource, cubeName, formatter)).record(nanos);
+    }
+
+    private Timer timer(Key key) {
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            if (timers.size() >= MAX_TIMERS) {
+                key = new Key(key.phase, key.datasource, "*", key.formatter);
+            }
+            Timer created = new Timer();
+            timer = timers.putIfAbsent(key, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * @return the timers, by phase, datasource, cube and formatter
+     */
+    public List<Snapshot> getTimers() {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Map.Entry<Key, Timer> entry : timers.entrySet()) {
+            snapshots.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        Collections.sort(snapshots, new Comparator<Snapshot>() {
+            public int compare(Snapshot a, Snapshot b) {
+                int c = a.key.phase.compareTo(b.key.phase);
+                if (c == 0) {
+                    c = String.valueOf(a.getDatasource()).compareTo(String.valueOf(b.getDatasource()));
+                }
+                if (c == 0) {
+                    c = String.valueOf(a.getCube()).compareTo(String.valueOf(b.getCube()));
+                }
+                if (c == 0) {
+                    c = String.valueOf(a.getFormatter()).compareTo(String.valueOf(b.getFormatter()));
+                }
+                return c;
+            }
+        });
+        return snapshots;
+    }
+
+    /**
+     * @return the timers of all datasources, cubes and formatters merged per phase
+     */
+    public List<Snapshot> getPhases() {
+        Timer[] merged = new Timer[Phase.values().length];
+        for (Map.Entry<Key, Timer> entry : timers.entrySet()) {
+            int phase = entry.getKey().phase.ordinal();
+            if (merged[phase] == null) {
+                merged[phase] = new Timer();
+            }
+            merged[phase].add(entry.getValue());
+        }
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Phase phase : Phase.values()) {
+            if (merged[phase.ordinal()] != null) {
+                snapshots.add(merged[phase.ordinal()].snapshot(new Key(phase, null, null, null)));
+            }
+        }
+        return snapshots;
+    }
+
+    public void reset() {
+        timers.clear();
+    }
+
+    /**
+     * Registers the timers as an MBean, replacing the MBean of a previous instance.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registered = true;
+        } catch (Exception e) {
+            log.warn("Cannot register query metrics as MBean " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Unregisters the MBean if this instance registered it, so it does not outlive the application.
+     */
+    public void unregister() {
+        if (!registered) {
+            return;
+        }
+        registered = false;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            log.warn("Cannot unregister query metrics MBean " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * @return the upper bounds of the histogram buckets in milliseconds
+     */
+    public static long[] getBucketBounds() {
+        return BOUNDS.clone();
+    }
+
+    private static class Timer {
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+            buckets.incrementAndGet(bucket(nanos));
+        }
+
+        void add(Timer other) {
+            totalNanos.addAndGet(other.totalNanos.get());
+            maxNanos.set(Math.max(maxNanos.get(), other.maxNanos.get()));
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.addAndGet(i, other.buckets.get(i));
+            }
+        }
+
+        Snapshot snapshot(Key key) {
+            long[] counts = new long[buckets.length()];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            double maxMillis = maxNanos.get() / 1e6;
+            return new Snapshot(key, total, totalNanos.get() / 1e6, maxMillis, counts,
+                percentile(counts, total, 0.5, maxMillis), percentile(counts, total, 0.9, maxMillis),
+                percentile(counts, total, 0.99, maxMillis));
+        }
+
+        private static int bucket(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            for (int i = 0; i < BOUNDS.length; i++) {
+                if (millis < BOUNDS[i]) {
+                    return i;
+                }
+            }
+            return BOUNDS.length;
+        }
+
+        /**
+         * Estimates a percentile as the upper bound of the bucket it falls in, at most the slowest time recorded.
+         */
+        private static double percentile(long[] counts, long total, double p, double maxMillis) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i < BOUNDS.length ? Math.min(BOUNDS[i], maxMillis) : maxMillis;
+                }
+            }
+            return maxMillis;
+        }
+    }
+
+    /**
+     * The counts and latencies of one phase, datasource, cube and formatter, in milliseconds.
+     */
+    public static final class Snapshot {
+        private final Key key;
+        private final long count;
+        private final double totalMillis;
+        private final double maxMillis;
+        private final long[] buckets;
+        private final double p50Millis;
+        private final double p90Millis;
+        private final double p99Millis;
+
+        Snapshot(Key key, long count, double totalMillis, double maxMillis, long[] buckets, double p50Millis,
+                 double p90Millis, double p99Millis) {
+            this.key = key;
+            this.count = count;
+            this.totalMillis = totalMillis;
+            this.maxMillis = maxMillis;
+            this.buckets = buckets;
+            this.p50Millis = p50Millis;
+            this.p90Millis = p90Millis;
+            this.p99Millis = p99Millis;
+        }
+
+        public String getPhase() {
+            return key.phase.name();
+        }
+
+        /**
+         * @return the datasource, null for all datasources
+         */
+        public String getDatasource() {
+            return key.datasource;
+        }
+
+        /**
+         * @return the cube, null for all cubes
+         */
+        public String getCube() {
+            return key.cube;
+        }
+
+        /**
+         * @return the formatter, null if the phase does not depend on it
+         */
+        public String getFormatter() {
+            return key.formatter;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getTotalMillis() {
+            return totalMillis;
+        }
+
+        public double getMeanMillis() {
+            return count > 0 ? totalMillis / count : 0;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP90Millis() {
+            return p90Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        /**
+         * @return the number of times in every bucket of {@link QueryMetrics#getBucketBounds()}, and of the slower
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+    }
+
+    /**
+     * Identifies a timer: phase, datasource, cube and formatter.
+     */
+    private static final class Key {
+        private final Phase phase;
+        private final String datasource;
+        private final String cube;
+        private final String formatter;
+
+        Key(Phase phase, String datasource, String cube, String formatter) {
+            this.phase = phase;
+            this.datasource = datasource;
+            this.cube = cube;
+            this.formatter = formatter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return phase == key.phase && equal(datasource, key.datasource) && equal(cube, key.cube)
+                && equal(formatter, key.formatter);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = phase.hashCode();
+            hash = 31 * hash + (datasource != null ? datasource.hashCode() : 0);
+            hash = 31 * hash + (cube != null ? cube.hashCode() : 0);
+            return 31 * hash + (formatter != null ? formatter.hashCode() : 0);
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap;
+
+import java.util.List;
+
+/**
+ * The query phase timers of {@link QueryMetrics} as seen through JMX.
+ */
+public interface QueryMetricsMXBean {
+
+    boolean isEnabled();
+
+    /**
+     * @return the timers, by phase, datasource, cube and formatter
+     */
+    List<QueryMetrics.Snapshot> getTimers();
+
+    /**
+     * @return the timers merged per phase
+     */
+    List<QueryMetrics.Snapshot> getPhases();
+
+    /**
+     * Forgets all times recorded so far.
+     */
+    void reset();
+}
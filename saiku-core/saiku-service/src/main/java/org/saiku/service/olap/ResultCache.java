@@ -0,0 +1,303 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap;
+
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.service.util.QueryContextRegistry;
+
+import org.olap4j.CellSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of executed {@link CellSet}s shared by all sessions.
+ *
+ * <p>Results are keyed by the connection, the catalog, the active role set, the user for datasources that connect
+ * with the credentials of each user, and the parameter resolved MDX, so two users only share a result when Mondrian
+ * would give them the same one. The cache holds read only copies of the results, see {@link CellSetSnapshot}, which
+ * any number of threads can read and which do not depend on the statement or connection that executed them.</p>
+ *
+ * <p>The cache holds at most <code>saiku.olap.resultcache.maxentries</code> results, least recently used first out,
+ * and drops results older than <code>saiku.olap.resultcache.ttl</code> seconds, purged whenever a result is added.
+ * Refreshing a connection or invalidating its metadata drops its results, and the {@link QueryContextRegistry} drops
+ * the results it releases to stay under its cell limit.</p>
+ */
+public class ResultCache implements QueryContextRegistry.SharedResults {
+
+    private static final Logger log = LoggerFactory.getLogger(ResultCache.class);
+
+    private final boolean enabled;
+
+    private final int maxEntries;
+
+    private final long ttl;
+
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ResultCache() {
+        this(SaikuProperties.olapResultCacheEnabled, SaikuProperties.olapResultCacheMaxEntries,
+                SaikuProperties.olapResultCacheTtl);
+    }
+
+    /**
+     * @param enabled    whether results are cached at all
+     * @param maxEntries maximum number of cached results
+     * @param ttlSeconds seconds a result is kept, 0 or less to keep it until evicted
+     */
+    public ResultCache(boolean enabled, int maxEntries, int ttlSeconds) {
+        this.enabled = enabled && maxEntries > 0;
+        this.maxEntries = maxEntries;
+        this.ttl = ttlSeconds > 0 ? TimeUnit.SECONDS.toMillis(ttlSeconds) : 0;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > ResultCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cached result for the given key, or null if there is none or it has expired.
+     */
+    public CellSet get(Key key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.result;
+        }
+    }
+
+    /**
+     * Caches a read only copy of a result, read on the calling thread, which has to be the one that executed it.
+     *
+     * @return the copy, to be used instead of the result, or the result itself if the cache is disabled
+     */
+    public CellSet put(Key key, CellSet result) {
+        if (!enabled || result == null) {
+            return result;
+        }
+        CellSet copy = CellSetSnapshot.of(result);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            purgeExpired(now);
+            entries.put(key, new Entry(copy, now));
+        }
+        return copy;
+    }
+
+    /**
+     * Drops all results of the given connection.
+     */
+    public void invalidate(String connection) {
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Key> it = entries.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().connection.equals(connection)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            log.debug("Removed " + removed + " cached results of connection: " + connection);
+        }
+    }
+
+    /**
+     * Drops the given result, whatever its key.
+     */
+    public void drop(Object result) {
+        synchronized (entries) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().result == result) {
+                    it.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all results.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Drops the expired results, returns the number of results left.
+     */
+    public int purge() {
+        synchronized (entries) {
+            purgeExpired(System.currentTimeMillis());
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the number of cached results, including expired ones not dropped yet
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the time to live in seconds, 0 if results do not expire
+     */
+    public long getTtl() {
+        return TimeUnit.MILLISECONDS.toSeconds(ttl);
+    }
+
+    private void purgeExpired(long now) {
+        if (ttl <= 0) {
+            return;
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (isExpired(it.next(), now)) {
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return ttl > 0 && now - entry.created > ttl;
+    }
+
+    private static class Entry {
+        private final CellSet result;
+        private final long created;
+
+        Entry(CellSet result, long created) {
+            this.result = result;
+            this.created = created;
+        }
+    }
+
+    /**
+     * Identifies a result: connection, catalog, role set, user and MDX.
+     */
+    public static final class Key {
+        private final String connection;
+        private final String catalog;
+        private final String roles;
+        private final String user;
+        private final String mdx;
+        private final int hash;
+
+        /**
+         * @param user the user, for datasources that connect with the credentials of each user, null otherwise
+         */
+        public Key(String connection, String catalog, String roles, String user, String mdx) {
+            if (connection == null || mdx == null) {
+                throw new IllegalArgumentException("Connection and MDX are required");
+            }
+            this.connection = connection;
+            this.catalog = catalog;
+            this.roles = roles;
+            this.user = user;
+            this.mdx = mdx;
+            int h = connection.hashCode();
+            h = 31 * h + (catalog != null ? catalog.hashCode() : 0);
+            h = 31 * h + (roles != null ? roles.hashCode() : 0);
+            h = 31 * h + (user != null ? user.hashCode() : 0);
+            h = 31 * h + mdx.hashCode();
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash
+                    && connection.equals(key.connection)
+                    && mdx.equals(key.mdx)
+                    && (catalog != null ? catalog.equals(key.catalog) : key.catalog == null)
+                    && (roles != null ? roles.equals(key.roles) : key.roles == null)
+                    && (user != null ? user.equals(key.user) : key.user == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return connection + "/" + catalog + "/" + roles + (user != null ? "/" + user : "");
+        }
+    }
+}
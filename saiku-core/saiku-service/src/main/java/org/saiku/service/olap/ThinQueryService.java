@@ -24,6 +24,7 @@ import org.saiku.olap.dto.SaikuMember;
 import org.saiku.olap.dto.SimpleCubeElement;
 import org.saiku.olap.dto.resultset.AbstractBaseCell;
 import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.ResultWindow;
 import org.saiku.olap.query.IQuery;
 import org.saiku.olap.query.IQuery.QueryType;
 import org.saiku.olap.query.OlapQuery;
@@ -40,16 +41,21 @@ import org.saiku.olap.util.SaikuUniqueNameComparator;
 import org.saiku.olap.util.formatter.CellSetFormatterFactory;
 import org.saiku.olap.util.formatter.FlattenedCellSetFormatter;
 import org.saiku.olap.util.formatter.ICellSetFormatter;
+import org.saiku.olap.util.formatter.ICellSetRowHandler;
 import org.saiku.query.Query;
 import org.saiku.query.QueryDetails;
 import org.saiku.query.QueryHierarchy;
 import org.saiku.query.QueryLevel;
 import org.saiku.query.util.QueryUtil;
+import org.saiku.service.ISessionService;
 import org.saiku.service.olap.drillthrough.DimensionResultInfo;
 import org.saiku.service.olap.drillthrough.DrillThroughResult;
+import org.saiku.service.olap.drillthrough.DrillthroughCursor;
+import org.saiku.service.olap.drillthrough.DrillthroughCursorManager;
 import org.saiku.service.olap.drillthrough.DrillthroughUtils;
 import org.saiku.service.olap.drillthrough.MeasureResultInfo;
 import org.saiku.service.olap.drillthrough.ResultInfo;
+import org.saiku.service.olap.jobs.QueryJob;
 import org.saiku.service.olap.totals.AxisInfo;
 import org.saiku.service.olap.totals.TotalNode;
 import org.saiku.service.olap.totals.TotalsListsBuilder;
@@ -58,9 +64,11 @@ import org.saiku.service.util.KeyValue;
 import org.saiku.service.util.QueryContext;
 import org.saiku.service.util.QueryContext.ObjectKey;
 import org.saiku.service.util.QueryContext.Type;
+import org.saiku.service.util.QueryContextRegistry;
 import org.saiku.service.util.exception.SaikuServiceException;
 import org.saiku.service.util.export.CsvExporter;
 import org.saiku.service.util.export.ExcelExporter;
+import org.saiku.service.util.security.Caller;
 
 import org.olap4j.Axis;
 import org.olap4j.CellSet;
@@ -81,6 +89,8 @@ import org.olap4j.metadata.Member;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
@@ -91,7 +101,6 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -100,6 +109,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import mondrian.olap4j.SaikuMondrianHelper;
@@ -115,16 +125,133 @@ public class ThinQueryService implements Serializable {
 
     private static final AtomicLong ID_GENERATOR = new AtomicLong();
 
+    /**
+     * Key of the totals of a result kept for its windows.
+     */
+    private static final String WINDOW_TOTALS = ResultWindow.class.getName();
+
     private OlapDiscoverService olapDiscoverService;
 
     private CellSetFormatterFactory cff = new CellSetFormatterFactory();
 
-    private final Map<String, QueryContext> context = new HashMap<>();
+    private final String owner = UUID.randomUUID().toString();
+
+    private transient Map<String, QueryContextRegistry.Contexts> contexts;
+
+    private ISessionService sessionService;
 
     public void setOlapDiscoverService(OlapDiscoverService os) {
         this.olapDiscoverService = os;
     }
 
+    public void setSessionService(ISessionService sessionService) {
+        this.sessionService = sessionService;
+    }
+
+    /**
+     * The query contexts of the calling user, kept in the registry shared by all sessions. A service shared by all
+     * users, like the one of the BI platform plugin, keeps the contexts of every user apart.
+     */
+    private QueryContextRegistry.Contexts contexts() {
+        Caller caller = Caller.current(sessionService);
+        String user = caller.getUser() != null ? caller.getUser() : "";
+        synchronized (this) {
+            if (contexts == null) {
+                contexts = new HashMap<>();
+            }
+            QueryContextRegistry.Contexts c = contexts.get(user);
+            if (c == null) {
+                c = olapDiscoverService.getQueryContextRegistry().open(user.isEmpty() ? owner : owner + "/" + user);
+                c.setUser(caller.getUser());
+                contexts.put(user, c);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * @throws SaikuServiceException if the calling user has no query of that name, e.g. because it has been closed
+     *                               or evicted to stay within the quota of the user
+     */
+    private QueryContext requireContext(String name) {
+        QueryContext qc = contexts().get(name);
+        if (qc == null) {
+            throw new SaikuServiceException("Query not found: " + name);
+        }
+        return qc;
+    }
+
+    /**
+     * Waits until the admission controller lets a statement of the calling user run on a connection. The user and
+     * roles are those of the caller, not of whoever first used a service shared by all users.
+     *
+     * @return the permit to close once the statement has finished
+     */
+    private AdmissionController.Permit admit(String connection, AdmissionController.Priority priority) {
+        QueryContextRegistry.Contexts c = contexts();
+        return olapDiscoverService.getAdmissionController().acquire(c.getUser(),
+            Caller.current(sessionService).getRoles(), connection, priority);
+    }
+
+    /**
+     * Records the time a phase of the execution of a query took, from the start until now.
+     *
+     * @param formatter the formatter of the phase, or null if the phase does not depend on it
+     * @param start     when the phase started, as measured with {@link System#nanoTime()}
+     */
+    private void record(QueryMetrics.Phase phase, ThinQuery query, ICellSetFormatter formatter, long start) {
+        olapDiscoverService.getQueryMetrics().record(phase, query != null ? query.getCube() : null,
+            formatter != null ? formatter.getClass().getSimpleName() : null, System.nanoTime() - start);
+    }
+
+    /**
+     * Records the time a phase of the execution of a query took, for phases outside of this service such as writing
+     * the result as JSON.
+     *
+     * @param formatter the name of the formatter, or null if the phase does not depend on it
+     * @param start     when the phase started, as measured with {@link System#nanoTime()}
+     */
+    public void recordPhase(QueryMetrics.Phase phase, String queryName, String formatter, long start) {
+        QueryContext qc = contexts().get(queryName);
+        record(phase, qc != null ? qc.getOlapQuery() : null,
+            formatter != null ? cff.forName(formatter.toLowerCase()) : null, start);
+    }
+
+    private CellSet getResult(QueryContext qc) throws Exception {
+        return getResult(qc, AdmissionController.Priority.INTERACTIVE);
+    }
+
+    /**
+     * Returns the last result of a query, executing it again if it has been released to free memory.
+     */
+    private CellSet getResult(QueryContext qc, AdmissionController.Priority priority) throws Exception {
+        CellSet cs = qc.getOlapResult();
+        if (cs == null && qc.isResultReleased()) {
+            log.debug("Executing released result of query: " + qc.getOlapQuery().getName());
+            cs = executeInternalQuery(qc.getOlapQuery(), priority);
+        }
+        return cs;
+    }
+
+    /**
+     * Removes all query contexts, background jobs and drill through cursors of this session.
+     */
+    public void destroy() {
+        List<QueryContextRegistry.Contexts> opened;
+        synchronized (this) {
+            opened = contexts != null ? new ArrayList<>(contexts.values())
+                : Collections.<QueryContextRegistry.Contexts>emptyList();
+            contexts = null;
+        }
+        for (QueryContextRegistry.Contexts c : opened) {
+            if (olapDiscoverService != null) {
+                olapDiscoverService.getQueryJobManager().removeAll(c.getOwner());
+                olapDiscoverService.getDrillthroughCursorManager().closeAll(c.getOwner());
+            }
+            c.clear();
+        }
+    }
+
     public void setCellSetFormatterFactory(CellSetFormatterFactory cff) {
         this.cff = cff;
     }
@@ -136,19 +263,19 @@ public class ThinQueryService implements Serializable {
         }
         Map<String, Object> cubeProperties = olapDiscoverService.getProperties(tq.getCube());
         tq.getProperties().putAll(cubeProperties);
-        if (!context.containsKey(tq.getName())) {
+        if (!contexts().containsKey(tq.getName())) {
             //			Cube cub = olapDiscoverService.getNativeCube(tq.getCube());
             //			Query query = new Query(tq.getName(), cub);
             //			tq = Thin.convert(query, tq.getCube());
             QueryContext qt = new QueryContext(Type.OLAP, tq);
             qt.store(ObjectKey.QUERY, tq);
-            this.context.put(tq.getName(), qt);
+            contexts().put(tq.getName(), qt);
         }
         return tq;
     }
 
     public QueryContext getContext(String name) {
-        return this.context.get(name);
+        return contexts().get(name);
     }
 
     @Deprecated
@@ -167,48 +294,116 @@ public class ThinQueryService implements Serializable {
 
 
     CellSet executeInternalQuery(ThinQuery query) throws Exception {
+        return executeInternalQuery(query, AdmissionController.Priority.INTERACTIVE);
+    }
+
+    CellSet executeInternalQuery(ThinQuery query, AdmissionController.Priority priority) throws Exception {
         String runId = "RUN#:" + ID_GENERATOR.getAndIncrement();
-        QueryContext queryContext = context.get(query.getName());
+        QueryContext queryContext = contexts().get(query.getName());
 
         if (queryContext == null) {
             queryContext = new QueryContext(Type.OLAP, query);
-            this.context.put(query.getName(), queryContext);
+            contexts().put(query.getName(), queryContext);
         }
 
-        OlapConnection con = olapDiscoverService.getNativeConnection(query.getCube().getConnection());
-        if (StringUtils.isNotBlank(query.getCube().getCatalog())) {
-            con.setCatalog(query.getCube().getCatalog());
+        String connection = query.getCube().getConnection();
+        // waits for its turn before taking a connection from the pool
+        try (AdmissionController.Permit permit = admit(connection, priority)) {
+            return executeInternalQuery(query, queryContext, connection, runId);
         }
+    }
 
-        if (queryContext.contains(ObjectKey.STATEMENT)) {
-            Statement s = queryContext.getStatement();
-            s.cancel();
-            s.close();
-            s = null;
-            queryContext.remove(ObjectKey.STATEMENT);
-        }
+    private CellSet executeInternalQuery(ThinQuery query, QueryContext queryContext, String connection, String runId)
+            throws Exception {
+        long start = System.nanoTime();
+        OlapConnection con = olapDiscoverService.borrowNativeConnection(connection);
+        record(QueryMetrics.Phase.CONNECTION, query, null, start);
+        try {
+            if (StringUtils.isNotBlank(query.getCube().getCatalog())) {
+                con.setCatalog(query.getCube().getCatalog());
+            }
 
-        OlapStatement stmt = con.createStatement();
-        queryContext.store(ObjectKey.STATEMENT, stmt);
+            if (queryContext.contains(ObjectKey.STATEMENT)) {
+                Statement s = queryContext.getStatement();
+                s.cancel();
+                s.close();
+                s = null;
+                queryContext.remove(ObjectKey.STATEMENT);
+            }
 
-        query = updateQuery(query);
+            OlapStatement stmt = con.createStatement();
+            queryContext.store(ObjectKey.STATEMENT, stmt);
 
-        try {
-            String mdx = query.getParameterResolvedMdx();
-            log.info(runId + "\tType:" + query.getType() + ":\n" + mdx);
+            start = System.nanoTime();
+            query = updateQuery(query);
+            record(QueryMetrics.Phase.CONVERSION, query, null, start);
 
-            CellSet cs = stmt.executeOlapQuery(mdx);
-            queryContext.store(ObjectKey.RESULT, cs);
-            if (query != null) {
-                queryContext.store(ObjectKey.QUERY, query);
+            try {
+                String mdx = query.getParameterResolvedMdx();
+                log.info(runId + "\tType:" + query.getType() + ":\n" + mdx);
+
+                start = System.nanoTime();
+                ResultCache cache = olapDiscoverService.getResultCache();
+                ResultCache.Key key = null;
+                CellSet cs = null;
+                if (cache.isEnabled() && !hasAverageTotals(query)) {
+                    Caller caller = Caller.current(sessionService);
+                    key = new ResultCache.Key(connection, con.getCatalog(), caller.getRoleKey(),
+                            olapDiscoverService.isPassThrough(connection) ? caller.getUser() : null, mdx);
+                    cs = cache.get(key);
+                    if (cs != null) {
+                        log.info(runId + "\tResult from cache");
+                    }
+                }
+                if (cs == null) {
+                    cs = stmt.executeOlapQuery(mdx);
+                    if (key != null) {
+                        // the session uses the shared copy as well, not the result of the statement
+                        cs = cache.put(key, cs);
+                    }
+                }
+                record(QueryMetrics.Phase.EXECUTE, query, null, start);
+                queryContext.store(ObjectKey.RESULT, cs);
+                if (query != null) {
+                    queryContext.store(ObjectKey.QUERY, query);
+                }
+                contexts().resultStored(queryContext);
+                return cs;
+            } finally {
+                stmt.close();
+                queryContext.remove(ObjectKey.STATEMENT);
             }
-            return cs;
         } finally {
-            stmt.close();
-            queryContext.remove(ObjectKey.STATEMENT);
+            olapDiscoverService.releaseNativeConnection(connection, con);
         }
     }
 
+    /**
+     * Whether the totals of a query average its cells. Averages weight every cell by its
+     * <code>DRILLTHROUGH_COUNT</code>, which only the result of the statement reads, so these results are not cached.
+     */
+    private static boolean hasAverageTotals(ThinQuery query) {
+        ThinQueryModel model = query.getQueryModel();
+        if (model == null || model.getAxes() == null) {
+            return false;
+        }
+        for (ThinAxis axis : model.getAxes().values()) {
+            if (axis.getAggregators() != null && axis.getAggregators().contains("avg")) {
+                return true;
+            }
+            if (axis.getHierarchies() != null) {
+                for (ThinHierarchy hierarchy : axis.getHierarchies()) {
+                    for (ThinLevel level : hierarchy.getLevels().values()) {
+                        if (level.getAggregators() != null && level.getAggregators().contains("avg")) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     public CellDataSet execute(ThinQuery tq) {
         if (tq.getProperties().containsKey("saiku.olap.result.formatter")) {
             return execute(tq, tq.getProperties().get("saiku.olap.result.formatter").toString());
@@ -223,49 +418,276 @@ public class ThinQueryService implements Serializable {
     }
 
     public CellDataSet getFormattedResult(String query, String format) throws Exception {
-        QueryContext qc = getContext(query);
+        QueryContext qc = requireContext(query);
         ThinQuery tq = qc.getOlapQuery();
-        CellSet cs = qc.getOlapResult();
+        CellSet cs = getResult(qc);
         String formatterName = (StringUtils.isBlank(format) ? "" : format.toLowerCase());
         ICellSetFormatter cf = cff.forName(formatterName);
-        CellDataSet result = OlapResultSetUtil.cellSet2Matrix(cs, cf);
+        return getFormattedResult(qc, tq, cs, cf, false);
+    }
+
+    /**
+     * Formats a result and calculates its totals, or returns the table from the last time the same result was
+     * formatted with the same kind of formatter. Tables are kept by the query context until it stores another
+     * result, so repeated exports of one result only format it once.
+     *
+     * @param ignoreTotalsErrors whether a table is returned without totals if they cannot be calculated
+     */
+    private CellDataSet getFormattedResult(QueryContext qc, ThinQuery tq, CellSet cs, ICellSetFormatter formatter,
+                                           boolean ignoreTotalsErrors) throws Exception {
+        String key = formatter.getClass().getName();
+        CellDataSet result = qc.getFormattedResult(cs, key);
+        if (result != null) {
+            log.debug("Reusing formatted result of query: " + tq.getName());
+            return result;
+        }
+        long start = System.nanoTime();
+        result = OlapResultSetUtil.cellSet2Matrix(cs, formatter);
+        record(QueryMetrics.Phase.FORMAT, tq, formatter, start);
+        if (ThinQuery.Type.QUERYMODEL.equals(tq.getType()) && formatter instanceof FlattenedCellSetFormatter && tq.hasAggregators()) {
+            try {
+                start = System.nanoTime();
+                calculateTotals(tq, result, cs, formatter);
+                record(QueryMetrics.Phase.TOTALS, tq, formatter, start);
+            } catch (Exception e) {
+                if (!ignoreTotalsErrors) {
+                    throw e;
+                }
+                //Ignore totals calculation errors, but do not keep the incomplete table
+                log.error(e.getMessage(), e);
+                return result;
+            }
+        }
+        qc.storeFormattedResult(cs, key, result);
+        return result;
+    }
+
+    /**
+     * Formats the last result of a query row by row into the handler instead of building the whole table. Cell sets
+     * the formatter cannot stream, and results already formatted to a table, are handed to the handler row by row.
+     *
+     * @return the result with the size, offsets and totals set, header and body are only set for a reused table
+     */
+    public CellDataSet getFormattedResult(String query, String format, ICellSetRowHandler handler) throws Exception {
+        QueryContext qc = requireContext(query);
+        ThinQuery tq = qc.getOlapQuery();
+        CellSet cs = getResult(qc);
+        String formatterName = (StringUtils.isBlank(format) ? "" : format.toLowerCase());
+        ICellSetFormatter cf = cff.forName(formatterName);
+
+        CellDataSet result = qc.getFormattedResult(cs, cf.getClass().getName());
+        if (result != null) {
+            if (result.getCellSetHeaders() != null && result.getCellSetBody() != null) {
+                for (AbstractBaseCell[] row : result.getCellSetHeaders()) {
+                    handler.handleRow(row, true);
+                }
+                for (AbstractBaseCell[] row : result.getCellSetBody()) {
+                    handler.handleRow(row, false);
+                }
+            }
+            return result;
+        }
+        if (cs != null && cf instanceof FlattenedCellSetFormatter) {
+            result = ((FlattenedCellSetFormatter) cf).format(cs, handler);
+        }
+        if (result == null) {
+            result = OlapResultSetUtil.cellSet2Matrix(cs, cf);
+            if (result.getCellSetHeaders() != null && result.getCellSetBody() != null) {
+                for (AbstractBaseCell[] row : result.getCellSetHeaders()) {
+                    handler.handleRow(row, true);
+                }
+                for (AbstractBaseCell[] row : result.getCellSetBody()) {
+                    handler.handleRow(row, false);
+                }
+                result.setCellSetBody(null);
+            }
+        }
 
         if (ThinQuery.Type.QUERYMODEL.equals(tq.getType()) && cf instanceof FlattenedCellSetFormatter && tq.hasAggregators()) {
+            long start = System.nanoTime();
             calculateTotals(tq, result, cs, cf);
+            record(QueryMetrics.Phase.TOTALS, tq, cf, start);
         }
         return result;
     }
 
+    /**
+     * Returns a window of the last result of a query. Flattened results are formatted straight from the cell set, only
+     * the cells in the window; other layouts, and results already formatted to a table, are cut out of the whole
+     * table. The totals are calculated once per result and kept by the query context.
+     *
+     * @param firstRow    the first body row of the window
+     * @param rows        the body rows in the window
+     * @param firstColumn the first data column of the window
+     * @param columns     the data columns in the window
+     */
+    public ResultWindow getResultWindow(String query, String format, int firstRow, int rows, int firstColumn,
+                                        int columns) throws Exception {
+        QueryContext qc = requireContext(query);
+        ThinQuery tq = qc.getOlapQuery();
+        CellSet cs = getResult(qc);
+        String formatterName = (StringUtils.isBlank(format) ? "" : format.toLowerCase());
+        ICellSetFormatter cf = cff.forName(formatterName);
+
+        CellDataSet table = qc.getFormattedResult(cs, cf.getClass().getName());
+        if (table == null && cs != null && cf instanceof FlattenedCellSetFormatter) {
+            long start = System.nanoTime();
+            ResultWindow window = ((FlattenedCellSetFormatter) cf).formatWindow(cs, firstRow, rows, firstColumn, columns);
+            record(QueryMetrics.Phase.FORMAT, tq, cf, start);
+            if (window != null) {
+                if (ThinQuery.Type.QUERYMODEL.equals(tq.getType()) && tq.hasAggregators()) {
+                    CellDataSet totals = qc.getFormattedResult(cs, WINDOW_TOTALS);
+                    if (totals == null) {
+                        totals = new CellDataSet(0, 0);
+                        start = System.nanoTime();
+                        calculateTotals(tq, totals, cs, cf);
+                        record(QueryMetrics.Phase.TOTALS, tq, cf, start);
+                        qc.storeFormattedResult(cs, WINDOW_TOTALS, totals);
+                    }
+                    window.getCells().setLeftOffset(totals.getLeftOffset());
+                    window.getCells().setSelectedMeasures(totals.getSelectedMeasures());
+                    window.setTotals(totals.getRowTotalsLists(), totals.getColTotalsLists());
+                }
+                return window;
+            }
+        }
+        if (table == null) {
+            table = getFormattedResult(qc, tq, cs, cf, true);
+        }
+        return ResultWindow.of(table, firstRow, rows, firstColumn, columns);
+    }
+
+    /**
+     * Executes a query and keeps the result in its context without formatting it.
+     */
+    public CellSet executeQuery(ThinQuery tq) {
+        try {
+            return executeInternalQuery(tq);
+        } catch (Exception | Error e) {
+            throw new SaikuServiceException("Can't execute query: " + tq.getName(), e);
+        }
+    }
+
     private CellDataSet execute(ThinQuery tq, ICellSetFormatter formatter) {
+        return execute(tq, formatter, null);
+    }
+
+    /**
+     * @param job the job executing the query, told about every phase, or null
+     */
+    private CellDataSet execute(ThinQuery tq, ICellSetFormatter formatter, QueryJob job) {
         try {
 
-            Long start = (new Date()).getTime();
+            long start = System.nanoTime();
             log.debug("Query Start");
+            enterPhase(job, QueryJob.Phase.EXECUTE);
             CellSet cellSet = executeInternalQuery(tq);
             log.debug("Query End");
             String runId = "RUN#:" + ID_GENERATOR.get();
-            Long exec = (new Date()).getTime();
+            long exec = System.nanoTime();
 
+            enterPhase(job, QueryJob.Phase.FORMAT);
             CellDataSet result = OlapResultSetUtil.cellSet2Matrix(cellSet, formatter);
-            Long format = (new Date()).getTime();
+            long format = System.nanoTime();
+            record(QueryMetrics.Phase.FORMAT, tq, formatter, exec);
 
             if (ThinQuery.Type.QUERYMODEL.equals(tq.getType()) && formatter instanceof FlattenedCellSetFormatter && tq.hasAggregators()) {
+                enterPhase(job, QueryJob.Phase.TOTALS);
                 calculateTotals(tq, result, cellSet, formatter);
+                record(QueryMetrics.Phase.TOTALS, tq, formatter, format);
             }
-            Long totals = (new Date()).getTime();
-            log.info(runId + "\tSize: " + result.getWidth() + "/" + result.getHeight() + "\tExecute:\t" + (exec - start)
-                    + "ms\tFormat:\t" + (format - exec) + "ms\tTotals:\t" + (totals - format) + "ms\t Total: " + (totals - start) + "ms");
+            result.setRuntime((int) millis(format - start));
+            QueryContext qc = contexts().get(tq.getName());
+            if (qc != null) {
+                // exports of this result right after the execution reuse the table, which is not changed after this
+                qc.storeFormattedResult(cellSet, formatter.getClass().getName(), result);
+            }
+            long totals = System.nanoTime();
+            log.info(runId + "\tSize: " + result.getWidth() + "/" + result.getHeight() + "\tExecute:\t" + millis(exec - start)
+                    + "ms\tFormat:\t" + millis(format - exec) + "ms\tTotals:\t" + millis(totals - format) + "ms\t Total: " + millis(totals - start) + "ms");
 
-            result.setRuntime(new Double(format - start).intValue());
             return result;
         } catch (Exception | Error e) {
             throw new SaikuServiceException("Can't execute query: " + tq.getName(), e);
         }
     }
 
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static void enterPhase(QueryJob job, QueryJob.Phase phase) {
+        if (job != null) {
+            job.enterPhase(phase);
+        }
+    }
+
+    /**
+     * Queues the execution of a query as a background job of this session. The job formats the result like
+     * {@link #execute(ThinQuery)} and keeps it until the job expires.
+     *
+     * @throws SaikuServiceException if too many jobs are waiting
+     */
+    public QueryJob submit(final ThinQuery tq) {
+        String formatterName = "";
+        if (tq.getProperties().containsKey("saiku.olap.result.formatter")) {
+            formatterName = tq.getProperties().get("saiku.olap.result.formatter").toString().toLowerCase();
+        }
+        final ICellSetFormatter formatter = cff.forName(formatterName);
+        // opened on the request thread, the job thread runs with the same authentication but no request
+        final QueryContextRegistry.Contexts c = contexts();
+        return olapDiscoverService.getQueryJobManager().submit(c.getOwner(), c.getUser(), tq.getName(), new QueryJob.Task() {
+            public CellDataSet run(QueryJob job) throws Exception {
+                CellDataSet result = execute(tq, formatter, job);
+                QueryContext qc = c.get(tq.getName());
+                job.setQuery(qc != null ? qc.getOlapQuery() : tq);
+                return result;
+            }
+
+            public void cancel(QueryJob job) throws Exception {
+                ThinQueryService.this.cancel(tq.getName());
+            }
+        });
+    }
+
+    /**
+     * @return a job of this session, or null if there is none or it has expired
+     */
+    public QueryJob getJob(String id) {
+        QueryJob job = olapDiscoverService.getQueryJobManager().get(id);
+        return job != null && contexts().getOwner().equals(job.getSession()) ? job : null;
+    }
+
+    /**
+     * @return the jobs of this session
+     */
+    public List<QueryJob> getJobs() {
+        return olapDiscoverService.getQueryJobManager().getJobs(contexts().getOwner());
+    }
+
+    /**
+     * Cancels a job of this session, stopping its statement if it is running.
+     *
+     * @return false if there is no such job or it had already finished
+     */
+    public boolean cancelJob(String id) {
+        QueryJob job = getJob(id);
+        return job != null && olapDiscoverService.getQueryJobManager().cancel(job);
+    }
+
+    /**
+     * Cancels and forgets a job of this session.
+     */
+    public void removeJob(String id) {
+        QueryJob job = getJob(id);
+        if (job != null) {
+            olapDiscoverService.getQueryJobManager().remove(job);
+        }
+    }
+
     public void cancel(String name) throws SQLException {
-        if (context.containsKey(name)) {
-            QueryContext queryContext = context.get(name);
+        if (contexts().containsKey(name)) {
+            QueryContext queryContext = contexts().get(name);
             if (queryContext.contains(ObjectKey.STATEMENT)) {
                 Statement stmt = queryContext.getStatement();
                 if (stmt != null && !stmt.isClosed()) {
@@ -309,30 +731,50 @@ public class ThinQueryService implements Serializable {
     }
 
     public ThinQuery updateQuery(ThinQuery old) throws Exception {
+        boolean compiled = false;
+        CompiledQueryCache.Key compiledKey = null;
         if (ThinQuery.Type.QUERYMODEL.equals(old.getType())) {
             Cube cub = olapDiscoverService.getNativeCube(old.getCube());
-            Query q = Fat.convert(old, cub);
-            List<ThinCalculatedMember> cms = old.getQueryModel().getCalculatedMembers();
-            ThinQuery tqAfter = Thin.convert(q, old.getCube());
-            tqAfter.getQueryModel().setCalculatedMembers(cms);
-            getEnabledCMembers(old.getQueryModel(), tqAfter.getQueryModel());
-
-            // Set measures aggregators
-            for (ThinMeasure measure : tqAfter.getQueryModel().getDetails().getMeasures()) {
-                for (ThinMeasure oldMeasure : old.getQueryModel().getDetails().getMeasures()) {
-                    if (measure.getUniqueName().equals(oldMeasure.getUniqueName())) {
-                        measure.getAggregators().addAll(oldMeasure.getAggregators());
-                        break;
+            CompiledQueryCache cache = olapDiscoverService.getCompiledQueryCache();
+            CompiledQueryCache.Key key = cache.key(old, Caller.current(sessionService).getRoleKey());
+            CompiledQueryCache.CompiledQuery cached = cache.get(key, cub);
+            if (cached != null) {
+                old.setQueryModel(cached.getQueryModel());
+                old.setMdx(cached.getMdx());
+            } else {
+                Query q = Fat.convert(old, cub);
+                List<ThinCalculatedMember> cms = old.getQueryModel().getCalculatedMembers();
+                ThinQuery tqAfter = Thin.convert(q, old.getCube());
+                tqAfter.getQueryModel().setCalculatedMembers(cms);
+                getEnabledCMembers(old.getQueryModel(), tqAfter.getQueryModel());
+
+                // Set measures aggregators
+                for (ThinMeasure measure : tqAfter.getQueryModel().getDetails().getMeasures()) {
+                    for (ThinMeasure oldMeasure : old.getQueryModel().getDetails().getMeasures()) {
+                        if (measure.getUniqueName().equals(oldMeasure.getUniqueName())) {
+                            measure.getAggregators().addAll(oldMeasure.getAggregators());
+                            break;
+                        }
                     }
                 }
-            }
 
-            old.setQueryModel(tqAfter.getQueryModel());
-            old.setMdx(tqAfter.getMdx());
+                old.setQueryModel(tqAfter.getQueryModel());
+                old.setMdx(tqAfter.getMdx());
+                old = removeDupSelections(old);
+                cache.put(key, cub, old.getMdx(), old.getQueryModel());
+            }
+            compiled = true;
+            compiledKey = key;
         }
-        if (context.containsKey(old.getName())) {
-            QueryContext qc = context.get(old.getName());
+        if (contexts().containsKey(old.getName())) {
+            QueryContext qc = contexts().get(old.getName());
             qc.store(ObjectKey.QUERY, old);
+            // the totals of the result are looked up with the key of the model before it was compiled
+            if (compiledKey != null) {
+                qc.store(ObjectKey.COMPILED_QUERY, compiledKey);
+            } else {
+                qc.remove(ObjectKey.COMPILED_QUERY);
+            }
         }
         String mdx = old.getMdx();
         List<String> params = QueryUtil.parseParameters(mdx);
@@ -344,7 +786,9 @@ public class ThinQueryService implements Serializable {
       /**
        * TODO NASTY HACK REMOVE IN NEXT RELEASE
        */
-        old = removeDupSelections(old);
+        if (!compiled) {
+            old = removeDupSelections(old);
+        }
         return old;
     }
 
@@ -381,8 +825,8 @@ public class ThinQueryService implements Serializable {
 
     public void deleteQuery(String queryName) {
         try {
-            if (context.containsKey(queryName)) {
-                QueryContext qc = context.remove(queryName);
+            if (contexts().containsKey(queryName)) {
+                QueryContext qc = contexts().remove(queryName);
                 qc.destroy();
             }
         } catch (Exception e) {
@@ -401,60 +845,135 @@ public class ThinQueryService implements Serializable {
     }
 
     private byte[] getExport(String queryName, String type, ICellSetFormatter formatter) {
-        if (StringUtils.isNotBlank(type) && context.containsKey(queryName)) {
+        if (StringUtils.isNotBlank(type) && contexts().containsKey(queryName)) {
             //Query Context
-            QueryContext qc = context.get(queryName);
+            QueryContext qc = contexts().get(queryName);
 
             //Query
             ThinQuery tq = qc.getOlapQuery();
 
             //Query exec result
-            CellSet rs = qc.getOlapResult();
-
-            //Query result as table
-            CellDataSet table = OlapResultSetUtil.cellSet2Matrix(rs, formatter);
-
-            //Calculate totals and sub totals
-            if (ThinQuery.Type.QUERYMODEL.equals(tq.getType()) && formatter instanceof FlattenedCellSetFormatter && tq.hasAggregators()) {
-                try {
-                    calculateTotals(tq, table, rs, formatter);
-                } catch (Exception e) {
-                    //Ignore totals calculation errors
-                    log.error(e.getMessage(), e);
-                }
+            CellSet rs;
+            try {
+                rs = getResult(qc, AdmissionController.Priority.EXPORT);
+            } catch (Exception e) {
+                throw new SaikuServiceException("Cannot execute query: " + queryName, e);
             }
 
-            List<ThinHierarchy> filterHierarchies = null;
-            if (ThinQuery.Type.QUERYMODEL.equals(tq.getType())) {
-                filterHierarchies = tq.getQueryModel().getAxes().get(AxisLocation.FILTER).getHierarchies();
+            //Query result as table, with totals and sub totals
+            CellDataSet table;
+            try {
+                table = getFormattedResult(qc, tq, rs, formatter, true);
+            } catch (Exception e) {
+                throw new SaikuServiceException("Cannot format result of query: " + queryName, e);
             }
+
+            List<ThinHierarchy> filterHierarchies = getFilterHierarchies(tq);
+            long start = System.nanoTime();
             if (type.toLowerCase().equals("xls")) {
-                return ExcelExporter.exportExcel(table, formatter, filterHierarchies);
+                byte[] doc = ExcelExporter.exportExcel(table, formatter, filterHierarchies);
+                record(QueryMetrics.Phase.EXPORT, tq, formatter, start);
+                return doc;
             }
             if (type.toLowerCase().equals("csv")) {
-                return CsvExporter.exportCsv(rs, SaikuProperties.webExportCsvDelimiter, SaikuProperties.webExportCsvTextEscape, formatter);
+                byte[] doc = CsvExporter.exportCsv(rs, SaikuProperties.webExportCsvDelimiter, SaikuProperties.webExportCsvTextEscape, formatter);
+                record(QueryMetrics.Phase.EXPORT, tq, formatter, start);
+                return doc;
             }
         }
         return new byte[0];
     }
 
+    /**
+     * Writes the last result of a query as an Excel workbook to the output.
+     */
+    public void exportExcel(String queryName, String formatter, OutputStream output) {
+        QueryContext qc = requireContext(queryName);
+        ThinQuery tq = qc.getOlapQuery();
+        CellSet rs;
+        try {
+            rs = getResult(qc, AdmissionController.Priority.EXPORT);
+        } catch (Exception e) {
+            throw new SaikuServiceException("Cannot execute query: " + queryName, e);
+        }
+        String formatterName = formatter == null ? "" : formatter.toLowerCase();
+        ICellSetFormatter cf = cff.forName(formatterName);
+        CellDataSet table;
+        try {
+            table = getFormattedResult(qc, tq, rs, cf, true);
+        } catch (Exception e) {
+            throw new SaikuServiceException("Cannot format result of query: " + queryName, e);
+        }
+        long start = System.nanoTime();
+        ExcelExporter.exportExcel(table, cf, getFilterHierarchies(tq), output);
+        record(QueryMetrics.Phase.EXPORT, tq, cf, start);
+    }
+
+    private List<ThinHierarchy> getFilterHierarchies(ThinQuery tq) {
+        if (ThinQuery.Type.QUERYMODEL.equals(tq.getType())) {
+            return tq.getQueryModel().getAxes().get(AxisLocation.FILTER).getHierarchies();
+        }
+        return null;
+    }
+
+    /**
+     * Writes the last result of a query as CSV to the output, one row at a time.
+     */
+    public void exportCsv(String queryName, String formatter, OutputStream output) throws IOException {
+        QueryContext qc = requireContext(queryName);
+        CellSet rs;
+        try {
+            rs = getResult(qc, AdmissionController.Priority.EXPORT);
+        } catch (Exception e) {
+            throw new SaikuServiceException("Cannot execute query: " + queryName, e);
+        }
+        String formatterName = formatter == null ? "" : formatter.toLowerCase();
+        ICellSetFormatter cf = cff.forName(formatterName);
+        long start = System.nanoTime();
+        Writer writer = CsvExporter.newWriter(output);
+        CsvExporter.write(rs, SaikuProperties.webExportCsvDelimiter, SaikuProperties.webExportCsvTextEscape, cf, writer);
+        writer.flush();
+        record(QueryMetrics.Phase.EXPORT, qc.getOlapQuery(), cf, start);
+    }
+
     public ResultSet drillthrough(String queryName, int maxrows, String returns) {
+        return drillthrough(queryName, maxrows, returns, AdmissionController.Priority.INTERACTIVE);
+    }
+
+    /**
+     * Leases a connection of the cube's datasource, set to the cube's catalog. It has to be given back with
+     * {@link OlapDiscoverService#releaseNativeConnection(String, OlapConnection)}.
+     */
+    private OlapConnection borrowConnection(SaikuCube cube) throws SQLException {
+        OlapConnection con = olapDiscoverService.borrowNativeConnection(cube.getConnection());
+        if (StringUtils.isNotBlank(cube.getCatalog())) {
+            try {
+                con.setCatalog(cube.getCatalog());
+            } catch (SQLException | RuntimeException e) {
+                olapDiscoverService.releaseNativeConnection(cube.getConnection(), con);
+                throw e;
+            }
+        }
+        return con;
+    }
+
+    /**
+     * @param priority the priority of the drill through statement, e.g. lower for exports
+     */
+    public ResultSet drillthrough(String queryName, int maxrows, String returns, AdmissionController.Priority priority) {
+        SaikuCube cube = null;
+        OlapConnection con = null;
         OlapStatement stmt = null;
         try {
 
-            ThinQuery query = context.get(queryName).getOlapQuery();
-            final OlapConnection con = olapDiscoverService.getNativeConnection(query.getCube().getConnection());
-            stmt = con.createStatement();
-            String mdx = query.getMdx();
-            if (maxrows > 0) {
-                mdx = "DRILLTHROUGH MAXROWS " + maxrows + " " + mdx;
-            } else {
-                mdx = "DRILLTHROUGH " + mdx;
-            }
-            if (StringUtils.isNotBlank(returns)) {
-                mdx += "\r\n RETURN " + returns;
+            ThinQuery query = requireContext(queryName).getOlapQuery();
+            cube = query.getCube();
+            String mdx = drillthroughMdx(query, maxrows, returns);
+            try (AdmissionController.Permit permit = admit(cube.getConnection(), priority)) {
+                con = borrowConnection(cube);
+                stmt = con.createStatement();
+                return stmt.executeQuery(mdx);
             }
-            return stmt.executeQuery(mdx);
         } catch (SQLException e) {
             throw new SaikuServiceException("Error DRILLTHROUGH: " + queryName, e);
         } finally {
@@ -462,6 +981,9 @@ public class ThinQueryService implements Serializable {
                 if (stmt != null) stmt.close();
             } catch (Exception e) {
             }
+            if (con != null) {
+                olapDiscoverService.releaseNativeConnection(cube.getConnection(), con);
+            }
         }
     }
 
@@ -469,8 +991,12 @@ public class ThinQueryService implements Serializable {
         try {
             if (ThinQuery.Type.MDX.equals(query.getType())) {
                 SaikuCube cube = query.getCube();
-                final OlapConnection con = olapDiscoverService.getNativeConnection(cube.getConnection());
-                return SaikuMondrianHelper.isMondrianDrillthrough(con, query.getMdx());
+                final OlapConnection con = borrowConnection(cube);
+                try {
+                    return SaikuMondrianHelper.isMondrianDrillthrough(con, query.getMdx());
+                } finally {
+                    olapDiscoverService.releaseNativeConnection(cube.getConnection(), con);
+                }
             }
         } catch (Exception | Error e) {
             log.warn("Error checking for DRILLTHROUGH: " + query.getName() + " DRILLTHROUGH MDX:" + query.getMdx(), e);
@@ -480,12 +1006,15 @@ public class ThinQueryService implements Serializable {
     }
 
     public ResultSet drillthrough(ThinQuery query) {
+        SaikuCube cube = query.getCube();
+        OlapConnection con = null;
         OlapStatement stmt = null;
         try {
-            SaikuCube cube = query.getCube();
-            final OlapConnection con = olapDiscoverService.getNativeConnection(cube.getConnection());
-            stmt = con.createStatement();
-            return stmt.executeQuery(query.getMdx());
+            try (AdmissionController.Permit permit = admit(cube.getConnection(), AdmissionController.Priority.INTERACTIVE)) {
+                con = borrowConnection(cube);
+                stmt = con.createStatement();
+                return stmt.executeQuery(query.getMdx());
+            }
         } catch (SQLException e) {
             throw new SaikuServiceException("Error DRILLTHROUGH: " + query.getMdx() + " DRILLTHROUGH MDX:" + query.getMdx(), e);
         } finally {
@@ -493,15 +1022,23 @@ public class ThinQueryService implements Serializable {
                 if (stmt != null) stmt.close();
             } catch (Exception e) {
             }
+            if (con != null) {
+                olapDiscoverService.releaseNativeConnection(cube.getConnection(), con);
+            }
         }
 
     }
 
     public DrillThroughResult drillthroughWithCaptions(String queryName, List<Integer> cellPosition, Integer maxrows, String returns) {
-    	QueryContext queryContext = context.get(queryName);
+    	QueryContext queryContext = requireContext(queryName);
     	SaikuCube saikuCube = queryContext.getOlapQuery().getCube();
     	List<SaikuMember> measures = olapDiscoverService.getMeasures(saikuCube);
-    	CellSet cs = queryContext.getOlapResult();
+    	CellSet cs;
+    	try {
+    		cs = getResult(queryContext);
+    	} catch (Exception e) {
+    		throw new SaikuServiceException("Cannot execute query: " + queryName, e);
+    	}
     	ResultSet drillthrough = drillthrough(queryName, cellPosition, maxrows, returns);
     	
     	int width;
@@ -535,57 +1072,27 @@ public class ThinQueryService implements Serializable {
     }
 
     public ResultSet drillthrough(String queryName, List<Integer> cellPosition, Integer maxrows, String returns) {
+        return drillthrough(queryName, cellPosition, maxrows, returns, AdmissionController.Priority.INTERACTIVE);
+    }
+
+    /**
+     * @param priority the priority of the statements, e.g. lower for exports
+     */
+    public ResultSet drillthrough(String queryName, List<Integer> cellPosition, Integer maxrows, String returns,
+                                  AdmissionController.Priority priority) {
+        SaikuCube cube = null;
+        OlapConnection con = null;
         OlapStatement stmt = null;
         try {
-            QueryContext queryContext = context.get(queryName);
-            ThinQuery query = queryContext.getOlapQuery();
-            CellSet cs = queryContext.getOlapResult();
-            SaikuCube cube = query.getCube();
-            final OlapConnection con = olapDiscoverService.getNativeConnection(cube.getConnection());
-            stmt = con.createStatement();
-            SelectNode sn = (new DefaultMdxParserImpl().parseSelect(query.getMdx()));
-            String select = null;
-            StringBuilder buf = new StringBuilder();
-            if (sn.getWithList() != null && sn.getWithList().size() > 0) {
-                buf.append("WITH \n");
-                StringWriter sw = new StringWriter();
-                ParseTreeWriter ptw = new ParseTreeWriter(sw);
-                final PrintWriter pw = ptw.getPrintWriter();
-                for (ParseTreeNode with : sn.getWithList()) {
-                    with.unparse(ptw);
-                    pw.println();
-                }
-                buf.append(sw.toString());
-            }
-            buf.append("SELECT (");
-            for (int i = 0; i < cellPosition.size(); i++) {
-                List<Member> members = cs.getAxes().get(i).getPositions().get(cellPosition.get(i)).getMembers();
-                for (int k = 0; k < members.size(); k++) {
-                    Member m = members.get(k);
-                    if (k > 0 || i > 0) {
-                        buf.append(", ");
-                    }
-                    buf.append(m.getUniqueName());
-                }
-            }
-            buf.append(") ON COLUMNS \r\n");
-            buf.append("FROM [").append(cube.getName()).append("]\r\n");
-            final Writer writer = new StringWriter();
-            sn.getFilterAxis().unparse(new ParseTreeWriter(new PrintWriter(writer)));
-            if (StringUtils.isNotBlank(writer.toString())) {
-                buf.append("WHERE ").append(writer.toString());
-            }
-            select = buf.toString();
-            if (maxrows > 0) {
-                select = "DRILLTHROUGH MAXROWS " + maxrows + " " + select + "\r\n";
-            } else {
-                select = "DRILLTHROUGH " + select + "\r\n";
-            }
-            if (StringUtils.isNotBlank(returns)) {
-                select += "\r\n RETURN " + returns;
-            }
+            QueryContext queryContext = requireContext(queryName);
+            cube = queryContext.getOlapQuery().getCube();
+            String select = drillthroughMdx(queryContext, cellPosition, maxrows, returns, priority);
             log.debug("Drill Through for query (" + queryName + ") : \r\n" + select);
-            return stmt.executeQuery(select);
+            try (AdmissionController.Permit permit = admit(cube.getConnection(), priority)) {
+                con = borrowConnection(cube);
+                stmt = con.createStatement();
+                return stmt.executeQuery(select);
+            }
         } catch (Exception e) {
             throw new SaikuServiceException("Error DRILLTHROUGH: " + queryName, e);
         } finally {
@@ -593,17 +1100,171 @@ public class ThinQueryService implements Serializable {
                 if (stmt != null) stmt.close();
             } catch (Exception e) {
             }
+            if (con != null) {
+                olapDiscoverService.releaseNativeConnection(cube.getConnection(), con);
+            }
         }
     }
 
 
+    /**
+     * Builds the drill through statement of a query.
+     */
+    private static String drillthroughMdx(ThinQuery query, int maxrows, String returns) {
+        String mdx = query.getMdx();
+        if (maxrows > 0) {
+            mdx = "DRILLTHROUGH MAXROWS " + maxrows + " " + mdx;
+        } else {
+            mdx = "DRILLTHROUGH " + mdx;
+        }
+        if (StringUtils.isNotBlank(returns)) {
+            mdx += "\r\n RETURN " + returns;
+        }
+        return mdx;
+    }
+
+    /**
+     * Builds the drill through statement of a cell of the last result of a query.
+     *
+     * @param cellPosition the position of the cell on every axis
+     */
+    private String drillthroughMdx(QueryContext queryContext, List<Integer> cellPosition, Integer maxrows,
+                                   String returns, AdmissionController.Priority priority) throws Exception {
+        ThinQuery query = queryContext.getOlapQuery();
+        CellSet cs = getResult(queryContext, priority);
+        SaikuCube cube = query.getCube();
+        SelectNode sn = (new DefaultMdxParserImpl().parseSelect(query.getMdx()));
+        StringBuilder buf = new StringBuilder();
+        if (sn.getWithList() != null && sn.getWithList().size() > 0) {
+            buf.append("WITH \n");
+            StringWriter sw = new StringWriter();
+            ParseTreeWriter ptw = new ParseTreeWriter(sw);
+            final PrintWriter pw = ptw.getPrintWriter();
+            for (ParseTreeNode with : sn.getWithList()) {
+                with.unparse(ptw);
+                pw.println();
+            }
+            buf.append(sw.toString());
+        }
+        buf.append("SELECT (");
+        for (int i = 0; i < cellPosition.size(); i++) {
+            List<Member> members = cs.getAxes().get(i).getPositions().get(cellPosition.get(i)).getMembers();
+            for (int k = 0; k < members.size(); k++) {
+                Member m = members.get(k);
+                if (k > 0 || i > 0) {
+                    buf.append(", ");
+                }
+                buf.append(m.getUniqueName());
+            }
+        }
+        buf.append(") ON COLUMNS \r\n");
+        buf.append("FROM [").append(cube.getName()).append("]\r\n");
+        final Writer writer = new StringWriter();
+        sn.getFilterAxis().unparse(new ParseTreeWriter(new PrintWriter(writer)));
+        if (StringUtils.isNotBlank(writer.toString())) {
+            buf.append("WHERE ").append(writer.toString());
+        }
+        String select = buf.toString();
+        if (maxrows > 0) {
+            select = "DRILLTHROUGH MAXROWS " + maxrows + " " + select + "\r\n";
+        } else {
+            select = "DRILLTHROUGH " + select + "\r\n";
+        }
+        if (StringUtils.isNotBlank(returns)) {
+            select += "\r\n RETURN " + returns;
+        }
+        return select;
+    }
+
+    /**
+     * Executes the drill through of a query, or of a cell of its last result, and keeps its result set open so that
+     * it can be read a page at a time with {@link #fetchDrillthrough}.
+     *
+     * @param cellPosition the position of the cell on every axis, null to drill through the whole query
+     * @throws SaikuServiceException if the user has too many drill throughs open or the statement fails
+     */
+    public DrillthroughCursor openDrillthrough(final String queryName, List<Integer> cellPosition, int maxrows,
+                                               String returns) {
+        final QueryContext queryContext = requireContext(queryName);
+        final SaikuCube cube = queryContext.getOlapQuery().getCube();
+        final String connection = cube.getConnection();
+        final String mdx;
+        try {
+            mdx = cellPosition == null
+                ? drillthroughMdx(queryContext.getOlapQuery(), maxrows, returns)
+                : drillthroughMdx(queryContext, cellPosition, maxrows, returns, AdmissionController.Priority.INTERACTIVE);
+        } catch (Exception e) {
+            throw new SaikuServiceException("Error DRILLTHROUGH: " + queryName, e);
+        }
+        log.debug("Drill Through cursor for query (" + queryName + ") : \r\n" + mdx);
+        return olapDiscoverService.getDrillthroughCursorManager().open(contexts().getOwner(), contexts().getUser(), queryName,
+            new DrillthroughCursorManager.Opener() {
+                // the connection is leased until the cursor is closed
+                private OlapConnection con;
+
+                public Statement createStatement() throws SQLException {
+                    con = borrowConnection(cube);
+                    try {
+                        return con.createStatement();
+                    } catch (SQLException | RuntimeException e) {
+                        olapDiscoverService.releaseNativeConnection(connection, con);
+                        throw e;
+                    }
+                }
+
+                public ResultSet execute(Statement statement) throws SQLException {
+                    // the permit is held while the statement executes, not while its rows are read
+                    try (AdmissionController.Permit permit = admit(connection, AdmissionController.Priority.INTERACTIVE)) {
+                        return statement.executeQuery(mdx);
+                    }
+                }
+
+                public void release(Statement statement) {
+                    olapDiscoverService.releaseNativeConnection(connection, con);
+                }
+            });
+    }
+
+    /**
+     * @return an open drill through cursor of this session, or null if there is none or it has been closed
+     */
+    public DrillthroughCursor getDrillthroughCursor(String id) {
+        DrillthroughCursor cursor = olapDiscoverService.getDrillthroughCursorManager().get(id);
+        return cursor != null && contexts().getOwner().equals(cursor.getSession()) ? cursor : null;
+    }
+
+    /**
+     * Reads the next page of a drill through cursor. The cursor is closed once its last row has been read.
+     *
+     * @return the number of rows read
+     */
+    public int fetchDrillthrough(DrillthroughCursor cursor, int rows, DrillthroughCursor.RowHandler handler)
+        throws SQLException, IOException {
+        return olapDiscoverService.getDrillthroughCursorManager().fetch(cursor, rows, handler);
+    }
+
+    /**
+     * Cancels and closes a drill through cursor of this session.
+     *
+     * @return false if there is no such cursor
+     */
+    public boolean closeDrillthrough(String id) {
+        DrillthroughCursor cursor = getDrillthroughCursor(id);
+        if (cursor == null) {
+            return false;
+        }
+        olapDiscoverService.getDrillthroughCursorManager().close(cursor);
+        return true;
+    }
+
     public byte[] exportDrillthroughCsv(String queryName, int maxrows) {
+        SaikuCube cube = null;
+        OlapConnection con = null;
         OlapStatement stmt = null;
         try {
-            QueryContext queryContext = context.get(queryName);
+            QueryContext queryContext = requireContext(queryName);
             ThinQuery query = queryContext.getOlapQuery();
-            final OlapConnection con = olapDiscoverService.getNativeConnection(query.getCube().getConnection());
-            stmt = con.createStatement();
+            cube = query.getCube();
             String mdx = query.getMdx();
             if (maxrows > 0) {
                 mdx = "DRILLTHROUGH MAXROWS " + maxrows + " " + mdx;
@@ -611,7 +1272,12 @@ public class ThinQueryService implements Serializable {
                 mdx = "DRILLTHROUGH " + mdx;
             }
 
-            ResultSet rs = stmt.executeQuery(mdx);
+            ResultSet rs;
+            try (AdmissionController.Permit permit = admit(cube.getConnection(), AdmissionController.Priority.EXPORT)) {
+                con = borrowConnection(cube);
+                stmt = con.createStatement();
+                rs = stmt.executeQuery(mdx);
+            }
             return CsvExporter.exportCsv(rs);
         } catch (SQLException e) {
             throw new SaikuServiceException("Error DRILLTHROUGH: " + queryName, e);
@@ -620,6 +1286,9 @@ public class ThinQueryService implements Serializable {
                 if (stmt != null) stmt.close();
             } catch (Exception e) {
             }
+            if (con != null) {
+                olapDiscoverService.releaseNativeConnection(cube.getConnection(), con);
+            }
         }
 
     }
@@ -628,6 +1297,16 @@ public class ThinQueryService implements Serializable {
         return CsvExporter.exportCsv(rs);
     }
 
+    /**
+     * Writes the rows of a result set as CSV to the output, one row at a time. The result set is not closed.
+     */
+    public void exportResultSetCsv(ResultSet rs, OutputStream output) throws SQLException, IOException {
+        Writer writer = CsvExporter.newWriter(output);
+        CsvExporter.write(rs, SaikuProperties.webExportCsvDelimiter, SaikuProperties.webExportCsvTextEscape, true,
+            null, writer);
+        writer.flush();
+    }
+
     public byte[] exportResultSetCsv(ResultSet rs, String delimiter, String enclosing, boolean printHeader, List<KeyValue<String, String>> additionalColumns) {
         return CsvExporter.exportCsv(rs, delimiter, enclosing, printHeader, additionalColumns);
     }
@@ -641,8 +1320,14 @@ public class ThinQueryService implements Serializable {
             String searchString,
             int searchLimit) {
 
-        if (context.containsKey(queryName)) {
-            CellSet cs = context.get(queryName).getOlapResult();
+        QueryContext qc = contexts().get(queryName);
+        if (qc != null) {
+            CellSet cs;
+            try {
+                cs = getResult(qc);
+            } catch (Exception e) {
+                throw new SaikuServiceException("Cannot execute query: " + queryName, e);
+            }
             List<SimpleCubeElement> members = new ArrayList<>();
             Set<Level> levels = new HashSet<>();
             boolean search = StringUtils.isNotBlank(searchString);
@@ -682,7 +1367,7 @@ public class ThinQueryService implements Serializable {
 
             }
             if (cs == null || !preferResult || members.size() == 0 || levels.size() == 1) {
-                members = olapDiscoverService.getLevelMembers(context.get(queryName).getOlapQuery().getCube(), hierarchyName, levelName, searchString, searchLimit);
+                members = olapDiscoverService.getLevelMembers(qc.getOlapQuery().getCube(), hierarchyName, levelName, searchString, searchLimit);
             }
             return members;
         }
@@ -692,7 +1377,16 @@ public class ThinQueryService implements Serializable {
     private void calculateTotals(ThinQuery tq, CellDataSet result, CellSet cellSet, ICellSetFormatter formatter) throws Exception {
         if (ThinQuery.Type.QUERYMODEL.equals(tq.getType()) && formatter instanceof FlattenedCellSetFormatter) {
             Cube cub = olapDiscoverService.getNativeCube(tq.getCube());
-            Query query = Fat.convert(tq, cub);
+            CompiledQueryCache cache = olapDiscoverService.getCompiledQueryCache();
+            QueryContext qc = contexts().get(tq.getName());
+            Object compiled = qc != null ? qc.get(ObjectKey.COMPILED_QUERY) : null;
+            CompiledQueryCache.Key key = compiled instanceof CompiledQueryCache.Key
+                    ? (CompiledQueryCache.Key) compiled : null;
+            Query query = cache.getTotalsQuery(key, cub);
+            if (query == null) {
+                query = Fat.convert(tq, cub);
+                cache.putTotalsQuery(key, cub, query);
+            }
 
             QueryDetails details = query.getDetails();
             Measure[] selectedMeasures = new Measure[details.getMeasures().size()];
@@ -706,8 +1400,7 @@ public class ThinQueryService implements Serializable {
             }
             // TODO - refactor this using axis ordinals etc.
             final AxisInfo[] axisInfos = new AxisInfo[]{new AxisInfo(cellSet.getAxes().get(rowsIndex)), new AxisInfo(cellSet.getAxes().get((rowsIndex + 1) & 1))};
-            List<TotalNode>[][] totals = new List[2][];
-            TotalsListsBuilder builder = null;
+            TotalsListsBuilder[] builders = new TotalsListsBuilder[2];
             for (int index = 0; index < 2; index++) {
                 final int second = (index + 1) & 1;
                 TotalAggregator[] aggregators = new TotalAggregator[axisInfos[second].maxDepth + 1];
@@ -719,9 +1412,9 @@ public class ThinQueryService implements Serializable {
                 List<String> aggs = query.getAggregators(axisInfos[second].axis.getAxisOrdinal().name());
                 String totalFunctionName = aggs != null && aggs.size() > 0 ? aggs.get(0) : null;
                 aggregators[0] = StringUtils.isNotBlank(totalFunctionName) ? TotalAggregator.newInstanceByFunctionName(totalFunctionName) : null;
-                builder = new TotalsListsBuilder(selectedMeasures, aggregators, cellSet, axisInfos[index], axisInfos[second], tq);
-                totals[index] = builder.buildTotalsLists();
+                builders[index] = new TotalsListsBuilder(selectedMeasures, aggregators, cellSet, axisInfos[index], axisInfos[second], tq);
             }
+            List<TotalNode>[][] totals = TotalsListsBuilder.buildTotalsLists(builders[0], builders[1]);
             result.setLeftOffset(axisInfos[0].maxDepth);
             result.setRowTotalsLists(totals[1]);
             result.setColTotalsLists(totals[0]);
@@ -731,9 +1424,9 @@ public class ThinQueryService implements Serializable {
     public ThinQuery zoomIn(String queryName, List<List<Integer>> realPositions) {
 
         try {
-            if (context.containsKey(queryName)) {
-                CellSet cs = context.get(queryName).getOlapResult();
-                ThinQuery old = context.get(queryName).getOlapQuery();
+            if (contexts().containsKey(queryName)) {
+                CellSet cs = getResult(contexts().get(queryName));
+                ThinQuery old = contexts().get(queryName).getOlapQuery();
                 Cube cub = olapDiscoverService.getNativeCube(old.getCube());
                 Query q = Fat.convert(old, cub);
 
@@ -787,10 +1480,11 @@ public class ThinQueryService implements Serializable {
 
     public ThinQuery drillacross(String queryName, List<Integer> cellPosition, Map<String, List<String>> levels) {
         try {
-            ThinQuery old = context.get(queryName).getOlapQuery();
+            QueryContext qc = requireContext(queryName);
+            ThinQuery old = qc.getOlapQuery();
             Cube cub = olapDiscoverService.getNativeCube(old.getCube());
             Query query = Fat.convert(old, cub);
-            CellSet cs = context.get(queryName).getOlapResult();
+            CellSet cs = getResult(qc);
 
 
             Set<Level> levelSet = new HashSet<>();
@@ -878,8 +1572,13 @@ public class ThinQueryService implements Serializable {
         if (StringUtils.isNotBlank(xml) && xml.trim().startsWith("<?xml")) {
             QueryDeserializer qd = new QueryDeserializer();
             SaikuCube scube = qd.getFakeCube(xml);
-            OlapConnection con = olapDiscoverService.getNativeConnection(scube.getConnection());
-            IQuery query = qd.unparse(xml, con);
+            OlapConnection con = borrowConnection(scube);
+            IQuery query;
+            try {
+                query = qd.unparse(xml, con);
+            } finally {
+                olapDiscoverService.releaseNativeConnection(scube.getConnection(), con);
+            }
 
             if (QueryType.QM.equals(query.getType())) {
                 OlapQuery qr = (OlapQuery) query;
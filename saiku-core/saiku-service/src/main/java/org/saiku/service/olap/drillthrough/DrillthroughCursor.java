@@ -0,0 +1,223 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap.drillthrough;
+
+import org.saiku.service.util.export.ResultSetHelper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The open result set of a drill through, read a page at a time by the {@link DrillthroughCursorManager}.
+ *
+ * <p>The statement and its result set stay open between pages. They are closed once the last row has been read, when
+ * the cursor is cancelled, or when it has not been read from for longer than the idle timeout, and the statement is
+ * then released through the {@link DrillthroughCursorManager.Opener} that created it.</p>
+ */
+public class DrillthroughCursor {
+
+  private static final Logger log = LoggerFactory.getLogger( DrillthroughCursor.class );
+
+  /**
+   * Receives the rows of a page.
+   */
+  public interface RowHandler {
+    /**
+     * @param row the values of the row, formatted like the rows of a drill through export. The array is reused for
+     *            the next row.
+     */
+    void handleRow( String[] row ) throws IOException;
+  }
+
+  private final String id;
+
+  private final String session;
+
+  private final String user;
+
+  private final String queryName;
+
+  private final DrillthroughCursorManager.Opener opener;
+
+  private final Statement statement;
+
+  private final ResultSet resultSet;
+
+  private final String[] columns;
+
+  private final int[] columnTypes;
+
+  private final ResultSetHelper helper = new ResultSetHelper();
+
+  private volatile long position;
+
+  private volatile boolean done;
+
+  private volatile boolean closed;
+
+  private boolean released;
+
+  private volatile boolean reading;
+
+  private volatile long lastAccess = System.currentTimeMillis();
+
+  DrillthroughCursor( String id, String session, String user, String queryName, DrillthroughCursorManager.Opener opener,
+                      Statement statement, ResultSet resultSet ) throws SQLException {
+    this.id = id;
+    this.session = session;
+    this.user = user;
+    this.queryName = queryName;
+    this.opener = opener;
+    this.statement = statement;
+    this.resultSet = resultSet;
+    final ResultSetMetaData metaData = resultSet.getMetaData();
+    this.columns = new String[ metaData.getColumnCount() ];
+    this.columnTypes = new int[ columns.length ];
+    for ( int i = 0; i < columns.length; i++ ) {
+      columns[ i ] = metaData.getColumnLabel( i + 1 );
+      columnTypes[ i ] = metaData.getColumnType( i + 1 );
+    }
+  }
+
+  /**
+   * Reads the next rows. The cursor is closed once it has read the last row.
+   *
+   * @param rows    the maximum number of rows to read
+   * @param handler receives every row read
+   * @return the number of rows read, 0 once the cursor is done or closed
+   */
+  public synchronized int fetch( int rows, RowHandler handler ) throws SQLException, IOException {
+    if ( closed || done ) {
+      return 0;
+    }
+    reading = true;
+    try {
+      final String[] row = new String[ columns.length ];
+      int read = 0;
+      while ( read < rows ) {
+        if ( closed || !resultSet.next() ) {
+          done = !closed;
+          break;
+        }
+        for ( int i = 0; i < row.length; i++ ) {
+          final String value = helper.getValue( resultSet, columnTypes[ i ], i + 1 );
+          row[ i ] = value != null ? value : "";
+        }
+        handler.handleRow( row );
+        read++;
+      }
+      position += read;
+      return read;
+    } finally {
+      reading = false;
+      lastAccess = System.currentTimeMillis();
+      if ( done ) {
+        close();
+      }
+    }
+  }
+
+  /**
+   * Stops the statement, if a page is being read it ends early, and closes the cursor.
+   */
+  public void cancel() {
+    if ( closed ) {
+      return;
+    }
+    closed = true;
+    try {
+      statement.cancel();
+    } catch ( Exception e ) {
+      log.debug( "Cannot cancel drill through of query " + queryName, e );
+    }
+    close();
+  }
+
+  /**
+   * Closes the result set and its statement, and releases the statement the first time.
+   */
+  synchronized void close() {
+    closed = true;
+    try {
+      resultSet.close();
+    } catch ( Exception e ) {
+      log.debug( "Cannot close drill through result of query " + queryName, e );
+    }
+    try {
+      statement.close();
+    } catch ( Exception e ) {
+      log.debug( "Cannot close drill through statement of query " + queryName, e );
+    }
+    if ( !released ) {
+      released = true;
+      opener.release( statement );
+    }
+  }
+
+  /**
+   * @return whether the cursor has not been read from for longer than the timeout, pages being read do not expire
+   */
+  boolean isIdle( long now, long timeout ) {
+    return !reading && now - lastAccess > timeout;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getSession() {
+    return session;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public String getQueryName() {
+    return queryName;
+  }
+
+  /**
+   * @return the labels of the columns
+   */
+  public String[] getColumns() {
+    return columns.clone();
+  }
+
+  /**
+   * @return the number of rows read so far
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * @return whether the last row has been read
+   */
+  public boolean isDone() {
+    return done;
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+}
@@ -0,0 +1,273 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap.drillthrough;
+
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.service.util.exception.SaikuServiceException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link DrillthroughCursor}s of all sessions, so that large drill throughs can be read a page at a time.
+ *
+ * <p>Statements are executed with a fetch size of <code>saiku.olap.drillthrough.fetchsize</code> rows, so that the
+ * driver does not load the whole result at once. A user can have at most
+ * <code>saiku.olap.drillthrough.maxcursorsperuser</code> cursors open, further ones are rejected. Cursors that have not
+ * been read from for <code>saiku.olap.drillthrough.idletimeout</code> seconds are closed.</p>
+ */
+public class DrillthroughCursorManager {
+
+  private static final Logger log = LoggerFactory.getLogger( DrillthroughCursorManager.class );
+
+  /**
+   * Executes the drill through of a cursor.
+   */
+  public interface Opener {
+    Statement createStatement() throws SQLException;
+
+    ResultSet execute( Statement statement ) throws SQLException;
+
+    /**
+     * Called once the statement has been closed, e.g. to give its connection back to the pool.
+     */
+    void release( Statement statement );
+  }
+
+  private final int maxPerUser;
+
+  private final long idleTimeout;
+
+  private final int fetchSize;
+
+  private final ConcurrentMap<String, DrillthroughCursor> cursors = new ConcurrentHashMap<>();
+
+  /**
+   * Cursors open or being opened by user.
+   */
+  private final Map<String, Integer> counts = new HashMap<>();
+
+  private ScheduledExecutorService reaper;
+
+  public DrillthroughCursorManager() {
+    this( SaikuProperties.olapDrillthroughMaxCursorsPerUser, SaikuProperties.olapDrillthroughIdleTimeout,
+      SaikuProperties.olapDrillthroughFetchSize );
+  }
+
+  /**
+   * @param maxPerUser         maximum number of open cursors of one user, 0 or less for no limit
+   * @param idleTimeoutSeconds seconds a cursor is kept open without being read from
+   * @param fetchSize          rows the driver fetches at a time, 0 or less to leave it to the driver
+   */
+  public DrillthroughCursorManager( int maxPerUser, int idleTimeoutSeconds, int fetchSize ) {
+    this.maxPerUser = maxPerUser;
+    this.idleTimeout = TimeUnit.SECONDS.toMillis( Math.max( 1, idleTimeoutSeconds ) );
+    this.fetchSize = fetchSize;
+  }
+
+  /**
+   * Executes a drill through and keeps its result set open.
+   *
+   * @param session   id of the opening session, only this session can read the cursor
+   * @param user      the user the cursor counts against
+   * @param queryName the name of the query drilled through
+   * @throws SaikuServiceException if the user has too many cursors open or the statement fails
+   */
+  public DrillthroughCursor open( String session, String user, String queryName, Opener opener ) {
+    reserve( user );
+    Statement statement = null;
+    try {
+      statement = opener.createStatement();
+      if ( fetchSize > 0 ) {
+        try {
+          statement.setFetchSize( fetchSize );
+        } catch ( SQLException e ) {
+          log.debug( "Cannot set fetch size of drill through of query " + queryName, e );
+        }
+      }
+      ResultSet resultSet = opener.execute( statement );
+      DrillthroughCursor cursor =
+        new DrillthroughCursor( UUID.randomUUID().toString(), session, user, queryName, opener, statement, resultSet );
+      cursors.put( cursor.getId(), cursor );
+      reaper();
+      return cursor;
+    } catch ( Exception e ) {
+      release( user );
+      if ( statement != null ) {
+        try {
+          statement.close();
+        } catch ( Exception ee ) {
+          log.debug( "Cannot close drill through statement of query " + queryName, ee );
+        }
+        opener.release( statement );
+      }
+      if ( e instanceof SaikuServiceException ) {
+        throw (SaikuServiceException) e;
+      }
+      throw new SaikuServiceException( "Error DRILLTHROUGH: " + queryName, e );
+    }
+  }
+
+  /**
+   * @return the cursor, or null if there is none or it has been closed
+   */
+  public DrillthroughCursor get( String id ) {
+    return id != null ? cursors.get( id ) : null;
+  }
+
+  /**
+   * @return the open cursors of a session
+   */
+  public List<DrillthroughCursor> getCursors( String session ) {
+    List<DrillthroughCursor> list = new ArrayList<>();
+    for ( DrillthroughCursor cursor : cursors.values() ) {
+      if ( cursor.getSession().equals( session ) ) {
+        list.add( cursor );
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Reads the next page of a cursor, the cursor is forgotten once it is done.
+   *
+   * @return the number of rows read
+   */
+  public int fetch( DrillthroughCursor cursor, int rows, DrillthroughCursor.RowHandler handler )
+    throws SQLException, IOException {
+    try {
+      return cursor.fetch( rows, handler );
+    } catch ( SQLException | IOException | RuntimeException e ) {
+      // a cursor that failed cannot be read any further
+      cursor.close();
+      throw e;
+    } finally {
+      if ( cursor.isClosed() ) {
+        forget( cursor );
+      }
+    }
+  }
+
+  /**
+   * Cancels the statement of a cursor and forgets it.
+   */
+  public void close( DrillthroughCursor cursor ) {
+    cursor.cancel();
+    forget( cursor );
+  }
+
+  /**
+   * Closes all cursors of a session.
+   */
+  public void closeAll( String session ) {
+    for ( DrillthroughCursor cursor : getCursors( session ) ) {
+      close( cursor );
+    }
+  }
+
+  public int getCursorCount() {
+    return cursors.size();
+  }
+
+  /**
+   * Stops the reaper and closes all cursors.
+   */
+  public void shutdown() {
+    synchronized ( this ) {
+      if ( reaper != null ) {
+        reaper.shutdownNow();
+        reaper = null;
+      }
+    }
+    for ( DrillthroughCursor cursor : cursors.values() ) {
+      close( cursor );
+    }
+  }
+
+  /**
+   * Closes the cursors that have not been read from for longer than the idle timeout.
+   */
+  void sweep() {
+    long now = System.currentTimeMillis();
+    for ( DrillthroughCursor cursor : cursors.values() ) {
+      if ( cursor.isIdle( now, idleTimeout ) ) {
+        log.debug( "Drill through cursor " + cursor.getId() + " of query " + cursor.getQueryName() + " expired" );
+        close( cursor );
+      }
+    }
+  }
+
+  private synchronized void reserve( String user ) {
+    Integer count = counts.get( user );
+    if ( maxPerUser > 0 && count != null && count >= maxPerUser ) {
+      throw new SaikuServiceException( "Too many drill throughs of user " + user + " open, close one and try again" );
+    }
+    counts.put( user, count != null ? count + 1 : 1 );
+  }
+
+  private synchronized void release( String user ) {
+    Integer count = counts.get( user );
+    if ( count == null || count <= 1 ) {
+      counts.remove( user );
+    } else {
+      counts.put( user, count - 1 );
+    }
+  }
+
+  private void forget( DrillthroughCursor cursor ) {
+    if ( cursors.remove( cursor.getId(), cursor ) ) {
+      release( cursor.getUser() );
+    }
+  }
+
+  private synchronized void reaper() {
+    if ( reaper == null ) {
+      reaper = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+        public Thread newThread( Runnable r ) {
+          Thread thread = new Thread( r, "saiku-drillthrough-reaper" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+      long period = Math.max( 1000, idleTimeout / 4 );
+      reaper.scheduleWithFixedDelay( new Runnable() {
+        public void run() {
+          try {
+            sweep();
+          } catch ( Exception e ) {
+            log.warn( "Cannot close idle drill through cursors", e );
+          }
+        }
+      }, period, period, TimeUnit.MILLISECONDS );
+    }
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap.jobs;
+
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.query2.ThinQuery;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.context.SecurityContext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A query executed in the background by the {@link QueryJobManager}.
+ *
+ * <p>A job is queued, then running while its task goes through the {@link Phase}s of an execution, and finally done,
+ * failed or cancelled. The time spent in every phase can be read while the job is running. The result of a job that is
+ * done is kept until the job expires.</p>
+ */
+public class QueryJob {
+
+  private static final Logger log = LoggerFactory.getLogger( QueryJob.class );
+
+  public enum State {
+    QUEUED, RUNNING, DONE, FAILED, CANCELLED;
+
+    public boolean isFinished() {
+      return this == DONE || this == FAILED || this == CANCELLED;
+    }
+  }
+
+  public enum Phase {
+    EXECUTE, FORMAT, TOTALS
+  }
+
+  /**
+   * The work of a job.
+   */
+  public interface Task {
+    /**
+     * Executes the query, calling {@link QueryJob#enterPhase(Phase)} when a phase starts.
+     */
+    CellDataSet run( QueryJob job ) throws Exception;
+
+    /**
+     * Stops the running query, called on the thread cancelling the job.
+     */
+    void cancel( QueryJob job ) throws Exception;
+  }
+
+  private final String id;
+
+  private final String session;
+
+  private final String user;
+
+  private final String queryName;
+
+  private final Task task;
+
+  private final SecurityContext securityContext;
+
+  private final long submitted = System.currentTimeMillis();
+
+  private final long[] phaseNanos = new long[ Phase.values().length ];
+
+  private State state = State.QUEUED;
+
+  private Phase phase;
+
+  private long phaseStart;
+
+  private long started;
+
+  private long finished;
+
+  private CellDataSet result;
+
+  private ThinQuery query;
+
+  private String error;
+
+  QueryJob( String id, String session, String user, String queryName, Task task, SecurityContext securityContext ) {
+    this.id = id;
+    this.session = session;
+    this.user = user;
+    this.queryName = queryName;
+    this.task = task;
+    this.securityContext = securityContext;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * @return the id of the session that submitted the job
+   */
+  public String getSession() {
+    return session;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public String getQueryName() {
+    return queryName;
+  }
+
+  /**
+   * @return the security context of the thread that submitted the job, the task runs with it
+   */
+  SecurityContext getSecurityContext() {
+    return securityContext;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return the phase the job is in, or was in when it finished, null before it started
+   */
+  public synchronized Phase getPhase() {
+    return phase;
+  }
+
+  public long getSubmitted() {
+    return submitted;
+  }
+
+  /**
+   * @return when the job started running, 0 if it has not
+   */
+  public synchronized long getStarted() {
+    return started;
+  }
+
+  /**
+   * @return when the job finished, 0 if it has not
+   */
+  public synchronized long getFinished() {
+    return finished;
+  }
+
+  /**
+   * @return the milliseconds spent in every phase the job has entered, including the running one
+   */
+  public synchronized Map<Phase, Long> getPhaseTimes() {
+    Map<Phase, Long> times = new LinkedHashMap<>();
+    for ( Phase p : Phase.values() ) {
+      long nanos = phaseNanos[ p.ordinal() ];
+      if ( p == phase && !state.isFinished() ) {
+        nanos += System.nanoTime() - phaseStart;
+      }
+      if ( nanos > 0 || p == phase ) {
+        times.put( p, TimeUnit.NANOSECONDS.toMillis( nanos ) );
+      }
+    }
+    return times;
+  }
+
+  /**
+   * @return the result of a job that is done, null otherwise
+   */
+  public synchronized CellDataSet getResult() {
+    return state == State.DONE ? result : null;
+  }
+
+  /**
+   * @return the query as it was executed, if the task has set it
+   */
+  public synchronized ThinQuery getQuery() {
+    return query;
+  }
+
+  public synchronized void setQuery( ThinQuery query ) {
+    this.query = query;
+  }
+
+  /**
+   * @return the message of the root cause of a failed job
+   */
+  public synchronized String getError() {
+    return error;
+  }
+
+  /**
+   * Records the end of the current phase and the start of the next one.
+   */
+  public synchronized void enterPhase( Phase next ) {
+    endPhase();
+    phase = next;
+    phaseStart = System.nanoTime();
+  }
+
+  private void endPhase() {
+    if ( phase != null ) {
+      phaseNanos[ phase.ordinal() ] += System.nanoTime() - phaseStart;
+    }
+  }
+
+  /**
+   * Runs the task of a queued job on the calling thread.
+   */
+  void run() {
+    synchronized ( this ) {
+      if ( state != State.QUEUED ) {
+        return;
+      }
+      state = State.RUNNING;
+      started = System.currentTimeMillis();
+    }
+    CellDataSet cellDataSet = null;
+    String failure = null;
+    try {
+      cellDataSet = task.run( this );
+    } catch ( Exception | Error e ) {
+      failure = ExceptionUtils.getRootCauseMessage( e );
+      synchronized ( this ) {
+        if ( state != State.CANCELLED ) {
+          log.error( "Query job " + id + " of query " + queryName + " failed", e );
+        }
+      }
+    }
+    synchronized ( this ) {
+      endPhase();
+      if ( state == State.CANCELLED ) {
+        return;
+      }
+      finished = System.currentTimeMillis();
+      if ( failure == null ) {
+        result = cellDataSet;
+        state = State.DONE;
+      } else {
+        error = failure;
+        state = State.FAILED;
+      }
+    }
+  }
+
+  /**
+   * Cancels the job, stopping its task if it is running.
+   *
+   * @return false if the job had already finished
+   */
+  boolean cancel() {
+    boolean running;
+    synchronized ( this ) {
+      if ( state.isFinished() ) {
+        return false;
+      }
+      running = state == State.RUNNING;
+      state = State.CANCELLED;
+      finished = System.currentTimeMillis();
+    }
+    if ( running ) {
+      try {
+        task.cancel( this );
+      } catch ( Exception e ) {
+        log.warn( "Could not stop query job " + id + " of query " + queryName, e );
+      }
+    }
+    return true;
+  }
+}
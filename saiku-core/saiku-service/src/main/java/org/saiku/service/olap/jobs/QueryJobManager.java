@@ -0,0 +1,276 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.olap.jobs;
+
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.service.util.exception.SaikuServiceException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link QueryJob}s of all sessions on a bounded number of threads.
+ *
+ * <p>At most <code>saiku.olap.jobs.threads</code> jobs run at once. Waiting jobs are queued per user and the users take
+ * turns, so a user submitting many queries does not hold up the queries of the others. At most
+ * <code>saiku.olap.jobs.maxqueued</code> jobs, and <code>saiku.olap.jobs.maxqueuedperuser</code> jobs of one user, can
+ * wait; further jobs are rejected. Finished jobs, and the results of those that are done, are kept for
+ * <code>saiku.olap.jobs.ttl</code> seconds.</p>
+ */
+public class QueryJobManager {
+
+  private static final Logger log = LoggerFactory.getLogger( QueryJobManager.class );
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final int threads;
+
+  private final int maxQueued;
+
+  private final int maxQueuedPerUser;
+
+  private final long ttl;
+
+  private final ConcurrentMap<String, QueryJob> jobs = new ConcurrentHashMap<>();
+
+  /**
+   * Waiting jobs by user, the user whose turn it is first.
+   */
+  private final LinkedHashMap<String, Deque<QueryJob>> queues = new LinkedHashMap<>();
+
+  private int queued;
+
+  private ExecutorService executor;
+
+  public QueryJobManager() {
+    this( SaikuProperties.olapJobsThreads, SaikuProperties.olapJobsMaxQueued, SaikuProperties.olapJobsMaxQueuedPerUser,
+      SaikuProperties.olapJobsTtl );
+  }
+
+  /**
+   * @param threads          jobs running at once
+   * @param maxQueued        maximum number of waiting jobs, 0 or less for no limit
+   * @param maxQueuedPerUser maximum number of waiting jobs of one user, 0 or less for no limit
+   * @param ttlSeconds       seconds a finished job is kept
+   */
+  public QueryJobManager( int threads, int maxQueued, int maxQueuedPerUser, int ttlSeconds ) {
+    this.threads = Math.max( 1, threads );
+    this.maxQueued = maxQueued;
+    this.maxQueuedPerUser = maxQueuedPerUser;
+    this.ttl = TimeUnit.SECONDS.toMillis( Math.max( 0, ttlSeconds ) );
+  }
+
+  /**
+   * Queues a job, its task runs with the authentication of the calling thread.
+   *
+   * @param session   id of the submitting session, only this session can see the job
+   * @param user      the user the job is queued for
+   * @param queryName the name of the query the job executes
+   * @throws SaikuServiceException if too many jobs are waiting
+   */
+  public QueryJob submit( String session, String user, String queryName, QueryJob.Task task ) {
+    sweep();
+    // the job runs as the user that submitted it, connections and sessions are looked up by the security context
+    SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+    securityContext.setAuthentication( SecurityContextHolder.getContext().getAuthentication() );
+    QueryJob job = new QueryJob( UUID.randomUUID().toString(), session, user, queryName, task, securityContext );
+    synchronized ( this ) {
+      Deque<QueryJob> queue = queues.get( user );
+      if ( maxQueued > 0 && queued >= maxQueued ) {
+        throw new SaikuServiceException( "Too many queries waiting, try again later" );
+      }
+      if ( maxQueuedPerUser > 0 && queue != null && queue.size() >= maxQueuedPerUser ) {
+        throw new SaikuServiceException( "Too many queries of user " + user + " waiting, try again later" );
+      }
+      if ( queue == null ) {
+        queue = new ArrayDeque<>();
+        queues.put( user, queue );
+      }
+      queue.add( job );
+      queued++;
+      jobs.put( job.getId(), job );
+      // every job submits one turn, a turn runs the next job of whichever user is first
+      executor().execute( new Runnable() {
+        public void run() {
+          runNext();
+        }
+      } );
+    }
+    return job;
+  }
+
+  /**
+   * @return the job, or null if there is none or it has expired
+   */
+  public QueryJob get( String id ) {
+    sweep();
+    return id != null ? jobs.get( id ) : null;
+  }
+
+  /**
+   * @return the jobs of a session, in no particular order
+   */
+  public List<QueryJob> getJobs( String session ) {
+    sweep();
+    List<QueryJob> owned = new ArrayList<>();
+    for ( QueryJob job : jobs.values() ) {
+      if ( job.getSession().equals( session ) ) {
+        owned.add( job );
+      }
+    }
+    return owned;
+  }
+
+  /**
+   * Cancels a job, a cancelled job is kept until it expires.
+   *
+   * @return false if the job had already finished
+   */
+  public boolean cancel( QueryJob job ) {
+    dequeue( job );
+    return job.cancel();
+  }
+
+  /**
+   * Cancels and forgets a job.
+   */
+  public void remove( QueryJob job ) {
+    cancel( job );
+    jobs.remove( job.getId(), job );
+  }
+
+  /**
+   * Cancels and forgets all jobs of a session.
+   */
+  public void removeAll( String session ) {
+    for ( QueryJob job : getJobs( session ) ) {
+      remove( job );
+    }
+  }
+
+  public synchronized int getQueuedCount() {
+    return queued;
+  }
+
+  public int getRunningCount() {
+    int running = 0;
+    for ( QueryJob job : jobs.values() ) {
+      if ( job.getState() == QueryJob.State.RUNNING ) {
+        running++;
+      }
+    }
+    return running;
+  }
+
+  public int getJobCount() {
+    return jobs.size();
+  }
+
+  /**
+   * Stops the threads, running jobs are interrupted.
+   */
+  public synchronized void shutdown() {
+    if ( executor != null ) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private void runNext() {
+    QueryJob job = next();
+    if ( job != null ) {
+      SecurityContextHolder.setContext( job.getSecurityContext() );
+      try {
+        job.run();
+      } finally {
+        SecurityContextHolder.clearContext();
+      }
+    }
+  }
+
+  /**
+   * Takes the first job of the user whose turn it is, the user then goes to the end of the line.
+   */
+  synchronized QueryJob next() {
+    Iterator<Map.Entry<String, Deque<QueryJob>>> it = queues.entrySet().iterator();
+    if ( !it.hasNext() ) {
+      return null;
+    }
+    Map.Entry<String, Deque<QueryJob>> first = it.next();
+    Deque<QueryJob> queue = first.getValue();
+    QueryJob job = queue.poll();
+    it.remove();
+    if ( !queue.isEmpty() ) {
+      queues.put( first.getKey(), queue );
+    }
+    queued--;
+    return job;
+  }
+
+  private synchronized void dequeue( QueryJob job ) {
+    Deque<QueryJob> queue = queues.get( job.getUser() );
+    if ( queue != null && queue.remove( job ) ) {
+      queued--;
+      if ( queue.isEmpty() ) {
+        queues.remove( job.getUser() );
+      }
+    }
+  }
+
+  /**
+   * Forgets the jobs that finished longer ago than the time to live.
+   */
+  private void sweep() {
+    long now = System.currentTimeMillis();
+    for ( QueryJob job : jobs.values() ) {
+      long finished = job.getFinished();
+      if ( finished > 0 && now - finished > ttl && jobs.remove( job.getId(), job ) ) {
+        log.debug( "Query job " + job.getId() + " of query " + job.getQueryName() + " expired" );
+      }
+    }
+  }
+
+  private synchronized ExecutorService executor() {
+    if ( executor == null ) {
+      executor = Executors.newFixedThreadPool( threads, new ThreadFactory() {
+        public Thread newThread( Runnable r ) {
+          Thread thread = new Thread( r, "saiku-query-job-" + THREAD_COUNT.incrementAndGet() );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+    }
+    return executor;
+  }
+}
@@ -0,0 +1,184 @@
+package org.saiku.service.olap.totals;
+
+import org.saiku.service.olap.totals.aggregators.AvgAggregator;
+import org.saiku.service.olap.totals.aggregators.TotalFunction;
+import org.saiku.service.olap.totals.aggregators.TotalValue;
+
+import org.olap4j.Cell;
+
+import mondrian.util.Format;
+
+/**
+ * The totals of one {@link TotalNode}, accumulated in primitive columns.
+ *
+ * <p>Every total is a slot <code>member * count + index</code> holding its function, its format, the running value
+ * (sum, minimum or maximum) and the number of values added. Nothing is formatted until a total is read, and
+ * {@link TotalValue} views are only created for callers asking for {@link #toValues()}.</p>
+ */
+class TotalColumns {
+  private final int members;
+  private final int count;
+  private final TotalFunction[] functions;
+  private final Format[] formats;
+  private final double[] values;
+  private final long[] counts;
+  private String[] formattedValues;
+
+  TotalColumns( int members, int count ) {
+    this.members = members;
+    this.count = count;
+    int size = members * count;
+    functions = new TotalFunction[ size ];
+    formats = new Format[ size ];
+    values = new double[ size ];
+    counts = new long[ size ];
+  }
+
+  int getMembers() {
+    return members;
+  }
+
+  int getCount() {
+    return count;
+  }
+
+  void set( int member, int index, TotalFunction function, Format format ) {
+    int slot = member * count + index;
+    functions[ slot ] = function;
+    formats[ slot ] = format;
+  }
+
+  TotalFunction getFunction( int member, int index ) {
+    return functions[ member * count + index ];
+  }
+
+  /**
+   * Adds the value of a cell, cells without a numeric value are ignored.
+   */
+  void add( int member, int index, Cell cell ) {
+    Object value = cell.getValue();
+    if ( value instanceof Number ) {
+      add( member, index, ( (Number) value ).doubleValue(), cell );
+    }
+  }
+
+  /**
+   * Adds the numeric value of a cell, the cell is only looked at again for averages.
+   */
+  void add( int member, int index, double value, Cell cell ) {
+    int slot = member * count + index;
+    TotalFunction function = functions[ slot ];
+    if ( function == null ) {
+      return;
+    }
+    switch ( function ) {
+    case SUM:
+      values[ slot ] += value;
+      counts[ slot ]++;
+      break;
+    case MAX:
+      if ( counts[ slot ]++ == 0 || values[ slot ] < value ) {
+        values[ slot ] = value;
+      }
+      break;
+    case MIN:
+      if ( counts[ slot ]++ == 0 || values[ slot ] > value ) {
+        values[ slot ] = value;
+      }
+      break;
+    case AVG:
+      long rows = AvgAggregator.getDrillthroughCount( cell );
+      if ( rows > -1 ) {
+        counts[ slot ] += rows;
+        values[ slot ] += value * rows;
+      } else {
+        counts[ slot ]++;
+        values[ slot ] += value;
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  /**
+   * @return the total, or null if there is none
+   */
+  Double getValue( int member, int index ) {
+    int slot = member * count + index;
+    TotalFunction function = functions[ slot ];
+    if ( function == null ) {
+      return null;
+    }
+    switch ( function ) {
+    case NIL:
+      return 0.0;
+    case SUM:
+      return values[ slot ];
+    case AVG:
+      return counts[ slot ] > 0 ? values[ slot ] / counts[ slot ] : null;
+    default:
+      return counts[ slot ] > 0 ? values[ slot ] : null;
+    }
+  }
+
+  String getFormattedValue( int member, int index ) {
+    int slot = member * count + index;
+    if ( formattedValues != null && formattedValues[ slot ] != null ) {
+      return formattedValues[ slot ];
+    }
+    if ( functions[ slot ] == TotalFunction.NIL ) {
+      return "-";
+    }
+    Double value = getValue( member, index );
+    if ( value != null ) {
+      return formats[ slot ].format( value );
+    }
+    return "";
+  }
+
+  void setFormattedValue( int member, int index, String value ) {
+    if ( formattedValues == null ) {
+      formattedValues = new String[ functions.length ];
+    }
+    formattedValues[ member * count + index ] = value;
+  }
+
+  /**
+   * @return a read only view of every total, in the layout of the former <code>TotalAggregator</code> grid
+   */
+  TotalValue[][] toValues() {
+    TotalValue[][] totals = new TotalValue[ members ][ count ];
+    for ( int i = 0; i < members; i++ ) {
+      for ( int j = 0; j < count; j++ ) {
+        totals[ i ][ j ] = new Total( i, j );
+      }
+    }
+    return totals;
+  }
+
+  /**
+   * One slot of the columns.
+   */
+  private class Total implements TotalValue {
+    private final int member;
+    private final int index;
+
+    Total( int member, int index ) {
+      this.member = member;
+      this.index = index;
+    }
+
+    public Double getValue() {
+      return TotalColumns.this.getValue( member, index );
+    }
+
+    public String getFormattedValue() {
+      return TotalColumns.this.getFormattedValue( member, index );
+    }
+
+    public TotalFunction getFunction() {
+      return TotalColumns.this.getFunction( member, index );
+    }
+  }
+}
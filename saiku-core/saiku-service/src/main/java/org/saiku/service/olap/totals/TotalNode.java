@@ -5,11 +5,13 @@ import org.olap4j.metadata.Measure;
 import org.saiku.olap.query2.ThinMeasure;
 import org.saiku.olap.query2.util.Fat;
 import org.saiku.service.olap.totals.aggregators.TotalAggregator;
+import org.saiku.service.olap.totals.aggregators.TotalFunction;
+import org.saiku.service.olap.totals.aggregators.TotalValue;
 
 
 public class TotalNode {
   private final String[] captions;
-  private final TotalAggregator[][] totals;
+  private final TotalColumns totals;
   private final boolean showsTotals;
   private final int cellsAdded;
   private int span;
@@ -26,62 +28,77 @@ public class TotalNode {
 
     if ( showsTotals ) {
       cellsAdded = captions != null ? captions.length : 1;
-      totals = new TotalAggregator[ cellsAdded ][ count ];
+      totals = new TotalColumns( cellsAdded, count );
       String axisName = dataAxisInfo.axis.getAxisOrdinal().name();
+      TotalFunction[] measureFunctions = new TotalFunction[ measures.length ];
+      for ( int k = 0; k < measures.length; k++ ) {
+        measureFunctions[ k ] = getMeasureFunction( measures[ k ], axisName );
+      }
+
+      for ( int i = 0; i < cellsAdded; i++ ) {
+        for ( int j = 0; j < count; j++ ) {
+          int k = j % measures.length;
 
-      if ( aggregatorTemplate != null ) {
-        for ( int i = 0; i < totals.length; i++ ) {
-          for ( int j = 0; j < totals[ 0 ].length; j++ ) {
-            int k = j % measures.length;
-
-            if (axisName.equals("COLUMNS")) {
-              k = i % measures.length;
-            }
-
-            if (measures[k] instanceof Fat.MeasureAdapter) {
-              ThinMeasure tm = ((Fat.MeasureAdapter)measures[k]).getThinMeasure();
-              if (tm != null && tm.getAggregators() != null && !tm.getAggregators().isEmpty()) {
-                boolean foundAggregator = false;
-
-                for (String agg : tm.getAggregators()) {
-                  if (agg.indexOf("_") < 0) {
-                    totals[i][j] = TotalAggregator.newInstanceByFunctionName(agg).newInstance(formatList.getValueFormat(j, i), measures[k]);
-                    foundAggregator = true;
-                    break;
-                  } else {
-                    String[] tokens = agg.split("_");
-
-                    if (tokens[1].equals(axisName)) {
-                      agg = tokens[0];
-                      totals[i][j] = TotalAggregator.newInstanceByFunctionName(agg).newInstance(formatList.getValueFormat(j, i), measures[k]);
-                      foundAggregator = true;
-                      break;
-                    }
-                  }
-                }
-
-                if (foundAggregator) {
-                  continue;
-                }
-              }
-            }
-
-            totals[i][j] = aggregatorTemplate.newInstance(formatList.getValueFormat(j, i), measures[i]);
+          if (axisName.equals("COLUMNS")) {
+            k = i % measures.length;
           }
+
+          TotalFunction function = measureFunctions[ k ] != null ? measureFunctions[ k ] : aggregatorTemplate.getFunction();
+          totals.set( i, j, function, formatList.getValueFormat( j, i ) );
         }
       }
     } else {
-      totals = new TotalAggregator[ 0 ][ count ];
+      totals = new TotalColumns( 0, count );
       cellsAdded = 0;
     }
   }
 
+  /**
+   * @return the function asked for by the aggregators of a measure on the given axis, or null if there is none
+   */
+  private static TotalFunction getMeasureFunction( Measure measure, String axisName ) {
+    if (measure instanceof Fat.MeasureAdapter) {
+      ThinMeasure tm = ((Fat.MeasureAdapter)measure).getThinMeasure();
+      if (tm != null && tm.getAggregators() != null) {
+        for (String agg : tm.getAggregators()) {
+          if (agg.indexOf("_") < 0) {
+            return TotalFunction.forName(agg);
+          }
+          String[] tokens = agg.split("_");
+          if (tokens[1].equals(axisName)) {
+            return TotalFunction.forName(tokens[0]);
+          }
+        }
+      }
+    }
+    return null;
+  }
+
   public void addData( int member, int index, Cell cell ) {
-    totals[ member ][ index ].addData( cell );
+    totals.add( member, index, cell );
+  }
+
+  /**
+   * Adds a cell whose numeric value was already read, see {@link TotalsListsBuilder}.
+   */
+  void addData( int member, int index, double value, Cell cell ) {
+    totals.add( member, index, value, cell );
   }
 
   public void setFormattedValue( int member, int index, String value ) {
-    totals[ member ][ index ].setFormattedValue( value );
+    totals.setFormattedValue( member, index, value );
+  }
+
+  public Double getValue( int member, int index ) {
+    return totals.getValue( member, index );
+  }
+
+  public String getFormattedValue( int member, int index ) {
+    return totals.getFormattedValue( member, index );
+  }
+
+  public boolean showsTotals() {
+    return showsTotals;
   }
 
   public int getSpan() {
@@ -117,8 +134,11 @@ public class TotalNode {
     return captions;
   }
 
-  public TotalAggregator[][] getTotalGroups() {
-    return totals;
+  /**
+   * @return one total per member and position, read from the accumulated totals
+   */
+  public TotalValue[][] getTotalGroups() {
+    return totals.toValues();
   }
 
   private int getRenderedCount() {
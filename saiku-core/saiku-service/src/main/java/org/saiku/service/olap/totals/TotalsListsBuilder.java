@@ -33,6 +33,10 @@ public class TotalsListsBuilder implements FormatList {
   private final CellSet cellSet;
   private final Format[] valueFormats;
   private final ThinQuery thinQuery;
+  private final boolean showsTotals;
+  private TotalNode[][] positionNodes;
+  private int[] positionMeasures;
+  private int[] positionFormats;
 
   public TotalsListsBuilder(Measure[] selectedMeasures, TotalAggregator[] aggrTempl, CellSet cellSet,
                             AxisInfo totalsAxisInfo, AxisInfo dataAxisInfo) throws Exception {
@@ -105,6 +109,11 @@ public class TotalsListsBuilder implements FormatList {
     col = Axis.ROWS.equals( dataAxisInfo.axis.getAxisOrdinal() ) ? 1 : 0;
     row = ( col + 1 ) & 1;
     this.aggrTempl = aggrTempl;
+    boolean showsTotals = false;
+    for ( TotalAggregator template : aggrTempl ) {
+      showsTotals |= template != null;
+    }
+    this.showsTotals = showsTotals;
 
     totalBranch[ 0 ] = rootNode;
     totalsLists = new List[ maxDepth ];
@@ -158,6 +167,8 @@ public class TotalsListsBuilder implements FormatList {
 
   private void traverse( List<Integer>[] levels, List<TotalNode>[] totalLists ) {
     int fullPosition = 0;
+    positionNodes = new TotalNode[ dataAxisInfo.fullPositions.size() ][ totalBranch.length ];
+    positionMeasures = new int[ dataAxisInfo.fullPositions.size() ];
     final Member[] prevMemberBranch = new Member[ memberBranch.length ];
 
     nextpos:
@@ -191,7 +202,7 @@ public class TotalsListsBuilder implements FormatList {
         String[] captions = measuresAt > i - 1 ? measuresCaptions : null;
 
         String uniqueLevelName = dataAxisInfo.uniqueLevelNames.get(i - 1);
-        ThinLevel level = thinQuery.getLevel(uniqueLevelName);
+        ThinLevel level = thinQuery != null ? thinQuery.getLevel(uniqueLevelName) : null;
 
         if (level != null && level.getAggregators() != null && !level.getAggregators().isEmpty()) {
           List<String> lvlAggr = level.getAggregators();
@@ -221,14 +232,8 @@ public class TotalsListsBuilder implements FormatList {
       totalBranch[ totalBranch.length - 1 ].setWidth( 1 );
 
 
-      for ( int t = 0; t < totalsAxisInfo.fullPositions.size(); t++ ) {
-        Cell cell = getCellAt( fullPosition, t );
-        for ( int branchNode = 0; branchNode < totalBranch.length; branchNode++ ) {
-          if ( aggrTempl[ branchNode ] != null ) {
-            totalBranch[ branchNode ].addData( getMemberIndex( branchNode, fullPosition ), t, cell );
-          }
-        }
-      }
+      System.arraycopy( totalBranch, 0, positionNodes[ fullPosition ], 0, totalBranch.length );
+      positionMeasures[ fullPosition ] = getMeasureIndex( fullPosition );
       fullPosition++;
     }
     for ( int i = totalBranch.length - 1; i > 0; i-- ) {
@@ -242,17 +247,73 @@ public class TotalsListsBuilder implements FormatList {
 
   public List<TotalNode>[] buildTotalsLists() {
     traverse( dataAxisInfo.levels, totalsLists );
+    if ( showsTotals ) {
+      for ( int p = 0; p < dataAxisInfo.fullPositions.size(); p++ ) {
+        for ( int t = 0; t < totalsAxisInfo.fullPositions.size(); t++ ) {
+          Cell cell = getCellAt( p, t );
+          Object value = cell.getValue();
+          if ( value instanceof Number ) {
+            addData( p, t, ( (Number) value ).doubleValue(), cell );
+          }
+        }
+      }
+    }
     return totalsLists;
   }
 
+  /**
+   * Builds the totals of both axes of a cell set with one pass over its cells, each cell is read once and added to
+   * the totals of its row and of its column.
+   *
+   * @param first  the builder totalling one axis
+   * @param second the builder totalling the other axis of the same cell set
+   * @return the totals lists of <code>first</code> and <code>second</code>
+   */
+  public static List<TotalNode>[][] buildTotalsLists( TotalsListsBuilder first, TotalsListsBuilder second ) {
+    if ( first.cellSet != second.cellSet || first.dataAxisInfo != second.totalsAxisInfo
+         || first.totalsAxisInfo != second.dataAxisInfo ) {
+      throw new IllegalArgumentException( "The builders must total the two axes of the same cell set" );
+    }
+    first.traverse( first.dataAxisInfo.levels, first.totalsLists );
+    second.traverse( second.dataAxisInfo.levels, second.totalsLists );
+    if ( first.showsTotals || second.showsTotals ) {
+      for ( int p = 0; p < first.dataAxisInfo.fullPositions.size(); p++ ) {
+        for ( int t = 0; t < first.totalsAxisInfo.fullPositions.size(); t++ ) {
+          Cell cell = first.getCellAt( p, t );
+          Object value = cell.getValue();
+          if ( value instanceof Number ) {
+            double doubleValue = ( (Number) value ).doubleValue();
+            if ( first.showsTotals ) {
+              first.addData( p, t, doubleValue, cell );
+            }
+            if ( second.showsTotals ) {
+              second.addData( t, p, doubleValue, cell );
+            }
+          }
+        }
+      }
+    }
+    return new List[][] { first.totalsLists, second.totalsLists };
+  }
+
+  private void addData( int fullPosition, int perpPosition, double value, Cell cell ) {
+    TotalNode[] nodes = positionNodes[ fullPosition ];
+    for ( int branchNode = 0; branchNode < nodes.length; branchNode++ ) {
+      if ( aggrTempl[ branchNode ] != null ) {
+        int member = branchNode - 1 < measuresAt ? positionMeasures[ fullPosition ] : 0;
+        nodes[ branchNode ].addData( member, perpPosition, value, cell );
+      }
+    }
+  }
+
   private Cell getCellAt( int axisCoord, int perpAxisCoord ) {
     final Position[] positions =
             new Position[] { dataAxisInfo.fullPositions.get( axisCoord ), totalsAxisInfo.fullPositions.get( perpAxisCoord ) };
     return cellSet.getCell( positions[ col ], positions[ row ] );
   }
 
-  private int getMemberIndex( int depth, int index ) {
-    if ( depth - 1 < measuresAt ) {
+  private int getMeasureIndex( int index ) {
+    if ( measuresAt >= 0 ) {
       Member m = dataAxisInfo.fullPositions.get( index ).getMembers().get( dataAxisInfo.measuresMember );
       if ( uniqueToSelected.containsKey( m.getUniqueName() ) ) {
         return uniqueToSelected.get( m.getUniqueName() );
@@ -266,10 +327,16 @@ public class TotalsListsBuilder implements FormatList {
     if ( dataAxisInfo.measuresMember >= 0 ) {
       formatIndex = member;
     } else if ( totalsAxisInfo.measuresMember >= 0 ) {
-      Member m = totalsAxisInfo.fullPositions.get( position ).getMembers().get( totalsAxisInfo.measuresMember );
-      if ( uniqueToSelected.containsKey( m.getUniqueName() ) ) {
-        formatIndex = uniqueToSelected.get( m.getUniqueName() );
+      if ( positionFormats == null ) {
+        // every node asks for the format of every position, look the measures up once
+        positionFormats = new int[ totalsAxisInfo.fullPositions.size() ];
+        for ( int i = 0; i < positionFormats.length; i++ ) {
+          Member m = totalsAxisInfo.fullPositions.get( i ).getMembers().get( totalsAxisInfo.measuresMember );
+          Integer selected = uniqueToSelected.get( m.getUniqueName() );
+          positionFormats[ i ] = selected != null ? selected : 0;
+        }
       }
+      formatIndex = positionFormats[ position ];
     }
     return valueFormats[ formatIndex ];
   }
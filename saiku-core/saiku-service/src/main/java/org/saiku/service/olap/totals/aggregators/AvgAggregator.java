@@ -53,6 +53,14 @@ public class AvgAggregator extends TotalAggregator {
   private double accumulator = 0.0;
   private long count = 0;
 
+  /**
+   * @return the number of fact rows behind a cell, or -1 if the cell does not tell
+   */
+  public static long getDrillthroughCount( Cell cell ) {
+    Object count = cell.getPropertyValue( DRILLTHROUGH_COUNT );
+    return count instanceof Number ? ( (Number) count ).longValue() : -1;
+  }
+
   public void addData( Cell cell ) {
     Object value = cell.getValue();
     if ( value instanceof Number ) {
@@ -92,4 +100,8 @@ public class AvgAggregator extends TotalAggregator {
     return new AvgAggregator( format );
   }
 
-}
\ No newline at end of file
+  @Override
+  public TotalFunction getFunction() {
+    return TotalFunction.AVG;
+  }
+}
@@ -35,4 +35,9 @@ public class BlankAggregator extends TotalAggregator {
   public String getFormattedValue() {
     return BLANK_VALUE;
   }
-}
\ No newline at end of file
+
+  @Override
+  public TotalFunction getFunction() {
+    return TotalFunction.NIL;
+  }
+}
@@ -30,4 +30,8 @@ public class MaxAggregator extends TotalAggregator {
     return new MaxAggregator( format );
   }
 
-}
\ No newline at end of file
+  @Override
+  public TotalFunction getFunction() {
+    return TotalFunction.MAX;
+  }
+}
@@ -31,4 +31,8 @@ public class MinAggregator extends TotalAggregator {
     return new MinAggregator( format );
   }
 
-}
\ No newline at end of file
+  @Override
+  public TotalFunction getFunction() {
+    return TotalFunction.MIN;
+  }
+}
@@ -30,4 +30,8 @@ public class SumAggregator extends TotalAggregator {
     return new SumAggregator( format );
   }
 
-}
\ No newline at end of file
+  @Override
+  public TotalFunction getFunction() {
+    return TotalFunction.SUM;
+  }
+}
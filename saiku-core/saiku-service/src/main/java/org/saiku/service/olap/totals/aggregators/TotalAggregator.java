@@ -9,7 +9,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
-public abstract class TotalAggregator {
+public abstract class TotalAggregator implements TotalValue {
   private static final Map<String, TotalAggregatorFactory> all;
 
   private static interface TotalAggregatorFactory {
@@ -55,7 +55,7 @@ public abstract class TotalAggregator {
   private String formattedValue;
   final Format format;
 
-  TotalAggregator(Format format) {
+  protected TotalAggregator(Format format) {
     this.format = format;
   }
 
@@ -83,10 +83,15 @@ public abstract class TotalAggregator {
 
   protected abstract void addData( double data );
 
-  protected abstract Double getValue();
+  public abstract Double getValue();
 
   public abstract TotalAggregator newInstance( Format format, Measure measure );
 
+  /**
+   * @return the function this aggregator calculates
+   */
+  public abstract TotalFunction getFunction();
+
   public String getFormattedValue() {
     if ( formattedValue != null ) {
       return formattedValue;
@@ -0,0 +1,35 @@
+package org.saiku.service.olap.totals.aggregators;
+
+/**
+ * The functions a total can be calculated with.
+ */
+public enum TotalFunction {
+  NIL,
+  SUM,
+  MAX,
+  MIN,
+  AVG;
+
+  /**
+   * @return the function for an aggregator name like <code>sum</code>, or null for <code>not</code> and unknown names
+   */
+  public static TotalFunction forName( String functionName ) {
+    if ( functionName == null ) {
+      return null;
+    }
+    switch ( functionName ) {
+    case "nil":
+      return NIL;
+    case "sum":
+      return SUM;
+    case "max":
+      return MAX;
+    case "min":
+      return MIN;
+    case "avg":
+      return AVG;
+    default:
+      return null;
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package org.saiku.service.olap.totals.aggregators;
+
+/**
+ * A calculated total as it is read for display and exports.
+ */
+public interface TotalValue {
+
+  /**
+   * @return the total, or null if no value has been added
+   */
+  Double getValue();
+
+  String getFormattedValue();
+
+  /**
+   * @return the function the total is calculated with
+   */
+  TotalFunction getFunction();
+}
@@ -2,11 +2,15 @@ package org.saiku.service.util;
 
 import java.sql.Connection;
 import java.sql.Statement;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
 import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.CellDataSet;
 import org.saiku.olap.query2.ThinQuery;
 import org.saiku.service.util.exception.SaikuServiceException;
 
@@ -24,12 +28,36 @@ public class QueryContext {
 		RESULT,
 		CACHE,
 		STATEMENT,
-		QUERY
+		QUERY,
+		COMPILED_QUERY
+	}
+
+	/**
+	 * Told about every result and formatted table a context starts or stops holding, with the number of its cells.
+	 */
+	public interface ResultListener {
+		void retained(Object result, long cells);
+		void released(Object result);
 	}
 	
 	private final Type type;
 	
-	private final Map<ObjectKey, Object> objects = new HashMap<>();
+	private final Map<ObjectKey, Object> objects = Collections.synchronizedMap(new HashMap<ObjectKey, Object>());
+
+	private volatile long lastAccess = System.currentTimeMillis();
+
+	private volatile long retainedCells = 0;
+
+	private volatile boolean resultReleased = false;
+
+	/**
+	 * Tables formatted from {@link #formattedResult}, by formatter. Guards the result, the tables and the listener.
+	 */
+	private final Map<String, CellDataSet> formattedResults = new HashMap<>();
+
+	private CellSet formattedResult;
+
+	private ResultListener listener;
 	
 	public QueryContext(Type type, ISaikuQuery query) {
 		this.type = type;
@@ -81,17 +109,200 @@ public class QueryContext {
 	}
 	
 	public void store(ObjectKey key, Object value) {
-		objects.put(key, value);
+		if (!ObjectKey.RESULT.equals(key)) {
+			objects.put(key, value);
+			return;
+		}
+		synchronized (formattedResults) {
+			clearFormattedResults();
+			retain(value);
+			release(objects.put(key, value));
+			retainedCells = countCells(value);
+			resultReleased = false;
+		}
+	}
+
+	/**
+	 * Returns the table a result was formatted to last time, with its totals.
+	 *
+	 * @param result    the result that was formatted
+	 * @param formatter the formatter it was formatted with
+	 * @return the table, or null if the result has not been formatted with that formatter since it was stored
+	 */
+	public CellDataSet getFormattedResult(CellSet result, String formatter) {
+		synchronized (formattedResults) {
+			if (result == null || result != formattedResult) {
+				return null;
+			}
+			return formattedResults.get(formatter);
+		}
+	}
+
+	/**
+	 * Keeps the table the stored result was formatted to, until another result is stored or the result is released.
+	 * The table is shared by all later callers and must not be modified.
+	 */
+	public void storeFormattedResult(CellSet result, String formatter, CellDataSet table) {
+		if (result == null || table == null || result != objects.get(ObjectKey.RESULT)) {
+			return;
+		}
+		synchronized (formattedResults) {
+			if (result != objects.get(ObjectKey.RESULT)) {
+				return;
+			}
+			if (result != formattedResult) {
+				clearFormattedResults();
+				formattedResult = result;
+			}
+			retain(table);
+			CellDataSet previous = formattedResults.put(formatter, table);
+			release(previous);
+			retainedCells += countCells(table) - countCells(previous);
+		}
+	}
+
+	private void clearFormattedResults() {
+		synchronized (formattedResults) {
+			for (CellDataSet table : formattedResults.values()) {
+				release(table);
+				retainedCells -= countCells(table);
+			}
+			formattedResults.clear();
+			formattedResult = null;
+		}
+	}
+
+	/**
+	 * Sets the listener told about the results the context holds, it is told about the ones held already. The
+	 * previous listener is told that they are released.
+	 */
+	void setResultListener(ResultListener listener) {
+		synchronized (formattedResults) {
+			if (this.listener == listener) {
+				return;
+			}
+			Object result = objects.get(ObjectKey.RESULT);
+			release(result);
+			for (CellDataSet table : formattedResults.values()) {
+				release(table);
+			}
+			this.listener = listener;
+			retain(result);
+			for (CellDataSet table : formattedResults.values()) {
+				retain(table);
+			}
+		}
+	}
+
+	private void retain(Object result) {
+		if (listener != null && (result instanceof CellSet || result instanceof CellDataSet)) {
+			listener.retained(result, countCells(result));
+		}
+	}
+
+	private void release(Object result) {
+		if (listener != null && (result instanceof CellSet || result instanceof CellDataSet)) {
+			listener.released(result);
+		}
 	}
 	
+	/**
+	 * @return the object stored under the key, null if there is none
+	 */
+	public Object get(ObjectKey key) {
+		return objects.get(key);
+	}
+
 	public boolean contains(ObjectKey key) {
 		return objects.containsKey(key);
 	}
 	
 	public void remove(ObjectKey key) {
-		if (contains(key)) {
+		if (!ObjectKey.RESULT.equals(key)) {
 			objects.remove(key);
+			return;
 		}
+		synchronized (formattedResults) {
+			clearFormattedResults();
+			release(objects.remove(key));
+			retainedCells = 0;
+		}
+	}
+
+	/**
+	 * Marks the context as used now.
+	 */
+	public void touch() {
+		lastAccess = System.currentTimeMillis();
+	}
+
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	/**
+	 * @return the number of cells of the stored result and the tables formatted from it, 0 if there is none
+	 */
+	public long getRetainedCells() {
+		return retainedCells;
+	}
+
+	/**
+	 * @return true if a statement of this context is being executed
+	 */
+	public boolean isRunning() {
+		return contains(ObjectKey.STATEMENT);
+	}
+
+	/**
+	 * Releases the stored result, it is executed again the next time it is needed.
+	 *
+	 * @return true if there was a result to release
+	 */
+	public boolean dropResult() {
+		if (isRunning()) {
+			return false;
+		}
+		synchronized (formattedResults) {
+			clearFormattedResults();
+			Object result = objects.remove(ObjectKey.RESULT);
+			release(result);
+			retainedCells = 0;
+			resultReleased |= result != null;
+			return result != null;
+		}
+	}
+
+	/**
+	 * @return true if the result has been released by {@link #dropResult()} and not been stored again since
+	 */
+	public boolean isResultReleased() {
+		return resultReleased;
+	}
+
+	private static long countCells(Object result) {
+		if (result instanceof CellDataSet) {
+			CellDataSet table = (CellDataSet) result;
+			return countCells(table.getCellSetHeaders()) + countCells(table.getCellSetBody());
+		}
+		if (!(result instanceof CellSet)) {
+			return 0;
+		}
+		long cells = 1;
+		for (CellSetAxis axis : ((CellSet) result).getAxes()) {
+			cells *= Math.max(1, axis.getPositionCount());
+		}
+		return cells;
+	}
+
+	private static long countCells(AbstractBaseCell[][] rows) {
+		long cells = 0;
+		if (rows != null) {
+			for (AbstractBaseCell[] row : rows) {
+				cells += row != null ? row.length : 0;
+			}
+		}
+		return cells;
 	}
 	
 	public void destroy() throws Exception {
@@ -105,7 +316,12 @@ public class QueryContext {
 				con.close();
 				con = null;
 			}
-			objects.clear();
+			synchronized (formattedResults) {
+				clearFormattedResults();
+				release(objects.get(ObjectKey.RESULT));
+				objects.clear();
+				retainedCells = 0;
+			}
 	}
 	
 	
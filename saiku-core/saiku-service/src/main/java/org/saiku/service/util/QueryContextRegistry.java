@@ -0,0 +1,437 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.util;
+
+import org.saiku.olap.util.SaikuProperties;
+
+import org.olap4j.CellSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the {@link QueryContext}s of all sessions.
+ *
+ * <p>Every session sees its own contexts through {@link Contexts}. The registry limits the number of contexts per user
+ * to <code>saiku.olap.context.maxperuser</code>, dropping the least recently used ones, and releases the stored
+ * results of contexts idle for more than <code>saiku.olap.context.idletimeout</code> seconds or, least recently used
+ * first, when all stored results together hold more than <code>saiku.olap.context.maxcells</code> cells. A released
+ * result is executed again when it is needed.</p>
+ *
+ * <p>The cells are counted once per distinct result or formatted table, however many contexts hold it, and kept as a
+ * running total that the contexts update as they store and release results. A result that is also held by the
+ * {@link SharedResults}, i.e. the result cache, is dropped from there too when it is released to stay under the
+ * limit, otherwise releasing it would not free anything.</p>
+ */
+public class QueryContextRegistry {
+
+  private static final Logger log = LoggerFactory.getLogger( QueryContextRegistry.class );
+
+  private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis( 30 );
+
+  private static final Comparator<Entry> LEAST_RECENTLY_USED = new Comparator<Entry>() {
+    public int compare( Entry e1, Entry e2 ) {
+      long a1 = e1.context.getLastAccess();
+      long a2 = e2.context.getLastAccess();
+      return a1 < a2 ? -1 : ( a1 == a2 ? 0 : 1 );
+    }
+  };
+
+  private final int maxPerUser;
+
+  private final long idleTimeout;
+
+  private final long maxCells;
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Number of contexts per user, guarded by the registry.
+   */
+  private final Map<String, Integer> contextsPerUser = new HashMap<>();
+
+  /**
+   * The results and formatted tables held by the contexts, by identity, guarded by itself.
+   */
+  private final Map<Object, Retained> retained = new IdentityHashMap<>();
+
+  private long retainedCells = 0;
+
+  private final QueryContext.ResultListener resultListener = new QueryContext.ResultListener() {
+    public void retained( Object result, long cells ) {
+      synchronized ( retained ) {
+        Retained r = retained.get( result );
+        if ( r == null ) {
+          retained.put( result, new Retained( cells ) );
+          retainedCells += cells;
+        } else {
+          r.holders++;
+        }
+      }
+    }
+
+    public void released( Object result ) {
+      synchronized ( retained ) {
+        Retained r = retained.get( result );
+        if ( r != null && --r.holders == 0 ) {
+          retained.remove( result );
+          retainedCells -= r.cells;
+        }
+      }
+    }
+  };
+
+  private volatile SharedResults sharedResults;
+
+  private final AtomicLong lastSweep = new AtomicLong( System.currentTimeMillis() );
+
+  private final AtomicLong quotaEvictions = new AtomicLong();
+
+  private final AtomicLong idleEvictions = new AtomicLong();
+
+  private final AtomicLong memoryEvictions = new AtomicLong();
+
+  public QueryContextRegistry() {
+    this( SaikuProperties.olapContextMaxPerUser, SaikuProperties.olapContextIdleTimeout,
+      SaikuProperties.olapContextMaxCells );
+  }
+
+  /**
+   * @param maxPerUser  maximum number of contexts per user, 0 or less for no limit
+   * @param idleSeconds seconds after which the result of an unused context is released, 0 or less to keep it
+   * @param maxCells    maximum number of cells held by all results, 0 or less for no limit
+   */
+  public QueryContextRegistry( int maxPerUser, int idleSeconds, long maxCells ) {
+    this.maxPerUser = maxPerUser;
+    this.idleTimeout = idleSeconds > 0 ? TimeUnit.SECONDS.toMillis( idleSeconds ) : 0;
+    this.maxCells = maxCells;
+  }
+
+  /**
+   * Holds results beyond the contexts, see {@link #setSharedResults(SharedResults)}.
+   */
+  public interface SharedResults {
+
+    /**
+     * Stops holding the result, if it does.
+     */
+    void drop( Object result );
+  }
+
+  /**
+   * Sets the holder of results shared by sessions, results released to stay under the cell limit are dropped there
+   * too.
+   */
+  public void setSharedResults( SharedResults sharedResults ) {
+    this.sharedResults = sharedResults;
+  }
+
+  /**
+   * Returns the view on the contexts of one session.
+   *
+   * @param owner unique id of the session
+   */
+  public Contexts open( String owner ) {
+    return new Contexts( owner );
+  }
+
+  public int getContextCount() {
+    return entries.size();
+  }
+
+  /**
+   * @return the number of contexts holding a result
+   */
+  public int getResultCount() {
+    int count = 0;
+    for ( Entry entry : entries.values() ) {
+      if ( entry.context.getRetainedCells() > 0 ) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of cells held by all stored results and formatted tables, each counted once
+   */
+  public long getRetainedCells() {
+    synchronized ( retained ) {
+      return retainedCells;
+    }
+  }
+
+  public synchronized int getUserCount() {
+    return contextsPerUser.size();
+  }
+
+  public long getQuotaEvictions() {
+    return quotaEvictions.get();
+  }
+
+  public long getIdleEvictions() {
+    return idleEvictions.get();
+  }
+
+  public long getMemoryEvictions() {
+    return memoryEvictions.get();
+  }
+
+  /**
+   * Releases the results of idle contexts and, if the stored results are still too big, of the least recently used
+   * ones.
+   */
+  public synchronized void evict() {
+    long now = System.currentTimeMillis();
+    lastSweep.set( now );
+    if ( idleTimeout > 0 ) {
+      for ( Entry entry : entries.values() ) {
+        if ( now - entry.context.getLastAccess() > idleTimeout && entry.context.dropResult() ) {
+          idleEvictions.incrementAndGet();
+        }
+      }
+    }
+    if ( maxCells > 0 && getRetainedCells() > maxCells ) {
+      List<Entry> candidates = new ArrayList<>( entries.values() );
+      Collections.sort( candidates, LEAST_RECENTLY_USED );
+      // the most recently used result stays, even if it is bigger than the limit on its own
+      for ( int i = 0; i < candidates.size() - 1 && getRetainedCells() > maxCells; i++ ) {
+        QueryContext context = candidates.get( i ).context;
+        CellSet result = context.getOlapResult();
+        if ( context.getRetainedCells() > 0 && context.dropResult() ) {
+          SharedResults shared = sharedResults;
+          if ( shared != null && result != null ) {
+            shared.drop( result );
+          }
+          memoryEvictions.incrementAndGet();
+        }
+      }
+      log.debug( "Released results down to " + getRetainedCells() + " cells" );
+    }
+  }
+
+  private void sweep() {
+    long last = lastSweep.get();
+    long now = System.currentTimeMillis();
+    if ( now - last > SWEEP_INTERVAL && lastSweep.compareAndSet( last, now ) ) {
+      evict();
+    }
+  }
+
+  /**
+   * Removes the least recently used contexts of the user over the quota, returns them to be destroyed.
+   */
+  private List<QueryContext> enforceQuota( String user ) {
+    Integer count = contextsPerUser.get( user );
+    if ( maxPerUser <= 0 || count == null || count <= maxPerUser ) {
+      return Collections.emptyList();
+    }
+    List<Entry> owned = new ArrayList<>();
+    for ( Entry entry : entries.values() ) {
+      if ( entry.user.equals( user ) ) {
+        owned.add( entry );
+      }
+    }
+    Collections.sort( owned, LEAST_RECENTLY_USED );
+    List<QueryContext> removed = new ArrayList<>();
+    for ( int i = 0; i < owned.size() && owned.size() - i > maxPerUser; i++ ) {
+      Entry entry = owned.get( i );
+      if ( !entry.context.isRunning() && entries.remove( entry.key, entry ) ) {
+        removed( entry );
+        quotaEvictions.incrementAndGet();
+        removed.add( entry.context );
+      }
+    }
+    return removed;
+  }
+
+  private void added( Entry entry ) {
+    Integer count = contextsPerUser.get( entry.user );
+    contextsPerUser.put( entry.user, count == null ? 1 : count + 1 );
+    entry.context.setResultListener( resultListener );
+  }
+
+  private void removed( Entry entry ) {
+    Integer count = contextsPerUser.get( entry.user );
+    if ( count == null || count <= 1 ) {
+      contextsPerUser.remove( entry.user );
+    } else {
+      contextsPerUser.put( entry.user, count - 1 );
+    }
+    entry.context.setResultListener( null );
+  }
+
+  private static void destroy( QueryContext context ) {
+    try {
+      context.destroy();
+    } catch ( Exception e ) {
+      log.warn( "Could not destroy query context: " + context.id(), e );
+    }
+  }
+
+  private static class Entry {
+    private final String key;
+    private final Contexts owner;
+    private final String user;
+    private final QueryContext context;
+
+    Entry( String key, Contexts owner, QueryContext context ) {
+      this.key = key;
+      this.owner = owner;
+      this.user = owner.getUser();
+      this.context = context;
+    }
+  }
+
+  private static class Retained {
+    private final long cells;
+    private int holders = 1;
+
+    Retained( long cells ) {
+      this.cells = cells;
+    }
+  }
+
+  /**
+   * The contexts of one session, by query name.
+   */
+  public class Contexts {
+
+    private final String owner;
+
+    private volatile String user;
+
+    private Contexts( String owner ) {
+      this.owner = owner;
+      this.user = owner;
+    }
+
+    /**
+     * Sets the user the quota applies to, by default each session counts as a user of its own.
+     */
+    public void setUser( String user ) {
+      if ( user != null ) {
+        this.user = user;
+      }
+    }
+
+    public String getUser() {
+      return user;
+    }
+
+    /**
+     * @return the unique id of the session
+     */
+    public String getOwner() {
+      return owner;
+    }
+
+    public boolean containsKey( String name ) {
+      return entries.containsKey( key( name ) );
+    }
+
+    public QueryContext get( String name ) {
+      Entry entry = entries.get( key( name ) );
+      sweep();
+      if ( entry == null ) {
+        return null;
+      }
+      entry.context.touch();
+      return entry.context;
+    }
+
+    public QueryContext put( String name, QueryContext context ) {
+      String key = key( name );
+      context.touch();
+      Entry entry = new Entry( key, this, context );
+      Entry previous;
+      List<QueryContext> removed;
+      synchronized ( QueryContextRegistry.this ) {
+        previous = entries.put( key, entry );
+        if ( previous != null ) {
+          removed( previous );
+        }
+        added( entry );
+        removed = enforceQuota( entry.user );
+      }
+      for ( QueryContext r : removed ) {
+        destroy( r );
+      }
+      sweep();
+      if ( previous != null && previous.context != context ) {
+        destroy( previous.context );
+        return previous.context;
+      }
+      return null;
+    }
+
+    public QueryContext remove( String name ) {
+      synchronized ( QueryContextRegistry.this ) {
+        Entry entry = entries.remove( key( name ) );
+        if ( entry == null ) {
+          return null;
+        }
+        removed( entry );
+        return entry.context;
+      }
+    }
+
+    /**
+     * Checks the limits after a result has been stored.
+     */
+    public void resultStored( QueryContext context ) {
+      context.touch();
+      if ( maxCells > 0 && getRetainedCells() > maxCells ) {
+        evict();
+      } else {
+        sweep();
+      }
+    }
+
+    /**
+     * Removes and destroys all contexts of the session.
+     */
+    public void clear() {
+      List<QueryContext> removed = new ArrayList<>();
+      synchronized ( QueryContextRegistry.this ) {
+        for ( Entry entry : entries.values() ) {
+          if ( entry.owner == this && entries.remove( entry.key, entry ) ) {
+            removed( entry );
+            removed.add( entry.context );
+          }
+        }
+      }
+      for ( QueryContext context : removed ) {
+        destroy( context );
+      }
+    }
+
+    private String key( String name ) {
+      return owner + "/" + name;
+    }
+  }
+}
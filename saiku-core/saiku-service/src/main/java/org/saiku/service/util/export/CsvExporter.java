@@ -24,20 +24,40 @@ import org.saiku.olap.dto.resultset.MemberCell;
 import org.saiku.olap.util.OlapResultSetUtil;
 import org.saiku.olap.util.SaikuProperties;
 import org.saiku.olap.util.formatter.CellSetFormatter;
+import org.saiku.olap.util.formatter.FlattenedCellSetFormatter;
 import org.saiku.olap.util.formatter.ICellSetFormatter;
+import org.saiku.olap.util.formatter.ICellSetRowHandler;
 import org.saiku.service.util.KeyValue;
 import org.saiku.service.util.exception.SaikuServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Exports query results as CSV.
+ *
+ * <p>The <code>write</code> methods write the rows to a {@link Writer} as they are read, so that an export needs the
+ * same memory whatever its size; the <code>exportCsv</code> methods return the whole export as bytes.</p>
+ */
 public class CsvExporter {
 
   private static final Logger log = LoggerFactory.getLogger(CsvExporter.class);
 
+  private static final String NEWLINE = "\r\n";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   public static byte[] exportCsv( CellSet cellSet ) {
     return exportCsv( cellSet, SaikuProperties.webExportCsvDelimiter, SaikuProperties.webExportCsvTextEscape );
   }
@@ -47,8 +67,13 @@ public class CsvExporter {
   }
 
   public static byte[] exportCsv( CellSet cellSet, String delimiter, String enclosing, ICellSetFormatter formatter ) {
-    CellDataSet table = OlapResultSetUtil.cellSet2Matrix( cellSet, formatter );
-    return getCsv( table, delimiter, enclosing );
+    try {
+      StringWriter writer = new StringWriter();
+      write( cellSet, delimiter, enclosing, formatter, writer );
+      return writer.toString().getBytes( SaikuProperties.webExportCsvTextEncoding ); //$NON-NLS-1$
+    } catch ( IOException e ) {
+      throw new SaikuServiceException( "Error creating csv export for query", e ); //$NON-NLS-1$
+    }
   }
 
   public static byte[] exportCsv( ResultSet rs ) {
@@ -65,159 +90,216 @@ public class CsvExporter {
     return getCsv( rs, delimiter, enclosing, printHeader, additionalColumns );
   }
 
-  private static byte[] getCsv( ResultSet rs, String delimiter, String enclosing, boolean printHeader,
-                                List<KeyValue<String, String>> additionalColumns ) {
-    Integer width = 0;
+  /**
+   * Creates a buffered writer using the configured CSV encoding. The caller flushes it when done.
+   */
+  public static Writer newWriter( OutputStream output ) throws IOException {
+    return new BufferedWriter( new OutputStreamWriter( output, SaikuProperties.webExportCsvTextEncoding ),
+      BUFFER_SIZE );
+  }
 
-    Integer height = 0;
-    StringBuilder sb = new StringBuilder();
+  /**
+   * Writes a cell set as CSV. A {@link FlattenedCellSetFormatter} formats it one row at a time, other formatters
+   * build the whole table first.
+   */
+  public static void write( CellSet cellSet, String delimiter, String enclosing, ICellSetFormatter formatter,
+                            Writer writer ) throws IOException {
+    if ( cellSet == null ) {
+      return;
+    }
+    CellSetRowWriter rows = new CellSetRowWriter( writer, delimiter, enclosing );
+    CellDataSet streamed = null;
+    if ( formatter instanceof FlattenedCellSetFormatter ) {
+      streamed = ( (FlattenedCellSetFormatter) formatter ).format( cellSet, rows );
+    }
+    if ( streamed == null ) {
+      CellDataSet table = OlapResultSetUtil.cellSet2Matrix( cellSet, formatter );
+      for ( AbstractBaseCell[] row : table.getCellSetHeaders() ) {
+        rows.handleRow( row, true );
+      }
+      for ( AbstractBaseCell[] row : table.getCellSetBody() ) {
+        rows.handleRow( row, false );
+      }
+    }
+    rows.finish();
+  }
+
+  /**
+   * Writes the remaining rows of a result set as CSV. The column metadata is read once, only the current row is held
+   * in memory.
+   *
+   * @param additionalColumns constant columns written before the columns of the result set, may be null
+   */
+  public static void write( ResultSet rs, String delimiter, String enclosing, boolean printHeader,
+                            List<KeyValue<String, String>> additionalColumns, Writer writer )
+    throws SQLException, IOException {
+    ResultSetMetaData metaData = rs.getMetaData();
+    int width = metaData.getColumnCount();
+    int[] types = new int[ width ];
+    for ( int i = 0; i < width; i++ ) {
+      types[ i ] = metaData.getColumnType( i + 1 );
+    }
+    String header = null;
     String addCols = null;
-    ResultSetHelper rsch = new ResultSetHelper();
-    try {
-      while ( rs.next() ) {
-        if ( height == 0 ) {
-          width = rs.getMetaData().getColumnCount();
-          String header = null;
-          if ( additionalColumns != null ) {
-            for ( KeyValue<String, String> kv : additionalColumns ) {
-              if ( header == null ) {
-                header = "";
-                addCols = "";
-              } else {
-                header += delimiter;
-              }
-              header += enclosing + kv.getKey() + enclosing;
-              addCols += enclosing + kv.getValue() + enclosing + delimiter;
-            }
-          }
-          for ( int s = 0; s < width; s++ ) {
-            if ( header != null ) {
-              header += delimiter;
-            } else {
-              header = "";
-            }
-            header += enclosing + rs.getMetaData().getColumnName( s + 1 ) + enclosing;
-          }
-          if ( header != null && printHeader ) {
-            header += "\r\n";
-            sb.append( header );
-          }
+    if ( additionalColumns != null && !additionalColumns.isEmpty() ) {
+      StringBuilder headerBuilder = new StringBuilder();
+      StringBuilder addColsBuilder = new StringBuilder();
+      for ( KeyValue<String, String> kv : additionalColumns ) {
+        if ( headerBuilder.length() > 0 ) {
+          headerBuilder.append( delimiter );
         }
-        if ( addCols != null ) {
-          sb.append( addCols );
+        headerBuilder.append( enclosing ).append( kv.getKey() ).append( enclosing );
+        addColsBuilder.append( enclosing ).append( kv.getValue() ).append( enclosing ).append( delimiter );
+      }
+      header = headerBuilder.toString();
+      addCols = addColsBuilder.toString();
+    }
+    if ( printHeader && ( header != null || width > 0 ) ) {
+      StringBuilder headerBuilder = new StringBuilder( header != null ? header : "" );
+      for ( int i = 0; i < width; i++ ) {
+        if ( i > 0 || header != null ) {
+          headerBuilder.append( delimiter );
         }
-        for ( int i = 0; i < width; i++ ) {
-          int colType = rs.getMetaData().getColumnType( i + 1 );
-          String content = rsch.getValue( rs, colType, i + 1 );
-          if ( content == null ) {
-            content = "";
-          }
-          if ( i > 0 ) {
-            sb.append( delimiter );
-          }
-          content = content.replace( "\"", "\"\"" );
-          sb.append(enclosing).append(content).append(enclosing);
+        headerBuilder.append( enclosing ).append( metaData.getColumnName( i + 1 ) ).append( enclosing );
+      }
+      header = headerBuilder.append( NEWLINE ).toString();
+    } else {
+      header = null;
+    }
+
+    ResultSetHelper rsch = new ResultSetHelper();
+    boolean first = true;
+    while ( rs.next() ) {
+      if ( first ) {
+        // like before, an empty result set has no header either
+        if ( header != null ) {
+          writer.write( header );
         }
-        sb.append( "\r\n" );
-        height++;
+        first = false;
       }
-      return sb.toString().getBytes( SaikuProperties.webExportCsvTextEncoding ); //$NON-NLS-1$
+      if ( addCols != null ) {
+        writer.write( addCols );
+      }
+      for ( int i = 0; i < width; i++ ) {
+        if ( i > 0 ) {
+          writer.write( delimiter );
+        }
+        writeValue( writer, rsch.getValue( rs, types[ i ], i + 1 ), enclosing );
+      }
+      writer.write( NEWLINE );
+    }
+  }
+
+  private static byte[] getCsv( ResultSet rs, String delimiter, String enclosing, boolean printHeader,
+                                List<KeyValue<String, String>> additionalColumns ) {
+    try {
+      StringWriter writer = new StringWriter();
+      write( rs, delimiter, enclosing, printHeader, additionalColumns, writer );
+      return writer.toString().getBytes( SaikuProperties.webExportCsvTextEncoding ); //$NON-NLS-1$
     } catch ( Exception e ) {
       log.error("Exception", e);
     }
     return new byte[ 0 ];
   }
 
-  private static byte[] getCsv( CellDataSet table, String delimiter, String enclosing ) {
-    if ( table != null ) {
-      AbstractBaseCell[][] rowData = table.getCellSetBody();
-      AbstractBaseCell[][] rowHeader = table.getCellSetHeaders();
-
-
-      boolean offset = rowHeader.length > 0;
-      String[][] result = new String[ ( offset ? 1 : 0 ) + rowData.length ][];
-      if ( offset ) {
-        List<String> cols = new ArrayList<>();
-        for ( int x = 0; x < rowHeader[ 0 ].length; x++ ) {
-          String col = null;
-          for ( int y = rowHeader.length - 1; y >= 0; y-- ) {
-            String value = rowHeader[ y ][ x ].getFormattedValue();
-            if ( value == null || "null".equals( value ) )  //$NON-NLS-1$
-            {
-              value = ""; //$NON-NLS-1$
-            }
-            if ( col == null && StringUtils.isNotBlank( value ) ) {
-              col = value;
-            } else if ( col != null && StringUtils.isNotBlank( value ) ) {
-              col = value + "/" + col;
-            }
+  private static void writeValue( Writer writer, String value, String enclosing ) throws IOException {
+    writer.write( enclosing );
+    if ( value != null ) {
+      writer.write( value.indexOf( '"' ) < 0 ? value : value.replace( "\"", "\"\"" ) );
+    }
+    writer.write( enclosing );
+  }
+
+  /**
+   * Writes formatted rows as CSV. The header rows are kept until the first body row, as they are merged into one
+   * line with the levels of each column joined by <code>/</code>.
+   */
+  private static class CellSetRowWriter implements ICellSetRowHandler {
+
+    private final Writer writer;
+
+    private final String delimiter;
+
+    private final String enclosing;
+
+    private final List<AbstractBaseCell[]> headers = new ArrayList<>();
+
+    private String[] lastKnownHeader;
+
+    CellSetRowWriter( Writer writer, String delimiter, String enclosing ) {
+      this.writer = writer;
+      this.delimiter = delimiter;
+      this.enclosing = enclosing;
+    }
+
+    public void handleRow( AbstractBaseCell[] row, boolean header ) throws IOException {
+      if ( header ) {
+        headers.add( row );
+        return;
+      }
+      writeHeader();
+      if ( lastKnownHeader == null ) {
+        lastKnownHeader = new String[ row.length ];
+      }
+      for ( int y = 0; y < row.length; y++ ) {
+        AbstractBaseCell cell = row[ y ];
+        String value = cell != null ? cell.getFormattedValue() : null;
+        if ( !SaikuProperties.webExportCsvUseFormattedValue ) {
+          if ( cell instanceof DataCell && ( (DataCell) cell ).getRawNumber() != null ) {
+            value = ( (DataCell) cell ).getRawNumber().toString();
           }
-          cols.add( enclosing + col + enclosing );
         }
-        result[ 0 ] = cols.toArray( new String[ cols.size() ] );
-      }
-      String[] lastKnownHeader = null;
-      for ( int x = 0; x < rowData.length; x++ ) {
-        int xTarget = ( offset ? 1 : 0 ) + x;
-        if ( lastKnownHeader == null ) {
-          lastKnownHeader = new String[ rowData[ x ].length ];
+        if ( cell instanceof MemberCell && StringUtils.isNotBlank( value ) && !"null".equals( value ) ) {
+          lastKnownHeader[ y ] = value;
+        } else if ( cell instanceof MemberCell && ( StringUtils.isBlank( value ) || "null".equals( value ) ) ) {
+          value = ( StringUtils.isNotBlank( lastKnownHeader[ y ] ) ? lastKnownHeader[ y ] : null );
         }
-        List<String> cols = new ArrayList<>();
-        for ( int y = 0; y < rowData[ x ].length; y++ ) {
-          String value = rowData[ x ][ y ].getFormattedValue();
-          if ( !SaikuProperties.webExportCsvUseFormattedValue ) {
-            if ( rowData[ x ][ y ] instanceof DataCell && ( (DataCell) rowData[ x ][ y ] ).getRawNumber() != null ) {
-              value = ( (DataCell) rowData[ x ][ y ] ).getRawNumber().toString();
-            }
-          }
-          if ( rowData[ x ][ y ] instanceof MemberCell && StringUtils.isNotBlank( value ) && !"null".equals( value ) ) {
-            lastKnownHeader[ y ] = value;
-          } else if ( rowData[ x ][ y ] instanceof MemberCell && ( StringUtils.isBlank( value ) || "null"
-            .equals( value ) ) ) {
-            value = ( StringUtils.isNotBlank( lastKnownHeader[ y ] ) ? lastKnownHeader[ y ] : null );
-          }
 
-          if ( value == null || "null".equals( value ) ) {
-            value = "";
-          }
-          value = value.replace( "\"", "\"\"" );
-          value = enclosing + value + enclosing;
-          cols.add( value );
+        if ( "null".equals( value ) ) {
+          value = null;
         }
-        result[ xTarget ] = cols.toArray( new String[ cols.size() ] );
-
+        if ( y > 0 ) {
+          writer.write( delimiter );
+        }
+        writeValue( writer, value, enclosing );
       }
-      return export( result, delimiter );
+      writer.write( NEWLINE );
     }
-    return new byte[ 0 ];
-  }
 
-  private static byte[] export( String[][] resultSet, String delimiter ) {
-    try {
-      String output = "";
-      StringBuilder buf = new StringBuilder();
-      if ( resultSet.length > 0 ) {
-        for (String[] vs : resultSet) {
-          for (int j = 0; j < vs.length; j++) {
-            String value = vs[j];
-
-            if (j > 0) {
-              buf.append(delimiter).append(value);
-              //output += delimiter + value;
-            } else {
-              buf.append(value);
-              //output += value;
-            }
+    /**
+     * Writes the header of a result without body rows.
+     */
+    void finish() throws IOException {
+      writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+      if ( headers.isEmpty() ) {
+        return;
+      }
+      int width = headers.get( 0 ).length;
+      for ( int x = 0; x < width; x++ ) {
+        String col = null;
+        for ( int y = headers.size() - 1; y >= 0; y-- ) {
+          AbstractBaseCell cell = headers.get( y )[ x ];
+          String value = cell != null ? cell.getFormattedValue() : null;
+          if ( value == null || "null".equals( value ) )  //$NON-NLS-1$
+          {
+            value = ""; //$NON-NLS-1$
+          }
+          if ( col == null && StringUtils.isNotBlank( value ) ) {
+            col = value;
+          } else if ( col != null && StringUtils.isNotBlank( value ) ) {
+            col = value + "/" + col;
           }
-          buf.append("\r\n");
-          //output += "\r\n"; //$NON-NLS-1$
         }
-        output = buf.toString();
-        return output.getBytes( SaikuProperties.webExportCsvTextEncoding ); //$NON-NLS-1$
+        if ( x > 0 ) {
+          writer.write( delimiter );
+        }
+        writer.write( enclosing + col + enclosing );
       }
-    } catch ( Throwable e ) {
-      throw new SaikuServiceException( "Error creating csv export for query" ); //$NON-NLS-1$
+      writer.write( NEWLINE );
+      headers.clear();
     }
-    return new byte[ 0 ];
   }
 }
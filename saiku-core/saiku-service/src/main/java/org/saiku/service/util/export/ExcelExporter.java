@@ -19,12 +19,14 @@ import org.olap4j.CellSet;
 import org.saiku.olap.dto.resultset.CellDataSet;
 import org.saiku.olap.query2.ThinHierarchy;
 import org.saiku.olap.util.OlapResultSetUtil;
+import org.saiku.olap.util.SaikuProperties;
 import org.saiku.olap.util.formatter.FlattenedCellSetFormatter;
 import org.saiku.olap.util.formatter.HierarchicalCellSetFormatter;
 import org.saiku.olap.util.formatter.ICellSetFormatter;
 import org.saiku.service.util.export.excel.ExcelBuilderOptions;
 import org.saiku.service.util.export.excel.ExcelWorksheetBuilder;
 
+import java.io.OutputStream;
 import java.util.List;
 
 public class ExcelExporter {
@@ -43,9 +45,26 @@ public class ExcelExporter {
     public static byte[] exportExcel(CellDataSet table,
                                      ICellSetFormatter formatter,
                                      List<ThinHierarchy> filters) {
+        return getExcel(table, filters, getOptions(formatter));
+    }
+
+    /**
+     * Writes the workbook straight to the output. With <code>saiku.web.export.excel.streaming</code> an xlsx
+     * workbook only keeps a window of rows in memory.
+     */
+    public static void exportExcel(CellDataSet table,
+                                   ICellSetFormatter formatter,
+                                   List<ThinHierarchy> filters,
+                                   OutputStream output) {
+        new ExcelWorksheetBuilder(table, filters, getOptions(formatter)).build(output);
+    }
+
+    private static ExcelBuilderOptions getOptions(ICellSetFormatter formatter) {
         ExcelBuilderOptions exb = new ExcelBuilderOptions();
         exb.repeatValues = (formatter instanceof FlattenedCellSetFormatter);
-        return getExcel(table, filters, exb);
+        exb.streaming = SaikuProperties.webExportExcelStreaming;
+        exb.rowAccessWindowSize = SaikuProperties.webExportExcelStreamingWindow;
+        return exb;
     }
 
     private static byte[] getExcel(CellDataSet table, List<ThinHierarchy> filters, ExcelBuilderOptions options) {
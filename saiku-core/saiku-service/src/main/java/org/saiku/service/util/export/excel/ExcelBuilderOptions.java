@@ -18,4 +18,9 @@ package org.saiku.service.util.export.excel;
 public class ExcelBuilderOptions {
   public boolean repeatValues = true;
   public final String sheetName = null;
+  /**
+   * Write xlsx workbooks with a row window, keeping only the last <code>rowAccessWindowSize</code> rows in memory.
+   */
+  public boolean streaming = false;
+  public int rowAccessWindowSize = 100;
 }
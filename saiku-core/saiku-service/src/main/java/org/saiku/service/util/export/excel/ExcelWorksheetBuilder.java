@@ -6,6 +6,7 @@ import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
 import org.apache.poi.xssf.usermodel.XSSFColor;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
@@ -19,7 +20,8 @@ import org.saiku.olap.query2.ThinLevel;
 import org.saiku.olap.query2.ThinMember;
 import org.saiku.olap.util.SaikuProperties;
 import org.saiku.service.olap.totals.TotalNode;
-import org.saiku.service.olap.totals.aggregators.TotalAggregator;
+import org.saiku.service.olap.totals.aggregators.TotalFunction;
+import org.saiku.service.olap.totals.aggregators.TotalValue;
 import org.saiku.service.util.exception.SaikuServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +29,7 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -48,8 +51,8 @@ public class ExcelWorksheetBuilder {
     private AbstractBaseCell[][] rowsetHeader;
     private AbstractBaseCell[][] rowsetBody;
 
-    private Map<Integer, TotalAggregator[][]> rowScanTotals;
-    private Map<Integer, TotalAggregator[][]> colScanTotals;
+    private Map<Integer, TotalValue[][]> rowScanTotals;
+    private Map<Integer, TotalValue[][]> colScanTotals;
 
     private CellDataSet table;
     private Workbook excelWorkbook;
@@ -91,6 +94,12 @@ public class ExcelWorksheetBuilder {
             excelWorkbook = wb;
             maxRows = SpreadsheetVersion.EXCEL97.getMaxRows();
             maxColumns = SpreadsheetVersion.EXCEL97.getMaxColumns();
+        } else if (options.streaming) {
+            // Rows leaving the window are flushed to a temporary file, a row must never be looked up further back
+            // than the window: the previous row (repeated values, grand total label) is the furthest we go
+            SXSSFWorkbook wb = new SXSSFWorkbook(Math.max(2, options.rowAccessWindowSize));
+            wb.setCompressTempFiles(true);
+            excelWorkbook = wb;
         } else if ("xlsx".equals(SaikuProperties.webExportExcelFormat)) {
             excelWorkbook = new XSSFWorkbook();
         } else {
@@ -185,6 +194,16 @@ public class ExcelWorksheetBuilder {
     }
 
     public byte[] build() throws SaikuServiceException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        build(bout);
+        return bout.toByteArray();
+    }
+
+    /**
+     * Builds the workbook and writes it to the output. A streamed workbook is written from its temporary file, which
+     * is deleted afterwards.
+     */
+    public void build(OutputStream output) throws SaikuServiceException {
 
         Long start = (new Date()).getTime();
         int startRow = initExcelSheet();
@@ -199,14 +218,16 @@ public class ExcelWorksheetBuilder {
 
         log.debug("Init: " + (init - start) + "ms header: " + (header - init) + "ms content: " + (content - header)
                 + "ms finalizing: " + (finalizing - content) + "ms ");
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
 
         try {
-            excelWorkbook.write(bout);
+            excelWorkbook.write(output);
         } catch (IOException e) {
             throw new SaikuServiceException("Error creating excel export for query", e);
+        } finally {
+            if (excelWorkbook instanceof SXSSFWorkbook) {
+                ((SXSSFWorkbook) excelWorkbook).dispose();
+            }
         }
-        return bout.toByteArray();
     }
 
     private void checkRowLimit(int rowIndex) {
@@ -227,7 +248,7 @@ public class ExcelWorksheetBuilder {
             cell.setCellValue("Columns");
 
             for (Integer colKey : colScanTotals.keySet()) {
-                TotalAggregator[][] colAggregator = colScanTotals.get(colKey);
+                TotalValue[][] colAggregator = colScanTotals.get(colKey);
 
                 if (colAggregator == null) continue;
 
@@ -237,7 +258,7 @@ public class ExcelWorksheetBuilder {
 
                     Measure measure = this.table.getSelectedMeasures()[x];
 
-                    TotalAggregator agg = colAggregator[x][0];
+                    TotalValue agg = colAggregator[x][0];
                     row = workbookSheet.createRow(rowIndex);
 
                     // Measure name
@@ -248,7 +269,7 @@ public class ExcelWorksheetBuilder {
                     // Measure aggregator
                     cell = row.createCell(1);
                     cell.setCellStyle(basicCS);
-                    cell.setCellValue(agg.getClass().getSimpleName().substring(0, 3));
+                    cell.setCellValue(functionName(agg));
                 }
             }
         }
@@ -264,7 +285,7 @@ public class ExcelWorksheetBuilder {
             cell.setCellValue("Rows");
 
             for (Integer rowKey : rowScanTotals.keySet()) {
-                TotalAggregator[][] rowAggregator = rowScanTotals.get(rowKey);
+                TotalValue[][] rowAggregator = rowScanTotals.get(rowKey);
 
                 if (rowAggregator == null) continue;
 
@@ -274,7 +295,7 @@ public class ExcelWorksheetBuilder {
                         checkRowLimit(rowIndex);
 
                         Measure measure = this.table.getSelectedMeasures()[y];
-                        TotalAggregator agg = rowAggregator[x][y];
+                        TotalValue agg = rowAggregator[x][y];
 
                         row = workbookSheet.createRow(rowIndex);
 
@@ -286,7 +307,7 @@ public class ExcelWorksheetBuilder {
                         // Measure aggregator
                         cell = row.createCell(1);
                         cell.setCellStyle(basicCS);
-                        cell.setCellValue(agg.getClass().getSimpleName().substring(0, 3));
+                        cell.setCellValue(functionName(agg));
                     }
                 }
             }
@@ -298,6 +319,10 @@ public class ExcelWorksheetBuilder {
 
         boolean autoSize = (rowsetBody != null && rowsetBody.length > 0 && rowsetBody.length < 10000
                 && rowsetHeader != null && rowsetHeader.length > 0 && rowsetHeader[0].length < 200);
+        if (excelWorkbook instanceof SXSSFWorkbook) {
+            // only the rows still in the window can be measured
+            autoSize = autoSize && rowsetHeader.length + rowsetBody.length < options.rowAccessWindowSize;
+        }
 
         if (autoSize) {
             log.warn("Skipping auto-sizing columns, more than 10000 rows and/or 200 columns");
@@ -486,7 +511,7 @@ public class ExcelWorksheetBuilder {
         addMergedRegions(mergeRowsByColumn);
     }
 
-    private void scanRowAndColumnAggregations(List<TotalNode>[] rowTotalsLists, Map<Integer, TotalAggregator[][]> rowScanTotals, List<TotalNode>[] colTotalsLists, Map<Integer, TotalAggregator[][]> colScanTotals) {
+    private void scanRowAndColumnAggregations(List<TotalNode>[] rowTotalsLists, Map<Integer, TotalValue[][]> rowScanTotals, List<TotalNode>[] colTotalsLists, Map<Integer, TotalValue[][]> colScanTotals) {
         if (rowTotalsLists != null) {
             for (List<TotalNode> totalNodes : rowTotalsLists) {
                 //Scan row totals
@@ -501,7 +526,7 @@ public class ExcelWorksheetBuilder {
         }
     }
 
-    private void scanAggregations(boolean row, List<TotalNode> totalNodes, Map<Integer, TotalAggregator[][]> scanSums) {
+    private void scanAggregations(boolean row, List<TotalNode> totalNodes, Map<Integer, TotalValue[][]> scanSums) {
         if (totalNodes != null && (!totalNodes.isEmpty())) {
             int index;
             if (row) {
@@ -510,7 +535,7 @@ public class ExcelWorksheetBuilder {
                 index = detectColumnStartIndex();
             }
             for (TotalNode n : totalNodes) {
-                TotalAggregator[][] tg = n.getTotalGroups();
+                TotalValue[][] tg = n.getTotalGroups();
                 if (tg.length > 0) {
                     if (n.getSpan() > n.getWidth()) {
                         index += n.getSpan();
@@ -524,10 +549,21 @@ public class ExcelWorksheetBuilder {
         }
     }
 
-    private int setRowTotalAggregationCell(Map<Integer, TotalAggregator[][]> scanTotals, int startIndex, int subIndex, boolean grandTotal) {
+    /**
+     * @return the short name of the function of a total, like <code>Sum</code>
+     */
+    private static String functionName(TotalValue total) {
+        TotalFunction function = total.getFunction();
+        if (function == null || function == TotalFunction.NIL) {
+            return "-";
+        }
+        return StringUtils.capitalize(function.name().toLowerCase());
+    }
+
+    private int setRowTotalAggregationCell(Map<Integer, TotalValue[][]> scanTotals, int startIndex, int subIndex, boolean grandTotal) {
         if (!scanTotals.isEmpty()) {
             int row = subIndex + startIndex;
-            TotalAggregator[][] aggregatorsTable = scanTotals.get(row);
+            TotalValue[][] aggregatorsTable = scanTotals.get(row);
             if (aggregatorsTable != null) {
                 //Create totals row
                 Row sheetRow = workbookSheet.createRow(row + 1);
@@ -539,11 +575,11 @@ public class ExcelWorksheetBuilder {
                     setGrandTotalLabel(sheetRow, startColumnIndex, false);
                 }
 
-                for (TotalAggregator[] aggregators : aggregatorsTable) {
+                for (TotalValue[] aggregators : aggregatorsTable) {
 
                     int column = startColumnIndex;
 
-                    for (TotalAggregator aggregator : aggregators) {
+                    for (TotalValue aggregator : aggregators) {
 
                         //Calculate column sub total index
                         column = setColTotalAggregationCell(colScanTotals, null, -1, column, false, false);
@@ -577,10 +613,10 @@ public class ExcelWorksheetBuilder {
         return index;
     }
 
-    private int setColTotalAggregationCell(Map<Integer, TotalAggregator[][]> scanTotals, Row sheetRow, int x, int column, boolean setValue, boolean grandTotal) {
+    private int setColTotalAggregationCell(Map<Integer, TotalValue[][]> scanTotals, Row sheetRow, int x, int column, boolean setValue, boolean grandTotal) {
         column++;
         if (!scanTotals.isEmpty()) {
-            TotalAggregator[][] aggregatorsTable = scanTotals.get(column);
+            TotalValue[][] aggregatorsTable = scanTotals.get(column);
             if (aggregatorsTable != null) {
                 if (setValue) {
                     if (grandTotal) {
@@ -589,7 +625,7 @@ public class ExcelWorksheetBuilder {
                     // When there are more than one aggregation total per column, those should be
                     // added after (+ offset) to avoid overriding cell values.
                     int columnOffset = 0;
-                    for (TotalAggregator[] aggregators : aggregatorsTable) {
+                    for (TotalValue[] aggregators : aggregatorsTable) {
                         Cell cell = sheetRow.createCell(column + columnOffset);
                         String value = aggregators[x].getFormattedValue();
                         cell.setCellValue(value);
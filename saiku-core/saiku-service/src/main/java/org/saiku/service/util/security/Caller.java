@@ -0,0 +1,121 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.service.util.security;
+
+import org.saiku.service.ISessionService;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The user and roles a request runs as.
+ *
+ * <p>Taken from the Saiku session when there is one, and from the Spring security context of the current thread
+ * otherwise, so services shared by all users (like the ones of the BI platform plugin) still tell them apart.
+ * Resolve it on the thread of the request, services are shared and connections change roles between requests.</p>
+ */
+public final class Caller {
+
+    private static final Logger log = LoggerFactory.getLogger(Caller.class);
+
+    private final String user;
+
+    private final List<String> roles;
+
+    public Caller(String user, List<String> roles) {
+        this.user = user;
+        this.roles = roles != null ? Collections.unmodifiableList(new ArrayList<>(roles))
+                : Collections.<String>emptyList();
+    }
+
+    /**
+     * Resolves the caller of the current thread.
+     *
+     * @param sessionService the Saiku sessions, or null to only look at the security context
+     */
+    public static Caller current(ISessionService sessionService) {
+        String user = null;
+        List<String> roles = null;
+        if (sessionService != null) {
+            try {
+                Map<String, Object> session = sessionService.getAllSessionObjects();
+                if (session != null) {
+                    user = (String) session.get("username");
+                    if (session.get("roles") instanceof List) {
+                        roles = new ArrayList<>();
+                        for (Object role : (List<?>) session.get("roles")) {
+                            roles.add(String.valueOf(role));
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.debug("Cannot get user of session, using the security context", e);
+            }
+        }
+        SecurityContext context = SecurityContextHolder.getContext();
+        Authentication auth = context != null ? context.getAuthentication() : null;
+        if (auth != null && auth.isAuthenticated()) {
+            if (StringUtils.isBlank(user)) {
+                user = auth.getName();
+            }
+            if (roles == null) {
+                roles = new ArrayList<>();
+                for (GrantedAuthority authority : auth.getAuthorities()) {
+                    roles.add(authority.getAuthority());
+                }
+            }
+        }
+        return new Caller(StringUtils.isBlank(user) ? null : user, roles);
+    }
+
+    /**
+     * @return the user name, null if the caller is anonymous
+     */
+    public String getUser() {
+        return user;
+    }
+
+    public List<String> getRoles() {
+        return roles;
+    }
+
+    /**
+     * @return the roles sorted and comma separated, null if the caller has none
+     */
+    public String getRoleKey() {
+        if (roles.isEmpty()) {
+            return null;
+        }
+        List<String> sorted = new ArrayList<>(roles);
+        Collections.sort(sorted);
+        return StringUtils.join(sorted, ",");
+    }
+
+    @Override
+    public String toString() {
+        return user + roles;
+    }
+}
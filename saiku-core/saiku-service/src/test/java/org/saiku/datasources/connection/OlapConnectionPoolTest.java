@@ -0,0 +1,116 @@
+package org.saiku.datasources.connection;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.olap4j.OlapConnection;
+import org.saiku.olap.util.exception.SaikuOlapException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OlapConnectionPoolTest
+{
+    @Test
+    public void shouldReuseConnectionsGivenBack() throws Exception
+    {
+        OlapConnectionPool pool = new OlapConnectionPool("test", factory(new AtomicBoolean(true)), 0, 2, 100, 0, true);
+
+        ISaikuConnection first = pool.borrow();
+        pool.giveBack(first);
+
+        assertSame(first, pool.borrow());
+        assertEquals(1, pool.getCreated());
+        assertEquals(1, pool.getActive());
+    }
+
+    @Test
+    public void shouldTimeOutWhenAllConnectionsAreLeased() throws Exception
+    {
+        OlapConnectionPool pool = new OlapConnectionPool("test", factory(new AtomicBoolean(true)), 0, 1, 10, 0, true);
+        pool.borrow();
+
+        try {
+            pool.borrow();
+            fail("Pool should be exhausted");
+        } catch (SaikuOlapException e) {
+            assertEquals(1, pool.getTimeouts());
+        }
+    }
+
+    @Test
+    public void shouldReplaceConnectionsFailingValidation() throws Exception
+    {
+        AtomicBoolean valid = new AtomicBoolean(true);
+        OlapConnectionPool pool = new OlapConnectionPool("test", factory(valid), 0, 2, 100, 0, true);
+
+        ISaikuConnection first = pool.borrow();
+        pool.giveBack(first);
+        valid.set(false);
+
+        assertNotSame(first, pool.borrow());
+        assertEquals(1, pool.getValidationFailures());
+        assertEquals(1, pool.getDestroyed());
+    }
+
+    @Test
+    public void shouldCloseExpiredConnectionsOfAPoolNobodyUses() throws Exception
+    {
+        OlapConnectionPool pool = new OlapConnectionPool("test", factory(new AtomicBoolean(true)), 0, 2, 100, 1, true);
+        ISaikuConnection first = pool.borrow();
+        ISaikuConnection second = pool.borrow();
+        pool.giveBack(first);
+        pool.giveBack(second);
+        Thread.sleep(5);
+
+        pool.evictIdle();
+
+        assertEquals(0, pool.getIdle());
+        assertEquals(2, pool.getDestroyed());
+    }
+
+    @Test
+    public void shouldKeepMinimumIdleConnections() throws Exception
+    {
+        OlapConnectionPool pool = new OlapConnectionPool("test", factory(new AtomicBoolean(true)), 2, 4, 100, 1, true);
+        pool.fill();
+        assertEquals(2, pool.getIdle());
+
+        ISaikuConnection first = pool.borrow();
+        ISaikuConnection second = pool.borrow();
+        ISaikuConnection third = pool.borrow();
+        pool.giveBack(first);
+        pool.giveBack(second);
+        Thread.sleep(5);
+        pool.giveBack(third);
+
+        assertEquals(2, pool.getIdle());
+        assertEquals(1, pool.getDestroyed());
+    }
+
+    private static OlapConnectionPool.ConnectionFactory factory(final AtomicBoolean valid)
+    {
+        return new OlapConnectionPool.ConnectionFactory() {
+            public ISaikuConnection create() throws Exception
+            {
+                OlapConnection connection = mock(OlapConnection.class);
+                when(connection.isValid(5)).thenAnswer(new Answer<Boolean>() {
+                    public Boolean answer(InvocationOnMock invocation)
+                    {
+                        return valid.get();
+                    }
+                });
+                ISaikuConnection con = mock(ISaikuConnection.class);
+                when(con.initialized()).thenReturn(true);
+                when(con.getConnection()).thenReturn(connection);
+                return con;
+            }
+        };
+    }
+}
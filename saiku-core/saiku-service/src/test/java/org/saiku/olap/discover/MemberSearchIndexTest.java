@@ -0,0 +1,96 @@
+package org.saiku.olap.discover;
+
+import org.junit.Test;
+import org.saiku.olap.dto.SimpleCubeElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MemberSearchIndexTest
+{
+    private static final MemberSearchIndex.Key KEY =
+        new MemberSearchIndex.Key("foodmart", "FoodMart", "FoodMart", "Sales", "[Customers].[Name]", "");
+
+    @Test
+    public void shouldRankExactPrefixWordAndSubstringMatches() throws Exception
+    {
+        MemberSearchIndex index = new MemberSearchIndex(true, 100);
+        List<SimpleCubeElement> found = index.search(KEY, "Ann", -1, new CountingLoader(
+            "Joanna Smith", "Mary Ann Jones", "Annette Clark", "Ann", "Bob Miller"));
+
+        assertEquals(Arrays.asList("Ann", "Annette Clark", "Mary Ann Jones", "Joanna Smith"), names(found));
+    }
+
+    @Test
+    public void shouldLimitResultsAndKeepLevelOrderWithoutSearch() throws Exception
+    {
+        MemberSearchIndex index = new MemberSearchIndex(true, 100);
+        CountingLoader loader = new CountingLoader("Cat", "Cow", "Dog", "Crow");
+
+        assertEquals(Arrays.asList("Cat", "Cow"), names(index.search(KEY, null, 2, loader)));
+        assertEquals(Arrays.asList("Cat", "Cow"), names(index.search(KEY, "c", 2, loader)));
+        assertEquals(1, loader.loads);
+        assertEquals(4, index.getMemberCount());
+    }
+
+    @Test
+    public void shouldNotIndexLevelsOverTheLimit() throws Exception
+    {
+        MemberSearchIndex index = new MemberSearchIndex(true, 2);
+        CountingLoader loader = new CountingLoader("Cat", "Cow", "Dog");
+
+        assertNull(index.search(KEY, "c", -1, loader));
+        assertNull(index.search(KEY, "c", -1, loader));
+        assertEquals(1, loader.loads);
+        assertEquals(0, index.getMemberCount());
+    }
+
+    @Test
+    public void shouldReloadInvalidatedConnections() throws Exception
+    {
+        MemberSearchIndex index = new MemberSearchIndex(true, 100);
+        CountingLoader loader = new CountingLoader("Cat");
+
+        index.search(KEY, "c", -1, loader);
+        index.invalidate("foodmart");
+        index.search(KEY, "c", -1, loader);
+
+        assertEquals(2, loader.loads);
+        assertEquals(1, index.getLevelCount());
+    }
+
+    private static List<String> names(List<SimpleCubeElement> members)
+    {
+        List<String> names = new ArrayList<>();
+        for (SimpleCubeElement member : members) {
+            names.add(member.getName());
+        }
+        return names;
+    }
+
+    private static class CountingLoader implements MemberSearchIndex.Loader
+    {
+        private final String[] names;
+
+        private int loads;
+
+        CountingLoader(String... names)
+        {
+            this.names = names;
+        }
+
+        public List<SimpleCubeElement> load()
+        {
+            loads++;
+            List<SimpleCubeElement> members = new ArrayList<>();
+            for (String name : names) {
+                members.add(new SimpleCubeElement(name, "[Customers].[" + name + "]", name));
+            }
+            return members;
+        }
+    }
+}
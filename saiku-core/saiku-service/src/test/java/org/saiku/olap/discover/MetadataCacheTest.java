@@ -0,0 +1,66 @@
+package org.saiku.olap.discover;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetadataCacheTest
+{
+    @Test
+    public void shouldLoadOncePerConnectionRolesAndKey() throws Exception
+    {
+        MetadataCache cache = new MetadataCache(true, 10);
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals("1", cache.get("foodmart", "admin", "cubes", loader));
+        assertEquals("1", cache.get("foodmart", "admin", "cubes", loader));
+        assertEquals("2", cache.get("foodmart", "guest", "cubes", loader));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void shouldReloadAfterInvalidation() throws Exception
+    {
+        MetadataCache cache = new MetadataCache(true, 10);
+        CountingLoader loader = new CountingLoader();
+
+        cache.get("foodmart", "admin", "cubes", loader);
+        cache.get("steelwheels", "admin", "cubes", loader);
+        cache.invalidate("foodmart");
+
+        assertEquals("3", cache.get("foodmart", "admin", "cubes", loader));
+        assertEquals("2", cache.get("steelwheels", "admin", "cubes", loader));
+        cache.invalidateAll();
+        assertEquals("4", cache.get("steelwheels", "admin", "cubes", loader));
+    }
+
+    @Test
+    public void shouldNotStoreValuesLoadedDuringInvalidation() throws Exception
+    {
+        final MetadataCache cache = new MetadataCache(true, 10);
+        final AtomicInteger loads = new AtomicInteger();
+
+        cache.get("foodmart", "admin", "cubes", new MetadataCache.Loader<String>() {
+            public String load()
+            {
+                cache.invalidate("foodmart");
+                return "stale" + loads.incrementAndGet();
+            }
+        });
+
+        assertEquals(0, cache.getSize());
+    }
+
+    private static class CountingLoader implements MetadataCache.Loader<String>
+    {
+        private int loads;
+
+        public String load()
+        {
+            return String.valueOf(++loads);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.saiku.olap.dto.resultset;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MatrixTest
+{
+    @Test
+    public void shouldStoreSizedMatricesDensely() throws Exception
+    {
+        Matrix matrix = new Matrix(3, 2);
+        DataCell cell = new DataCell(true, false, Arrays.asList(1, 1));
+
+        matrix.set(1, 1, cell);
+
+        assertTrue(matrix.isDense());
+        assertSame(cell, matrix.get(1, 1));
+        assertNull(matrix.get(0, 0));
+        assertNull(matrix.get(2, 0));
+    }
+
+    @Test
+    public void shouldCountDistinctCoordinatesForWidthAndHeight() throws Exception
+    {
+        Matrix matrix = new Matrix(4, 4);
+
+        matrix.set(0, 0, new MemberCell());
+        matrix.set(1, 0, new MemberCell());
+        matrix.set(1, 2, new MemberCell());
+
+        assertEquals(2, matrix.getMatrixWidth());
+        assertEquals(2, matrix.getMatrixHeight());
+        assertTrue(matrix.containsY(2));
+        assertFalse(matrix.containsY(1));
+    }
+
+    @Test
+    public void shouldFallBackToSparseStorageForHugeGrids() throws Exception
+    {
+        Matrix matrix = new Matrix(100000, 1000);
+        MemberCell cell = new MemberCell();
+
+        matrix.set(7, 5, cell);
+
+        assertFalse(matrix.isDense());
+        assertSame(cell, matrix.get(7, 5));
+        assertEquals(1, matrix.getMap().size());
+    }
+
+    @Test
+    public void shouldPadRowsWithNulls() throws Exception
+    {
+        Matrix matrix = new Matrix(3, 3);
+        MemberCell cell = new MemberCell();
+
+        matrix.set(0, 1, cell);
+        AbstractBaseCell[] row = matrix.getRow(1, 3);
+        AbstractBaseCell[] empty = matrix.getRow(2, 3);
+
+        assertSame(cell, row[0]);
+        assertNull(row[1]);
+        assertEquals(3, empty.length);
+        assertNull(empty[0]);
+    }
+}
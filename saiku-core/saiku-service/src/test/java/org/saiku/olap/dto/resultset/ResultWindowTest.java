@@ -0,0 +1,74 @@
+package org.saiku.olap.dto.resultset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResultWindowTest
+{
+    @Test
+    public void shouldKeepHeaderColumnsAndCutOutTheWindow() throws Exception
+    {
+        ResultWindow window = ResultWindow.of(table(2, 10, 5), 3, 4, 1, 2);
+        CellDataSet cells = window.getCells();
+
+        assertEquals(1, window.getHeaderColumns());
+        assertEquals(10, window.getRowCount());
+        assertEquals(5, window.getColumnCount());
+        assertEquals(2, cells.getCellSetHeaders().length);
+        assertEquals(4, cells.getCellSetBody().length);
+        assertEquals(3, cells.getWidth());
+        assertEquals("h1.c1", cells.getCellSetHeaders()[1][1].getFormattedValue());
+        assertEquals("r3", cells.getCellSetBody()[0][0].getFormattedValue());
+        assertEquals("r3.c1", cells.getCellSetBody()[0][1].getFormattedValue());
+        assertEquals("r6.c2", cells.getCellSetBody()[3][2].getFormattedValue());
+    }
+
+    @Test
+    public void shouldClampWindowsBeyondTheResult() throws Exception
+    {
+        ResultWindow window = ResultWindow.of(table(1, 10, 5), 8, 100, 4, 100);
+
+        assertEquals(8, window.getFirstRow());
+        assertEquals(4, window.getFirstColumn());
+        assertEquals(2, window.getCells().getCellSetBody().length);
+        assertEquals(2, window.getCells().getWidth());
+        assertEquals(0, ResultWindow.of(table(1, 10, 5), 20, 10, 0, 5).getCells().getCellSetBody().length);
+        assertNull(window.getCells().getRowTotalsLists());
+    }
+
+    private static CellDataSet table(int headerRows, int rows, int columns)
+    {
+        AbstractBaseCell[][] headers = new AbstractBaseCell[headerRows][];
+        for (int y = 0; y < headerRows; y++) {
+            headers[y] = new AbstractBaseCell[columns + 1];
+            headers[y][0] = member("");
+            for (int x = 0; x < columns; x++) {
+                headers[y][x + 1] = member("h" + y + ".c" + x);
+            }
+        }
+        AbstractBaseCell[][] body = new AbstractBaseCell[rows][];
+        for (int y = 0; y < rows; y++) {
+            body[y] = new AbstractBaseCell[columns + 1];
+            body[y][0] = member("r" + y);
+            for (int x = 0; x < columns; x++) {
+                DataCell cell = new DataCell();
+                cell.setFormattedValue("r" + y + ".c" + x);
+                body[y][x + 1] = cell;
+            }
+        }
+        CellDataSet table = new CellDataSet(columns + 1, headerRows + rows);
+        table.setCellSetHeaders(headers);
+        table.setCellSetBody(body);
+        table.setOffset(headerRows);
+        return table;
+    }
+
+    private static MemberCell member(String caption)
+    {
+        MemberCell cell = new MemberCell();
+        cell.setFormattedValue(caption);
+        return cell;
+    }
+}
@@ -0,0 +1,72 @@
+package org.saiku.olap.util.formatter;
+
+import org.saiku.olap.dto.resultset.DataCell;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class CellFormattingContextTest
+{
+    @Test
+    public void shouldReuseCompiledNumberFormats() throws Exception
+    {
+        CellFormattingContext formatting = new CellFormattingContext("#,##0.00", Locale.GERMANY);
+
+        assertEquals("1.234,50", formatting.formatNumber(1234.5));
+        assertSame(formatting.getNumberFormat("#,##0.00", Locale.GERMANY),
+            formatting.getNumberFormat("#,##0.00", Locale.GERMANY));
+    }
+
+    @Test
+    public void shouldExtractFirstSectionOfFormatString() throws Exception
+    {
+        CellFormattingContext formatting = new CellFormattingContext();
+
+        assertEquals("#,##0", formatting.getFormatString("#,##0"));
+        assertEquals("#,##0.00", formatting.getFormatString("|#,##0.00|style=red"));
+        assertNull(formatting.getFormatString("|#,##0.00"));
+        assertNull(formatting.getFormatString(null));
+    }
+
+    @Test
+    public void shouldParsePropertiesOfFormattedValue() throws Exception
+    {
+        CellFormattingContext formatting = new CellFormattingContext();
+
+        assertEquals("12", formatting.parseFormattedValue("|12|style=red"));
+        Map<String, String> properties = formatting.getParsedProperties();
+        assertEquals("red", properties.get("style"));
+
+        assertEquals("13", formatting.parseFormattedValue("13"));
+        assertNull(formatting.getParsedProperties());
+        assertEquals("red", properties.get("style"));
+    }
+
+    @Test
+    public void shouldShareParsedPropertiesBetweenCells() throws Exception
+    {
+        CellFormattingContext formatting = new CellFormattingContext();
+
+        formatting.parseFormattedValue("|12|style=red");
+        Map<String, String> first = formatting.getParsedProperties();
+        formatting.parseFormattedValue("|13|style=green");
+        Map<String, String> second = formatting.getParsedProperties();
+        formatting.parseFormattedValue("|14|style=red");
+
+        assertSame(first, formatting.getParsedProperties());
+        assertEquals("green", second.get("style"));
+
+        DataCell cell = new DataCell(false, false, null);
+        cell.setProperties(first);
+        cell.setProperty("link", "#");
+
+        assertEquals("red", cell.getProperty("style"));
+        assertEquals(1, first.size());
+    }
+}
@@ -0,0 +1,106 @@
+package org.saiku.olap.util.formatter;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.saiku.olap.dto.resultset.DataCell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PageCellFormatterTest
+{
+    private static final PageCellFormatter.DataCellFactory ORDINALS = new PageCellFormatter.DataCellFactory()
+    {
+        public DataCell create(CellValues cell, CellFormattingContext formatting)
+        {
+            DataCell dataCell = new DataCell();
+            dataCell.setFormattedValue(cell.getFormattedValue());
+            return dataCell;
+        }
+    };
+
+    @Test
+    public void shouldFormatEveryCellOfTheBody() throws Exception
+    {
+        DataCell[][] cells = PageCellFormatter.format(cellSet(40, 500), Collections.singletonList(new int[] {}), null,
+            null, ORDINALS);
+
+        assertEquals(500, cells.length);
+        for (int row = 0; row < cells.length; row++) {
+            assertEquals(40, cells[row].length);
+            for (int column = 0; column < 40; column++) {
+                assertEquals(String.valueOf(row * 40 + column), cells[row][column].getFormattedValue());
+            }
+        }
+    }
+
+    @Test
+    public void shouldPutPagesBelowEachOther() throws Exception
+    {
+        CellSet cellSet = cellSet(3, 2, 2);
+        List<int[]> pages = new ArrayList<>();
+        pages.add(new int[] { 0 });
+        pages.add(new int[] { 1 });
+
+        DataCell[][] cells = PageCellFormatter.format(cellSet, pages, null, null, ORDINALS);
+
+        assertEquals(4, cells.length);
+        assertEquals("0", cells[0][0].getFormattedValue());
+        assertEquals("5", cells[1][2].getFormattedValue());
+        assertEquals("6", cells[2][0].getFormattedValue());
+        assertEquals("11", cells[3][2].getFormattedValue());
+    }
+
+    @Test
+    public void shouldLeaveSkippedRowsAndColumnsEmpty() throws Exception
+    {
+        CellSet cellSet = cellSet(3, 3);
+        List<int[]> pages = Collections.singletonList(new int[] {});
+
+        DataCell[][] cells = PageCellFormatter.format(cellSet, pages, new boolean[] { true, false, false },
+            new boolean[] { false, true, false }, ORDINALS);
+
+        assertNull(cells[0][0]);
+        assertEquals("1", cells[0][1].getFormattedValue());
+        assertNull(cells[1]);
+        assertEquals("8", cells[2][2].getFormattedValue());
+    }
+
+    private static CellSet cellSet(int... positionCounts)
+    {
+        List<CellSetAxis> axes = new ArrayList<>();
+        int cellCount = 1;
+        for (int positionCount : positionCounts) {
+            CellSetAxis axis = mock(CellSetAxis.class);
+            when(axis.getPositionCount()).thenReturn(positionCount);
+            axes.add(axis);
+            cellCount *= positionCount;
+        }
+        final Cell[] cells = new Cell[cellCount];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = mock(Cell.class);
+            when(cells[i].getFormattedValue()).thenReturn(String.valueOf(i));
+        }
+        CellSet cellSet = mock(CellSet.class);
+        when(cellSet.getAxes()).thenReturn(axes);
+        when(cellSet.getCell(anyInt())).thenAnswer(new Answer<Cell>()
+        {
+            public Cell answer(InvocationOnMock invocation) throws Throwable
+            {
+                return cells[(Integer) invocation.getArguments()[0]];
+            }
+        });
+        return cellSet;
+    }
+}
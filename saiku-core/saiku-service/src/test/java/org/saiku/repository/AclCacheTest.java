@@ -0,0 +1,78 @@
+package org.saiku.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AclCacheTest
+{
+    private static final List<String> NO_ROLES = Collections.emptyList();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldParseAnAclOnceUntilItIsInvalidated() throws Exception
+    {
+        File folder = temporaryFolder.newFolder("reports");
+        writeAcl(folder, "a");
+        AclCache cache = new AclCache();
+
+        Map<String, AclEntry> acl = cache.get(folder);
+        writeAcl(folder, "b");
+        assertSame(acl, cache.get(folder));
+        assertEquals("a", acl.get(folder.getPath()).getOwner());
+
+        cache.invalidate(folder.getPath());
+        assertEquals("b", cache.get(folder).get(folder.getPath()).getOwner());
+    }
+
+    @Test
+    public void shouldOnlyInvalidateTheNodeAndWhatIsBelowIt() throws Exception
+    {
+        File folder = temporaryFolder.newFolder("reports");
+        File sibling = temporaryFolder.newFolder("reports2");
+        AclCache cache = new AclCache();
+        cache.get(folder);
+        cache.get(new File(folder, "sales"));
+        cache.get(sibling);
+        assertEquals(3, cache.size());
+
+        cache.invalidate(folder.getPath());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void shouldInheritTheAclOfTheFolder() throws Exception
+    {
+        File folder = temporaryFolder.newFolder("home");
+        File report = new File(new File(folder, "sales"), "report.saiku");
+        writeAcl(folder, "a");
+        Acl2 acl = new Acl2(new AclCache());
+        acl.setAdminRoles(NO_ROLES);
+
+        Acl2.Resolver owner = acl.resolver("a", NO_ROLES);
+        assertTrue(owner.getMethods(report).contains(AclMethod.GRANT));
+        assertSame(owner.getMethods(report.getParentFile()), owner.getMethods(report.getParentFile()));
+        assertFalse(acl.resolver("b", NO_ROLES).getMethods(report).contains(AclMethod.READ));
+        assertEquals(acl.getMethods(report, "a", NO_ROLES), owner.getMethods(report));
+    }
+
+    private static void writeAcl(File folder, String owner) throws Exception
+    {
+        new ObjectMapper().writeValue(new File(folder, "acl.json"),
+            Collections.singletonMap(folder.getPath(), new AclEntry(owner, AclType.PRIVATE, null, null)));
+    }
+}
@@ -0,0 +1,102 @@
+package org.saiku.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RepositoryFileCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RepositoryFileCache cache;
+
+    private final AtomicInteger parsed = new AtomicInteger();
+
+    private final RepositoryFileCache.Parser<String> parser = new RepositoryFileCache.Parser<String>()
+    {
+        public String parse(Path file, byte[] contents) throws IOException
+        {
+            parsed.incrementAndGet();
+            return new String(contents, "UTF-8").trim();
+        }
+    };
+
+    @Before
+    public void start()
+    {
+        cache = new RepositoryFileCache(folder.getRoot().toPath(), true, 1024, null);
+        cache.start();
+    }
+
+    @After
+    public void stop()
+    {
+        cache.stop();
+    }
+
+    @Test
+    public void shouldParseFilesOnceUntilTheyAreInvalidated() throws Exception
+    {
+        File file = write(folder.getRoot(), "query.saiku", "first");
+        assertEquals("first", cache.parse(file.toPath(), parser));
+        assertEquals("first", cache.parse(file.toPath(), parser));
+        assertEquals(1, parsed.get());
+
+        write(folder.getRoot(), "query.saiku", "second");
+        cache.invalidate(file);
+        assertEquals("second", cache.parse(file.toPath(), parser));
+        assertEquals(2, parsed.get());
+    }
+
+    @Test
+    public void shouldSeeChangesMadeBehindItsBack() throws Exception
+    {
+        File datasources = folder.newFolder("datasources");
+        File file = write(datasources, "foodmart.sds", "first");
+        assertEquals("first", new String(cache.read(file.toPath()), "UTF-8"));
+        assertEquals(1, cache.list(folder.getRoot(), new String[] { "sds" }).size());
+
+        write(datasources, "foodmart.sds", "second");
+        write(datasources, "sales.sds", "other");
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!"second".equals(new String(cache.read(file.toPath()), "UTF-8"))
+            || cache.list(folder.getRoot(), new String[] { "sds" }).size() != 2) {
+            if (System.nanoTime() > end) {
+                fail("change of " + file + " was not noticed");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void shouldNotKeepLargeFiles() throws Exception
+    {
+        StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 2048; i++) {
+            contents.append('x');
+        }
+        File file = write(folder.getRoot(), "large.saiku", contents.toString());
+        assertEquals(2048, cache.read(file.toPath()).length);
+        assertEquals(0, cache.size());
+    }
+
+    private static File write(File dir, String name, String contents) throws IOException
+    {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), contents.getBytes("UTF-8"));
+        return file;
+    }
+}
@@ -0,0 +1,67 @@
+package org.saiku.repository;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RepositoryListingTest
+{
+    @Test
+    public void shouldPageFoldersFirstThenByName() throws Exception
+    {
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            RepositoryListing listing = page(cursor, 2);
+            for (IRepositoryObject object : listing.getRepoObjects()) {
+                names.add(object.getName());
+            }
+            assertEquals(6, listing.getCount());
+            cursor = listing.getNext();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals("[archive, Sales, a.saiku, B.saiku, b.saiku, c.saiku]", names.toString());
+        assertEquals(3, pages);
+    }
+
+    @Test
+    public void shouldLeaveTheCursorOutOnTheLastPage() throws Exception
+    {
+        RepositoryListing listing = page(null, 0);
+
+        assertEquals(6, listing.getRepoObjects().size());
+        assertNull(listing.getNext());
+    }
+
+    /**
+     * Pages the entries like the repository managers do.
+     */
+    private static RepositoryListing page(String cursor, int limit)
+    {
+        List<RepositoryListing.Entry<String>> entries = new ArrayList<>();
+        for (String name : new String[] { "c.saiku", "Sales/", "b.saiku", "archive/", "B.saiku", "a.saiku" }) {
+            boolean folder = name.endsWith("/");
+            String n = folder ? name.substring(0, name.length() - 1) : name;
+            entries.add(new RepositoryListing.Entry<String>(n, folder, n));
+        }
+        RepositoryListing listing = new RepositoryListing("/homes", entries.size());
+        List<RepositoryListing.Entry<String>> after = RepositoryListing.after(entries, cursor);
+        for (int i = 0; i < after.size(); i++) {
+            RepositoryListing.Entry<String> entry = after.get(i);
+            listing.add(entry.isFolder()
+                ? new RepositoryFolderObject(entry.getItem(), "#" + entry.getItem(), entry.getItem(), null, null)
+                : new RepositoryFileObject(entry.getItem(), "#" + entry.getItem(), "saiku", entry.getItem(), null));
+            if (limit > 0 && listing.size() >= limit && i < after.size() - 1) {
+                listing.setNext(entry);
+                break;
+            }
+        }
+        return listing;
+    }
+}
@@ -0,0 +1,164 @@
+package org.saiku.service.olap;
+
+import org.junit.Test;
+import org.saiku.service.olap.AdmissionController.Permit;
+import org.saiku.service.olap.AdmissionController.Priority;
+import org.saiku.service.util.exception.SaikuServiceException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdmissionControllerTest
+{
+    private static final List<String> NO_ROLES = Collections.emptyList();
+
+    @Test
+    public void shouldLetOtherUsersInWhileOneWaits() throws Exception
+    {
+        AdmissionController admission = new AdmissionController(true, 1, 0, null, 0, 0);
+        Permit first = admission.acquire("a", NO_ROLES, "foodmart", Priority.INTERACTIVE);
+        Waiting second = new Waiting(admission, "a", NO_ROLES, "foodmart", Priority.INTERACTIVE, null);
+        waitForQueue(admission, 1);
+
+        Permit other = admission.acquire("b", NO_ROLES, "foodmart", Priority.INTERACTIVE);
+        assertEquals(2, admission.getRunning());
+        first.close();
+        second.join(10000);
+
+        assertTrue(second.admitted);
+        assertEquals(0, admission.getQueueDepth());
+        other.close();
+        second.permit.close();
+        assertEquals(0, admission.getRunning());
+    }
+
+    @Test
+    public void shouldLetInteractiveQueriesInBeforeExports() throws Exception
+    {
+        AdmissionController admission = new AdmissionController(true, 0, 1, null, 0, 0);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        Permit running = admission.acquire("a", NO_ROLES, "foodmart", Priority.INTERACTIVE);
+        Waiting export = new Waiting(admission, "b", NO_ROLES, "foodmart", Priority.EXPORT, order);
+        waitForQueue(admission, 1);
+        Waiting interactive = new Waiting(admission, "c", NO_ROLES, "foodmart", Priority.INTERACTIVE, order);
+        waitForQueue(admission, 2);
+        assertEquals(1, admission.getQueueDepth(Priority.EXPORT));
+
+        running.close();
+        interactive.join(10000);
+        interactive.permit.close();
+        export.join(10000);
+        export.permit.close();
+
+        assertEquals("[c, b]", order.toString());
+        assertEquals(2, admission.getQueued());
+        assertEquals(3, admission.getAdmitted());
+    }
+
+    @Test
+    public void shouldLimitUsersOfARole() throws Exception
+    {
+        Map<String, Integer> roles = AdmissionController.parseLimits("ROLE_USER=1, ROLE_ADMIN=5,broken");
+        assertEquals(2, roles.size());
+        AdmissionController admission = new AdmissionController(true, 0, 0, roles, 0, 1);
+        Permit user = admission.acquire("a", Arrays.asList("ROLE_USER"), "foodmart", Priority.INTERACTIVE);
+        Permit admin = admission.acquire("b", Arrays.asList("ROLE_ADMIN"), "foodmart", Priority.INTERACTIVE);
+
+        try {
+            admission.acquire("c", Arrays.asList("ROLE_ADMIN", "ROLE_USER"), "foodmart", Priority.INTERACTIVE);
+            fail("second statement of a role limited to one was let in");
+        } catch (SaikuServiceException e) {
+            // expected, waited for a second
+        }
+        assertEquals(1, admission.getTimedOut());
+        assertEquals(0, admission.getQueueDepth());
+        user.close();
+        admin.close();
+    }
+
+    @Test
+    public void shouldRejectStatementsWhenTheQueueIsFull() throws Exception
+    {
+        AdmissionController admission = new AdmissionController(true, 1, 0, null, 1, 0);
+        Permit running = admission.acquire("a", NO_ROLES, "foodmart", Priority.INTERACTIVE);
+        Waiting waiting = new Waiting(admission, "a", NO_ROLES, "foodmart", Priority.INTERACTIVE, null);
+        waitForQueue(admission, 1);
+
+        try {
+            admission.acquire("a", NO_ROLES, "foodmart", Priority.EXPORT);
+            fail("statement was queued beyond the limit");
+        } catch (SaikuServiceException e) {
+            // expected
+        }
+        assertEquals(1, admission.getRejected());
+        running.close();
+        running.close();
+        waiting.join(10000);
+        assertEquals(1, admission.getRunning());
+        waiting.permit.close();
+    }
+
+    @Test
+    public void shouldNotLimitWhenDisabled() throws Exception
+    {
+        AdmissionController admission = new AdmissionController(false, 1, 1, null, 1, 1);
+        for (int i = 0; i < 10; i++) {
+            admission.acquire("a", NO_ROLES, "foodmart", Priority.INTERACTIVE);
+        }
+        assertEquals(0, admission.getRunning());
+    }
+
+    private static void waitForQueue(AdmissionController admission, int depth) throws InterruptedException
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (admission.getQueueDepth() != depth) {
+            if (System.nanoTime() > end) {
+                fail(admission.getQueueDepth() + " statements waiting instead of " + depth);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static class Waiting extends Thread
+    {
+        private final AdmissionController admission;
+        private final String user;
+        private final List<String> roles;
+        private final String datasource;
+        private final Priority priority;
+        private final List<String> order;
+        private volatile Permit permit;
+        private volatile boolean admitted;
+
+        Waiting(AdmissionController admission, String user, List<String> roles, String datasource, Priority priority,
+                List<String> order)
+        {
+            this.admission = admission;
+            this.user = user;
+            this.roles = roles;
+            this.datasource = datasource;
+            this.priority = priority;
+            this.order = order;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run()
+        {
+            permit = admission.acquire(user, roles, datasource, priority);
+            admitted = true;
+            if (order != null) {
+                order.add(user);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.saiku.service.olap;
+
+import org.junit.Test;
+import org.olap4j.metadata.Cube;
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.olap.query2.ThinQuery;
+import org.saiku.olap.query2.ThinQueryModel;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class CompiledQueryCacheTest
+{
+    private static final String MDX = "SELECT [Measures].[Unit Sales] ON COLUMNS FROM [Sales]";
+
+    private static final SaikuCube SALES =
+        new SaikuCube("foodmart", "[Sales]", "Sales", "Sales", "FoodMart", "FoodMart");
+
+    @Test
+    public void shouldHandOutACopyOfTheCompiledModel() throws Exception
+    {
+        CompiledQueryCache cache = new CompiledQueryCache(true, 10);
+        Cube cube = cube();
+        ThinQuery query = new ThinQuery("q1", SALES);
+        CompiledQueryCache.Key key = cache.key(query, null);
+        ThinQueryModel model = new ThinQueryModel();
+        model.setVisualTotals(true);
+
+        cache.put(key, cube, MDX, model);
+        CompiledQueryCache.CompiledQuery compiled = cache.get(cache.key(new ThinQuery("q2", SALES), null), cube);
+
+        assertNotNull(compiled);
+        assertEquals(MDX, compiled.getMdx());
+        assertNotSame(model, compiled.getQueryModel());
+        assertEquals(true, compiled.getQueryModel().isVisualTotals());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void shouldMissWhenTheModelOrTheCubeChanged() throws Exception
+    {
+        CompiledQueryCache cache = new CompiledQueryCache(true, 10);
+        Cube cube = cube();
+        ThinQuery query = new ThinQuery("q1", SALES);
+        CompiledQueryCache.Key key = cache.key(query, null);
+        cache.put(key, cube, MDX, new ThinQueryModel());
+
+        query.getQueryModel().setVisualTotals(true);
+        assertFalse(key.equals(cache.key(query, null)));
+        assertNull(cache.get(cache.key(query, null), cube));
+        assertNull(cache.get(key, cube()));
+
+        cache.invalidate("foodmart");
+        assertNull(cache.get(key, cube));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldHitWithAnEqualCubeOfAnotherLookup() throws Exception
+    {
+        CompiledQueryCache cache = new CompiledQueryCache(true, 10);
+        Cube compiledWith = cube("Sales");
+        Cube lookedUp = cube("Sales");
+        ThinQuery query = new ThinQuery("q1", SALES);
+        cache.put(cache.key(query, null), compiledWith, MDX, new ThinQueryModel());
+
+        assertNotSame(compiledWith, lookedUp);
+        assertNotNull(cache.get(cache.key(query, null), lookedUp));
+        assertNull(cache.get(cache.key(query, null), cube("Warehouse")));
+    }
+
+    @Test
+    public void shouldNotCacheModelsCompiledBeforeARefresh() throws Exception
+    {
+        CompiledQueryCache cache = new CompiledQueryCache(true, 10);
+        Cube cube = cube("Sales");
+        ThinQuery query = new ThinQuery("q1", SALES);
+        CompiledQueryCache.Key key = cache.key(query, null);
+
+        cache.invalidate("foodmart");
+        cache.put(key, cube, MDX, new ThinQueryModel());
+        assertEquals(0, cache.size());
+
+        key = cache.key(query, null);
+        cache.invalidateAll();
+        cache.put(key, cube, MDX, new ThinQueryModel());
+        assertEquals(0, cache.size());
+
+        cache.put(cache.key(query, null), cube, MDX, new ThinQueryModel());
+        assertNotNull(cache.get(cache.key(query, null), cube("Sales")));
+    }
+
+    @Test
+    public void shouldOnlyShareModelsWithTheSameRoles() throws Exception
+    {
+        CompiledQueryCache cache = new CompiledQueryCache(true, 10);
+        Cube cube = cube("Sales");
+        ThinQuery query = new ThinQuery("q1", SALES);
+        CompiledQueryCache.Key key = cache.key(query, "California manager");
+        cache.put(key, cube, MDX, new ThinQueryModel());
+
+        assertNotNull(cache.get(cache.key(query, "California manager"), cube));
+        assertNull(cache.get(cache.key(query, null), cube));
+        assertNull(cache.getTotalsQuery(key, cube));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled() throws Exception
+    {
+        CompiledQueryCache cache = new CompiledQueryCache(false, 10);
+        assertNull(cache.key(new ThinQuery("q1", SALES), null));
+    }
+
+    private static Cube cube()
+    {
+        return cube(UUID.randomUUID().toString());
+    }
+
+    /**
+     * A cube equal to all cubes of the same name, like the ones Mondrian hands out for every lookup.
+     */
+    private static Cube cube(final String name)
+    {
+        return (Cube) Proxy.newProxyInstance(CompiledQueryCacheTest.class.getClassLoader(), new Class<?>[] { Cube.class },
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if ("equals".equals(method.getName())) {
+                        return args[0] instanceof Cube && name.equals(((Cube) args[0]).getName());
+                    }
+                    if ("hashCode".equals(method.getName())) {
+                        return name.hashCode();
+                    }
+                    if ("getName".equals(method.getName())) {
+                        return name;
+                    }
+                    return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,101 @@
+package org.saiku.service.olap;
+
+import org.junit.Test;
+import org.saiku.olap.dto.SaikuCube;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryMetricsTest
+{
+    private static final SaikuCube SALES =
+        new SaikuCube("foodmart", "[Sales]", "Sales", "Sales", "FoodMart", "FoodMart");
+
+    private static final SaikuCube WAREHOUSE =
+        new SaikuCube("foodmart", "[Warehouse]", "Warehouse", "Warehouse", "FoodMart", "FoodMart");
+
+    @Test
+    public void shouldKeepAHistogramPerPhaseCubeAndFormatter() throws Exception
+    {
+        QueryMetrics metrics = new QueryMetrics(true);
+        for (int i = 0; i < 98; i++) {
+            metrics.record(QueryMetrics.Phase.EXECUTE, SALES, null, millis(3));
+        }
+        metrics.record(QueryMetrics.Phase.EXECUTE, SALES, null, millis(700));
+        metrics.record(QueryMetrics.Phase.EXECUTE, SALES, null, millis(800));
+        metrics.record(QueryMetrics.Phase.FORMAT, SALES, "FlattenedCellSetFormatter", millis(20));
+        metrics.record(QueryMetrics.Phase.FORMAT, WAREHOUSE, "FlattenedCellSetFormatter", millis(40));
+
+        List<QueryMetrics.Snapshot> timers = metrics.getTimers();
+        assertEquals(3, timers.size());
+        QueryMetrics.Snapshot execute = timers.get(0);
+        assertEquals("EXECUTE", execute.getPhase());
+        assertEquals("foodmart", execute.getDatasource());
+        assertEquals("Sales", execute.getCube());
+        assertNull(execute.getFormatter());
+        assertEquals(100, execute.getCount());
+        assertEquals(5.0, execute.getP50Millis(), 0.001);
+        assertEquals(800.0, execute.getP99Millis(), 0.001);
+        assertEquals(800.0, execute.getMaxMillis(), 0.001);
+        assertEquals("Sales", timers.get(1).getCube());
+        assertEquals("Warehouse", timers.get(2).getCube());
+    }
+
+    @Test
+    public void shouldMergeTheTimersOfAPhase() throws Exception
+    {
+        QueryMetrics metrics = new QueryMetrics(true);
+        metrics.record(QueryMetrics.Phase.FORMAT, SALES, "FlattenedCellSetFormatter", millis(20));
+        metrics.record(QueryMetrics.Phase.FORMAT, WAREHOUSE, "CellSetFormatter", millis(40));
+
+        List<QueryMetrics.Snapshot> phases = metrics.getPhases();
+        assertEquals(1, phases.size());
+        assertEquals(2, phases.get(0).getCount());
+        assertNull(phases.get(0).getCube());
+        assertEquals(60.0, phases.get(0).getTotalMillis(), 0.001);
+        assertEquals(40.0, phases.get(0).getP99Millis(), 0.001);
+    }
+
+    @Test
+    public void shouldNotRecordWhenDisabled() throws Exception
+    {
+        QueryMetrics metrics = new QueryMetrics(false);
+        metrics.record(QueryMetrics.Phase.EXECUTE, SALES, null, millis(3));
+        assertTrue(metrics.getTimers().isEmpty());
+    }
+
+    @Test
+    public void shouldExposeTheTimersThroughJmx() throws Exception
+    {
+        QueryMetrics metrics = new QueryMetrics(true);
+        metrics.register();
+        metrics.record(QueryMetrics.Phase.TOTALS, SALES, "FlattenedCellSetFormatter", millis(3));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        CompositeData[] timers = (CompositeData[]) server.getAttribute(new ObjectName(QueryMetrics.OBJECT_NAME), "Timers");
+        assertEquals(1, timers.length);
+        assertEquals("TOTALS", timers[0].get("phase"));
+        assertEquals(1L, timers[0].get("count"));
+
+        server.invoke(new ObjectName(QueryMetrics.OBJECT_NAME), "reset", null, null);
+        assertTrue(metrics.getTimers().isEmpty());
+
+        metrics.unregister();
+        assertFalse(server.isRegistered(new ObjectName(QueryMetrics.OBJECT_NAME)));
+    }
+
+    private static long millis(long millis)
+    {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,269 @@
+package org.saiku.service.olap;
+
+import org.junit.Test;
+import org.olap4j.Axis;
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.CellSetMetaData;
+import org.olap4j.Position;
+import org.olap4j.metadata.Member;
+import org.olap4j.metadata.Property;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest
+{
+    private static final String MDX = "SELECT [Measures].[Unit Sales] ON COLUMNS FROM [Sales]";
+
+    @Test
+    public void shouldOnlyShareResultsWithTheSameRoles() throws Exception
+    {
+        ResultCache cache = new ResultCache(true, 10, 0);
+
+        CellSet result = cache.put(new ResultCache.Key("foodmart", "FoodMart", "California manager", null, MDX),
+            cellSet(1, 1));
+
+        assertSame(result, cache.get(new ResultCache.Key("foodmart", "FoodMart", "California manager", null, MDX)));
+        assertNull(cache.get(new ResultCache.Key("foodmart", "FoodMart", null, null, MDX)));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void shouldOnlyShareResultsOfPassThroughDatasourcesWithTheSameUser() throws Exception
+    {
+        ResultCache cache = new ResultCache(true, 10, 0);
+
+        CellSet result = cache.put(new ResultCache.Key("foodmart", "FoodMart", "Analyst", "joe", MDX), cellSet(1, 1));
+
+        assertSame(result, cache.get(new ResultCache.Key("foodmart", "FoodMart", "Analyst", "joe", MDX)));
+        assertNull(cache.get(new ResultCache.Key("foodmart", "FoodMart", "Analyst", "ann", MDX)));
+        assertNull(cache.get(new ResultCache.Key("foodmart", "FoodMart", "Analyst", null, MDX)));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedResults() throws Exception
+    {
+        ResultCache cache = new ResultCache(true, 2, 0);
+        ResultCache.Key first = new ResultCache.Key("foodmart", "FoodMart", null, null, MDX + " WHERE [Time].[1997]");
+        ResultCache.Key second = new ResultCache.Key("foodmart", "FoodMart", null, null, MDX + " WHERE [Time].[1998]");
+        ResultCache.Key third = new ResultCache.Key("foodmart", "FoodMart", null, null, MDX);
+
+        cache.put(first, cellSet(1, 1));
+        cache.put(second, cellSet(1, 1));
+        cache.get(first);
+        cache.put(third, cellSet(1, 1));
+
+        assertNull(cache.get(second));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.purge());
+    }
+
+    @Test
+    public void shouldInvalidateResultsOfRefreshedConnection() throws Exception
+    {
+        ResultCache cache = new ResultCache(true, 10, 0);
+        ResultCache.Key foodmart = new ResultCache.Key("foodmart", "FoodMart", null, null, MDX);
+        ResultCache.Key steelwheels = new ResultCache.Key("steelwheels", "SteelWheels", null, null, MDX);
+
+        cache.put(foodmart, cellSet(1, 1));
+        CellSet result = cache.put(steelwheels, cellSet(1, 1));
+        cache.invalidate("foodmart");
+
+        assertNull(cache.get(foodmart));
+        assertSame(result, cache.get(steelwheels));
+    }
+
+    @Test
+    public void shouldDropResultReleasedByRegistry() throws Exception
+    {
+        ResultCache cache = new ResultCache(true, 10, 0);
+        ResultCache.Key key = new ResultCache.Key("foodmart", "FoodMart", null, null, MDX);
+
+        cache.drop(cache.put(key, cellSet(1, 1)));
+
+        assertNull(cache.get(key));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void shouldShareACopyThatDoesNotNeedTheResultAnyMore() throws Exception
+    {
+        ResultCache cache = new ResultCache(true, 10, 0);
+        AtomicBoolean closed = new AtomicBoolean();
+        CellSet result = cellSet(2, 3, closed);
+
+        CellSet copy = cache.put(new ResultCache.Key("foodmart", "FoodMart", null, null, MDX), result);
+        closed.set(true);
+
+        assertNotSame(result, copy);
+        assertEquals(2, copy.getAxes().size());
+        assertEquals(Axis.ROWS, copy.getAxes().get(1).getAxisOrdinal());
+        assertEquals(3, copy.getAxes().get(1).getPositionCount());
+        assertEquals("[Store].[2]", copy.getAxes().get(1).getPositions().get(2).getMembers().get(0).getUniqueName());
+        assertSame(copy, copy.getAxes().get(0).getCellSet());
+
+        Cell cell = copy.getCell(Arrays.asList(1, 2));
+        assertEquals(5, cell.getOrdinal());
+        assertEquals(Arrays.asList(1, 2), cell.getCoordinateList());
+        assertEquals(5.0, cell.getValue());
+        assertEquals(5.0, cell.getDoubleValue(), 0);
+        assertEquals("5.00", cell.getFormattedValue());
+        assertEquals("#,##0.00", cell.getPropertyValue(Property.StandardCellProperty.FORMAT_STRING));
+        assertEquals(5, copy.getCell(copy.getAxes().get(0).getPositions().get(1),
+            copy.getAxes().get(1).getPositions().get(2)).getOrdinal());
+        assertEquals(Arrays.asList(1, 2), copy.ordinalToCoordinates(5));
+
+        Cell empty = copy.getCell(0);
+        assertTrue(empty.isEmpty());
+        assertFalse(empty.isError());
+    }
+
+    @Test
+    public void shouldNotCopyResultsIfDisabled() throws Exception
+    {
+        ResultCache cache = new ResultCache(false, 10, 0);
+        CellSet result = cellSet(1, 1);
+
+        assertSame(result, cache.put(new ResultCache.Key("foodmart", "FoodMart", null, null, MDX), result));
+        assertNull(cache.get(new ResultCache.Key("foodmart", "FoodMart", null, null, MDX)));
+    }
+
+    private static CellSet cellSet(int columns, int rows)
+    {
+        return cellSet(columns, rows, new AtomicBoolean());
+    }
+
+    /**
+     * A result with the ordinal of every cell as its value, empty for the first cell, that fails once closed.
+     */
+    private static CellSet cellSet(final int columns, final int rows, final AtomicBoolean closed)
+    {
+        final List<CellSetAxis> axes = Arrays.asList(axis(Axis.COLUMNS, "[Measures]", columns, closed),
+            axis(Axis.ROWS, "[Store]", rows, closed));
+        return proxy(CellSet.class, closed, new Answer()
+        {
+            public Object answer(String method, Object[] args)
+            {
+                if ("getAxes".equals(method)) {
+                    return axes;
+                }
+                if ("getCell".equals(method)) {
+                    final int ordinal = (Integer) args[0];
+                    return proxy(Cell.class, closed, new Answer()
+                    {
+                        public Object answer(String method, Object[] args)
+                        {
+                            Double value = ordinal > 0 ? (double) ordinal : null;
+                            if ("getValue".equals(method)) {
+                                return value;
+                            }
+                            if ("getFormattedValue".equals(method)) {
+                                return value != null ? String.format(Locale.ROOT, "%.2f", value) : "";
+                            }
+                            if ("getPropertyValue".equals(method)) {
+                                return "#,##0.00";
+                            }
+                            if ("isError".equals(method)) {
+                                return false;
+                            }
+                            return null;
+                        }
+                    });
+                }
+                if ("getMetaData".equals(method)) {
+                    return proxy(CellSetMetaData.class, closed, new Answer()
+                    {
+                        public Object answer(String method, Object[] args)
+                        {
+                            return null;
+                        }
+                    });
+                }
+                return null;
+            }
+        });
+    }
+
+    private static CellSetAxis axis(final Axis ordinal, String hierarchy, int count, AtomicBoolean closed)
+    {
+        final List<Position> positions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final List<Member> members = Collections.singletonList(member(hierarchy + ".[" + i + "]"));
+            positions.add(proxy(Position.class, closed, new Answer()
+            {
+                public Object answer(String method, Object[] args)
+                {
+                    return "getMembers".equals(method) ? members : index;
+                }
+            }));
+        }
+        return proxy(CellSetAxis.class, closed, new Answer()
+        {
+            public Object answer(String method, Object[] args)
+            {
+                if ("getAxisOrdinal".equals(method)) {
+                    return ordinal;
+                }
+                if ("getPositionCount".equals(method)) {
+                    return positions.size();
+                }
+                return "getPositions".equals(method) ? positions : null;
+            }
+        });
+    }
+
+    private static Member member(final String uniqueName)
+    {
+        return proxy(Member.class, new AtomicBoolean(), new Answer()
+        {
+            public Object answer(String method, Object[] args)
+            {
+                return "getUniqueName".equals(method) ? uniqueName : null;
+            }
+        });
+    }
+
+    private interface Answer
+    {
+        Object answer(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, final AtomicBoolean closed, final Answer answer)
+    {
+        return type.cast(Proxy.newProxyInstance(ResultCacheTest.class.getClassLoader(), new Class<?>[] { type },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    }
+                    if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if (closed.get()) {
+                        throw new IllegalStateException("Result is closed");
+                    }
+                    return answer.answer(method.getName(), args);
+                }
+            }));
+    }
+}
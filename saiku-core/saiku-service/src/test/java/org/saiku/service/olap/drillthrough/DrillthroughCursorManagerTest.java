@@ -0,0 +1,233 @@
+package org.saiku.service.olap.drillthrough;
+
+import org.junit.After;
+import org.junit.Test;
+import org.saiku.service.util.exception.SaikuServiceException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DrillthroughCursorManagerTest
+{
+    private DrillthroughCursorManager manager;
+
+    @After
+    public void shutdown() throws Exception
+    {
+        if (manager != null) {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldReadPagesUntilTheLastRowAndCloseTheCursor() throws Exception
+    {
+        manager = new DrillthroughCursorManager(0, 60, 50);
+        Rows rows = new Rows(5);
+        DrillthroughCursor cursor = manager.open("s1", "a", "q1", rows);
+        List<String> read = new ArrayList<String>();
+
+        assertEquals(50, rows.fetchSize);
+        assertEquals("id", cursor.getColumns()[0]);
+        assertEquals(2, manager.fetch(cursor, 2, collect(read)));
+        assertEquals(2, manager.fetch(cursor, 2, collect(read)));
+        assertFalse(cursor.isClosed());
+        assertEquals(1, manager.fetch(cursor, 2, collect(read)));
+
+        assertEquals("[0, 1, 2, 3, 4]", read.toString());
+        assertEquals(5, cursor.getPosition());
+        assertTrue(cursor.isDone());
+        assertTrue(rows.closed.get());
+        assertEquals(1, rows.released.get());
+        assertNull(manager.get(cursor.getId()));
+        assertEquals(0, manager.fetch(cursor, 2, collect(read)));
+    }
+
+    @Test
+    public void shouldLimitTheOpenCursorsOfAUser() throws Exception
+    {
+        manager = new DrillthroughCursorManager(1, 60, 0);
+        Rows rows = new Rows(5);
+        DrillthroughCursor first = manager.open("s1", "a", "q1", rows);
+        try {
+            manager.open("s1", "a", "q2", new Rows(5));
+            fail("second cursor of a user was opened");
+        } catch (SaikuServiceException e) {
+            // expected
+        }
+        manager.open("s2", "b", "q1", new Rows(5));
+
+        manager.close(first);
+        manager.close(first);
+        assertTrue(first.isClosed());
+        assertEquals(1, rows.released.get());
+        assertEquals("a", manager.open("s1", "a", "q2", new Rows(5)).getUser());
+        assertEquals(2, manager.getCursorCount());
+    }
+
+    @Test
+    public void shouldReleaseTheSlotOfACursorThatFailedToOpen() throws Exception
+    {
+        manager = new DrillthroughCursorManager(1, 60, 0);
+        Rows failing = new Rows(5);
+        failing.fail = true;
+        try {
+            manager.open("s1", "a", "q1", failing);
+            fail("failed statement opened a cursor");
+        } catch (SaikuServiceException e) {
+            // expected
+        }
+        assertTrue(failing.closed.get());
+        assertEquals(1, failing.released.get());
+        manager.open("s1", "a", "q1", new Rows(5));
+    }
+
+    @Test
+    public void shouldCloseIdleCursors() throws Exception
+    {
+        manager = new DrillthroughCursorManager(0, 1, 0);
+        Rows rows = new Rows(5);
+        DrillthroughCursor cursor = manager.open("s1", "a", "q1", rows);
+        manager.sweep();
+        assertFalse(cursor.isClosed());
+
+        Thread.sleep(1100);
+        manager.sweep();
+        assertTrue(cursor.isClosed());
+        assertTrue(rows.closed.get());
+        assertEquals(1, rows.released.get());
+        assertEquals(0, manager.getCursorCount());
+    }
+
+    @Test
+    public void shouldCloseTheCursorsOfASession() throws Exception
+    {
+        manager = new DrillthroughCursorManager(0, 60, 0);
+        manager.open("s1", "a", "q1", new Rows(5));
+        manager.open("s1", "a", "q2", new Rows(5));
+        DrillthroughCursor other = manager.open("s2", "a", "q1", new Rows(5));
+
+        manager.closeAll("s1");
+        assertEquals(1, manager.getCursorCount());
+        assertEquals(1, manager.getCursors("s2").size());
+        assertFalse(other.isClosed());
+    }
+
+    private static DrillthroughCursor.RowHandler collect(final List<String> read)
+    {
+        return new DrillthroughCursor.RowHandler()
+        {
+            public void handleRow(String[] row)
+            {
+                read.add(row[0]);
+            }
+        };
+    }
+
+    /**
+     * A statement returning a result set of one text column with the given number of rows.
+     */
+    private static class Rows implements DrillthroughCursorManager.Opener
+    {
+        private final int count;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private final AtomicInteger row = new AtomicInteger(-1);
+
+        private final AtomicInteger released = new AtomicInteger();
+
+        private int fetchSize;
+
+        private boolean fail;
+
+        Rows(int count)
+        {
+            this.count = count;
+        }
+
+        public Statement createStatement()
+        {
+            return proxy(Statement.class, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if ("setFetchSize".equals(method.getName())) {
+                        fetchSize = (Integer) args[0];
+                    } else if ("close".equals(method.getName())) {
+                        closed.set(true);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        public ResultSet execute(Statement statement) throws SQLException
+        {
+            if (fail) {
+                throw new SQLException("failed");
+            }
+            final ResultSetMetaData metaData = proxy(ResultSetMetaData.class, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if ("getColumnCount".equals(method.getName())) {
+                        return 1;
+                    }
+                    if ("getColumnType".equals(method.getName())) {
+                        return Types.VARCHAR;
+                    }
+                    return "id";
+                }
+            });
+            return proxy(ResultSet.class, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    String name = method.getName();
+                    if ("getMetaData".equals(name)) {
+                        return metaData;
+                    }
+                    if ("next".equals(name)) {
+                        return row.incrementAndGet() < count;
+                    }
+                    if ("getString".equals(name)) {
+                        return String.valueOf(row.get());
+                    }
+                    if ("wasNull".equals(name)) {
+                        return false;
+                    }
+                    return null;
+                }
+            });
+        }
+
+        public void release(Statement statement)
+        {
+            released.incrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return (T) Proxy.newProxyInstance(DrillthroughCursorManagerTest.class.getClassLoader(), new Class<?>[] { type },
+            handler);
+    }
+}
@@ -0,0 +1,244 @@
+package org.saiku.service.olap.jobs;
+
+import org.junit.After;
+import org.junit.Test;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.service.util.exception.SaikuServiceException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryJobManagerTest
+{
+    private QueryJobManager manager;
+
+    @After
+    public void shutdown() throws Exception
+    {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void shouldLetUsersTakeTurns() throws Exception
+    {
+        manager = new QueryJobManager(1, 0, 0, 60);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        QueryJob blocker = manager.submit("s0", "x", "blocker", new Blocking(release));
+        waitFor(blocker, QueryJob.State.RUNNING);
+
+        manager.submit("s1", "a", "a1", new Recording(order));
+        manager.submit("s1", "a", "a2", new Recording(order));
+        manager.submit("s1", "a", "a3", new Recording(order));
+        QueryJob last = manager.submit("s2", "b", "b1", new Recording(order));
+        assertEquals(4, manager.getQueuedCount());
+        release.countDown();
+        waitFor(manager.get(last.getId()), QueryJob.State.DONE);
+        for (QueryJob job : manager.getJobs("s1")) {
+            waitFor(job, QueryJob.State.DONE);
+        }
+
+        assertEquals("[a1, b1, a2, a3]", order.toString());
+        assertEquals(0, manager.getQueuedCount());
+    }
+
+    @Test
+    public void shouldRejectJobsOfUsersWithTooManyWaiting() throws Exception
+    {
+        manager = new QueryJobManager(1, 0, 1, 60);
+        CountDownLatch release = new CountDownLatch(1);
+        waitFor(manager.submit("s0", "x", "blocker", new Blocking(release)), QueryJob.State.RUNNING);
+        manager.submit("s1", "a", "a1", new Recording(null));
+
+        try {
+            manager.submit("s1", "a", "a2", new Recording(null));
+            fail("second waiting job of a user was accepted");
+        } catch (SaikuServiceException e) {
+            // expected
+        }
+        manager.submit("s2", "b", "b1", new Recording(null));
+        release.countDown();
+    }
+
+    @Test
+    public void shouldNeverRunCancelledJobs() throws Exception
+    {
+        manager = new QueryJobManager(1, 0, 0, 60);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        waitFor(manager.submit("s0", "x", "blocker", new Blocking(release)), QueryJob.State.RUNNING);
+        QueryJob cancelled = manager.submit("s1", "a", "a1", new Recording(order));
+        QueryJob kept = manager.submit("s1", "a", "a2", new Recording(order));
+
+        assertTrue(manager.cancel(cancelled));
+        release.countDown();
+        waitFor(kept, QueryJob.State.DONE);
+
+        assertEquals(QueryJob.State.CANCELLED, cancelled.getState());
+        assertFalse(manager.cancel(cancelled));
+        assertEquals("[a2]", order.toString());
+    }
+
+    @Test
+    public void shouldReportPhasesAndKeepTheResult() throws Exception
+    {
+        manager = new QueryJobManager(2, 0, 0, 60);
+        final CellDataSet result = new CellDataSet(1, 1);
+        QueryJob job = manager.submit("s1", "a", "q", new QueryJob.Task()
+        {
+            public CellDataSet run(QueryJob job) throws Exception
+            {
+                job.enterPhase(QueryJob.Phase.EXECUTE);
+                Thread.sleep(20);
+                job.enterPhase(QueryJob.Phase.FORMAT);
+                return result;
+            }
+
+            public void cancel(QueryJob job)
+            {
+            }
+        });
+        waitFor(job, QueryJob.State.DONE);
+
+        assertSame(result, manager.get(job.getId()).getResult());
+        assertEquals(QueryJob.Phase.FORMAT, job.getPhase());
+        assertTrue(job.getPhaseTimes().get(QueryJob.Phase.EXECUTE) >= 20);
+        assertTrue(job.getPhaseTimes().containsKey(QueryJob.Phase.FORMAT));
+        assertFalse(job.getPhaseTimes().containsKey(QueryJob.Phase.TOTALS));
+    }
+
+    @Test
+    public void shouldKeepTheErrorOfFailedJobs() throws Exception
+    {
+        manager = new QueryJobManager(1, 0, 0, 60);
+        QueryJob job = manager.submit("s1", "a", "q", new QueryJob.Task()
+        {
+            public CellDataSet run(QueryJob job) throws Exception
+            {
+                throw new SaikuServiceException("Can't execute query: q", new IllegalStateException("no cube"));
+            }
+
+            public void cancel(QueryJob job)
+            {
+            }
+        });
+        waitFor(job, QueryJob.State.FAILED);
+
+        assertNull(job.getResult());
+        assertEquals("IllegalStateException: no cube", job.getError());
+    }
+
+    @Test
+    public void shouldForgetFinishedJobsAfterTheirTimeToLive() throws Exception
+    {
+        manager = new QueryJobManager(1, 0, 0, 0);
+        QueryJob job = manager.submit("s1", "a", "q", new Recording(null));
+        waitFor(job, QueryJob.State.DONE);
+        Thread.sleep(5);
+
+        assertNull(manager.get(job.getId()));
+        assertEquals(0, manager.getJobCount());
+    }
+
+    @Test
+    public void shouldRunJobsWithTheAuthenticationOfTheSubmitter() throws Exception
+    {
+        manager = new QueryJobManager(1, 0, 0, 60);
+        final List<String> users = Collections.synchronizedList(new ArrayList<String>());
+        QueryJob.Task task = new QueryJob.Task()
+        {
+            public CellDataSet run(QueryJob job)
+            {
+                Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+                users.add(auth != null ? auth.getName() : null);
+                return new CellDataSet(0, 0);
+            }
+
+            public void cancel(QueryJob job)
+            {
+            }
+        };
+
+        SecurityContextHolder.getContext().setAuthentication(
+            new UsernamePasswordAuthenticationToken("alice", "secret", AuthorityUtils.createAuthorityList("ROLE_USER")));
+        QueryJob first = manager.submit("s1", "alice", "q1", task);
+        SecurityContextHolder.clearContext();
+        QueryJob second = manager.submit("s2", "anonymous", "q2", task);
+        waitFor(first, QueryJob.State.DONE);
+        waitFor(second, QueryJob.State.DONE);
+
+        // the second job runs on the same thread, it must not see the authentication of the first
+        assertEquals("[alice, null]", users.toString());
+    }
+
+    private static void waitFor(QueryJob job, QueryJob.State state) throws InterruptedException
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (job.getState() != state) {
+            if (System.nanoTime() > end) {
+                fail("job " + job.getQueryName() + " is " + job.getState() + " instead of " + state);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static class Recording implements QueryJob.Task
+    {
+        private final List<String> order;
+
+        Recording(List<String> order)
+        {
+            this.order = order;
+        }
+
+        public CellDataSet run(QueryJob job)
+        {
+            if (order != null) {
+                order.add(job.getQueryName());
+            }
+            return new CellDataSet(0, 0);
+        }
+
+        public void cancel(QueryJob job)
+        {
+        }
+    }
+
+    private static class Blocking implements QueryJob.Task
+    {
+        private final CountDownLatch release;
+
+        Blocking(CountDownLatch release)
+        {
+            this.release = release;
+        }
+
+        public CellDataSet run(QueryJob job) throws Exception
+        {
+            release.await();
+            return new CellDataSet(0, 0);
+        }
+
+        public void cancel(QueryJob job)
+        {
+            release.countDown();
+        }
+    }
+}
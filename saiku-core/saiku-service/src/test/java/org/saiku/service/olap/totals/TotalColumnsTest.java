@@ -0,0 +1,107 @@
+package org.saiku.service.olap.totals;
+
+import org.junit.Test;
+import org.olap4j.Cell;
+import org.olap4j.metadata.Property;
+import org.saiku.service.olap.totals.aggregators.TotalFunction;
+import org.saiku.service.olap.totals.aggregators.TotalValue;
+
+import java.util.Locale;
+
+import mondrian.util.Format;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TotalColumnsTest
+{
+    private static final Format FORMAT = Format.get("#,##0.00", Locale.US);
+
+    @Test
+    public void shouldAccumulateEveryFunctionInItsOwnSlot() throws Exception
+    {
+        TotalColumns columns = new TotalColumns(1, 4);
+        columns.set(0, 0, TotalFunction.SUM, FORMAT);
+        columns.set(0, 1, TotalFunction.MIN, FORMAT);
+        columns.set(0, 2, TotalFunction.MAX, FORMAT);
+        columns.set(0, 3, TotalFunction.NIL, FORMAT);
+
+        for (double value : new double[] { 3, -2, 1000.5 }) {
+            for (int index = 0; index < 4; index++) {
+                columns.add(0, index, cell(value, null));
+            }
+        }
+
+        assertEquals("1,001.50", columns.getFormattedValue(0, 0));
+        assertEquals("-2.00", columns.getFormattedValue(0, 1));
+        assertEquals("1,000.50", columns.getFormattedValue(0, 2));
+        assertEquals("-", columns.getFormattedValue(0, 3));
+    }
+
+    @Test
+    public void shouldWeightAveragesByDrillthroughCount() throws Exception
+    {
+        TotalColumns columns = new TotalColumns(2, 1);
+        columns.set(0, 0, TotalFunction.AVG, FORMAT);
+        columns.set(1, 0, TotalFunction.AVG, FORMAT);
+
+        columns.add(0, 0, cell(10, 1));
+        columns.add(0, 0, cell(40, 3));
+        columns.add(1, 0, cell(10, null));
+        columns.add(1, 0, cell(40, null));
+
+        assertEquals(32.5, columns.getValue(0, 0), 0.0);
+        assertEquals(25.0, columns.getValue(1, 0), 0.0);
+    }
+
+    @Test
+    public void shouldIgnoreCellsWithoutNumbers() throws Exception
+    {
+        TotalColumns columns = new TotalColumns(1, 2);
+        columns.set(0, 0, TotalFunction.MAX, FORMAT);
+        columns.set(0, 1, TotalFunction.SUM, FORMAT);
+
+        Cell empty = mock(Cell.class);
+        when(empty.getValue()).thenReturn(null);
+        columns.add(0, 0, empty);
+        columns.add(0, 1, empty);
+
+        assertNull(columns.getValue(0, 0));
+        assertEquals("", columns.getFormattedValue(0, 0));
+        assertEquals("0.00", columns.getFormattedValue(0, 1));
+    }
+
+    @Test
+    public void shouldExposeSlotsAsReadOnlyTotals() throws Exception
+    {
+        TotalColumns columns = new TotalColumns(2, 3);
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 3; j++) {
+                columns.set(i, j, TotalFunction.SUM, FORMAT);
+                columns.add(i, j, cell(i * 10 + j, null));
+            }
+        }
+
+        TotalValue[][] totals = columns.toValues();
+        assertEquals(2, totals.length);
+        assertEquals(3, totals[0].length);
+        assertEquals(Double.valueOf(12), totals[1][2].getValue());
+        assertEquals("12.00", totals[1][2].getFormattedValue());
+        assertEquals(TotalFunction.SUM, totals[1][2].getFunction());
+
+        columns.setFormattedValue(1, 2, "n/a");
+        assertEquals("n/a", totals[1][2].getFormattedValue());
+        assertEquals("11.00", totals[1][1].getFormattedValue());
+    }
+
+    private static Cell cell(double value, Integer drillthroughCount)
+    {
+        Cell cell = mock(Cell.class);
+        when(cell.getValue()).thenReturn(value);
+        when(cell.getPropertyValue(any(Property.class))).thenReturn(drillthroughCount);
+        return cell;
+    }
+}
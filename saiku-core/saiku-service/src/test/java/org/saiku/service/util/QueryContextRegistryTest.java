@@ -0,0 +1,153 @@
+package org.saiku.service.util;
+
+import org.junit.Test;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.service.util.QueryContext.ObjectKey;
+import org.saiku.service.util.QueryContext.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class QueryContextRegistryTest
+{
+    @Test
+    public void shouldKeepContextsOfSessionsApart() throws Exception
+    {
+        QueryContextRegistry registry = new QueryContextRegistry(0, 0, 0);
+        QueryContextRegistry.Contexts first = registry.open("first");
+        QueryContextRegistry.Contexts second = registry.open("second");
+
+        first.put("query", new QueryContext(Type.OLAP, null));
+
+        assertTrue(first.containsKey("query"));
+        assertFalse(second.containsKey("query"));
+        assertNull(second.get("query"));
+    }
+
+    @Test
+    public void shouldRemoveLeastRecentlyUsedContextsOverQuota() throws Exception
+    {
+        QueryContextRegistry registry = new QueryContextRegistry(2, 0, 0);
+        QueryContextRegistry.Contexts contexts = registry.open("session");
+        contexts.setUser("admin");
+
+        contexts.put("q1", new QueryContext(Type.OLAP, null));
+        Thread.sleep(2);
+        contexts.put("q2", new QueryContext(Type.OLAP, null));
+        Thread.sleep(2);
+        contexts.put("q3", new QueryContext(Type.OLAP, null));
+
+        assertFalse(contexts.containsKey("q1"));
+        assertTrue(contexts.containsKey("q3"));
+        assertEquals(1, registry.getQuotaEvictions());
+        assertEquals(2, registry.getContextCount());
+    }
+
+    @Test
+    public void shouldReleaseOldestResultsOverCellLimit() throws Exception
+    {
+        QueryContextRegistry registry = new QueryContextRegistry(0, 0, 150);
+        QueryContextRegistry.Contexts contexts = registry.open("session");
+        QueryContext older = new QueryContext(Type.OLAP, null);
+        QueryContext newer = new QueryContext(Type.OLAP, null);
+        contexts.put("older", older);
+        contexts.put("newer", newer);
+
+        older.store(ObjectKey.RESULT, cellSet(10, 10));
+        contexts.resultStored(older);
+        Thread.sleep(2);
+        newer.store(ObjectKey.RESULT, cellSet(10, 10));
+        contexts.resultStored(newer);
+
+        assertNull(older.getOlapResult());
+        assertTrue(older.isResultReleased());
+        assertNotNull(newer.getOlapResult());
+        assertEquals(100, registry.getRetainedCells());
+        assertEquals(1, registry.getMemoryEvictions());
+    }
+
+    @Test
+    public void shouldCountResultsHeldByManyContextsOnce() throws Exception
+    {
+        QueryContextRegistry registry = new QueryContextRegistry(0, 0, 0);
+        QueryContextRegistry.Contexts first = registry.open("first");
+        QueryContextRegistry.Contexts second = registry.open("second");
+        QueryContext one = new QueryContext(Type.OLAP, null);
+        QueryContext other = new QueryContext(Type.OLAP, null);
+        first.put("query", one);
+        second.put("query", other);
+        CellSet shared = cellSet(10, 10);
+
+        one.store(ObjectKey.RESULT, shared);
+        other.store(ObjectKey.RESULT, shared);
+        assertEquals(100, registry.getRetainedCells());
+
+        one.storeFormattedResult(shared, "flat", table(4, 20));
+        assertEquals(180, registry.getRetainedCells());
+
+        one.dropResult();
+        assertEquals(100, registry.getRetainedCells());
+        second.remove("query");
+        assertEquals(0, registry.getRetainedCells());
+    }
+
+    @Test
+    public void shouldDropReleasedResultsFromSharedResults() throws Exception
+    {
+        QueryContextRegistry registry = new QueryContextRegistry(0, 0, 150);
+        final List<Object> dropped = new ArrayList<>();
+        registry.setSharedResults(new QueryContextRegistry.SharedResults()
+        {
+            public void drop(Object result)
+            {
+                dropped.add(result);
+            }
+        });
+        QueryContextRegistry.Contexts contexts = registry.open("session");
+        QueryContext older = new QueryContext(Type.OLAP, null);
+        QueryContext newer = new QueryContext(Type.OLAP, null);
+        contexts.put("older", older);
+        contexts.put("newer", newer);
+        CellSet released = cellSet(10, 10);
+
+        older.store(ObjectKey.RESULT, released);
+        contexts.resultStored(older);
+        Thread.sleep(2);
+        newer.store(ObjectKey.RESULT, cellSet(10, 10));
+        contexts.resultStored(newer);
+
+        assertEquals(Collections.<Object>singletonList(released), dropped);
+    }
+
+    private static CellDataSet table(int width, int height)
+    {
+        CellDataSet table = new CellDataSet(width, height);
+        table.setCellSetHeaders(new AbstractBaseCell[0][]);
+        table.setCellSetBody(new AbstractBaseCell[height][width]);
+        return table;
+    }
+
+    private static CellSet cellSet(int columns, int rows)
+    {
+        CellSetAxis columnsAxis = mock(CellSetAxis.class);
+        when(columnsAxis.getPositionCount()).thenReturn(columns);
+        CellSetAxis rowsAxis = mock(CellSetAxis.class);
+        when(rowsAxis.getPositionCount()).thenReturn(rows);
+        CellSet cellSet = mock(CellSet.class);
+        when(cellSet.getAxes()).thenReturn(Arrays.asList(columnsAxis, rowsAxis));
+        return cellSet;
+    }
+}
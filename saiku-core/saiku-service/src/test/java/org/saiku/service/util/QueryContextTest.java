@@ -0,0 +1,75 @@
+package org.saiku.service.util;
+
+import org.junit.Test;
+import org.olap4j.CellSet;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.service.util.QueryContext.ObjectKey;
+import org.saiku.service.util.QueryContext.Type;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class QueryContextTest
+{
+    private static final String FLATTENED = "org.saiku.olap.util.formatter.FlattenedCellSetFormatter";
+
+    private static final String HIERARCHICAL = "org.saiku.olap.util.formatter.HierarchicalCellSetFormatter";
+
+    @Test
+    public void shouldReuseTablesOfTheStoredResultByFormatter() throws Exception
+    {
+        QueryContext context = new QueryContext(Type.OLAP, null);
+        CellSet result = mock(CellSet.class);
+        CellDataSet flattened = new CellDataSet(2, 2);
+        CellDataSet hierarchical = new CellDataSet(2, 2);
+        context.store(ObjectKey.RESULT, result);
+
+        context.storeFormattedResult(result, FLATTENED, flattened);
+        context.storeFormattedResult(result, HIERARCHICAL, hierarchical);
+
+        assertSame(flattened, context.getFormattedResult(result, FLATTENED));
+        assertSame(hierarchical, context.getFormattedResult(result, HIERARCHICAL));
+    }
+
+    @Test
+    public void shouldForgetTablesWhenAnotherResultIsStored() throws Exception
+    {
+        QueryContext context = new QueryContext(Type.OLAP, null);
+        CellSet result = mock(CellSet.class);
+        context.store(ObjectKey.RESULT, result);
+        context.storeFormattedResult(result, FLATTENED, new CellDataSet(2, 2));
+
+        // executing the same MDX again can hand out the same cell set from the result cache
+        context.store(ObjectKey.RESULT, result);
+
+        assertNull(context.getFormattedResult(result, FLATTENED));
+    }
+
+    @Test
+    public void shouldForgetTablesWhenTheResultIsReleased() throws Exception
+    {
+        QueryContext context = new QueryContext(Type.OLAP, null);
+        CellSet result = mock(CellSet.class);
+        context.store(ObjectKey.RESULT, result);
+        context.storeFormattedResult(result, FLATTENED, new CellDataSet(2, 2));
+
+        context.dropResult();
+
+        assertNull(context.getFormattedResult(result, FLATTENED));
+    }
+
+    @Test
+    public void shouldNotKeepTablesOfOtherResults() throws Exception
+    {
+        QueryContext context = new QueryContext(Type.OLAP, null);
+        CellSet stored = mock(CellSet.class);
+        CellSet other = mock(CellSet.class);
+        context.store(ObjectKey.RESULT, stored);
+
+        context.storeFormattedResult(other, FLATTENED, new CellDataSet(2, 2));
+
+        assertNull(context.getFormattedResult(other, FLATTENED));
+        assertNull(context.getFormattedResult(stored, FLATTENED));
+    }
+}
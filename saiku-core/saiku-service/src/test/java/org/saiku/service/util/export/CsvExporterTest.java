@@ -0,0 +1,62 @@
+package org.saiku.service.util.export;
+
+import org.junit.Test;
+import org.saiku.service.util.KeyValue;
+
+import java.io.StringWriter;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CsvExporterTest
+{
+    @Test
+    public void shouldWriteResultSetRowsReadingMetadataOnce() throws Exception
+    {
+        ResultSet rs = resultSet();
+        when(rs.next()).thenReturn(true, true, false);
+        when(rs.getString(1)).thenReturn("Drink", "Say \"Food\"");
+        when(rs.getString(2)).thenReturn("USA", null);
+
+        StringWriter writer = new StringWriter();
+        CsvExporter.write(rs, ",", "\"", true,
+            Collections.singletonList(new KeyValue<String, String>("Cube", "Sales")), writer);
+
+        assertEquals("\"Cube\",\"Product\",\"Country\"\r\n"
+            + "\"Sales\",\"Drink\",\"USA\"\r\n"
+            + "\"Sales\",\"Say \"\"Food\"\"\",\"\"\r\n", writer.toString());
+        verify(rs, times(1)).getMetaData();
+    }
+
+    @Test
+    public void shouldWriteNothingForEmptyResultSet() throws Exception
+    {
+        ResultSet rs = resultSet();
+        when(rs.next()).thenReturn(false);
+
+        StringWriter writer = new StringWriter();
+        CsvExporter.write(rs, ",", "\"", true, null, writer);
+
+        assertEquals("", writer.toString());
+    }
+
+    private static ResultSet resultSet() throws Exception
+    {
+        ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+        when(metaData.getColumnCount()).thenReturn(2);
+        when(metaData.getColumnName(1)).thenReturn("Product");
+        when(metaData.getColumnName(2)).thenReturn("Country");
+        when(metaData.getColumnType(1)).thenReturn(Types.VARCHAR);
+        when(metaData.getColumnType(2)).thenReturn(Types.VARCHAR);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getMetaData()).thenReturn(metaData);
+        return rs;
+    }
+}
@@ -0,0 +1,87 @@
+package org.saiku.service.util.security;
+
+import org.junit.After;
+import org.junit.Test;
+import org.saiku.service.ISessionService;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CallerTest
+{
+    @After
+    public void clearAuthentication() throws Exception
+    {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void shouldTakeUserAndRolesFromTheSession() throws Exception
+    {
+        authenticate("alice", "ROLE_USER");
+        Map<String, Object> session = new HashMap<>();
+        session.put("username", "bob");
+        session.put("roles", Arrays.asList("ROLE_ADMIN"));
+
+        Caller caller = Caller.current(sessionService(session));
+
+        assertEquals("bob", caller.getUser());
+        assertEquals(Arrays.asList("ROLE_ADMIN"), caller.getRoles());
+    }
+
+    @Test
+    public void shouldFallBackToTheSecurityContextOfTheThread() throws Exception
+    {
+        authenticate("alice", "ROLE_USER", "ROLE_ADMIN");
+
+        Caller withoutSessions = Caller.current(null);
+        Caller withoutSession = Caller.current(sessionService(new HashMap<String, Object>()));
+
+        assertEquals("alice", withoutSessions.getUser());
+        assertEquals("ROLE_ADMIN,ROLE_USER", withoutSessions.getRoleKey());
+        assertEquals("alice", withoutSession.getUser());
+        assertEquals("ROLE_ADMIN,ROLE_USER", withoutSession.getRoleKey());
+    }
+
+    @Test
+    public void shouldBeAnonymousWithoutAuthentication() throws Exception
+    {
+        Caller caller = Caller.current(null);
+
+        assertNull(caller.getUser());
+        assertTrue(caller.getRoles().isEmpty());
+        assertNull(caller.getRoleKey());
+    }
+
+    private static void authenticate(String user, String... roles)
+    {
+        SecurityContextHolder.getContext().setAuthentication(
+            new UsernamePasswordAuthenticationToken(user, "secret", AuthorityUtils.createAuthorityList(roles)));
+    }
+
+    private static ISessionService sessionService(final Map<String, Object> session)
+    {
+        return (ISessionService) Proxy.newProxyInstance(CallerTest.class.getClassLoader(),
+            new Class<?>[] { ISessionService.class }, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getAllSessionObjects")) {
+                        return new HashMap<>(session);
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
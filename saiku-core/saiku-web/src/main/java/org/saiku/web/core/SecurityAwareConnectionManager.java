@@ -68,6 +68,7 @@ public class SecurityAwareConnectionManager extends AbstractConnectionManager im
 	
 	@Override
 	public void destroy() {
+		closePools();
 		if (connections != null && !connections.isEmpty()) {
 			for (ISaikuConnection con : connections.values()) {
 				try {
@@ -151,6 +152,11 @@ public class SecurityAwareConnectionManager extends AbstractConnectionManager im
 		return null;
 	}
 
+	@Override
+	protected ISaikuConnection preparePooledConnection(ISaikuConnection con, SaikuDatasource datasource) {
+		return applySecurity(con, datasource);
+	}
+
 	private SaikuDatasource handlePassThrough(SaikuDatasource datasource) {
 
 		Map<String, Object> session = sessionService.getAllSessionObjects();
@@ -0,0 +1,71 @@
+package org.saiku.web.export;
+
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.ContentNode;
+import org.htmlcleaner.HtmlCleaner;
+import org.htmlcleaner.TagNode;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.util.Map;
+
+/**
+ * Cleans HTML and passes it on as SAX events, without building a DOM of it.
+ */
+class HtmlSaxConverter {
+
+    public static void toSax(String html, ContentHandler handler) throws SAXException {
+        final HtmlCleaner cleaner = createHtmlCleanerWithProperties();
+        TagNode node = cleaner.clean(html);
+        handler.startDocument();
+        toSax(node, handler);
+        handler.endDocument();
+    }
+
+    private static void toSax(TagNode node, ContentHandler handler) throws SAXException {
+        String name = node.getName();
+        AttributesImpl attributes = new AttributesImpl();
+        for (Map.Entry<String, String> attribute : node.getAttributes().entrySet()) {
+            String attributeName = attribute.getKey();
+            if (isXmlName(attributeName) && !attributeName.startsWith("xmlns")) {
+                attributes.addAttribute("", attributeName, attributeName, "CDATA", attribute.getValue());
+            }
+        }
+        handler.startElement("", name, name, attributes);
+        for (Object child : node.getAllChildren()) {
+            if (child instanceof TagNode) {
+                toSax((TagNode) child, handler);
+            } else if (child instanceof ContentNode) {
+                char[] content = String.valueOf(((ContentNode) child).getContent()).toCharArray();
+                handler.characters(content, 0, content.length);
+            }
+        }
+        handler.endElement("", name, name);
+    }
+
+    private static boolean isXmlName(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        if (!Character.isLetter(name.charAt(0)) && name.charAt(0) != '_') {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static HtmlCleaner createHtmlCleanerWithProperties() {
+        HtmlCleaner cleaner = new HtmlCleaner();
+        CleanerProperties props = cleaner.getProperties();
+        props.setAdvancedXmlEscape(true);
+        props.setRecognizeUnicodeChars(true);
+        props.setTranslateSpecialEntities(true);
+        return cleaner;
+    }
+}
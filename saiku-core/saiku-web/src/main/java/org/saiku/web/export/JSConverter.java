@@ -1,78 +1,179 @@
 package org.saiku.web.export;
 
+import org.saiku.web.rest.objects.resultset.Cell;
 import org.saiku.web.rest.objects.resultset.QueryResult;
-
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.saiku.web.rest.objects.resultset.Total;
 
 import org.apache.commons.io.IOUtils;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+/**
+ * Renders query results to HTML tables with the table renderer of the UI.
+ *
+ * <p>The renderer scripts are compiled once into a sealed scope shared by all threads. Every rendering runs in a scope
+ * of its own on top of it, and gets the result as JavaScript objects built straight from the {@link QueryResult}.</p>
+ */
 public class JSConverter {
+
+    private static final Logger log = LoggerFactory.getLogger(JSConverter.class);
+
+    private static final String[] SCRIPTS = { "underscore.js", "SaikuRenderer.js", "SaikuTableRenderer.js" };
+
+    private static final String RENDER_FUNCTION = "saikuRenderTable";
+
+    private static volatile Renderer renderer;
+
+    private static volatile String version;
+
     public static String convertToHtml(QueryResult queryResult, boolean wrapcontent) throws IOException {
-        StringWriter stringWriter = new StringWriter();
-        useJavascriptToConvertToHtml(queryResult, stringWriter);
-        String content = stringWriter.toString();
+        String content = render(queryResult);
         content = appendSaikuCommercialIfNecessary(content);
         return content;
     }
 
-    private static void useJavascriptToConvertToHtml(QueryResult queryResult, StringWriter stringWriter) throws IOException {
+    /**
+     * Renders a result without the edition footer.
+     */
+    public static String render(QueryResult queryResult) throws IOException {
+        Renderer r = getRenderer();
         Context javascriptContext = createJavascriptContext();
-        Scriptable globalScope = javascriptContext.initStandardObjects();
-        loadJavascriptScripts(javascriptContext, globalScope);
-        loadDataIntoJsContext(queryResult, globalScope);
-        loadStringWriterIntoJsContext(stringWriter, globalScope);
-        executeJavascript(javascriptContext, globalScope);
-        Context.exit();
-    }
-
-    private static void executeJavascript(Context javascriptContext, Scriptable globalScope) {
-        String code =
-            "eval('var cellset = ' + data); \n" +
-                "var renderer = new SaikuTableRenderer(); \n" +
-                "var html = renderer.render(cellset, { wrapContent : " + false + " }); out.write(html);";
-        javascriptContext.evaluateString(globalScope, code, "<mem>", 1, null);
-    }
-
-    private static void loadStringWriterIntoJsContext(StringWriter stringWriter, Scriptable globalScope) {
-        // load StringWriter into JS environment so JS has a place to write to
-        Object wrappedOut = Context.javaToJS(stringWriter, globalScope);
-        ScriptableObject.putProperty(globalScope, "out", wrappedOut);
+        try {
+            Scriptable scope = javascriptContext.newObject(r.scope);
+            scope.setPrototype(r.scope);
+            scope.setParentScope(null);
+            Scriptable options = javascriptContext.newObject(scope);
+            ScriptableObject.putProperty(options, "wrapContent", false);
+            Object html = r.render.call(javascriptContext, scope, scope,
+                new Object[] { toJavascript(javascriptContext, scope, queryResult), options });
+            return html == null || html instanceof Undefined ? "" : Context.toString(html);
+        } finally {
+            Context.exit();
+        }
     }
 
-    private static void loadDataIntoJsContext(QueryResult queryResult, Scriptable globalScope) throws JsonProcessingException {
-        // load data of queryResult into JS environment
-        ObjectMapper objectMapper = new ObjectMapper();
-        String data = objectMapper.writeValueAsString(queryResult);
-        Object wrappedQueryResult = Context.javaToJS(data, globalScope);
-        ScriptableObject.putProperty(globalScope, "data", wrappedQueryResult);
+    private static Renderer getRenderer() throws IOException {
+        Renderer r = renderer;
+        if (r == null) {
+            synchronized (JSConverter.class) {
+                r = renderer;
+                if (r == null) {
+                    r = new Renderer();
+                    renderer = r;
+                }
+            }
+        }
+        return r;
     }
 
     private static Context createJavascriptContext() {
         Context javascriptContext = Context.enter();
-        javascriptContext.setOptimizationLevel(-1);
+        javascriptContext.setOptimizationLevel(9);
         javascriptContext.setLanguageVersion(Context.VERSION_1_5);
         return javascriptContext;
     }
 
-    private static void loadJavascriptScripts(Context javascriptContext, Scriptable globalScope) throws IOException {
-        // fetch the .js files and put them on scope of the javascriptContext to be executed
-        Reader underscoreReader = new InputStreamReader(JSConverter.class.getResourceAsStream("underscore.js"));
-        javascriptContext.evaluateReader(globalScope, underscoreReader, "underscore.js", 1, null);
-        Reader saikuRendererReader = new InputStreamReader(JSConverter.class.getResourceAsStream("SaikuRenderer.js"));
-        javascriptContext.evaluateReader(globalScope, saikuRendererReader, "SaikuRenderer.js", 1, null);
-        String result = IOUtils.toString(JSConverter.class.getResourceAsStream("SaikuTableRenderer.js"));
-        javascriptContext.evaluateString(globalScope, result, "SaikuTableRenderer.js", 1, null);
+    private static Scriptable toJavascript(Context cx, Scriptable scope, QueryResult queryResult) {
+        Scriptable data = cx.newObject(scope);
+        ScriptableObject.putProperty(data, "cellset", toJavascript(cx, scope, queryResult.getCellset()));
+        ScriptableObject.putProperty(data, "rowTotalsLists", toJavascript(cx, scope, queryResult.getRowTotalsLists()));
+        ScriptableObject.putProperty(data, "colTotalsLists", toJavascript(cx, scope, queryResult.getColTotalsLists()));
+        ScriptableObject.putProperty(data, "runtime", queryResult.getRuntime());
+        ScriptableObject.putProperty(data, "error", queryResult.getError());
+        ScriptableObject.putProperty(data, "height", queryResult.getHeight());
+        ScriptableObject.putProperty(data, "width", queryResult.getWidth());
+        ScriptableObject.putProperty(data, "topOffset", queryResult.getTopOffset());
+        ScriptableObject.putProperty(data, "leftOffset", queryResult.getLeftOffset());
+        return data;
+    }
+
+    private static Scriptable toJavascript(Context cx, Scriptable scope, List<Cell[]> cellset) {
+        if (cellset == null) {
+            return null;
+        }
+        Object[] rows = new Object[cellset.size()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = toJavascript(cx, scope, cellset.get(i));
+        }
+        return cx.newArray(scope, rows);
+    }
+
+    private static Scriptable toJavascript(Context cx, Scriptable scope, Cell[] cells) {
+        if (cells == null) {
+            return null;
+        }
+        Object[] row = new Object[cells.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = toJavascript(cx, scope, cells[i]);
+        }
+        return cx.newArray(scope, row);
+    }
+
+    private static Scriptable toJavascript(Context cx, Scriptable scope, Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+        Scriptable properties = cx.newObject(scope);
+        for (Map.Entry<Object, Object> property : cell.getProperties().entrySet()) {
+            ScriptableObject.putProperty(properties, String.valueOf(property.getKey()),
+                property.getValue() != null ? property.getValue().toString() : null);
+        }
+        Scriptable object = cx.newObject(scope);
+        ScriptableObject.putProperty(object, "value", cell.getValue());
+        ScriptableObject.putProperty(object, "type", cell.getType());
+        ScriptableObject.putProperty(object, "properties", properties);
+        return object;
+    }
+
+    private static Scriptable toJavascript(Context cx, Scriptable scope, Total[][] totalsLists) {
+        if (totalsLists == null) {
+            return null;
+        }
+        Object[] lists = new Object[totalsLists.length];
+        for (int i = 0; i < lists.length; i++) {
+            if (totalsLists[i] != null) {
+                Object[] list = new Object[totalsLists[i].length];
+                for (int j = 0; j < list.length; j++) {
+                    list[j] = toJavascript(cx, scope, totalsLists[i][j]);
+                }
+                lists[i] = cx.newArray(scope, list);
+            }
+        }
+        return cx.newArray(scope, lists);
+    }
+
+    private static Scriptable toJavascript(Context cx, Scriptable scope, Total total) {
+        if (total == null) {
+            return null;
+        }
+        Object[] cells = new Object[total.getCells().length];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = toJavascript(cx, scope, total.getCells()[i]);
+        }
+        Scriptable object = cx.newObject(scope);
+        ScriptableObject.putProperty(object, "cells", cx.newArray(scope, cells));
+        ScriptableObject.putProperty(object, "captions",
+            total.getCaptions() != null ? cx.newArray(scope, Arrays.copyOf(total.getCaptions(),
+                total.getCaptions().length, Object[].class)) : null);
+        ScriptableObject.putProperty(object, "span", total.getSpan());
+        ScriptableObject.putProperty(object, "width", total.getWidth());
+        return object;
     }
 
     private static String appendSaikuCommercialIfNecessary(String content) {
-        if (getVersion() != null && !getVersion().contains("EE")) {
+        String v = getVersion();
+        if (v != null && !v.contains("EE")) {
             content =
                 content + "<div style='margin-top:10px;'><h5>Export Provided By Saiku Analytics Community Edition(http://meteorite.bi)"
                     + "</h5></div>";
@@ -87,24 +188,55 @@ public class JSConverter {
     }
 
     private static String getVersion() {
+        if (version != null) {
+            return version;
+        }
         Properties prop = new Properties();
-        InputStream input = null;
-        String version = "";
+        String v = "";
         ClassLoader classloader = Thread.currentThread().getContextClassLoader();
         InputStream is = classloader.getResourceAsStream("org/saiku/web/rest/resources/version.properties");
         try {
-
-            //input = new FileInputStream("version.properties");
-
             // load a properties file
             prop.load(is);
+            v = prop.getProperty("VERSION");
+            version = v;
+        } catch (Exception e) {
+            log.warn("Cannot read version of Saiku", e);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return v;
+    }
 
-            // get the property value and print it out
-            System.out.println(prop.getProperty("VERSION"));
-            version = prop.getProperty("VERSION");
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * The compiled renderer scripts in a sealed scope.
+     */
+    private static class Renderer {
+        private final ScriptableObject scope;
+        private final Function render;
+
+        Renderer() throws IOException {
+            Context javascriptContext = createJavascriptContext();
+            try {
+                scope = javascriptContext.initStandardObjects(null, true);
+                for (String script : SCRIPTS) {
+                    InputStream is = JSConverter.class.getResourceAsStream(script);
+                    try {
+                        javascriptContext.compileString(IOUtils.toString(is, "UTF-8"), script, 1, null)
+                            .exec(javascriptContext, scope);
+                    } finally {
+                        IOUtils.closeQuietly(is);
+                    }
+                }
+                // a new renderer per call, the scripts keep no other state
+                javascriptContext.evaluateString(scope, "function " + RENDER_FUNCTION + "(cellset, options) {\n"
+                    + "  return new SaikuTableRenderer().render(cellset, options);\n"
+                    + "}", RENDER_FUNCTION, 1, null);
+                render = (Function) scope.get(RENDER_FUNCTION, scope);
+                scope.sealObject();
+            } finally {
+                Context.exit();
+            }
         }
-        return version;
     }
 }
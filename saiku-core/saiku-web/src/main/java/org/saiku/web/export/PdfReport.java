@@ -7,6 +7,7 @@ import com.lowagie.text.pdf.PdfContentByte;
 import com.lowagie.text.pdf.PdfWriter;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.print.PrintTranscoder;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.fop.apps.Fop;
 import org.apache.fop.apps.FopFactory;
@@ -17,14 +18,14 @@ import org.saiku.web.rest.objects.resultset.QueryResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.Result;
-import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
 import java.awt.*;
 import java.awt.print.PageFormat;
 import java.awt.print.Paper;
@@ -34,7 +35,10 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 
 /**
- * This PdfReport reads in a QueryResult and converts it to HTML, DOM, FO and eventually to a byte array containing the PDF data
+ * This PdfReport reads in a QueryResult and converts it to HTML, FO and eventually to the PDF data written to a stream.
+ *
+ * <p>The cleaned HTML is fed through the compiled stylesheet into FOP as SAX events, the FOP factory and the stylesheet
+ * are shared by all reports.</p>
  */
 public class PdfReport {
 
@@ -45,6 +49,10 @@ public class PdfReport {
     private static final float marginTop = 10;
     private static final float marginBottom = 10;
 
+    private static final FopFactory fopFactory = FopFactory.newInstance();
+
+    private static volatile Stylesheet stylesheet;
+
     private final PdfPerformanceLogger pdfPerformanceLogger;
 
     public PdfReport() {
@@ -52,13 +60,23 @@ public class PdfReport {
     }
 
     public byte[] createPdf(QueryResult queryResult, String svg) throws Exception {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        createPdf(queryResult, svg, pdf);
+        return pdf.toByteArray();
+    }
+
+    /**
+     * Writes the PDF to a stream while it is rendered, the stream is flushed but not closed.
+     */
+    public void createPdf(QueryResult queryResult, String svg, OutputStream out) throws Exception {
         Rectangle queryResultSize = getQueryResultSize(queryResult);
 
         Document document = createDocumentWithSizeToContainQueryResult(queryResultSize);
         document.open();
 
-        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        OutputStream pdf = new BufferedOutputStream(out);
         populatePdf(queryResult, pdf, queryResultSize);
+        pdf.flush();
 
         // do we want to add a svg image?
         if (StringUtils.isNotBlank(svg)) {
@@ -68,7 +86,6 @@ public class PdfReport {
         }
 
         //  document.close();
-        return pdf.toByteArray();
     }
 
     private Document createDocumentWithSizeToContainQueryResult(Rectangle size) {
@@ -140,7 +157,7 @@ public class PdfReport {
     }
 
     /**
-     * Query to HTML, HTML to DOM, DOM to FO and FO is written as PDF Byte array
+     * Query to HTML, HTML to SAX events, transformed to FO and rendered by FOP straight into the PDF stream
      *
      * @param queryResult
      * @param pdf
@@ -149,27 +166,18 @@ public class PdfReport {
      */
     private void populatePdf(QueryResult queryResult, OutputStream pdf, Rectangle queryResultSize) throws Exception {
         String htmlContent = generateContentAsHtmlString(queryResult);
-        org.w3c.dom.Document htmlDom = DomConverter.getDom(htmlContent);
-        org.w3c.dom.Document foDoc = FoConverter.getFo(htmlDom);
-        byte[] formattedPdfContent = fo2Pdf(foDoc, null, queryResultSize);
-        tryWritingContentToPdfStream(pdf, formattedPdfContent);
+        Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, pdf);
+        TransformerHandler html2Fo = getStylesheet().newTransformerHandler();
+        Transformer transformer = html2Fo.getTransformer();
+        transformer.setParameter("page_height", (queryResultSize.getHeight() / 72) + "in");
+        transformer.setParameter("page_width", (queryResultSize.getWidth() / 72) + "in");
+        html2Fo.setResult(new SAXResult(fop.getDefaultHandler()));
+        HtmlSaxConverter.toSax(htmlContent, html2Fo);
 
         pdfPerformanceLogger.renderStop();
         pdfPerformanceLogger.logResults();
     }
 
-    private void tryWritingContentToPdfStream(OutputStream pdf, byte[] formattedPdfContent) {
-        try {
-            pdf.write(formattedPdfContent);
-        } catch (java.io.FileNotFoundException e) {
-            e.printStackTrace();
-            System.out.println("Error creating PDF: ");
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.out.println("Error writing PDF: ");
-        }
-    }
-
     private String generateContentAsHtmlString(QueryResult queryResult) throws IOException {
         pdfPerformanceLogger.queryToHtmlStart();
         String contentBeforeQueryResult = createExportedByMessage();
@@ -185,60 +193,48 @@ public class PdfReport {
         return "<p>" + "Saiku Export - " + dateFormat.format(date) + "</p>";
     }
 
-    private byte[] fo2Pdf(org.w3c.dom.Document foDocument, String styleSheet, Rectangle size) {
-        FopFactory fopFactory = FopFactory.newInstance();
-
-        try {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-            Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, out);
-            Transformer transformer = getTransformer(styleSheet);
-            Source src = new DOMSource(foDocument);
-            Result res = new SAXResult(fop.getDefaultHandler());
-
-            if (transformer != null) {
-                transformer.setParameter("page_height", (size.getHeight() / 72) + "in");
-                transformer.setParameter("page_width", (size.getWidth() / 72) + "in");
-                transformer.transform(src, res);
+    private static Stylesheet getStylesheet() throws TransformerException {
+        Stylesheet s = stylesheet;
+        if (s == null) {
+            synchronized (PdfReport.class) {
+                s = stylesheet;
+                if (s == null) {
+                    s = new Stylesheet();
+                    stylesheet = s;
+                }
             }
-
-            return out.toByteArray();
-
-        } catch (Exception ex) {
-            return null;
         }
+        return s;
     }
 
-    private Transformer getTransformer(String styleSheet) {
-        try {
-            TransformerFactory tFactory = TransformerFactory.newInstance();
-
-            DocumentBuilderFactory dFactory = DocumentBuilderFactory.newInstance();
-            dFactory.setNamespaceAware(true);
-
-            InputStream is = this.getClass().getResourceAsStream("xhtml2fo.xsl");
-            DocumentBuilder dBuilder = dFactory.newDocumentBuilder();
-            org.w3c.dom.Document xslDoc = dBuilder.parse(is);
-            DOMSource xslDomSource = new DOMSource(xslDoc);
-
-            return tFactory.newTransformer(xslDomSource);
-        } catch (javax.xml.transform.TransformerException e) {
-            e.printStackTrace();
-            return null;
-        } catch (java.io.IOException e) {
-            e.printStackTrace();
-            return null;
-        } catch (javax.xml.parsers.ParserConfigurationException e) {
-            e.printStackTrace();
-            return null;
-        } catch (org.xml.sax.SAXException e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-	
 	 private Rectangle getQueryResultSize(QueryResult queryResult) {
         int resultWidth = calculateResultWidth(queryResult);
         return calculateDocumentSize(resultWidth);
     }
+
+    /**
+     * The compiled xhtml2fo.xsl.
+     */
+    private static class Stylesheet {
+        private final SAXTransformerFactory factory;
+        private final Templates templates;
+
+        Stylesheet() throws TransformerException {
+            factory = (SAXTransformerFactory) TransformerFactory.newInstance();
+            InputStream is = PdfReport.class.getResourceAsStream("xhtml2fo.xsl");
+            try {
+                templates = factory.newTemplates(new StreamSource(is,
+                    String.valueOf(PdfReport.class.getResource("xhtml2fo.xsl"))));
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+
+        /**
+         * Templates are thread safe, the factory handing out their handlers is not.
+         */
+        synchronized TransformerHandler newTransformerHandler() throws TransformerException {
+            return factory.newTransformerHandler(templates);
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.web.rest.objects;
+
+import org.saiku.service.olap.drillthrough.DrillthroughCursor;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+/**
+ * An open drill through cursor, as returned to the client reading its pages.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+public class DrillthroughCursorStatus {
+    private String id;
+    private String queryName;
+    private String[] columns;
+    private long position;
+    private boolean done;
+
+    public DrillthroughCursorStatus() {
+    }
+
+    public DrillthroughCursorStatus(DrillthroughCursor cursor) {
+        this.id = cursor.getId();
+        this.queryName = cursor.getQueryName();
+        this.columns = cursor.getColumns();
+        this.position = cursor.getPosition();
+        this.done = cursor.isDone();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getQueryName() {
+        return queryName;
+    }
+
+    /**
+     * @return the labels of the columns of every row
+     */
+    public String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the number of rows read so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return whether the last row has been read and the cursor closed
+     */
+    public boolean isDone() {
+        return done;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.web.rest.objects;
+
+import org.saiku.service.olap.jobs.QueryJob;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+/**
+ * The state of a background query job, as polled by the client.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+public class QueryJobStatus {
+    private String id;
+    private String queryName;
+    private String state;
+    private String phase;
+    private long submitted;
+    private long started;
+    private long finished;
+    private Map<String, Long> phaseTimes;
+    private String error;
+
+    public QueryJobStatus() {
+    }
+
+    public QueryJobStatus(QueryJob job) {
+        this.id = job.getId();
+        this.queryName = job.getQueryName();
+        this.state = job.getState().name();
+        this.phase = job.getPhase() != null ? job.getPhase().name() : null;
+        this.submitted = job.getSubmitted();
+        this.started = job.getStarted();
+        this.finished = job.getFinished();
+        this.phaseTimes = new LinkedHashMap<>();
+        for (Map.Entry<QueryJob.Phase, Long> time : job.getPhaseTimes().entrySet()) {
+            phaseTimes.put(time.getKey().name(), time.getValue());
+        }
+        this.error = job.getError();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getQueryName() {
+        return queryName;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @return the phase the job is in or finished in: EXECUTE, FORMAT or TOTALS
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public long getFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the milliseconds spent in every phase so far
+     */
+    public Map<String, Long> getPhaseTimes() {
+        return phaseTimes;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.web.rest.objects.resultset;
+
+import java.util.List;
+
+import org.saiku.olap.dto.resultset.ResultWindow;
+
+/**
+ * A window of a query result: the header rows and the rows of the window, laid out like a {@link QueryResult}, with
+ * where the window is and the size of the whole result.
+ */
+public class QueryResultWindow extends QueryResult {
+
+	private final int headerColumns;
+	private final int firstRow;
+	private final int firstColumn;
+	private final int rowCount;
+	private final int columnCount;
+
+	public QueryResultWindow(List<Cell[]> cellset, ResultWindow window) {
+		super(cellset, window.getCells());
+		this.headerColumns = window.getHeaderColumns();
+		this.firstRow = window.getFirstRow();
+		this.firstColumn = window.getFirstColumn();
+		this.rowCount = window.getRowCount();
+		this.columnCount = window.getColumnCount();
+	}
+
+	/**
+	 * @return the header columns every row starts with
+	 */
+	public int getHeaderColumns() {
+		return headerColumns;
+	}
+
+	/**
+	 * @return the first body row of the window
+	 */
+	public int getFirstRow() {
+		return firstRow;
+	}
+
+	/**
+	 * @return the first data column of the window
+	 */
+	public int getFirstColumn() {
+		return firstColumn;
+	}
+
+	/**
+	 * @return the body rows of the whole result
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the data columns of the whole result
+	 */
+	public int getColumnCount() {
+		return columnCount;
+	}
+}
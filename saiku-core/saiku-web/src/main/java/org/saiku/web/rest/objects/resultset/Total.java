@@ -1,7 +1,7 @@
 package org.saiku.web.rest.objects.resultset;
 
 import org.saiku.service.olap.totals.TotalNode;
-import org.saiku.service.olap.totals.aggregators.TotalAggregator;
+import org.saiku.service.olap.totals.aggregators.TotalValue;
 
 public class Total {
 	private final Cell[][] cells;
@@ -13,7 +13,7 @@ public class Total {
 		this(node.getTotalGroups(), node.getMemberCaptions(), node.getSpan(), node.getWidth());
 	}
 	
-	private Total(TotalAggregator[][] values, String[] captions, int span, int width) {
+	private Total(TotalValue[][] values, String[] captions, int span, int width) {
 		if (values.length > 0)
 			this.cells = new Cell[values.length][values[0].length];
 		else
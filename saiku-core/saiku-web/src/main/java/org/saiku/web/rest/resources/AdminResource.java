@@ -136,7 +136,9 @@ public class AdminResource {
         }
 
         try {
-            datasourceService.addDatasource( json.toSaikuDataSource(), true );
+            SaikuDatasource datasource = json.toSaikuDataSource();
+            datasourceService.addDatasource( datasource, true );
+            olapDiscoverService.invalidateMetadata(datasource.getName());
             return Response.ok().type("application/json").entity(json).build();
         }
         catch (Exception e){
@@ -212,6 +214,7 @@ public class AdminResource {
             return Response.status(Response.Status.FORBIDDEN).build();
         }
         datasourceService.removeDatasource(id);
+        olapDiscoverService.invalidateMetadata(id);
         return Response.ok().type("application/json").entity(datasourceService.getDatasources()).build();
     }
 
@@ -255,6 +258,8 @@ public class AdminResource {
         String schema = getStringFromInputStream(is);
         try {
             datasourceService.addSchema(schema, path, name);
+            // any connection may use the schema
+            olapDiscoverService.invalidateMetadata(null);
             return Response.ok().entity(datasourceService.getAvailableSchema()).build();
         } catch (Exception e) {
             log.error("Error uploading schema: "+name, e);
@@ -289,6 +294,8 @@ public class AdminResource {
         String schema = getStringFromInputStream(is);
         try {
             datasourceService.addSchema(schema, path, name);
+            // any connection may use the schema
+            olapDiscoverService.invalidateMetadata(null);
             return Response.ok().entity(datasourceService.getAvailableSchema()).build();
         } catch (Exception e) {
             log.error("Error uploading schema: "+name, e);
@@ -316,6 +323,7 @@ public class AdminResource {
             SaikuDatasource saikuDatasource = datasourceService.getDatasource(datasourceName);
             datasourceService.setLocaleOfDataSource(saikuDatasource, locale);
             datasourceService.addDatasource(saikuDatasource, overwrite);
+            olapDiscoverService.invalidateMetadata(datasourceName);
             return Response.ok().type("application/json").entity(new DataSourceMapper(saikuDatasource)).build();
         } catch(SaikuDataSourceException e){
             return Response.ok().type("application/json").entity(e.getLocalizedMessage()).build();
@@ -356,6 +364,7 @@ public class AdminResource {
             return Response.status(Response.Status.FORBIDDEN).build();
         }
         datasourceService.removeSchema(id);
+        olapDiscoverService.invalidateMetadata(null);
         return Response.status(Response.Status.NO_CONTENT).entity(datasourceService.getAvailableSchema()).build();
     }
 
@@ -0,0 +1,107 @@
+package org.saiku.web.rest.resources;
+
+public class AdmissionStats {
+
+	private final boolean enabled;
+	private final int running;
+	private final int queueDepth;
+	private final int interactiveQueueDepth;
+	private final int exportQueueDepth;
+	private final long admitted;
+	private final long queued;
+	private final long rejected;
+	private final long timedOut;
+	private final double averageWaitMillis;
+	private final long maxWaitMillis;
+
+	public AdmissionStats(
+			boolean enabled,
+			int running,
+			int queueDepth,
+			int interactiveQueueDepth,
+			int exportQueueDepth,
+			long admitted,
+			long queued,
+			long rejected,
+			long timedOut,
+			double averageWaitMillis,
+			long maxWaitMillis)
+	{
+		this.enabled = enabled;
+		this.running = running;
+		this.queueDepth = queueDepth;
+		this.interactiveQueueDepth = interactiveQueueDepth;
+		this.exportQueueDepth = exportQueueDepth;
+		this.admitted = admitted;
+		this.queued = queued;
+		this.rejected = rejected;
+		this.timedOut = timedOut;
+		this.averageWaitMillis = averageWaitMillis;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the number of statements running
+	 */
+	public int getRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the number of statements waiting for their turn
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public int getInteractiveQueueDepth() {
+		return interactiveQueueDepth;
+	}
+
+	public int getExportQueueDepth() {
+		return exportQueueDepth;
+	}
+
+	/**
+	 * @return the number of statements let in, right away or after waiting
+	 */
+	public long getAdmitted() {
+		return admitted;
+	}
+
+	/**
+	 * @return the number of statements that had to wait
+	 */
+	public long getQueued() {
+		return queued;
+	}
+
+	/**
+	 * @return the number of statements rejected because too many were waiting
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return the number of statements rejected because they waited too long
+	 */
+	public long getTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return the average wait of the statements that had to wait
+	 */
+	public double getAverageWaitMillis() {
+		return averageWaitMillis;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+}
@@ -25,6 +25,7 @@ import org.apache.commons.vfs.VFS;
 
 import org.saiku.repository.AclEntry;
 import org.saiku.repository.IRepositoryObject;
+import org.saiku.repository.RepositoryListing;
 import org.saiku.service.ISessionService;
 import org.saiku.service.datasource.DatasourceService;
 import org.saiku.service.util.exception.SaikuServiceException;
@@ -49,6 +50,7 @@ import java.util.zip.ZipInputStream;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -142,6 +144,42 @@ public class BasicRepositoryResource2 implements ISaikuRepository {
 		return l;
   }
 
+  /**
+   * Get one page of the children of a folder, so the repository can be expanded folder by folder.
+   * @summary Get the children of a folder.
+   * @param path The folder, the root if empty
+   * @param type The file types to list, comma separated, all files if empty
+   * @param depth The levels of children to include, deeper folders only get their child count
+   * @param cursor The next cursor of the previous page
+   * @param limit The children on a page, 0 for all of them
+   * @return A repository listing with the cursor of the next page, if there is one.
+   */
+  @GET
+  @Produces({"application/json" })
+  @Path("/children")
+  @ReturnType("org.saiku.repository.RepositoryListing")
+  public Response getChildren(
+	  @QueryParam("path") String path,
+	  @QueryParam("type") @DefaultValue("") String type,
+	  @QueryParam("depth") @DefaultValue("1") int depth,
+	  @QueryParam("cursor") String cursor,
+	  @QueryParam("limit") @DefaultValue("100") int limit)
+  {
+		if (sessionService == null || sessionService.getAllSessionObjects() == null || sessionService.getAllSessionObjects().get("username") == null) {
+		  return Response.status(Status.UNAUTHORIZED).build();
+		}
+
+		String username = sessionService.getAllSessionObjects().get("username").toString();
+		List<String> roles = (List<String> ) sessionService.getAllSessionObjects().get("roles");
+		List<String> types = StringUtils.isNotBlank(type) ? Arrays.asList(type.split(",")) : null;
+		RepositoryListing listing = datasourceService.getChildren(types, username, roles,
+			StringUtils.isNotBlank(path) ? path : null, depth, StringUtils.isNotBlank(cursor) ? cursor : null, limit);
+		if (listing == null) {
+		  return Response.status(Status.NOT_FOUND).entity("No such folder: " + path).type(MediaType.TEXT_PLAIN).build();
+		}
+		return Response.ok(listing).build();
+  }
+
 
   /**
    * Get the ACL information for a given resource.
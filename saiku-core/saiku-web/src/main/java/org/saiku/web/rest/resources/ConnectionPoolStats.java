@@ -0,0 +1,109 @@
+package org.saiku.web.rest.resources;
+
+import org.saiku.datasources.connection.OlapConnectionPool;
+
+public class ConnectionPoolStats {
+
+	private final String name;
+	private final int minSize;
+	private final int maxSize;
+	private final int active;
+	private final int idle;
+	private final int waiting;
+	private final long created;
+	private final long destroyed;
+	private final long borrowed;
+	private final long timeouts;
+	private final long validationFailures;
+
+	public ConnectionPoolStats(OlapConnectionPool pool) {
+		this.name = pool.getName();
+		this.minSize = pool.getMinSize();
+		this.maxSize = pool.getMaxSize();
+		this.active = pool.getActive();
+		this.idle = pool.getIdle();
+		this.waiting = pool.getWaiting();
+		this.created = pool.getCreated();
+		this.destroyed = pool.getDestroyed();
+		this.borrowed = pool.getBorrowed();
+		this.timeouts = pool.getTimeouts();
+		this.validationFailures = pool.getValidationFailures();
+	}
+
+	/**
+	 * @return the datasource name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the minimum number of idle connections
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @return the maximum number of leased connections
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of leased connections
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	/**
+	 * @return the number of idle connections
+	 */
+	public int getIdle() {
+		return idle;
+	}
+
+	/**
+	 * @return the number of queries waiting for a connection
+	 */
+	public int getWaiting() {
+		return waiting;
+	}
+
+	/**
+	 * @return the number of connections opened
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the number of connections closed
+	 */
+	public long getDestroyed() {
+		return destroyed;
+	}
+
+	/**
+	 * @return the number of leases
+	 */
+	public long getBorrowed() {
+		return borrowed;
+	}
+
+	/**
+	 * @return the number of leases that timed out
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * @return the number of idle connections found invalid
+	 */
+	public long getValidationFailures() {
+		return validationFailures;
+	}
+}
@@ -19,13 +19,24 @@ import org.saiku.olap.dto.SimpleCubeElement;
 import org.saiku.olap.dto.resultset.CellDataSet;
 import org.saiku.olap.query2.ThinQuery;
 import org.saiku.olap.util.SaikuProperties;
+import org.saiku.service.olap.AdmissionController;
+import org.saiku.service.olap.QueryMetrics;
 import org.saiku.service.olap.ThinQueryService;
 import org.saiku.service.olap.drillthrough.DrillThroughResult;
+import org.saiku.service.olap.drillthrough.DrillthroughCursor;
+import org.saiku.service.olap.jobs.QueryJob;
 import org.saiku.service.util.exception.SaikuServiceException;
 import org.saiku.web.export.JSConverter;
-import org.saiku.web.export.PdfReport;
+import org.saiku.web.rest.objects.DrillthroughCursorStatus;
+import org.saiku.web.rest.objects.QueryJobStatus;
 import org.saiku.web.rest.objects.resultset.QueryResult;
+import org.saiku.web.rest.objects.resultset.QueryResultWindow;
 import org.saiku.web.rest.util.RestUtil;
+import org.saiku.web.rest.util.StreamingCsvExport;
+import org.saiku.web.rest.util.StreamingDrillthroughPage;
+import org.saiku.web.rest.util.StreamingExcelExport;
+import org.saiku.web.rest.util.StreamingPdfExport;
+import org.saiku.web.rest.util.StreamingQueryResult;
 
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -50,10 +61,12 @@ import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.Providers;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 
@@ -192,7 +205,12 @@ public class Query2Resource {
                 return rsc;
             }
 
-            QueryResult qr = RestUtil.convert(thinQueryService.execute(tq));
+            CellDataSet result = thinQueryService.execute(tq);
+            long serialize = System.nanoTime();
+            QueryResult qr = RestUtil.convert(result);
+            Object formatter = tq.getProperties().get("saiku.olap.result.formatter");
+            thinQueryService.recordPhase(QueryMetrics.Phase.SERIALIZE, tq.getName(),
+                    formatter != null ? formatter.toString() : "", serialize);
             ThinQuery tqAfter = thinQueryService.getContext(tq.getName()).getOlapQuery();
             qr.setQuery(tqAfter);
             return qr;
@@ -204,6 +222,40 @@ public class Query2Resource {
         }
     }
 
+  /**
+   *
+   * Execute a Saiku Query and stream the result.
+   * @summary Execute Query (streaming)
+   * @param tq Thin Query model
+   * @param providers The JAX-RS providers, the result is written with the mapper of the JSON provider
+   * @return The same query result set as /execute, written to the response row by row as it is formatted.
+   */
+    @POST
+    @Consumes({"application/json" })
+    @Produces({"application/json" })
+    @Path("/execute/stream")
+    @ReturnType("org.saiku.web.rest.objects.resultset.QueryResult")
+    public Response executeStreaming(ThinQuery tq, @Context Providers providers) {
+        try {
+            if (thinQueryService.isMdxDrillthrough(tq)) {
+                return Response.ok(execute(tq)).build();
+            }
+            long start = System.currentTimeMillis();
+            thinQueryService.executeQuery(tq);
+            String formatter = "";
+            if (tq.getProperties().containsKey("saiku.olap.result.formatter")) {
+                formatter = tq.getProperties().get("saiku.olap.result.formatter").toString();
+            }
+            return Response.ok(new StreamingQueryResult(thinQueryService, tq.getName(), formatter, start,
+                StreamingQueryResult.mapper(providers))).build();
+        }
+        catch (Exception e) {
+            log.error("Cannot execute query (" + tq + ")",e);
+            String error = ExceptionUtils.getRootCauseMessage(e);
+            return Response.ok(new QueryResult(error)).build();
+        }
+    }
+
   /**
    * Cancel a running query.
    * @summary Cancel Query.
@@ -227,6 +279,109 @@ public class Query2Resource {
         }
     }
 
+  /**
+   * Execute a Saiku Query in the background.
+   * @summary Submit query job
+   * @param tq Thin Query model
+   * @return A HTTP 202 with the job status, poll it for progress, or a HTTP 503 if too many queries are waiting.
+   */
+    @POST
+    @Consumes({"application/json" })
+    @Produces({"application/json" })
+    @Path("/jobs")
+    @ReturnType("org.saiku.web.rest.objects.QueryJobStatus")
+    public Response submitJob(ThinQuery tq) {
+        try {
+            QueryJob job = thinQueryService.submit(tq);
+            return Response.status(Status.ACCEPTED).entity(new QueryJobStatus(job)).build();
+        }
+        catch (SaikuServiceException e) {
+            log.warn("Cannot submit query (" + tq + "): " + e.getMessage());
+            throw new WebApplicationException(Response.status(Status.SERVICE_UNAVAILABLE).entity(e.getMessage()).build());
+        }
+        catch (Exception e) {
+            log.error("Cannot submit query (" + tq + ")",e);
+            String error = ExceptionUtils.getRootCauseMessage(e);
+            throw new WebApplicationException(Response.serverError().entity(error).build());
+        }
+    }
+
+  /**
+   * List the background query jobs of the session.
+   * @summary List query jobs
+   * @return The status of every job that has not expired.
+   */
+    @GET
+    @Produces({"application/json" })
+    @Path("/jobs")
+    public List<QueryJobStatus> getJobs() {
+        List<QueryJobStatus> jobs = new ArrayList<>();
+        for (QueryJob job : thinQueryService.getJobs()) {
+            jobs.add(new QueryJobStatus(job));
+        }
+        return jobs;
+    }
+
+  /**
+   * Poll a background query job.
+   * @summary Query job status
+   * @param jobId The job id
+   * @return The job state, its current phase and the time spent in every phase, or a HTTP 404.
+   */
+    @GET
+    @Produces({"application/json" })
+    @Path("/jobs/{jobid}")
+    public QueryJobStatus getJob(@PathParam("jobid") String jobId) {
+        return new QueryJobStatus(findJob(jobId));
+    }
+
+  /**
+   * Fetch the result of a background query job.
+   * @summary Query job result
+   * @param jobId The job id
+   * @return The query result set of a finished job, or a HTTP 409 with the job status while it is not done.
+   */
+    @GET
+    @Produces({"application/json" })
+    @Path("/jobs/{jobid}/result")
+    @ReturnType("org.saiku.web.rest.objects.resultset.QueryResult")
+    public Response getJobResult(@PathParam("jobid") String jobId) {
+        QueryJob job = findJob(jobId);
+        switch (job.getState()) {
+        case DONE:
+            QueryResult qr = RestUtil.convert(job.getResult());
+            qr.setQuery(job.getQuery());
+            return Response.ok(qr).build();
+        case FAILED:
+            return Response.ok(new QueryResult(job.getError())).build();
+        default:
+            return Response.status(Status.CONFLICT).entity(new QueryJobStatus(job)).build();
+        }
+    }
+
+  /**
+   * Cancel a background query job, stopping its query if it is running.
+   * @summary Cancel query job
+   * @param jobId The job id
+   * @return The job status.
+   */
+    @DELETE
+    @Produces({"application/json" })
+    @Path("/jobs/{jobid}")
+    public QueryJobStatus cancelJob(@PathParam("jobid") String jobId) {
+        QueryJob job = findJob(jobId);
+        thinQueryService.cancelJob(jobId);
+        return new QueryJobStatus(job);
+    }
+
+    private QueryJob findJob(String jobId) {
+        QueryJob job = thinQueryService.getJob(jobId);
+        if (job == null) {
+            throw new WebApplicationException(Response.status(Status.NOT_FOUND).entity("No query job " + jobId).build());
+        }
+        return job;
+    }
+
   /**
    * Enrich a thin query model
    * @summary Enrich thin query.
@@ -285,6 +440,45 @@ public class Query2Resource {
     }
 
 
+  /**
+   * Get a window of the result of the query, for scrolling over results too large to fetch at once.
+   * @summary Result window
+   * @param queryName The query name
+   * @param row The first body row of the window
+   * @param rows The body rows in the window
+   * @param column The first data column of the window
+   * @param columns The data columns in the window
+   * @param format The formatter, flattened by default
+   * @return The header rows and the rows of the window, with the totals overlapping it and the size of the whole
+   * result.
+   */
+    @GET
+    @Produces({"application/json" })
+    @Path("/{queryname}/result/window")
+    public QueryResultWindow getResultWindow(
+            @PathParam("queryname") String queryName,
+            @QueryParam("row") @DefaultValue("0") int row,
+            @QueryParam("rows") @DefaultValue("100") int rows,
+            @QueryParam("column") @DefaultValue("0") int column,
+            @QueryParam("columns") @DefaultValue("100") int columns,
+            @QueryParam("format") @DefaultValue("") String format)
+    {
+        if (log.isDebugEnabled()) {
+            log.debug("TRACK\t"  + "\t/query/" + queryName + "/result/window\tGET");
+        }
+        if (thinQueryService.getContext(queryName) == null) {
+            throw new WebApplicationException(Status.NOT_FOUND);
+        }
+        try {
+            return RestUtil.convert(thinQueryService.getResultWindow(queryName, format, row, rows, column, columns));
+        }
+        catch (Exception e) {
+            log.error("Cannot get result window of query (" + queryName + ")",e);
+            String error = ExceptionUtils.getRootCauseMessage(e);
+            throw new WebApplicationException(Response.serverError().entity(error).build());
+        }
+    }
+
   /**
    * Query export to excel.
    * @summary Excel export
@@ -319,15 +513,18 @@ public class Query2Resource {
         if (log.isDebugEnabled()) {
             log.debug("TRACK\t"  + "\t/query/" + queryName + "/export/xls/"+format+"\tGET");
         }
+        // the workbook is only written once the response has started, a missing query could not be reported then
+        if (thinQueryService.getContext(queryName) == null) {
+            throw new WebApplicationException(Response.status(Status.NOT_FOUND).entity("No query " + queryName).build());
+        }
         try {
-            byte[] doc = thinQueryService.getExport(queryName,"xls",format);
             if(name == null || name.equals("")) {
                 name = SaikuProperties.webExportExcelName + "." + SaikuProperties.webExportExcelFormat;
             }
-            return Response.ok(doc, MediaType.APPLICATION_OCTET_STREAM).header(
+            return Response.ok(new StreamingExcelExport(thinQueryService, queryName, format),
+                    MediaType.APPLICATION_OCTET_STREAM).header(
                     "content-disposition",
-                    "attachment; filename = " + name).header(
-                    "content-length",doc.length).build();
+                    "attachment; filename = " + name).build();
         }
         catch (Exception e) {
             log.error("Cannot get excel for query (" + queryName + ")",e);
@@ -369,16 +566,19 @@ public class Query2Resource {
         if (log.isDebugEnabled()) {
             log.debug("TRACK\t"  + "\t/query/" + queryName + "/export/csv/"+format+"\tGET");
         }
+        // the result is only written once the response has started, a missing query could not be reported then
+        if (thinQueryService.getContext(queryName) == null) {
+            throw new WebApplicationException(Response.status(Status.NOT_FOUND).entity("No query " + queryName).build());
+        }
         try {
-            byte[] doc = thinQueryService.getExport(queryName,"csv",format);
             if(name == null || name.equals("")) {
                  name = SaikuProperties.webExportCsvName;
             }
 
-            return Response.ok(doc, MediaType.APPLICATION_OCTET_STREAM).header(
+            return Response.ok(StreamingCsvExport.ofQuery(thinQueryService, queryName, format),
+                    MediaType.APPLICATION_OCTET_STREAM).header(
                     "content-disposition",
-                    "attachment; filename = " + name + ".csv").header(
-                    "content-length",doc.length).build();
+                    "attachment; filename = " + name + ".csv").build();
         }
         catch (Exception e) {
             log.error("Cannot get csv for query (" + queryName + ")",e);
@@ -528,7 +728,7 @@ public class Query2Resource {
 
         try {
             if (position == null) {
-                rs = thinQueryService.drillthrough(queryName, maxrows, returns);
+                rs = thinQueryService.drillthrough(queryName, maxrows, returns, AdmissionController.Priority.EXPORT);
             } else {
                 String[] positions = position.split(":");
                 List<Integer> cellPosition = new ArrayList<>();
@@ -538,14 +738,17 @@ public class Query2Resource {
                     cellPosition.add(pInt);
                 }
 
-                rs = thinQueryService.drillthrough(queryName, cellPosition, maxrows, returns);
+                rs = thinQueryService.drillthrough(queryName, cellPosition, maxrows, returns,
+                        AdmissionController.Priority.EXPORT);
             }
-            byte[] doc = thinQueryService.exportResultSetCsv(rs);
             String name = SaikuProperties.webExportCsvName;
-            return Response.ok(doc, MediaType.APPLICATION_OCTET_STREAM).header(
+            // the result set is closed once the rows have been written to the response
+            Response response = Response.ok(StreamingCsvExport.ofResultSet(thinQueryService, queryName, rs),
+                    MediaType.APPLICATION_OCTET_STREAM).header(
                     "content-disposition",
-                    "attachment; filename = " + name + "-drillthrough.csv").header(
-                    "content-length",doc.length).build();
+                    "attachment; filename = " + name + "-drillthrough.csv").build();
+            rs = null;
+            return response;
 
 
         } catch (Exception e) {
@@ -568,6 +771,97 @@ public class Query2Resource {
 
     }
 
+  /**
+   * Open a drill through whose rows are read a page at a time, keeping its result set open on the server.
+   * @summary Open drill through cursor
+   * @param queryName The query name
+   * @param maxrows The max rows returned, 0 for all
+   * @param position The position
+   * @param returns The returned dimensions and levels
+   * @return A HTTP 201 with the cursor, read its pages and delete it when done, a HTTP 404 if there is no such query or
+   * a HTTP 503 if the user has too many drill throughs open.
+   */
+    @POST
+    @Produces({"application/json" })
+    @Path("/{queryname}/drillthrough/cursors")
+    @ReturnType("org.saiku.web.rest.objects.DrillthroughCursorStatus")
+    public Response openDrillthroughCursor(
+            @PathParam("queryname") String queryName,
+            @QueryParam("maxrows") @DefaultValue("0") Integer maxrows,
+            @QueryParam("position") String position,
+            @QueryParam("returns") String returns)
+    {
+        if (log.isDebugEnabled()) {
+            log.debug("TRACK\t"  + "\t/query/" + queryName + "/drillthrough/cursors (maxrows:" + maxrows + " position" + position + ")\tPOST");
+        }
+        if (thinQueryService.getContext(queryName) == null) {
+            throw new WebApplicationException(Response.status(Status.NOT_FOUND).entity("No query " + queryName).build());
+        }
+        List<Integer> cellPosition = null;
+        if (position != null) {
+            cellPosition = new ArrayList<>();
+            for (String p : position.split(":")) {
+                cellPosition.add(Integer.parseInt(p));
+            }
+        }
+        try {
+            DrillthroughCursor cursor = thinQueryService.openDrillthrough(queryName, cellPosition, maxrows, returns);
+            return Response.status(Status.CREATED).entity(new DrillthroughCursorStatus(cursor)).build();
+        }
+        catch (SaikuServiceException e) {
+            if (e.getCause() == null) {
+                log.warn("Cannot open drill through of query (" + queryName + "): " + e.getMessage());
+                throw new WebApplicationException(Response.status(Status.SERVICE_UNAVAILABLE).entity(e.getMessage()).build());
+            }
+            log.error("Cannot open drill through of query (" + queryName + ")",e);
+            String error = ExceptionUtils.getRootCauseMessage(e);
+            throw new WebApplicationException(Response.serverError().entity(error).build());
+        }
+    }
+
+  /**
+   * Read the next rows of an open drill through. The rows are streamed as JSON arrays of their values, the cursor is
+   * closed once the last row has been read.
+   * @summary Drill through page
+   * @param cursorId The cursor id
+   * @param rows The max rows of the page
+   * @return The rows of the page, the number of rows read so far and whether the drill through is done, or a HTTP 404
+   * if the cursor has been closed.
+   */
+    @GET
+    @Produces({"application/json" })
+    @Path("/drillthrough/cursors/{cursorid}")
+    public Response getDrillthroughPage(
+            @PathParam("cursorid") String cursorId,
+            @QueryParam("rows") @DefaultValue("1000") Integer rows)
+    {
+        DrillthroughCursor cursor = findDrillthroughCursor(cursorId);
+        return Response.ok(new StreamingDrillthroughPage(thinQueryService, cursor, Math.max(1, rows))).build();
+    }
+
+  /**
+   * Cancel an open drill through, closing its result set.
+   * @summary Close drill through cursor
+   * @param cursorId The cursor id
+   * @return The cursor as it was closed.
+   */
+    @DELETE
+    @Produces({"application/json" })
+    @Path("/drillthrough/cursors/{cursorid}")
+    public DrillthroughCursorStatus closeDrillthroughCursor(@PathParam("cursorid") String cursorId) {
+        DrillthroughCursor cursor = findDrillthroughCursor(cursorId);
+        thinQueryService.closeDrillthrough(cursorId);
+        return new DrillthroughCursorStatus(cursor);
+    }
+
+    private DrillthroughCursor findDrillthroughCursor(String cursorId) {
+        DrillthroughCursor cursor = thinQueryService.getDrillthroughCursor(cursorId);
+        if (cursor == null) {
+            throw new WebApplicationException(Response.status(Status.NOT_FOUND).entity("No drill through cursor " + cursorId).build());
+        }
+        return cursor;
+    }
+
   /**
    * Export PDF with chart
    * @summary Export PDF with Chart.
@@ -638,15 +932,16 @@ public class Query2Resource {
         try {
             CellDataSet cellData = thinQueryService.getFormattedResult(queryName, format);
             QueryResult queryResult = RestUtil.convert(cellData);
-            PdfReport pdf = new PdfReport();
-            byte[] doc  = pdf.createPdf(queryResult, svg);
+            if (queryResult.getCellset() == null || queryResult.getCellset().isEmpty()
+                || queryResult.getCellset().get(0).length == 0) {
+                throw new SaikuServiceException("Cannot convert empty result to PDF");
+            }
             if(name==null || name.equals("")){
                 name = "export";
             }
-            return Response.ok(doc).type("application/pdf").header(
+            return Response.ok(new StreamingPdfExport(queryResult, svg)).type("application/pdf").header(
                     "content-disposition",
-                    "attachment; filename = "+name+".pdf").header(
-                    "content-length",doc.length).build();
+                    "attachment; filename = "+name+".pdf").build();
         } catch (Exception e) {
             log.error("Error exporting query to  PDF", e);
             return Response.serverError().entity(e.getMessage()).status(Status.INTERNAL_SERVER_ERROR).build();
@@ -0,0 +1,79 @@
+package org.saiku.web.rest.resources;
+
+public class QueryContextStats {
+
+	private final int contexts;
+	private final int users;
+	private final int results;
+	private final long retainedCells;
+	private final long quotaEvictions;
+	private final long idleEvictions;
+	private final long memoryEvictions;
+
+	public QueryContextStats(
+			int contexts,
+			int users,
+			int results,
+			long retainedCells,
+			long quotaEvictions,
+			long idleEvictions,
+			long memoryEvictions)
+	{
+		this.contexts = contexts;
+		this.users = users;
+		this.results = results;
+		this.retainedCells = retainedCells;
+		this.quotaEvictions = quotaEvictions;
+		this.idleEvictions = idleEvictions;
+		this.memoryEvictions = memoryEvictions;
+	}
+
+	/**
+	 * @return the number of live query contexts
+	 */
+	public int getContexts() {
+		return contexts;
+	}
+
+	/**
+	 * @return the number of users owning a context
+	 */
+	public int getUsers() {
+		return users;
+	}
+
+	/**
+	 * @return the number of contexts holding a result
+	 */
+	public int getResults() {
+		return results;
+	}
+
+	/**
+	 * @return the number of cells held by all results
+	 */
+	public long getRetainedCells() {
+		return retainedCells;
+	}
+
+	/**
+	 * @return the number of contexts removed because their user had too many
+	 */
+	public long getQuotaEvictions() {
+		return quotaEvictions;
+	}
+
+	/**
+	 * @return the number of results released after being idle
+	 */
+	public long getIdleEvictions() {
+		return idleEvictions;
+	}
+
+	/**
+	 * @return the number of results released to stay below the cell limit
+	 */
+	public long getMemoryEvictions() {
+		return memoryEvictions;
+	}
+}
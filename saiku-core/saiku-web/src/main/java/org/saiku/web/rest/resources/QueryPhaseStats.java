@@ -0,0 +1,107 @@
+package org.saiku.web.rest.resources;
+
+import org.saiku.service.olap.QueryMetrics;
+
+public class QueryPhaseStats {
+
+	private final String phase;
+	private final String datasource;
+	private final String cube;
+	private final String formatter;
+	private final long count;
+	private final double totalMillis;
+	private final double meanMillis;
+	private final double maxMillis;
+	private final double p50Millis;
+	private final double p90Millis;
+	private final double p99Millis;
+	private final long[] buckets;
+
+	public QueryPhaseStats(QueryMetrics.Snapshot timer) {
+		this.phase = timer.getPhase();
+		this.datasource = timer.getDatasource();
+		this.cube = timer.getCube();
+		this.formatter = timer.getFormatter();
+		this.count = timer.getCount();
+		this.totalMillis = timer.getTotalMillis();
+		this.meanMillis = timer.getMeanMillis();
+		this.maxMillis = timer.getMaxMillis();
+		this.p50Millis = timer.getP50Millis();
+		this.p90Millis = timer.getP90Millis();
+		this.p99Millis = timer.getP99Millis();
+		this.buckets = timer.getBuckets();
+	}
+
+	/**
+	 * @return CONNECTION, CONVERSION, EXECUTE, FORMAT, TOTALS, SERIALIZE or EXPORT
+	 */
+	public String getPhase() {
+		return phase;
+	}
+
+	/**
+	 * @return the datasource, null if merged over all datasources
+	 */
+	public String getDatasource() {
+		return datasource;
+	}
+
+	/**
+	 * @return the cube, null if merged over all cubes
+	 */
+	public String getCube() {
+		return cube;
+	}
+
+	/**
+	 * @return the formatter, null if the phase does not depend on it or merged over all formatters
+	 */
+	public String getFormatter() {
+		return formatter;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getTotalMillis() {
+		return totalMillis;
+	}
+
+	public double getMeanMillis() {
+		return meanMillis;
+	}
+
+	public double getMaxMillis() {
+		return maxMillis;
+	}
+
+	/**
+	 * @return the median, as the upper bound of its histogram bucket
+	 */
+	public double getP50Millis() {
+		return p50Millis;
+	}
+
+	public double getP90Millis() {
+		return p90Millis;
+	}
+
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	/**
+	 * @return the number of times per histogram bucket, see {@link #getBucketBounds()}
+	 */
+	public long[] getBuckets() {
+		return buckets;
+	}
+
+	/**
+	 * @return the upper bounds of the histogram buckets in milliseconds, the last bucket has none
+	 */
+	public long[] getBucketBounds() {
+		return QueryMetrics.getBucketBounds();
+	}
+}
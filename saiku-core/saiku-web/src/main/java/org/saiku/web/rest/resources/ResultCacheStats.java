@@ -0,0 +1,79 @@
+package org.saiku.web.rest.resources;
+
+public class ResultCacheStats {
+
+	private final boolean enabled;
+	private final int size;
+	private final int maxEntries;
+	private final long ttl;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+
+	public ResultCacheStats(
+			boolean enabled,
+			int size,
+			int maxEntries,
+			long ttl,
+			long hits,
+			long misses,
+			long evictions)
+	{
+		this.enabled = enabled;
+		this.size = size;
+		this.maxEntries = maxEntries;
+		this.ttl = ttl;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+	}
+
+	/**
+	 * @return whether results are cached
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @return the number of cached results
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the maximum number of cached results
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * @return the time to live of a result in seconds
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * @return the hits
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the misses
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the evictions
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+}
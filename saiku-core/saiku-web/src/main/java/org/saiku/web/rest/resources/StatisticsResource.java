@@ -1,12 +1,22 @@
 package org.saiku.web.rest.resources;
 
+import org.saiku.datasources.connection.OlapConnectionPool;
+import org.saiku.service.olap.AdmissionController;
+import org.saiku.service.olap.OlapDiscoverService;
+import org.saiku.service.olap.QueryMetrics;
+import org.saiku.service.olap.ResultCache;
+import org.saiku.service.util.QueryContextRegistry;
+
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
 
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 
 import mondrian.olap.MondrianServer;
 import mondrian.olap.MondrianServer.MondrianVersion;
@@ -22,6 +32,12 @@ import mondrian.server.monitor.StatementInfo;
 @Path("/saiku/statistics")
 public class StatisticsResource {
 
+	private OlapDiscoverService olapDiscoverService;
+
+	public void setOlapDiscoverService(OlapDiscoverService olapDiscoverService) {
+		this.olapDiscoverService = olapDiscoverService;
+	}
+
 //	StringWriter sqlWriter = new StringWriter();
 //	StringWriter mdxWriter = new StringWriter();
 //	StringWriter profileWriter = new StringWriter();
@@ -146,6 +162,100 @@ public class StatisticsResource {
 //		return profileWriter.toString();
 //	}
 //	
+  /**
+   * Get the result cache counters
+   * @summary Get result cache stats
+   * @return Hits, misses and evictions of the shared query result cache.
+   */
+	@GET
+	@Produces({"application/json" })
+	@Path("/resultcache")
+	public ResultCacheStats getResultCacheStats() {
+		if (olapDiscoverService == null || olapDiscoverService.getResultCache() == null) {
+			return null;
+		}
+		ResultCache cache = olapDiscoverService.getResultCache();
+		return new ResultCacheStats(cache.isEnabled(), cache.getSize(), cache.getMaxEntries(), cache.getTtl(),
+				cache.getHits(), cache.getMisses(), cache.getEvictions());
+	}
+
+  /**
+   * Get the connection pool counters
+   * @summary Get connection pool stats
+   * @return Size and usage of the connection pool of every pooled datasource.
+   */
+	@GET
+	@Produces({"application/json" })
+	@Path("/connectionpools")
+	public List<ConnectionPoolStats> getConnectionPoolStats() {
+		List<ConnectionPoolStats> stats = new ArrayList<>();
+		if (olapDiscoverService != null) {
+			for (OlapConnectionPool pool : olapDiscoverService.getConnectionPools().values()) {
+				stats.add(new ConnectionPoolStats(pool));
+			}
+		}
+		return stats;
+	}
+
+  /**
+   * Get the query context counters
+   * @summary Get query context stats
+   * @return Live query contexts, retained cells and evictions.
+   */
+	@GET
+	@Produces({"application/json" })
+	@Path("/querycontexts")
+	public QueryContextStats getQueryContextStats() {
+		if (olapDiscoverService == null || olapDiscoverService.getQueryContextRegistry() == null) {
+			return null;
+		}
+		QueryContextRegistry registry = olapDiscoverService.getQueryContextRegistry();
+		return new QueryContextStats(registry.getContextCount(), registry.getUserCount(), registry.getResultCount(),
+				registry.getRetainedCells(), registry.getQuotaEvictions(), registry.getIdleEvictions(),
+				registry.getMemoryEvictions());
+	}
+
+  /**
+   * Get the admission control counters
+   * @summary Get admission stats
+   * @return Running and waiting statements, rejections and wait times.
+   */
+	@GET
+	@Produces({"application/json" })
+	@Path("/admission")
+	public AdmissionStats getAdmissionStats() {
+		if (olapDiscoverService == null || olapDiscoverService.getAdmissionController() == null) {
+			return null;
+		}
+		AdmissionController admission = olapDiscoverService.getAdmissionController();
+		return new AdmissionStats(admission.isEnabled(), admission.getRunning(), admission.getQueueDepth(),
+				admission.getQueueDepth(AdmissionController.Priority.INTERACTIVE),
+				admission.getQueueDepth(AdmissionController.Priority.EXPORT), admission.getAdmitted(),
+				admission.getQueued(), admission.getRejected(), admission.getTimedOut(),
+				admission.getAverageWaitMillis(), admission.getMaxWaitMillis());
+	}
+
+  /**
+   * Get the query phase timers
+   * @summary Get query execution stats
+   * @param merged Whether to merge the timers of all datasources, cubes and formatters per phase
+   * @return Counts, percentiles and latency histograms of every phase of the query executions, by datasource, cube and
+   * formatter.
+   */
+	@GET
+	@Produces({"application/json" })
+	@Path("/queries")
+	public List<QueryPhaseStats> getQueryStats(@QueryParam("merged") @DefaultValue("false") boolean merged) {
+		List<QueryPhaseStats> stats = new ArrayList<>();
+		if (olapDiscoverService != null && olapDiscoverService.getQueryMetrics() != null) {
+			QueryMetrics metrics = olapDiscoverService.getQueryMetrics();
+			for (QueryMetrics.Snapshot timer : merged ? metrics.getPhases() : metrics.getTimers()) {
+				stats.add(new QueryPhaseStats(timer));
+			}
+		}
+		return stats;
+	}
+
 //	@GET
 //	@Produces({"text/plain" })
 //	@Path("/log/saiku")
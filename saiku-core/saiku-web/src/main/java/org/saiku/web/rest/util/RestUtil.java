@@ -21,11 +21,13 @@ import org.saiku.olap.dto.resultset.AbstractBaseCell;
 import org.saiku.olap.dto.resultset.CellDataSet;
 import org.saiku.olap.dto.resultset.DataCell;
 import org.saiku.olap.dto.resultset.MemberCell;
+import org.saiku.olap.dto.resultset.ResultWindow;
 import org.saiku.service.olap.drillthrough.DrillThroughResult;
 import org.saiku.service.olap.totals.TotalNode;
 import org.saiku.service.util.export.ResultSetHelper;
 import org.saiku.web.rest.objects.resultset.Cell;
 import org.saiku.web.rest.objects.resultset.QueryResult;
+import org.saiku.web.rest.objects.resultset.QueryResultWindow;
 import org.saiku.web.rest.objects.resultset.Total;
 
 import org.slf4j.Logger;
@@ -123,6 +125,18 @@ public class RestUtil {
 		
 	}
 	
+	public static QueryResultWindow convert(ResultWindow window) {
+		ArrayList<Cell[]> rows = new ArrayList<>();
+		CellDataSet cellSet = window.getCells();
+		for (AbstractBaseCell header[] : cellSet.getCellSetHeaders()) {
+			rows.add(convert(header, Cell.Type.COLUMN_HEADER));
+		}
+		for (AbstractBaseCell row[] : cellSet.getCellSetBody()) {
+			rows.add(convert(row, Cell.Type.ROW_HEADER));
+		}
+		return new QueryResultWindow(rows, window);
+	}
+
 	private static Cell[] convert(AbstractBaseCell[] acells, Cell.Type headertype) {
 		Cell[]  cells = new Cell[acells.length];
 		for (int i = 0; i < acells.length; i++) {
@@ -0,0 +1,101 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.web.rest.util;
+
+import org.saiku.service.olap.ThinQueryService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes a CSV export straight to the response, either of the last result of a query or of a drillthrough
+ * {@link ResultSet}. Only the current row is held in memory.
+ */
+public class StreamingCsvExport implements StreamingOutput {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingCsvExport.class);
+
+    private final ThinQueryService thinQueryService;
+
+    private final String queryName;
+
+    private final String formatter;
+
+    private final ResultSet resultSet;
+
+    private StreamingCsvExport(ThinQueryService thinQueryService, String queryName, String formatter,
+                               ResultSet resultSet) {
+        this.thinQueryService = thinQueryService;
+        this.queryName = queryName;
+        this.formatter = formatter;
+        this.resultSet = resultSet;
+    }
+
+    /**
+     * Exports the last result of a query.
+     */
+    public static StreamingCsvExport ofQuery(ThinQueryService thinQueryService, String queryName, String formatter) {
+        return new StreamingCsvExport(thinQueryService, queryName, formatter, null);
+    }
+
+    /**
+     * Exports a drillthrough result. The result set and its statement are closed once written.
+     */
+    public static StreamingCsvExport ofResultSet(ThinQueryService thinQueryService, String queryName,
+                                                 ResultSet resultSet) {
+        return new StreamingCsvExport(thinQueryService, queryName, null, resultSet);
+    }
+
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try {
+            if (resultSet != null) {
+                thinQueryService.exportResultSetCsv(resultSet, output);
+            } else {
+                thinQueryService.exportCsv(queryName, formatter, output);
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Cannot stream csv for query (" + queryName + ")", e);
+            throw new WebApplicationException(e);
+        } finally {
+            if (resultSet != null) {
+                close(resultSet);
+            }
+        }
+    }
+
+    private static void close(ResultSet rs) {
+        try {
+            Statement statement = rs.getStatement();
+            rs.close();
+            if (statement != null) {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            log.warn("Cannot close drillthrough result set", e);
+        }
+    }
+}
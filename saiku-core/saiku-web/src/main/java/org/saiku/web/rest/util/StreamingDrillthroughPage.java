@@ -0,0 +1,96 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.web.rest.util;
+
+import org.saiku.service.olap.ThinQueryService;
+import org.saiku.service.olap.drillthrough.DrillthroughCursor;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes the next page of a drill through cursor straight to the response, every row a JSON array of its values as
+ * the cursor reads it:
+ *
+ * <pre>{"id": "...", "first": 0, "rows": [["...", ...], ...], "position": 100, "done": false}</pre>
+ *
+ * <p>Only the current row is held in memory. If the response cannot be written, e.g. because the client went away, the
+ * cursor is closed.</p>
+ */
+public class StreamingDrillthroughPage implements StreamingOutput {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingDrillthroughPage.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final ThinQueryService thinQueryService;
+
+    private final DrillthroughCursor cursor;
+
+    private final int rows;
+
+    /**
+     * @param thinQueryService the service holding the cursor
+     * @param cursor           the cursor to read from
+     * @param rows             the maximum number of rows of the page
+     */
+    public StreamingDrillthroughPage(ThinQueryService thinQueryService, DrillthroughCursor cursor, int rows) {
+        this.thinQueryService = thinQueryService;
+        this.cursor = cursor;
+        this.rows = rows;
+    }
+
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        final JsonGenerator gen = MAPPER.getFactory().createGenerator(output, JsonEncoding.UTF8);
+        try {
+            gen.writeStartObject();
+            gen.writeStringField("id", cursor.getId());
+            gen.writeNumberField("first", cursor.getPosition());
+            gen.writeFieldName("rows");
+            gen.writeStartArray();
+            thinQueryService.fetchDrillthrough(cursor, rows, new DrillthroughCursor.RowHandler() {
+                public void handleRow(String[] row) throws IOException {
+                    gen.writeStartArray();
+                    for (String value : row) {
+                        gen.writeString(value);
+                    }
+                    gen.writeEndArray();
+                }
+            });
+            gen.writeEndArray();
+            gen.writeNumberField("position", cursor.getPosition());
+            gen.writeBooleanField("done", cursor.isDone());
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Cannot read drill through of query (" + cursor.getQueryName() + ")", e);
+            throw new WebApplicationException(e);
+        } finally {
+            gen.close();
+        }
+    }
+}
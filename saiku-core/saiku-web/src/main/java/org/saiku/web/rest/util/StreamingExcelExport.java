@@ -0,0 +1,57 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.web.rest.util;
+
+import org.saiku.service.olap.ThinQueryService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes the Excel export of the last result of a query straight to the response instead of buffering the workbook
+ * in a byte array.
+ */
+public class StreamingExcelExport implements StreamingOutput {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingExcelExport.class);
+
+    private final ThinQueryService thinQueryService;
+
+    private final String queryName;
+
+    private final String formatter;
+
+    public StreamingExcelExport(ThinQueryService thinQueryService, String queryName, String formatter) {
+        this.thinQueryService = thinQueryService;
+        this.queryName = queryName;
+        this.formatter = formatter;
+    }
+
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try {
+            thinQueryService.exportExcel(queryName, formatter, output);
+        } catch (Exception e) {
+            log.error("Cannot stream excel for query (" + queryName + ")", e);
+            throw new WebApplicationException(e);
+        }
+    }
+}
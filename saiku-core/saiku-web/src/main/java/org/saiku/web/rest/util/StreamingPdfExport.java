@@ -0,0 +1,55 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.web.rest.util;
+
+import org.saiku.web.export.PdfReport;
+import org.saiku.web.rest.objects.resultset.QueryResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Writes the PDF export of a result straight to the response while FOP renders it, instead of buffering the document
+ * in a byte array.
+ */
+public class StreamingPdfExport implements StreamingOutput {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingPdfExport.class);
+
+    private final QueryResult queryResult;
+
+    private final String svg;
+
+    public StreamingPdfExport(QueryResult queryResult, String svg) {
+        this.queryResult = queryResult;
+        this.svg = svg;
+    }
+
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try {
+            new PdfReport().createPdf(queryResult, svg, output);
+        } catch (Exception e) {
+            log.error("Cannot stream PDF", e);
+            throw new WebApplicationException(e);
+        }
+    }
+}
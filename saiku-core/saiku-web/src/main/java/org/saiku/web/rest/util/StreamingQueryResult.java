@@ -0,0 +1,231 @@
+/*
+ *   Copyright 2016 OSBI Ltd
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.saiku.web.rest.util;
+
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.DataCell;
+import org.saiku.olap.dto.resultset.MemberCell;
+import org.saiku.olap.query2.ThinQuery;
+import org.saiku.olap.util.formatter.ICellSetRowHandler;
+import org.saiku.service.olap.QueryMetrics;
+import org.saiku.service.olap.ThinQueryService;
+import org.saiku.web.rest.objects.resultset.Cell;
+import org.saiku.web.rest.objects.resultset.QueryResult;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
+
+/**
+ * Writes the result of an executed query as {@link org.saiku.web.rest.objects.resultset.QueryResult} JSON straight
+ * to the response, one row at a time.
+ *
+ * <p>The output is the same JSON as serializing the {@link QueryResult} built by {@link RestUtil#convert(CellDataSet)}:
+ * same fields, same cell types and same cell properties, though the properties of a cell may come in another order.
+ * Only the current row is held in memory, no {@link Cell} objects or property tables are created.</p>
+ */
+public class StreamingQueryResult implements StreamingOutput {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingQueryResult.class);
+
+    private static final ObjectMapper DEFAULT_MAPPER = new ObjectMapper();
+
+    private final ObjectMapper mapper;
+
+    private final ThinQueryService thinQueryService;
+
+    private final String queryName;
+
+    private final String formatter;
+
+    private final long start;
+
+    /**
+     * @param thinQueryService the service holding the executed query
+     * @param queryName        the query whose last result is written
+     * @param formatter        the formatter name
+     * @param start            when the execution started, used for the reported runtime
+     * @param mapper           the mapper of the JSON provider, see {@link #mapper(Providers)}
+     */
+    public StreamingQueryResult(ThinQueryService thinQueryService, String queryName, String formatter, long start,
+                                ObjectMapper mapper) {
+        this.mapper = mapper;
+        this.thinQueryService = thinQueryService;
+        this.queryName = queryName;
+        this.formatter = formatter;
+        this.start = start;
+    }
+
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        final long serialize = System.nanoTime();
+        final JsonGenerator gen = mapper.getFactory().createGenerator(output, JsonEncoding.UTF8);
+        try {
+            gen.writeStartObject();
+            gen.writeFieldName("cellset");
+            gen.writeStartArray();
+            final RowWriter rows = new RowWriter(gen);
+            final CellDataSet result = thinQueryService.getFormattedResult(queryName, formatter, rows);
+            gen.writeEndArray();
+
+            final long runtime = System.currentTimeMillis() - start;
+            final ThinQuery query = thinQueryService.getContext(queryName).getOlapQuery();
+
+            gen.writeFieldName("rowTotalsLists");
+            mapper.writeValue(gen, RestUtil.convertTotals(result.getRowTotalsLists()));
+            gen.writeFieldName("colTotalsLists");
+            mapper.writeValue(gen, RestUtil.convertTotals(result.getColTotalsLists()));
+            gen.writeNumberField("runtime", (int) runtime);
+            gen.writeNullField("error");
+            gen.writeNumberField("height", result.getHeight());
+            gen.writeNumberField("width", result.getWidth());
+            gen.writeFieldName("query");
+            mapper.writeValue(gen, query);
+            gen.writeNumberField("topOffset", result.getTopOffset());
+            gen.writeNumberField("leftOffset", result.getLeftOffset());
+            gen.writeEndObject();
+            gen.flush();
+            // the rows are formatted as they are written, so this counts the formatting too
+            thinQueryService.recordPhase(QueryMetrics.Phase.SERIALIZE, queryName, formatter, serialize);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Cannot stream result of query (" + queryName + ")", e);
+            throw new WebApplicationException(e);
+        } finally {
+            gen.close();
+        }
+    }
+
+    /**
+     * Looks up the mapper the JSON provider writes the other responses with, so that the streamed result has the same
+     * Jackson configuration. Without a registered <code>ContextResolver&lt;ObjectMapper&gt;</code> the provider uses a
+     * default mapper, and so does this.
+     */
+    public static ObjectMapper mapper(Providers providers) {
+        if (providers != null) {
+            final ContextResolver<ObjectMapper> resolver =
+                providers.getContextResolver(ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE);
+            final ObjectMapper mapper = resolver != null ? resolver.getContext(QueryResult.class) : null;
+            if (mapper != null) {
+                return mapper;
+            }
+        }
+        return DEFAULT_MAPPER;
+    }
+
+    /**
+     * Writes every row as a JSON array of cells.
+     */
+    private static class RowWriter implements ICellSetRowHandler {
+
+        private final JsonGenerator gen;
+
+        RowWriter(JsonGenerator gen) {
+            this.gen = gen;
+        }
+
+        public void handleRow(AbstractBaseCell[] row, boolean header) throws IOException {
+            final Cell.Type headertype = header ? Cell.Type.COLUMN_HEADER : Cell.Type.ROW_HEADER;
+            gen.writeStartArray();
+            for (AbstractBaseCell acell : row) {
+                if (acell instanceof DataCell) {
+                    writeDataCell((DataCell) acell);
+                } else if (acell instanceof MemberCell) {
+                    writeMemberCell((MemberCell) acell, headertype);
+                } else {
+                    gen.writeNull();
+                }
+            }
+            gen.writeEndArray();
+        }
+
+        // the fields RestUtil.convert(AbstractBaseCell, Cell.Type) puts into the properties of a data cell, in a fixed
+        // order; a cell property with the same name replaces the position or the raw value there, so it does here
+        private void writeDataCell(DataCell dcell) throws IOException {
+            final Map<String, String> properties = dcell.getProperties();
+            startCell(dcell.getFormattedValue(), Cell.Type.DATA_CELL);
+            if (!properties.containsKey("position")) {
+                StringBuilder position = null;
+                for (Integer number : dcell.getCoordinates()) {
+                    if (position != null) {
+                        position.append(':').append(number);
+                    } else {
+                        position = new StringBuilder().append(number);
+                    }
+                }
+                if (position != null) {
+                    gen.writeStringField("position", position.toString());
+                }
+            }
+            if (dcell.getRawNumber() != null && !properties.containsKey("raw")) {
+                gen.writeStringField("raw", "" + dcell.getRawNumber());
+            }
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                gen.writeStringField(entry.getKey(), entry.getValue());
+            }
+            endCell();
+        }
+
+        private void writeMemberCell(MemberCell mcell, Cell.Type headertype) throws IOException {
+            Cell.Type type = headertype;
+            if ("row_header_header".equals(mcell.getProperty("__headertype"))) {
+                type = Cell.Type.ROW_HEADER_HEADER;
+            }
+            startCell("" + mcell.getFormattedValue(), type);
+            if (mcell.getParentDimension() != null) {
+                gen.writeStringField("dimension", mcell.getParentDimension());
+            }
+            if (mcell.getUniqueName() != null) {
+                gen.writeStringField("uniquename", mcell.getUniqueName());
+            }
+            if (mcell.getHierarchy() != null) {
+                gen.writeStringField("hierarchy", mcell.getHierarchy());
+            }
+            if (mcell.getLevel() != null) {
+                gen.writeStringField("level", mcell.getLevel());
+            }
+            endCell();
+        }
+
+        // same layout as the Cell bean: value, type, properties; the caller writes the properties
+        private void startCell(String value, Cell.Type type) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("value", value);
+            gen.writeStringField("type", type.toString());
+            gen.writeFieldName("properties");
+            gen.writeStartObject();
+        }
+
+        private void endCell() throws IOException {
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+    }
+}
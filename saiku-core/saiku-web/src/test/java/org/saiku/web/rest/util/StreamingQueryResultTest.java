@@ -0,0 +1,139 @@
+package org.saiku.web.rest.util;
+
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.DataCell;
+import org.saiku.olap.dto.resultset.MemberCell;
+import org.saiku.olap.query2.ThinQuery;
+import org.saiku.olap.util.formatter.ICellSetRowHandler;
+import org.saiku.service.olap.ThinQueryService;
+import org.saiku.service.util.QueryContext;
+import org.saiku.web.rest.objects.resultset.QueryResult;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StreamingQueryResultTest
+{
+    private static final String QUERY = "sales";
+
+    private static final String FORMATTER = "flattened";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void shouldWriteTheSameJsonAsTheConvertedResult() throws Exception
+    {
+        CellDataSet result = cellDataSet();
+        ThinQuery query = new ThinQuery(QUERY,
+            new SaikuCube("foodmart", "[Sales]", "Sales", "Sales", "FoodMart", "FoodMart"),
+            "SELECT [Measures].[Unit Sales] ON COLUMNS, [Store].[Store Country].Members ON ROWS FROM [Sales]");
+
+        QueryResult converted = RestUtil.convert(result);
+        converted.setQuery(query);
+        JsonNode expected = mapper.readTree(mapper.writeValueAsString(converted));
+        // a property written twice would otherwise be read as its last value
+        JsonNode streamed = mapper.copy().enable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION)
+            .readTree(stream(result, query));
+
+        // the streamed runtime is measured while writing, the converted one is the runtime of the result
+        assertTrue(((ObjectNode) streamed).remove("runtime").isInt());
+        ((ObjectNode) expected).remove("runtime");
+        assertEquals(expected, streamed);
+        assertEquals("sales", streamed.get("query").get("name").asText());
+        assertEquals(expected.get("query"), mapper.readTree(mapper.writeValueAsString(query)));
+    }
+
+    private byte[] stream(final CellDataSet result, ThinQuery query) throws Exception
+    {
+        ThinQueryService service = mock(ThinQueryService.class);
+        when(service.getFormattedResult(eq(QUERY), eq(FORMATTER), any(ICellSetRowHandler.class))).thenAnswer(
+            new Answer<CellDataSet>()
+            {
+                public CellDataSet answer(InvocationOnMock invocation) throws Throwable
+                {
+                    ICellSetRowHandler handler = (ICellSetRowHandler) invocation.getArguments()[2];
+                    for (AbstractBaseCell[] row : result.getCellSetHeaders()) {
+                        handler.handleRow(row, true);
+                    }
+                    for (AbstractBaseCell[] row : result.getCellSetBody()) {
+                        handler.handleRow(row, false);
+                    }
+                    return result;
+                }
+            });
+        when(service.getContext(QUERY)).thenReturn(new QueryContext(QueryContext.Type.OLAP, query));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StreamingQueryResult(service, QUERY, FORMATTER, System.currentTimeMillis(), mapper).write(output);
+        return output.toByteArray();
+    }
+
+    /**
+     * A flattened result with a row header header, three row members, a data cell with cell properties, one with a
+     * property replacing its raw value and an empty cell.
+     */
+    private static CellDataSet cellDataSet()
+    {
+        MemberCell corner = new MemberCell(false, false);
+        corner.setFormattedValue("Store Country");
+        corner.setProperty("__headertype", "row_header_header");
+        corner.setHierarchy("[Store]");
+        corner.setParentDimension("Store");
+        corner.setLevel("[Store].[Store Country]");
+        MemberCell measure = member("Unit Sales", "Measures", "[Measures].[Unit Sales]", "[Measures]",
+            "[Measures].[MeasuresLevel]");
+
+        DataCell canada = new DataCell(true, false, Arrays.asList(0, 0));
+        canada.setFormattedValue("");
+        DataCell usa = new DataCell(true, false, Arrays.asList(0, 1));
+        usa.setFormattedValue("266,773");
+        usa.setRawNumber(266773.0);
+        usa.setProperties(Collections.singletonMap("style", "green"));
+        DataCell mexico = new DataCell(true, false, Arrays.asList(0, 2));
+        mexico.setFormattedValue("1");
+        mexico.setRawNumber(1.0);
+        mexico.setProperty("raw", "0.9");
+
+        CellDataSet result = new CellDataSet(2, 4);
+        result.setCellSetHeaders(new AbstractBaseCell[][] { { corner, measure } });
+        result.setCellSetBody(new AbstractBaseCell[][] {
+            { member("Canada", "Store", "[Store].[Canada]", "[Store]", "[Store].[Store Country]"), canada },
+            { member("USA", "Store", "[Store].[USA]", "[Store]", "[Store].[Store Country]"), usa },
+            { member("Mexico", "Store", "[Store].[Mexico]", "[Store]", "[Store].[Store Country]"), mexico } });
+        result.setLeftOffset(1);
+        result.setTopOffset(1);
+        result.setRuntime(12);
+        return result;
+    }
+
+    private static MemberCell member(String caption, String dimension, String uniqueName, String hierarchy,
+                                     String level)
+    {
+        MemberCell cell = new MemberCell(false, false);
+        cell.setFormattedValue(caption);
+        cell.setParentDimension(dimension);
+        cell.setUniquename(uniqueName);
+        cell.setHierarchy(hierarchy);
+        cell.setLevel(level);
+        return cell;
+    }
+}
@@ -143,7 +143,15 @@ var Repository = Backbone.Collection.extend({
 
 var RepositoryLazyLoad = Backbone.Model.extend({    
     url: function() {
-        var segment = repoPathUrl() + '?type=' + (this.type ? this.type : 'saiku,sdb') + '&path=' + this.path;
+        var segment;
+        if (Settings.BIPLUGIN) {
+            segment = repoPathUrl() + '?type=' + (this.type ? this.type : 'saiku,sdb') + '&path=' + this.path;
+        }
+        else {
+            // only the children of the folder, not everything below it
+            segment = repoPathUrl() + '/children?type=' + (this.type ? this.type : 'saiku,sdb') +
+                '&path=' + encodeURIComponent(this.path) + '&limit=0';
+        }
         return segment;
     },
 
@@ -156,6 +164,9 @@ var RepositoryLazyLoad = Backbone.Model.extend({
     },
 
     parse: function(response) {
+        if (response && response.repoObjects) {
+            response = response.repoObjects;
+        }
         if (this.dialog) {
             this.dialog.populate_lazyload(this.folder, response);
         }